@@ -23,16 +23,34 @@ public class Options extends Properties {
 		defaults.setProperty("pow.averageNonceTrialsPerByte", 320);
 		defaults.setProperty("pow.payloadLengthExtraBytes", 14_000);
 		defaults.setProperty("pow.systemLoad", 0.5f);
-		defaults.setProperty("pow.iterationfactor", 100);
 		defaults.setProperty("network.connectTimeout", 5_000);
-		defaults.setProperty("network.timeout", 10_000);
+		defaults.setProperty("network.maxPendingConnections", 16);
+		defaults.setProperty("network.dialInterval", 1_000); // Milliseconds
+		defaults.setProperty("network.dialBackoff", 30_000L); // Milliseconds
+		defaults.setProperty("network.maxDialBackoff", 3_600_000L); // Milliseconds
+		defaults.setProperty("network.sendDelay", 5); // Milliseconds
 		defaults.setProperty("network.listenPort", 8443);
+		defaults.setProperty("network.eventLoops", Runtime.getRuntime().availableProcessors());
+		defaults.setProperty("network.verifierThreads", Runtime.getRuntime().availableProcessors());
+		defaults.setProperty("network.maxPendingObjects", 64); // Per connection
+		defaults.setProperty("network.maxPendingBytes", 16L * 1024 * 1024); // Per connection
+		defaults.setProperty("network.maxQueuedBytes", 4L * 1024 * 1024); // Per connection
+		defaults.setProperty("network.lookupThreads", 2);
+		defaults.setProperty("network.requestTimeout", 30_000); // Milliseconds
+		defaults.setProperty("network.maxRequestsPerConnection", 1_000);
+		defaults.setProperty("network.parserThreads", Runtime.getRuntime().availableProcessors());
+		defaults.setProperty("network.parserQueueSize", 256);
+		defaults.setProperty("network.frameCacheSize", 16L * 1024 * 1024); // Bytes
 		defaults.setProperty("network.passiveMode.maxConnections", 8);
 		defaults.setProperty("network.activeMode.maxConnections", 16);
 		defaults.setProperty("network.activeMode.stopListenConnectionCount", 32);
 		defaults.setProperty("network.userAgent",
 				"/" + defaults.getString("global.name") + ":" + defaults.getString("global.version") + "/");
 		defaults.setProperty("data.maxNodeStorageTime", 3600 * 3); // Seconds
+		defaults.setProperty("data.syncInterval", 1_000); // Milliseconds
+		defaults.setProperty("data.cacheSize", 64L * 1024 * 1024); // Bytes
+		defaults.setProperty("data.cachePolicy", "TINY_LFU"); // LRU or TINY_LFU
+		defaults.setProperty("data.cacheSegments", 16); // Each gets an equal share of the size
 	}
 
 	private static final Options instance = new Options(defaults);
@@ -0,0 +1,45 @@
+package sibbo.bitmessage.crypt;
+
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * An address that belongs to some data, for example the address whose key
+ * decrypted a message and the plain text.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class AddressDataPair {
+	private static final Logger LOG = Logger.getLogger(AddressDataPair.class.getName());
+
+	/** The address. */
+	private BMAddress address;
+
+	/** The data. */
+	private byte[] data;
+
+	/**
+	 * Creates a new address-data pair with the given address and data.
+	 * 
+	 * @param address
+	 *            The address.
+	 * @param data
+	 *            The data.
+	 */
+	public AddressDataPair(BMAddress address, byte[] data) {
+		Objects.requireNonNull(address, "address must not be null.");
+		Objects.requireNonNull(data, "data must not be null.");
+
+		this.address = address;
+		this.data = data;
+	}
+
+	public BMAddress getAddress() {
+		return address;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+}
@@ -76,6 +76,30 @@ public class BMAddress {
 		this.ripe = ripe;
 	}
 
+	/**
+	 * Creates a new bitmessage key with the given parameters. The key created
+	 * can be used for encryption.
+	 * 
+	 * @param publicSigningKey
+	 *            The public signing key.
+	 * @param publicEncryptionKey
+	 *            The public encryption key.
+	 * @param privateSigningKey
+	 *            The private signing key.
+	 * @param privateEncryptionKey
+	 *            The private encryption key.
+	 */
+	public BMAddress(JCEECPublicKey publicSigningKey, JCEECPublicKey publicEncryptionKey,
+			JCEECPrivateKey privateSigningKey, JCEECPrivateKey privateEncryptionKey) {
+		this(publicSigningKey, publicEncryptionKey);
+
+		Objects.requireNonNull(privateSigningKey, "privateSigningKey must not be null.");
+		Objects.requireNonNull(privateEncryptionKey, "privateEncryptionKey must not be null.");
+
+		this.privateSigningKey = privateSigningKey;
+		this.privateEncryptionKey = privateEncryptionKey;
+	}
+
 	public JCEECPublicKey getPublicSigningKey() {
 		return publicSigningKey;
 	}
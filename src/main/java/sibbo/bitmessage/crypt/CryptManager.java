@@ -6,6 +6,7 @@ import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
@@ -15,6 +16,7 @@ import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,12 +68,59 @@ public final class CryptManager {
 	}
 
 	public boolean checkMac(EncryptedMessage encrypted, ECPrivateKey key) {
-		ECPoint point = encrypted.getPublicKey().getQ().multiply(key.getD());
+		return checkMac(encrypted, deriveKey(encrypted.getPublicKey().getQ().multiply(key.getD())));
+	}
 
-		byte[] tmpKey = Digest.sha512(Util.getUnsignedBytes(point.getX().toBigInteger(), 32));
+	/**
+	 * Checks the mac of the given data with the mac key contained in the
+	 * derived key.
+	 * 
+	 * @param encrypted
+	 *            The data.
+	 * @param tmpKey
+	 *            The 512 bit key derived from the shared secret.
+	 * @return True if the mac is valid.
+	 */
+	boolean checkMac(EncryptedMessage encrypted, byte[] tmpKey) {
 		byte[] key_m = Arrays.copyOfRange(tmpKey, 32, 64);
 
-		return Arrays.equals(encrypted.getMac(), Digest.hmacSHA256(encrypted.getEncrypted(), key_m));
+		return MessageDigest.isEqual(encrypted.getMac(), Digest.hmacSHA256(encrypted.getEncrypted(), key_m));
+	}
+
+	/**
+	 * Tries to decrypt the given data with the private encryption keys of the
+	 * given addresses. For every address the shared secret is derived once and
+	 * used to check the mac. The data is only decrypted with the key of the
+	 * first address whose mac matches. Addresses without private encryption
+	 * key are skipped.
+	 * 
+	 * @param encrypted
+	 *            The data to decrypt.
+	 * @param identities
+	 *            The addresses to try.
+	 * @return The address that could decrypt the data and the plain text or
+	 *         null if none of the addresses could decrypt the data.
+	 */
+	public AddressDataPair tryDecrypt(EncryptedMessage encrypted, Collection<BMAddress> identities) {
+		ECPoint ephemeral = encrypted.getPublicKey().getQ();
+
+		for (BMAddress a : identities) {
+			ECPrivateKey key = a.getPrivateEncryptionKey();
+
+			if (key == null) {
+				continue;
+			}
+
+			byte[] tmpKey = deriveKey(ephemeral.multiply(key.getD()));
+
+			if (checkMac(encrypted, tmpKey)) {
+				byte[] plain = decrypt(encrypted, tmpKey);
+
+				return plain == null ? null : new AddressDataPair(a, plain);
+			}
+		}
+
+		return null;
 	}
 
 	/**
@@ -84,10 +133,28 @@ public final class CryptManager {
 	 * @return True if the pow is sufficient.
 	 */
 	public boolean checkPOW(byte[] data, byte[] nonce) {
-		byte[] initialHash = Digest.sha512(data);
-		byte[] hash = Digest.sha512(Digest.sha512(nonce, initialHash));
-		long value = Util.getLong(hash);
-		long target = getPOWTarget(data.length);
+		return checkPOW(data, 0, data.length, Util.getLong(nonce));
+	}
+
+	/**
+	 * Checks if the proof of work done for the given object is sufficient.
+	 * 
+	 * @param object
+	 *            The object as it is sent over the network: The 8 byte nonce
+	 *            followed by the data.
+	 * @return True if the pow is sufficient.
+	 */
+	public boolean checkPOW(byte[] object) {
+		if (object.length < 8) {
+			return false;
+		}
+
+		return checkPOW(object, 8, object.length - 8, Util.getLong(object, 0));
+	}
+
+	private boolean checkPOW(byte[] data, int offset, int length, long nonce) {
+		long value = new POWKernel(Digest.sha512(data, offset, length)).trialValue(nonce);
+		long target = getPOWTarget(length);
 
 		return value >= 0 && target >= value;
 	}
@@ -140,14 +207,23 @@ public final class CryptManager {
 	 *         the decrypted data.
 	 */
 	public byte[] decrypt(EncryptedMessage encrypted, ECPrivateKey key) {
-		ECPoint point = encrypted.getPublicKey().getQ().multiply(key.getD());
+		return decrypt(encrypted, deriveKey(encrypted.getPublicKey().getQ().multiply(key.getD())));
+	}
 
-		byte[] tmpKey = Digest.sha512(Util.getUnsignedBytes(point.getX().toBigInteger(), 32));
+	/**
+	 * Decrypts the given data with the encryption key contained in the derived
+	 * key.
+	 * 
+	 * @param encrypted
+	 *            The data to decrypt.
+	 * @param tmpKey
+	 *            The 512 bit key derived from the shared secret.
+	 * @return The decrypted data.
+	 */
+	byte[] decrypt(EncryptedMessage encrypted, byte[] tmpKey) {
 		byte[] key_e = Arrays.copyOf(tmpKey, 32);
 
-		byte[] plain = doAES(key_e, encrypted.getIV(), encrypted.getEncrypted(), false);
-
-		return plain;
+		return doAES(key_e, encrypted.getIV(), encrypted.getEncrypted(), false);
 	}
 
 	/**
@@ -158,7 +234,18 @@ public final class CryptManager {
 	 * @return A 512 bit key.
 	 */
 	private byte[] deriveKey(ECPoint p) {
-		return Digest.sha512(Util.getUnsignedBytes(p.getX().toBigInteger(), 32));
+		return deriveKey(p.getX().toBigInteger());
+	}
+
+	/**
+	 * Derives a 512 bit key from the given x coordinate of an ECPoint.
+	 * 
+	 * @param x
+	 *            The x coordinate.
+	 * @return A 512 bit key.
+	 */
+	byte[] deriveKey(BigInteger x) {
+		return Digest.sha512(Util.getUnsignedBytes(x, 32));
 	}
 
 	/**
@@ -203,9 +290,26 @@ public final class CryptManager {
 	 * @return
 	 */
 	public byte[] doPOW(byte[] payload) {
-		POWCalculator pow = new POWCalculator(getPOWTarget(payload.length), Digest.sha512(payload), Options
-				.getInstance().getInt("pow.systemLoad"));
-		return pow.execute();
+		try {
+			return submitPOW(payload, POWService.Priority.NORMAL).get();
+		} catch (InterruptedException e) {
+			LOG.log(Level.SEVERE, "Waiting interrupted!", e);
+			System.exit(1);
+			return null;
+		}
+	}
+
+	/**
+	 * Queues the POW for the given payload at the POW service.
+	 * 
+	 * @param payload
+	 *            The payload.
+	 * @param priority
+	 *            The priority of the calculation.
+	 * @return The job that completes with the nonce.
+	 */
+	public POWJob submitPOW(byte[] payload, POWService.Priority priority) {
+		return POWService.getInstance().submit(Digest.sha512(payload), getPOWTarget(payload.length), priority);
 	}
 
 	/**
@@ -265,18 +369,22 @@ public final class CryptManager {
 	 * @return The POW target for a message with the given length.
 	 */
 	public long getPOWTarget(int length) {
-		// // Testing:
-		// return (long) Math.pow(2, 60);
-
-		BigInteger powTarget = BigInteger.valueOf(2);
-		powTarget = powTarget.pow(64);
-		powTarget = powTarget.divide(BigInteger.valueOf((length
-				+ Options.getInstance().getInt("pow.payloadLengthExtraBytes") + 8)
-				* Options.getInstance().getInt("pow.averageNonceTrialsPerByte")));
+		long divisor = (length + Options.getInstance().getLong("pow.payloadLengthExtraBytes") + 8)
+				* Options.getInstance().getLong("pow.averageNonceTrialsPerByte");
 
+		// 2^64 / divisor without BigInteger: 2^63 = Long.MAX_VALUE + 1 is
+		// divided first, then the quotient and the remainder are doubled.
 		// Note that we are dividing through at least 8, so that the value is
 		// smaller than 2^61 and fits perfectly into a long.
-		return powTarget.longValue();
+		long quotient = Long.MAX_VALUE / divisor;
+		long remainder = Long.MAX_VALUE % divisor + 1;
+
+		if (remainder == divisor) {
+			quotient++;
+			remainder = 0;
+		}
+
+		return 2 * quotient + 2 * remainder / divisor;
 	}
 
 	public boolean initialize() {
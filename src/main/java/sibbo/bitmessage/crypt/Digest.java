@@ -1,22 +1,14 @@
 package sibbo.bitmessage.crypt;
 
-import java.security.InvalidKeyException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.util.Arrays;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
 import org.bouncycastle.jce.interfaces.ECPublicKey;
 
 import sibbo.bitmessage.network.protocol.Util;
 
 /**
- * Provides easy access for several hash-functions.
+ * Provides easy access for several hash-functions. All methods use the
+ * {@link DigestContext} of the calling thread.
  * 
  * @author Sebastian Schmidt
  * @version 1.0
@@ -34,15 +26,7 @@ public final class Digest {
 	 * @return The HmacSHA256.
 	 */
 	public static byte[] hmacSHA256(byte[] data, byte[] key) {
-		try {
-			Mac mac = Mac.getInstance("HmacSHA256", "BC");
-			mac.init(new SecretKeySpec(key, "HmacSHA256"));
-			return mac.doFinal(data);
-		} catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException e) {
-			LOG.log(Level.SEVERE, "Could not generate HMAC.", e);
-			System.exit(1);
-			return null;
-		}
+		return DigestContext.get().hmacSHA256(data, key);
 	}
 
 	/**
@@ -55,7 +39,9 @@ public final class Digest {
 	 * @return The digest of the given key pair.
 	 */
 	public static byte[] keyDigest(ECPublicKey publicSigningKey, ECPublicKey publicEncryptionKey) {
-		return ripemd160(sha512(Util.getBytes(publicSigningKey), Util.getBytes(publicEncryptionKey)));
+		DigestContext c = DigestContext.get();
+
+		return c.ripemd160(c.sha512(Util.getBytes(publicSigningKey), Util.getBytes(publicEncryptionKey)));
 	}
 
 	/**
@@ -66,17 +52,7 @@ public final class Digest {
 	 * @return The ripemd160 sum of the given data.
 	 */
 	public static byte[] ripemd160(byte[] data) {
-		MessageDigest ripemd160;
-
-		try {
-			ripemd160 = MessageDigest.getInstance("ripemd160");
-
-			return ripemd160.digest(data);
-		} catch (NoSuchAlgorithmException e) {
-			LOG.log(Level.SEVERE, "ripemd160 not supported!", e);
-			System.exit(1);
-			return null;
-		}
+		return DigestContext.get().ripemd160(data);
 	}
 
 	/**
@@ -87,7 +63,7 @@ public final class Digest {
 	 * @return The sha512 sum of {@code bytes}.
 	 */
 	public static byte[] sha512(byte[] data) {
-		return sha512(data, 64);
+		return DigestContext.get().sha512(data);
 	}
 
 	/**
@@ -98,21 +74,26 @@ public final class Digest {
 	 * @return The sha512 sum of all given bytes.
 	 */
 	public static byte[] sha512(byte[]... data) {
-		MessageDigest sha512;
-
-		try {
-			sha512 = MessageDigest.getInstance("SHA-512");
+		return DigestContext.get().sha512(data);
+	}
 
-			for (byte[] bytes : data) {
-				sha512.update(bytes);
-			}
+	/**
+	 * Returns the sha512 sum of {@code length} bytes of {@code data} starting
+	 * at {@code offset}.
+	 * 
+	 * @param data
+	 *            The input for sha512.
+	 * @param offset
+	 *            The first byte to hash.
+	 * @param length
+	 *            The amount of bytes to hash.
+	 * @return The sha512 sum of the given range.
+	 */
+	public static byte[] sha512(byte[] data, int offset, int length) {
+		byte[] sum = new byte[DigestContext.SHA512_LENGTH];
+		DigestContext.get().sha512(data, offset, length, sum, 0);
 
-			return sha512.digest();
-		} catch (NoSuchAlgorithmException e) {
-			LOG.log(Level.SEVERE, "SHA-512 not supported!", e);
-			System.exit(1);
-			return null;
-		}
+		return sum;
 	}
 
 	/**
@@ -127,17 +108,10 @@ public final class Digest {
 	 *         {@code bytes}..
 	 */
 	public static byte[] sha512(byte[] bytes, int digestLength) {
-		MessageDigest sha512;
+		byte[] sum = new byte[digestLength];
+		DigestContext.get().sha512(bytes, 0, bytes.length, sum, 0, digestLength);
 
-		try {
-			sha512 = MessageDigest.getInstance("SHA-512");
-			byte[] sum = sha512.digest(bytes);
-			return Arrays.copyOf(sum, digestLength);
-		} catch (NoSuchAlgorithmException e) {
-			LOG.log(Level.SEVERE, "SHA-512 not supported!", e);
-			System.exit(1);
-			return null;
-		}
+		return sum;
 	}
 
 	/** Utility class */
@@ -0,0 +1,313 @@
+package sibbo.bitmessage.crypt;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The digests and macs of one thread. Looking up an algorithm at its provider
+ * and initializing it costs more than hashing a few hundred bytes, so every
+ * thread gets one context with one instance of every algorithm that is reused
+ * for all calls of that thread.<br />
+ * Besides the usual methods that return a new array, there are methods that
+ * hash a range of an array or the remaining bytes of a ByteBuffer and write
+ * the result into an array supplied by the caller, so hot paths don't
+ * allocate.
+ * 
+ * A context must only be used by the thread that got it from {@link #get()}.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public final class DigestContext {
+	private static final Logger LOG = Logger.getLogger(DigestContext.class.getName());
+
+	/** The length of a sha512 sum in bytes. */
+	public static final int SHA512_LENGTH = 64;
+
+	/** The length of a ripemd160 sum in bytes. */
+	public static final int RIPEMD160_LENGTH = 20;
+
+	/** The length of a HmacSHA256 in bytes. */
+	public static final int HMAC_SHA256_LENGTH = 32;
+
+	private static final ThreadLocal<DigestContext> contexts = new ThreadLocal<DigestContext>() {
+		@Override
+		protected DigestContext initialValue() {
+			return new DigestContext();
+		}
+	};
+
+	private final MessageDigest sha512;
+
+	/*
+	 * Created on first use, as ripemd160 is provided by BouncyCastle, which is
+	 * registered by the CryptManager.
+	 */
+	private MessageDigest ripemd160;
+	private Mac hmacSHA256;
+
+	/** Receives intermediate sums. */
+	private final byte[] buffer = new byte[SHA512_LENGTH];
+
+	/**
+	 * Returns the context of the current thread.
+	 * 
+	 * @return The context of the current thread.
+	 */
+	public static DigestContext get() {
+		return contexts.get();
+	}
+
+	private DigestContext() {
+		MessageDigest sha512 = null;
+
+		try {
+			sha512 = MessageDigest.getInstance("SHA-512");
+		} catch (NoSuchAlgorithmException e) {
+			LOG.log(Level.SEVERE, "SHA-512 not supported!", e);
+			System.exit(1);
+		}
+
+		this.sha512 = sha512;
+	}
+
+	/**
+	 * Returns the sha512 sum of all given bytes.
+	 * 
+	 * @param data
+	 *            The bytes.
+	 * @return The sha512 sum of all given bytes.
+	 */
+	public byte[] sha512(byte[]... data) {
+		for (byte[] bytes : data) {
+			sha512.update(bytes);
+		}
+
+		return sha512.digest();
+	}
+
+	/**
+	 * Writes the sha512 sum of the given range to out.
+	 * 
+	 * @param data
+	 *            The input for sha512.
+	 * @param offset
+	 *            The first byte to hash.
+	 * @param length
+	 *            The amount of bytes to hash.
+	 * @param out
+	 *            Receives the 64 byte sum.
+	 * @param outOffset
+	 *            The position of the sum in out.
+	 */
+	public void sha512(byte[] data, int offset, int length, byte[] out, int outOffset) {
+		sha512.update(data, offset, length);
+		finish(sha512, out, outOffset);
+	}
+
+	/**
+	 * Writes the first {@code outLength} bytes of the sha512 sum of the given
+	 * range to out.
+	 * 
+	 * @param data
+	 *            The input for sha512.
+	 * @param offset
+	 *            The first byte to hash.
+	 * @param length
+	 *            The amount of bytes to hash.
+	 * @param out
+	 *            Receives the sum.
+	 * @param outOffset
+	 *            The position of the sum in out.
+	 * @param outLength
+	 *            The amount of bytes of the sum to write. At most 64.
+	 */
+	public void sha512(byte[] data, int offset, int length, byte[] out, int outOffset, int outLength) {
+		sha512(data, offset, length, buffer, 0);
+		System.arraycopy(buffer, 0, out, outOffset, outLength);
+	}
+
+	/**
+	 * Writes the sha512 sum of the remaining bytes of the given buffer to out.
+	 * The position of the buffer is not changed.
+	 * 
+	 * @param data
+	 *            The input for sha512.
+	 * @param out
+	 *            Receives the 64 byte sum.
+	 * @param outOffset
+	 *            The position of the sum in out.
+	 */
+	public void sha512(ByteBuffer data, byte[] out, int outOffset) {
+		int position = data.position();
+		sha512.update(data);
+		data.position(position);
+		finish(sha512, out, outOffset);
+	}
+
+	/**
+	 * Writes the first {@code outLength} bytes of sha512(sha512(data)) to out,
+	 * which is how the hash of an object is calculated.
+	 * 
+	 * @param data
+	 *            The input.
+	 * @param offset
+	 *            The first byte to hash.
+	 * @param length
+	 *            The amount of bytes to hash.
+	 * @param out
+	 *            Receives the sum.
+	 * @param outOffset
+	 *            The position of the sum in out.
+	 * @param outLength
+	 *            The amount of bytes of the sum to write. At most 64.
+	 */
+	public void doubleSha512(byte[] data, int offset, int length, byte[] out, int outOffset, int outLength) {
+		sha512.update(data, offset, length);
+		finish(sha512, buffer, 0);
+		sha512.update(buffer);
+		finish(sha512, buffer, 0);
+		System.arraycopy(buffer, 0, out, outOffset, outLength);
+	}
+
+	/**
+	 * Returns the first four bytes of the sha512 sum of the given range as an
+	 * int, which is the checksum of a message.
+	 * 
+	 * @param data
+	 *            The input.
+	 * @param offset
+	 *            The first byte to hash.
+	 * @param length
+	 *            The amount of bytes to hash.
+	 * @return The first four bytes of the sum in big endian order.
+	 */
+	public int checksum(byte[] data, int offset, int length) {
+		sha512(data, offset, length, buffer, 0);
+
+		return (buffer[0] & 0xFF) << 24 | (buffer[1] & 0xFF) << 16 | (buffer[2] & 0xFF) << 8 | (buffer[3] & 0xFF);
+	}
+
+	/**
+	 * Returns the first four bytes of the sha512 sum of the remaining bytes of
+	 * the given buffer. The position of the buffer is not changed.
+	 * 
+	 * @param data
+	 *            The input.
+	 * @return The first four bytes of the sum in big endian order.
+	 */
+	public int checksum(ByteBuffer data) {
+		sha512(data, buffer, 0);
+
+		return (buffer[0] & 0xFF) << 24 | (buffer[1] & 0xFF) << 16 | (buffer[2] & 0xFF) << 8 | (buffer[3] & 0xFF);
+	}
+
+	/**
+	 * Returns the ripemd160 sum of the given data.
+	 * 
+	 * @param data
+	 *            The data.
+	 * @return The ripemd160 sum of the given data.
+	 */
+	public byte[] ripemd160(byte[] data) {
+		return ripemd160().digest(data);
+	}
+
+	/**
+	 * Writes the ripemd160 sum of the given range to out.
+	 * 
+	 * @param data
+	 *            The data.
+	 * @param offset
+	 *            The first byte to hash.
+	 * @param length
+	 *            The amount of bytes to hash.
+	 * @param out
+	 *            Receives the 20 byte sum.
+	 * @param outOffset
+	 *            The position of the sum in out.
+	 */
+	public void ripemd160(byte[] data, int offset, int length, byte[] out, int outOffset) {
+		MessageDigest ripemd160 = ripemd160();
+		ripemd160.update(data, offset, length);
+		finish(ripemd160, out, outOffset);
+	}
+
+	private MessageDigest ripemd160() {
+		if (ripemd160 == null) {
+			try {
+				ripemd160 = MessageDigest.getInstance("ripemd160");
+			} catch (NoSuchAlgorithmException e) {
+				LOG.log(Level.SEVERE, "ripemd160 not supported!", e);
+				System.exit(1);
+			}
+		}
+
+		return ripemd160;
+	}
+
+	/**
+	 * Calculates the HmacSHA256 from the given key and data.
+	 * 
+	 * @param data
+	 *            The data.
+	 * @param key
+	 *            The key.
+	 * @return The HmacSHA256.
+	 */
+	public byte[] hmacSHA256(byte[] data, byte[] key) {
+		byte[] out = new byte[HMAC_SHA256_LENGTH];
+		hmacSHA256(data, 0, data.length, key, out, 0);
+
+		return out;
+	}
+
+	/**
+	 * Writes the HmacSHA256 of the given range to out.
+	 * 
+	 * @param data
+	 *            The data.
+	 * @param offset
+	 *            The first byte of the data.
+	 * @param length
+	 *            The amount of bytes.
+	 * @param key
+	 *            The key.
+	 * @param out
+	 *            Receives the 32 byte mac.
+	 * @param outOffset
+	 *            The position of the mac in out.
+	 */
+	public void hmacSHA256(byte[] data, int offset, int length, byte[] key, byte[] out, int outOffset) {
+		try {
+			if (hmacSHA256 == null) {
+				hmacSHA256 = Mac.getInstance("HmacSHA256");
+			}
+
+			hmacSHA256.init(new SecretKeySpec(key, "HmacSHA256"));
+			hmacSHA256.update(data, offset, length);
+			hmacSHA256.doFinal(out, outOffset);
+		} catch (NoSuchAlgorithmException | InvalidKeyException | ShortBufferException e) {
+			LOG.log(Level.SEVERE, "Could not generate HMAC.", e);
+			System.exit(1);
+		}
+	}
+
+	private static void finish(MessageDigest digest, byte[] out, int outOffset) {
+		try {
+			digest.digest(out, outOffset, digest.getDigestLength());
+		} catch (DigestException e) {
+			LOG.log(Level.SEVERE, "Could not calculate digest.", e);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package sibbo.bitmessage.crypt;
+
+import java.math.BigInteger;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+import sibbo.bitmessage.network.protocol.Util;
+
+/**
+ * Multiplies a fixed point with many scalars. The table contains d * 16^i * P
+ * for every 4 bit window i of a 256 bit scalar and every digit d, so a
+ * multiplication is the sum of one table entry per window and needs no
+ * doublings. The sum is accumulated in jacobian coordinates, which needs a
+ * single inversion at the end instead of one per addition.<br />
+ * Building the table costs a few ordinary multiplications, so it only pays
+ * off if the same point is multiplied with several scalars, like the
+ * ephemeral key of a message that is tried with many private keys.
+ * 
+ * A table is immutable and can be used by several threads.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+class FixedBaseTable {
+	private static final Logger LOG = Logger.getLogger(FixedBaseTable.class.getName());
+
+	/** The bits per window. */
+	private static final int WINDOW_BITS = 4;
+
+	/** The amount of digits per window. */
+	private static final int DIGITS = 1 << WINDOW_BITS;
+
+	/** The amount of windows of a 256 bit scalar. */
+	private static final int WINDOWS = 256 / WINDOW_BITS;
+
+	private static final BigInteger TWO = BigInteger.valueOf(2);
+
+	private static final BigInteger THREE = BigInteger.valueOf(3);
+
+	private static final BigInteger EIGHT = BigInteger.valueOf(8);
+
+	/** The prime of the field. */
+	private final BigInteger p;
+
+	/** The parameter a of the curve. */
+	private final BigInteger a;
+
+	/** The affine x coordinates of the table entries, DIGITS per window. */
+	private final BigInteger[] xs = new BigInteger[WINDOWS * DIGITS];
+
+	/** The affine y coordinates of the table entries, DIGITS per window. */
+	private final BigInteger[] ys = new BigInteger[WINDOWS * DIGITS];
+
+	/**
+	 * Creates the table for the given point.
+	 * 
+	 * @param point
+	 *            A point on a curve over a prime field. Must not be infinity.
+	 */
+	public FixedBaseTable(ECPoint point) {
+		Objects.requireNonNull(point, "point must not be null.");
+
+		if (point.isInfinity() || !(point.getCurve() instanceof ECCurve.Fp)) {
+			throw new IllegalArgumentException("point must be a finite point on a prime curve.");
+		}
+
+		p = ((ECCurve.Fp) point.getCurve()).getQ();
+		a = point.getCurve().getA().toBigInteger();
+
+		ECPoint base = point;
+
+		for (int i = 0; i < WINDOWS; i++) {
+			ECPoint q = base;
+
+			for (int d = 1; d < DIGITS; d++) {
+				if (d > 1) {
+					q = q.add(base);
+				}
+
+				if (q.isInfinity()) {
+					throw new IllegalArgumentException("point has a small order.");
+				}
+
+				xs[i * DIGITS + d] = q.getX().toBigInteger();
+				ys[i * DIGITS + d] = q.getY().toBigInteger();
+			}
+
+			for (int j = 0; j < WINDOW_BITS && i < WINDOWS - 1; j++) {
+				base = base.twice();
+			}
+		}
+	}
+
+	/**
+	 * Multiplies the point of this table with the given scalar.
+	 * 
+	 * @param k
+	 *            The scalar. Must be between 0 and 2^256.
+	 * @return The affine x coordinate of k * P or null if the result is the
+	 *         point at infinity.
+	 */
+	public BigInteger multiplyX(BigInteger k) {
+		if (k.signum() < 0 || k.bitLength() > WINDOWS * WINDOW_BITS) {
+			throw new IllegalArgumentException("k out of range.");
+		}
+
+		byte[] b = Util.getUnsignedBytes(k, 32);
+		BigInteger x = null;
+		BigInteger y = null;
+		BigInteger z = null;
+
+		for (int i = 0; i < WINDOWS; i++) {
+			int d = (b[b.length - 1 - i / 2] >> (i % 2 * WINDOW_BITS)) & (DIGITS - 1);
+
+			if (d == 0) {
+				continue;
+			}
+
+			BigInteger x2 = xs[i * DIGITS + d];
+			BigInteger y2 = ys[i * DIGITS + d];
+
+			if (x == null) {
+				x = x2;
+				y = y2;
+				z = BigInteger.ONE;
+				continue;
+			}
+
+			// Mixed addition of (x, y, z) and the affine point (x2, y2).
+			BigInteger zz = z.multiply(z).mod(p);
+			BigInteger h = x2.multiply(zz).subtract(x).mod(p);
+			BigInteger r = y2.multiply(zz).mod(p).multiply(z).subtract(y).mod(p);
+
+			if (h.signum() == 0) {
+				if (r.signum() == 0) {
+					BigInteger[] t = twice(x, y, z);
+					x = t[0];
+					y = t[1];
+					z = t[2];
+				} else {
+					x = null;
+				}
+
+				continue;
+			}
+
+			BigInteger hh = h.multiply(h).mod(p);
+			BigInteger hhh = hh.multiply(h).mod(p);
+			BigInteger v = x.multiply(hh).mod(p);
+			BigInteger x3 = r.multiply(r).subtract(hhh).subtract(v.shiftLeft(1)).mod(p);
+			y = r.multiply(v.subtract(x3)).subtract(y.multiply(hhh)).mod(p);
+			z = z.multiply(h).mod(p);
+			x = x3;
+		}
+
+		if (x == null) {
+			return null;
+		}
+
+		BigInteger zInv = z.modInverse(p);
+
+		return x.multiply(zInv.multiply(zInv)).mod(p);
+	}
+
+	/**
+	 * Doubles the given point in jacobian coordinates.
+	 * 
+	 * @return x, y and z of the result.
+	 */
+	private BigInteger[] twice(BigInteger x, BigInteger y, BigInteger z) {
+		BigInteger yy = y.multiply(y).mod(p);
+		BigInteger zz = z.multiply(z).mod(p);
+		BigInteger s = x.multiply(yy).shiftLeft(2).mod(p);
+		BigInteger m = x.multiply(x).multiply(THREE).add(a.multiply(zz).multiply(zz)).mod(p);
+		BigInteger x3 = m.multiply(m).subtract(s.multiply(TWO)).mod(p);
+		BigInteger y3 = m.multiply(s.subtract(x3)).subtract(yy.multiply(yy).multiply(EIGHT)).mod(p);
+		BigInteger z3 = y.multiply(z).shiftLeft(1).mod(p);
+
+		return new BigInteger[] { x3, y3, z3 };
+	}
+}
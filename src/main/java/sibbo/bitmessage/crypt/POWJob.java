@@ -0,0 +1,197 @@
+package sibbo.bitmessage.crypt;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.network.protocol.Util;
+
+/**
+ * A POW calculation that was submitted to the {@link POWService}. The result
+ * is the 8 byte nonce.<br />
+ * The service hands out the nonces of a job in chunks. Between two chunks the
+ * job is put back at the end of the jobs with the same priority, so jobs of
+ * equal priority share the workers.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class POWJob implements Future<byte[]> {
+	private static final Logger LOG = Logger.getLogger(POWJob.class.getName());
+
+	/** The hash of the data. */
+	private final byte[] initialHash;
+
+	/** The target collision quality. */
+	private final long target;
+
+	/** The priority of the job. */
+	private final POWService.Priority priority;
+
+	/** The service that calculates the job. */
+	private final POWService service;
+
+	/** Released as soon as the job is done or cancelled. */
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	/**
+	 * Orders jobs with the same priority. Updated by the service whenever the
+	 * job is queued.
+	 */
+	private long sequence;
+
+	/** The first nonce of the next chunk. Guarded by the service. */
+	private long nextNonce;
+
+	/** The nonce that was found. */
+	private volatile long nonce;
+
+	/** True if a nonce was found. */
+	private volatile boolean finished;
+
+	/** True if the job was cancelled. */
+	private volatile boolean cancelled;
+
+	POWJob(byte[] initialHash, long target, POWService.Priority priority, POWService service) {
+		this.initialHash = initialHash;
+		this.target = target;
+		this.priority = priority;
+		this.service = service;
+	}
+
+	byte[] getInitialHash() {
+		return initialHash;
+	}
+
+	long getTarget() {
+		return target;
+	}
+
+	/**
+	 * Returns the priority of this job.
+	 * 
+	 * @return The priority of this job.
+	 */
+	public POWService.Priority getPriority() {
+		return priority;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Returns the first nonce of the next chunk and advances to the one after.
+	 * Must only be called by the service.
+	 * 
+	 * @param chunkSize
+	 *            The amount of nonces in a chunk.
+	 * @return The first nonce of the chunk.
+	 */
+	long nextChunk(int chunkSize) {
+		long first = nextNonce;
+		nextNonce += chunkSize;
+
+		return first;
+	}
+
+	/**
+	 * Reports a valid nonce. Only the first nonce is kept.
+	 * 
+	 * @param nonce
+	 *            The nonce.
+	 * @return True if this nonce finished the job.
+	 */
+	synchronized boolean finish(long nonce) {
+		if (isDone()) {
+			return false;
+		}
+
+		this.nonce = nonce;
+		finished = true;
+		done.countDown();
+
+		return true;
+	}
+
+	/**
+	 * Cancels the job. Workers stop working on it with their current chunk.
+	 * 
+	 * @param mayInterruptIfRunning
+	 *            Ignored, the workers are never interrupted.
+	 * @return True if the job was cancelled, false if it was already done.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (isDone()) {
+				return false;
+			}
+
+			cancelled = true;
+			done.countDown();
+		}
+
+		service.remove(this);
+
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return finished || cancelled;
+	}
+
+	/**
+	 * Waits until the job is done and returns the nonce.
+	 * 
+	 * @return The nonce.
+	 * @throws CancellationException
+	 *             If the job was cancelled.
+	 */
+	@Override
+	public byte[] get() throws InterruptedException {
+		done.await();
+
+		return getNonce();
+	}
+
+	/**
+	 * Waits at most the given time until the job is done and returns the
+	 * nonce.
+	 * 
+	 * @return The nonce.
+	 * @throws CancellationException
+	 *             If the job was cancelled.
+	 * @throws TimeoutException
+	 *             If the job was not done in time.
+	 */
+	@Override
+	public byte[] get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("The POW was not finished in time.");
+		}
+
+		return getNonce();
+	}
+
+	private byte[] getNonce() {
+		if (cancelled) {
+			throw new CancellationException("The POW was cancelled.");
+		}
+
+		return Util.getBytes(nonce);
+	}
+}
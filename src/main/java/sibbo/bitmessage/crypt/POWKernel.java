@@ -0,0 +1,103 @@
+package sibbo.bitmessage.crypt;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.network.protocol.Util;
+
+/**
+ * Calculates POW trial values: The first 8 bytes of
+ * sha512(sha512(nonce || initialHash)) as a long.<br />
+ * A kernel keeps its own digest and a 72 byte input buffer that contains the
+ * initial hash, so for every trial only the nonce is written in place. Both
+ * digests are written into the same preallocated array, and only its first 8
+ * bytes are converted. A trial does not allocate anything.
+ * 
+ * Instances are not thread safe, every worker thread needs its own kernel. A
+ * kernel can be reused for another initial hash, see
+ * {@link #setInitialHash(byte[])}.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public final class POWKernel {
+	private static final Logger LOG = Logger.getLogger(POWKernel.class.getName());
+
+	/** The length of the initial hash in bytes. */
+	private static final int INITIAL_HASH_LENGTH = 64;
+
+	/** The digest, reused for every trial. */
+	private final MessageDigest sha512;
+
+	/** The nonce (8 bytes) followed by the initial hash. */
+	private final byte[] input = new byte[8 + INITIAL_HASH_LENGTH];
+
+	/** Receives both digests. */
+	private final byte[] hash = new byte[64];
+
+	/**
+	 * Creates a new kernel for the given initial hash.
+	 * 
+	 * @param initialHash
+	 *            The 64 byte sha512 of the data.
+	 */
+	public POWKernel(byte[] initialHash) {
+		setInitialHash(initialHash);
+
+		MessageDigest sha512 = null;
+
+		try {
+			sha512 = MessageDigest.getInstance("SHA-512");
+		} catch (NoSuchAlgorithmException e) {
+			LOG.log(Level.SEVERE, "SHA-512 not supported!", e);
+			System.exit(1);
+		}
+
+		this.sha512 = sha512;
+	}
+
+	/**
+	 * Replaces the initial hash, so the kernel calculates the trial values of
+	 * another job without creating a new digest.
+	 * 
+	 * @param initialHash
+	 *            The 64 byte sha512 of the data.
+	 */
+	public void setInitialHash(byte[] initialHash) {
+		Objects.requireNonNull(initialHash, "initialHash must not be null.");
+
+		if (initialHash.length != INITIAL_HASH_LENGTH) {
+			throw new IllegalArgumentException("initialHash must have a length of " + INITIAL_HASH_LENGTH + ".");
+		}
+
+		System.arraycopy(initialHash, 0, input, 8, INITIAL_HASH_LENGTH);
+	}
+
+	/**
+	 * Calculates the trial value of the given nonce. The POW is valid if the
+	 * result is between 0 and the target.
+	 * 
+	 * @param nonce
+	 *            The nonce.
+	 * @return The first 8 bytes of sha512(sha512(nonce || initialHash)).
+	 */
+	public long trialValue(long nonce) {
+		Util.putLong(nonce, input, 0);
+
+		try {
+			sha512.update(input);
+			sha512.digest(hash, 0, hash.length);
+			sha512.update(hash);
+			sha512.digest(hash, 0, hash.length);
+		} catch (DigestException e) {
+			LOG.log(Level.SEVERE, "Could not calculate digest.", e);
+			System.exit(1);
+		}
+
+		return Util.getLong(hash, 0);
+	}
+}
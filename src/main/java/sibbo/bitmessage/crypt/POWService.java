@@ -0,0 +1,262 @@
+package sibbo.bitmessage.crypt;
+
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.Options;
+
+/**
+ * Calculates POWs with a fixed set of worker threads that live as long as the
+ * application.<br />
+ * Submitted jobs are queued by priority. A worker takes the first job, claims
+ * the next chunk of its nonces and puts the job back behind the other jobs of
+ * the same priority before it starts working. So a single job is calculated
+ * by all workers, and several jobs of the same priority share them fairly
+ * instead of starting threads of their own.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class POWService {
+	private static final Logger LOG = Logger.getLogger(POWService.class.getName());
+
+	/** The amount of nonces a worker tries before it takes the next job. */
+	private static final int CHUNK_SIZE = 1 << 15;
+
+	/** The priority of a POW job. */
+	public enum Priority {
+		/** Objects that are sent on our own, like pubkeys. */
+		LOW,
+		/** Messages and broadcasts. */
+		NORMAL,
+		/** Objects that the user is waiting for, like getpubkeys. */
+		HIGH;
+	}
+
+	/** Orders jobs by priority first and by the time they were queued. */
+	private static final Comparator<POWJob> ORDER = new Comparator<POWJob>() {
+		@Override
+		public int compare(POWJob a, POWJob b) {
+			int c = b.getPriority().compareTo(a.getPriority());
+
+			if (c != 0) {
+				return c;
+			}
+
+			return Long.compare(a.getSequence(), b.getSequence());
+		}
+	};
+
+	private static POWService instance;
+
+	/** The jobs that are not finished. Guarded by this. */
+	private final PriorityQueue<POWJob> jobs = new PriorityQueue<>(16, ORDER);
+
+	/** The sequence number of the next queued job. Guarded by this. */
+	private long sequence;
+
+	/** The worker threads. */
+	private final Thread[] workers;
+
+	/** A stop request can be made by setting this to true. */
+	private volatile boolean stop;
+
+	/**
+	 * Returns the service. It uses as many workers as the pow.systemLoad
+	 * option allows.
+	 * 
+	 * @return The service.
+	 */
+	public static synchronized POWService getInstance() {
+		if (instance == null) {
+			int processors = Runtime.getRuntime().availableProcessors();
+			float load = Options.getInstance().getFloat("pow.systemLoad");
+			instance = new POWService(Math.max(1, Math.round(processors * load)));
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Creates a new service and starts its workers.
+	 * 
+	 * @param threads
+	 *            The amount of worker threads.
+	 */
+	public POWService(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be > 0.");
+		}
+
+		workers = new Thread[threads];
+
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Worker(), "POW Worker No. " + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Queues a new POW calculation.
+	 * 
+	 * @param initialHash
+	 *            The sha512 of the data.
+	 * @param target
+	 *            The target collision quality.
+	 * @param priority
+	 *            The priority of the job.
+	 * @return The job that completes with the nonce.
+	 */
+	public synchronized POWJob submit(byte[] initialHash, long target, Priority priority) {
+		Objects.requireNonNull(initialHash, "initialHash must not be null.");
+		Objects.requireNonNull(priority, "priority must not be null.");
+
+		if (stop) {
+			throw new IllegalStateException("The service is stopped.");
+		}
+
+		if (initialHash.length != 64) {
+			throw new IllegalArgumentException("initialHash must have a length of 64.");
+		}
+
+		POWJob job = new POWJob(initialHash.clone(), target, priority, this);
+		enqueue(job);
+		notifyAll();
+
+		return job;
+	}
+
+	/**
+	 * Returns the amount of jobs that are not finished.
+	 * 
+	 * @return The amount of jobs that are not finished.
+	 */
+	public synchronized int getQueueSize() {
+		return jobs.size();
+	}
+
+	/**
+	 * Stops the workers. Jobs that are not finished are cancelled.
+	 */
+	public void stop() {
+		POWJob[] left;
+
+		synchronized (this) {
+			stop = true;
+			left = jobs.toArray(new POWJob[jobs.size()]);
+			notifyAll();
+		}
+
+		for (POWJob job : left) {
+			job.cancel(false);
+		}
+	}
+
+	/**
+	 * Removes the given job from the queue.
+	 * 
+	 * @param job
+	 *            The job.
+	 */
+	synchronized void remove(POWJob job) {
+		jobs.remove(job);
+	}
+
+	/**
+	 * Reports a valid nonce and removes the job from the queue.
+	 * 
+	 * @param job
+	 *            The job.
+	 * @param nonce
+	 *            The nonce.
+	 */
+	private synchronized void finish(POWJob job, long nonce) {
+		if (job.finish(nonce)) {
+			jobs.remove(job);
+		}
+	}
+
+	private void enqueue(POWJob job) {
+		job.setSequence(sequence++);
+		jobs.add(job);
+	}
+
+	/**
+	 * Waits for a job, claims its next chunk and requeues it.
+	 * 
+	 * @param claimed
+	 *            Receives the first nonce of the claimed chunk.
+	 * @return The job or null if the service was stopped or the worker was
+	 *         interrupted.
+	 */
+	private synchronized POWJob take(long[] claimed) {
+		while (!stop) {
+			POWJob job = jobs.poll();
+
+			if (job == null) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					LOG.log(Level.WARNING, "POW worker interrupted, shutting it down.");
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			} else if (!job.isDone()) {
+				claimed[0] = job.nextChunk(CHUNK_SIZE);
+				enqueue(job);
+
+				return job;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Calculates chunks of the queued jobs until the service is stopped or the
+	 * worker is interrupted. The kernel is reused for every job.
+	 */
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			long[] claimed = new long[1];
+			POWJob current = null;
+			POWKernel kernel = null;
+			POWJob job;
+
+			// An interrupted worker shuts down, the others go on.
+			while (!Thread.currentThread().isInterrupted() && (job = take(claimed)) != null) {
+				if (job != current) {
+					current = job;
+
+					if (kernel == null) {
+						kernel = new POWKernel(job.getInitialHash());
+					} else {
+						kernel.setInitialHash(job.getInitialHash());
+					}
+				}
+
+				long target = job.getTarget();
+				long nonce = claimed[0];
+
+				for (int i = 0; i < CHUNK_SIZE; i++, nonce++) {
+					long result = kernel.trialValue(nonce);
+
+					if (result >= 0 && result <= target) {
+						finish(job, nonce);
+						break;
+					}
+
+					// Stops early if another worker won or the job was cancelled.
+					if ((i & 0x3FF) == 0 && job.isDone()) {
+						break;
+					}
+				}
+			}
+		}
+	}
+}
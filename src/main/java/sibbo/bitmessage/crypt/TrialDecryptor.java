@@ -0,0 +1,190 @@
+package sibbo.bitmessage.crypt;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bouncycastle.jce.provider.JCEECPrivateKey;
+
+import sibbo.bitmessage.network.protocol.EncryptedMessage;
+
+/**
+ * Tries to decrypt objects with the private keys of many identities.<br />
+ * For a few identities this is the same as
+ * {@link CryptManager#tryDecrypt(EncryptedMessage, Collection)}. For more
+ * identities a {@link FixedBaseTable} of the ephemeral key of the object is
+ * built once and used for every private key, which makes each trial about 17
+ * times cheaper. Large identity sets are split into partitions that are tried
+ * in parallel. The calling thread tries the first partition itself.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class TrialDecryptor {
+	private static final Logger LOG = Logger.getLogger(TrialDecryptor.class.getName());
+
+	/**
+	 * The amount of identities from which on a table is built. Building a
+	 * table costs about four ordinary multiplications.
+	 */
+	private static final int TABLE_THRESHOLD = 5;
+
+	/** The minimum amount of identities that are tried by one thread. */
+	private static final int MIN_PARTITION_SIZE = 64;
+
+	/** Tries the partitions that are not tried by the calling thread. */
+	private final ExecutorService executor;
+
+	/** The maximum amount of partitions. */
+	private final int threads;
+
+	/**
+	 * Creates a new trial decryptor.
+	 * 
+	 * @param threads
+	 *            The maximum amount of threads that try the identities of one
+	 *            object, including the calling thread. Must be > 0.
+	 */
+	public TrialDecryptor(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be > 0.");
+		}
+
+		this.threads = threads;
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Trial Decryptor No. " + count.getAndIncrement());
+				t.setDaemon(true);
+
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Tries to decrypt the given data with the private encryption keys of the
+	 * given identities. Identities without private encryption key are skipped.
+	 * 
+	 * @param encrypted
+	 *            The data to decrypt.
+	 * @param identities
+	 *            The identities to try.
+	 * @return The identity that could decrypt the data and the plain text or
+	 *         null if none of the identities could decrypt the data.
+	 */
+	public AddressDataPair tryDecrypt(final EncryptedMessage encrypted, Collection<BMAddress> identities) {
+		if (identities.size() < TABLE_THRESHOLD) {
+			return CryptManager.getInstance().tryDecrypt(encrypted, identities);
+		}
+
+		final FixedBaseTable table;
+
+		try {
+			table = new FixedBaseTable(encrypted.getPublicKey().getQ());
+		} catch (IllegalArgumentException e) {
+			LOG.log(Level.FINE, "Invalid ephemeral key: " + e.getMessage());
+			return null;
+		}
+
+		List<BMAddress> list = new ArrayList<>(identities);
+		int partitions = Math.min(threads, (list.size() + MIN_PARTITION_SIZE - 1) / MIN_PARTITION_SIZE);
+		final AtomicBoolean found = new AtomicBoolean();
+
+		if (partitions <= 1) {
+			return tryDecrypt(encrypted, table, list, found);
+		}
+
+		int size = (list.size() + partitions - 1) / partitions;
+		List<Future<AddressDataPair>> futures = new ArrayList<>(partitions - 1);
+
+		for (int i = size; i < list.size(); i += size) {
+			final List<BMAddress> partition = list.subList(i, Math.min(list.size(), i + size));
+
+			futures.add(executor.submit(new Callable<AddressDataPair>() {
+				@Override
+				public AddressDataPair call() {
+					return tryDecrypt(encrypted, table, partition, found);
+				}
+			}));
+		}
+
+		AddressDataPair result = tryDecrypt(encrypted, table, list.subList(0, size), found);
+
+		for (Future<AddressDataPair> f : futures) {
+			try {
+				AddressDataPair r = f.get();
+
+				if (result == null) {
+					result = r;
+				}
+			} catch (InterruptedException e) {
+				// Let the other partitions finish early.
+				found.set(true);
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				LOG.log(Level.SEVERE, "Trial decryption failed.", e);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Tries the given identities until one of them can decrypt the data or
+	 * another partition found the identity.
+	 */
+	private static AddressDataPair tryDecrypt(EncryptedMessage encrypted, FixedBaseTable table,
+			List<BMAddress> identities, AtomicBoolean found) {
+		CryptManager c = CryptManager.getInstance();
+
+		for (BMAddress a : identities) {
+			if (found.get()) {
+				return null;
+			}
+
+			JCEECPrivateKey key = a.getPrivateEncryptionKey();
+
+			if (key == null) {
+				continue;
+			}
+
+			BigInteger x = table.multiplyX(key.getD());
+
+			if (x == null) {
+				continue;
+			}
+
+			byte[] tmpKey = c.deriveKey(x);
+
+			if (c.checkMac(encrypted, tmpKey)) {
+				found.set(true);
+				byte[] plain = c.decrypt(encrypted, tmpKey);
+
+				return plain == null ? null : new AddressDataPair(a, plain);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Stops the threads of this decryptor.
+	 */
+	public void stop() {
+		executor.shutdownNow();
+	}
+}
@@ -1,32 +1,265 @@
 package sibbo.bitmessage.data;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import sibbo.bitmessage.Options;
+import sibbo.bitmessage.crypt.DigestContext;
+import sibbo.bitmessage.network.protocol.InputBuffer;
 import sibbo.bitmessage.network.protocol.InventoryVectorMessage;
+import sibbo.bitmessage.network.protocol.MessageFactory;
+import sibbo.bitmessage.network.protocol.P2PMessage;
 import sibbo.bitmessage.network.protocol.POWMessage;
+import sibbo.bitmessage.network.protocol.ParsingException;
 
 /**
- * Class that manages a connection to a database. It creates several prepared
- * statements to make operations fast and secure.
+ * An append only object store. Objects are appended to a log file and an index
+ * of their hashes and positions is kept in memory, so only the objects that
+ * are requested are read from disc. Lookups in the index don't wait for
+ * writes. Writes are forced to disc in batches by a background thread.<br />
+ * When the database is closed, the index is written to an index file. On
+ * startup the index file is read and only the records that were appended
+ * after it was written are scanned. A damaged end of the log, for example
+ * after a crash, is cut off.<br />
+ * <br />
+ * A record consists of:
+ * <ul>
+ * <li>The length of the object (4 bytes)</li>
+ * <li>The hash of the object (32 bytes)</li>
+ * <li>The command of the object (12 bytes)</li>
+ * <li>The first 4 bytes of the sha512 of the object (4 bytes)</li>
+ * <li>The object</li>
+ * </ul>
  * 
  * @author Sebastian Schmidt
  * @version 1.0
  * 
  */
-public class Database {
+public class Database implements Runnable {
+	private static final Logger LOG = Logger.getLogger(Database.class.getName());
+
+	/** The length of the record header. */
+	private static final int RECORD_HEADER_LENGTH = 4 + ObjectIndex.KEY_LENGTH + 12 + 4;
+
+	/** Identifies the index file format. */
+	private static final long INDEX_MAGIC = 0x4A424D4944583031L;
+
+	/** The name of the log file. */
+	private static final String LOG_FILE = "objects.log";
+
+	/** The name of the index file. */
+	private static final String INDEX_FILE = "objects.idx";
+
+	/** The directory containing the files of the database. */
+	private final File directory;
+
+	/** The log containing the objects. */
+	private final FileChannel log;
+
+	/** The factory used to parse the objects. */
+	private final MessageFactory factory;
+
+	/** Maps hashes to record positions. Guarded by this. */
+	private final ObjectIndex index;
+
+	/** The length of the log. Guarded by this. */
+	private long length;
+
+	/** True if there are writes that were not forced to disc. Guarded by this. */
+	private boolean dirty;
+
+	/** The time in milliseconds between two syncs. */
+	private final int syncInterval;
+
+	/** If true, the database is closed. */
+	private volatile boolean closed;
+
 	/**
-	 * Creates a new database with the given name or connects to the existing
-	 * one. Note that the user used for connecting must have the rights to
-	 * create a new database if it is not already created.
+	 * Opens the database in the directory with the given name. The directory
+	 * is created if it does not exist.
 	 * 
-	 * @param path
-	 *            The name of the database.
+	 * @param name
+	 *            The path to the directory of the database.
 	 */
 	public Database(String name) {
-		// TODO Auto-generated constructor stub
+		directory = new File(name);
+		factory = MessageFactory.getFactoryByVersion(Options.getInstance().getInt("protocol.version"));
+		syncInterval = Options.getInstance().getInt("data.syncInterval");
+
+		FileChannel log = null;
+		ObjectIndex index = null;
+
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not create directory: " + directory);
+			}
+
+			log = FileChannel.open(new File(directory, LOG_FILE).toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			index = readIndex(log.size());
+
+			if (index == null) {
+				index = new ObjectIndex(0);
+				length = 0;
+			}
+
+			scan(log, index);
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Could not open database: " + directory, e);
+			System.exit(1);
+		}
+
+		this.log = log;
+		this.index = index;
+
+		if (syncInterval > 0) {
+			new Thread(this, "Database Sync").start();
+		}
 	}
 
-	private static final Logger LOG = Logger.getLogger(Database.class.getName());
+	/**
+	 * Reads the index file.
+	 * 
+	 * @param logLength
+	 *            The length of the log.
+	 * @return The index or null if there is no usable index file.
+	 */
+	private ObjectIndex readIndex(long logLength) {
+		File file = new File(directory, INDEX_FILE);
+
+		if (!file.exists()) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readLong() != INDEX_MAGIC) {
+				throw new IOException("Unknown index format.");
+			}
+
+			long indexedLength = in.readLong();
+			int size = in.readInt();
+
+			if (indexedLength > logLength || size < 0) {
+				throw new IOException("The index does not fit to the log.");
+			}
+
+			ObjectIndex index = new ObjectIndex(size);
+			byte[] hash = new byte[ObjectIndex.KEY_LENGTH];
+
+			for (int i = 0; i < size; i++) {
+				in.readFully(hash);
+				long position = in.readLong();
+
+				if (position < 0 || position >= indexedLength) {
+					throw new IOException("Invalid position: " + position);
+				}
+
+				index.put(hash, position);
+			}
+
+			length = indexedLength;
+			LOG.info("Read index with " + size + " objects.");
+
+			return index;
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not read index, scanning the whole log.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Adds all records after {@link #length} to the index. If the log ends
+	 * with a damaged record, it is cut off.
+	 * 
+	 * @param log
+	 *            The log.
+	 * @param index
+	 *            The index to add the records to.
+	 * @throws IOException
+	 *             If reading the log fails.
+	 */
+	private void scan(FileChannel log, ObjectIndex index) throws IOException {
+		long size = log.size();
+		int maxLength = Options.getInstance().getInt("protocol.maxMessageLength");
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+		byte[] hash = new byte[ObjectIndex.KEY_LENGTH];
+		int count = 0;
+
+		while (length < size) {
+			header.clear();
+
+			if (!readFully(log, header, length)) {
+				break;
+			}
+
+			header.flip();
+			int objectLength = header.getInt();
+			header.get(hash);
+			header.position(header.position() + 12);
+			int checksum = header.getInt();
+
+			if (objectLength < 0 || objectLength > maxLength) {
+				break;
+			}
+
+			ByteBuffer object = ByteBuffer.allocate(objectLength);
+
+			if (!readFully(log, object, length + RECORD_HEADER_LENGTH)
+					|| DigestContext.get().checksum(object.array(), 0, objectLength) != checksum) {
+				break;
+			}
+
+			index.put(hash, length);
+			length += RECORD_HEADER_LENGTH + objectLength;
+			count++;
+		}
+
+		if (length < size) {
+			LOG.warning("The object log is damaged after " + length + " bytes, cutting off " + (size - length)
+					+ " bytes.");
+			log.truncate(length);
+			log.force(true);
+		}
+
+		if (count > 0) {
+			LOG.info("Scanned " + count + " objects that were not in the index.");
+		}
+	}
+
+	/**
+	 * Fills the given buffer from the given position of the log.
+	 * 
+	 * @return False if the end of the log was reached before the buffer was
+	 *         full.
+	 */
+	private static boolean readFully(FileChannel log, ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining()) {
+			int read = log.read(b, position);
+
+			if (read < 0) {
+				return false;
+			}
+
+			position += read;
+		}
+
+		return true;
+	}
 
 	/**
 	 * Reads the object with the given hash from the database.
@@ -37,8 +270,248 @@ public class Database {
 	 *         with the given hash.
 	 */
 	public POWMessage getObject(InventoryVectorMessage m) {
-		return null;
-		// TODO Auto-generated method stub
+		long position = index.get(m.getHash());
+
+		if (position < 0) {
+			return null;
+		}
+
+		try {
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+
+			if (!readFully(log, header, position)) {
+				throw new IOException("Unexpected end of log.");
+			}
+
+			header.flip();
+			int objectLength = header.getInt();
+			byte[] hash = new byte[ObjectIndex.KEY_LENGTH];
+			header.get(hash);
+			String command = readCommand(header);
+
+			// A damaged length must not make us allocate a huge buffer.
+			if (objectLength < 0 || position + RECORD_HEADER_LENGTH + objectLength > log.size()) {
+				throw new IOException("Invalid object length: " + objectLength);
+			}
+
+			if (!Arrays.equals(hash, m.getHash())) {
+				throw new IOException("The record has a different hash.");
+			}
+
+			ByteBuffer object = ByteBuffer.allocate(objectLength);
+
+			if (!readFully(log, object, position + RECORD_HEADER_LENGTH)) {
+				throw new IOException("Unexpected end of log.");
+			}
+
+			object.flip();
+			P2PMessage p = factory.parseP2PMessage(command, new InputBuffer(object));
+
+			if (!(p instanceof POWMessage)) {
+				throw new ParsingException("Not an object: " + command);
+			}
+
+			// The stored hash saves hashing the object again.
+			POWMessage o = (POWMessage) p;
+			o.setHash(hash);
+
+			return o;
+		} catch (IOException | ParsingException e) {
+			LOG.log(Level.WARNING, "Could not read object at " + position, e);
+			return null;
+		}
+	}
+
+	private static String readCommand(ByteBuffer header) throws UnsupportedEncodingException {
+		byte[] command = new byte[12];
+		header.get(command);
+		int length = 0;
+
+		while (length < command.length && command[length] != 0) {
+			length++;
+		}
+
+		return new String(command, 0, length, "ASCII");
+	}
+
+	/**
+	 * Returns true if the database contains the object with the given hash.
+	 * 
+	 * @param m
+	 *            The hash.
+	 * @return True if the database contains the object with the given hash.
+	 */
+	public boolean contains(InventoryVectorMessage m) {
+		return index.contains(m.getHash());
+	}
+
+	/**
+	 * Checks which of the given hashes belong to objects in the database.
+	 * Does not wait for writes.
+	 * 
+	 * @param hashes
+	 *            The hashes, 32 bytes each, one after another.
+	 * @param count
+	 *            The amount of hashes.
+	 * @param result
+	 *            Receives true at index i if the i-th object is contained.
+	 * @return The amount of objects that are not contained.
+	 */
+	public int containsAll(byte[] hashes, int count, boolean[] result) {
+		return index.containsAll(hashes, count, result);
+	}
+
+	/**
+	 * Appends the given object to the log, if it is not already contained.
+	 * 
+	 * @param m
+	 *            The object.
+	 * @return True if the object was added, false if it already exists or
+	 *         could not be written.
+	 */
+	public boolean put(POWMessage m) {
+		byte[] hash = m.getHash();
+		byte[] object = m.getBytes();
+		byte[] command;
+
+		try {
+			command = m.getCommand().getBytes("ASCII");
+		} catch (UnsupportedEncodingException e) {
+			LOG.log(Level.SEVERE, "ASCII not supported!", e);
+			System.exit(1);
+			return false;
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + object.length);
+		record.putInt(object.length);
+		record.put(hash);
+		record.put(Arrays.copyOf(command, 12));
+		record.putInt(DigestContext.get().checksum(object, 0, object.length));
+		record.put(object);
+		record.flip();
+
+		synchronized (this) {
+			if (closed || index.contains(hash)) {
+				return false;
+			}
+
+			try {
+				long position = length;
+
+				while (record.hasRemaining()) {
+					position += log.write(record, position);
+				}
+
+				if (syncInterval <= 0) {
+					log.force(false);
+				} else {
+					dirty = true;
+				}
+
+				index.put(hash, length);
+				length = position;
+			} catch (IOException e) {
+				LOG.log(Level.SEVERE, "Could not write object.", e);
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the amount of objects in the database.
+	 * 
+	 * @return The amount of objects in the database.
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	@Override
+	public void run() {
+		while (!closed) {
+			try {
+				Thread.sleep(syncInterval);
+			} catch (InterruptedException e) {
+				LOG.log(Level.WARNING, "Interrupted while waiting.", e);
+			}
+
+			synchronized (this) {
+				if (!closed) {
+					sync();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forces all writes to disc. Must hold the lock.
+	 */
+	private void sync() {
+		if (dirty) {
+			try {
+				log.force(false);
+				dirty = false;
+			} catch (IOException e) {
+				LOG.log(Level.SEVERE, "Could not sync object log.", e);
+			}
+		}
+	}
+
+	/**
+	 * Forces all writes to disc, writes the index file and closes the log.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		sync();
+
+		try {
+			writeIndex();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not write index, the log will be scanned on the next start.", e);
+		}
+
+		try {
+			log.close();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not close object log.", e);
+		}
+	}
+
+	/**
+	 * Writes the index to a temporary file and replaces the index file with
+	 * it.
+	 */
+	private void writeIndex() throws IOException {
+		File tmp = new File(directory, INDEX_FILE + ".tmp");
+		byte[] hash = new byte[ObjectIndex.KEY_LENGTH];
+
+		try (FileOutputStream file = new FileOutputStream(tmp);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+			out.writeLong(INDEX_MAGIC);
+			out.writeLong(length);
+			out.writeInt(index.size());
+
+			for (int i = 0; i < index.capacity(); i++) {
+				long position = index.getPosition(i);
+
+				if (position >= 0) {
+					index.getKey(i, hash, 0);
+					out.write(hash);
+					out.writeLong(position);
+				}
+			}
+
+			out.flush();
+			file.getFD().sync();
+		}
 
+		Files.move(tmp.toPath(), new File(directory, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
 	}
 }
@@ -11,8 +11,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import sibbo.bitmessage.Options;
 import sibbo.bitmessage.crypt.BMAddress;
+import sibbo.bitmessage.network.protocol.InventoryBatch;
 import sibbo.bitmessage.network.protocol.InventoryVectorMessage;
+import sibbo.bitmessage.network.protocol.MessageFactory;
 import sibbo.bitmessage.network.protocol.NetworkAddressMessage;
 import sibbo.bitmessage.network.protocol.POWMessage;
 
@@ -28,15 +31,17 @@ public class Datastore {
 	/** The database. */
 	private final Database database;
 
-	/** Stores the hashes of all objects that we have. */
-	private final Set<InventoryVectorMessage> localObjects = Collections
-			.synchronizedSet(new HashSet<InventoryVectorMessage>());
+	/** Creates the keys of the object cache. */
+	private final MessageFactory factory = MessageFactory.getFactoryByVersion(Options.getInstance().getInt(
+			"protocol.version"));
 
 	/** Caches objects to reduce disc activity. */
-	private final Map<InventoryVectorMessage, POWMessage> objectCache = new Hashtable<>();
+	private final ObjectCache objectCache = new ObjectCache(Options.getInstance().getLong("data.cacheSize"),
+			ObjectCache.Policy.valueOf(Options.getInstance().getString("data.cachePolicy")), Options.getInstance()
+					.getInt("data.cacheSegments"));
 
-	/** Stores all nodes that we know. */
-	private final Map<Long, Map<NetworkAddressMessage, NetworkAddressMessage>> knownNodes = new Hashtable<>();
+	/** Stores all nodes that we know by stream. */
+	private final Map<Long, NodeTable> knownNodes = new Hashtable<>();
 
 	/** Stores all addresses we own. */
 	private final Set<BMAddress> ownedAddresses = Collections.synchronizedSet(new HashSet<BMAddress>());
@@ -48,7 +53,7 @@ public class Datastore {
 	 * Creates a new datastore with the given name.
 	 * 
 	 * @param datastorePath
-	 *            The path to the file containing the datastore.
+	 *            The path to the directory containing the datastore.
 	 */
 	public Datastore(String datastoreName) {
 		database = new Database(datastoreName);
@@ -64,30 +69,58 @@ public class Datastore {
 	 *         datastore.
 	 */
 	public List<NetworkAddressMessage> filterNodesThatWeAlreadyHave(List<NetworkAddressMessage> list) {
-		List<NetworkAddressMessage> l = new ArrayList<>(list);
+		List<NodeTable> streams = new ArrayList<>(knownNodes.values());
+		List<NetworkAddressMessage> l = new ArrayList<>(list.size());
 
-		for (Map<NetworkAddressMessage, NetworkAddressMessage> m : knownNodes.values()) {
-			l.removeAll(m.values());
+		for (NetworkAddressMessage m : list) {
+			if (!containsNode(streams, m)) {
+				l.add(m);
+			}
 		}
 
 		return l;
 	}
 
 	/**
-	 * Returns a list containing all inventory vectors from the given list that
-	 * represent objects we don't have.
+	 * Returns true if one of the given node tables contains the given node.
+	 */
+	private static boolean containsNode(List<NodeTable> streams, NetworkAddressMessage m) {
+		for (NodeTable s : streams) {
+			if (s.contains(m)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns a batch containing all hashes from the given batch that
+	 * represent objects we don't have. The hashes are checked in place.
 	 * 
-	 * @param inventoryVectors
-	 *            The inventory vectors to check.
-	 * @return The given inventory vectors without those that represent objects
-	 *         that we already have.
+	 * @param inv
+	 *            The hashes to check.
+	 * @return The given hashes without those that represent objects that we
+	 *         already have. The given batch itself if we have none of them.
 	 */
-	public List<InventoryVectorMessage> filterObjectsThatWeAlreadyHave(List<InventoryVectorMessage> inventoryVectors) {
-		List<InventoryVectorMessage> l = new ArrayList<>(inventoryVectors);
+	public InventoryBatch filterObjectsThatWeAlreadyHave(InventoryBatch inv) {
+		int count = inv.size();
+		boolean[] contained = new boolean[count];
+		int missing = database.containsAll(inv.array(), count, contained);
 
-		l.removeAll(localObjects);
+		if (missing == count) {
+			return inv;
+		}
 
-		return l;
+		InventoryBatch b = new InventoryBatch(missing);
+
+		for (int i = 0; i < count; i++) {
+			if (!contained[i]) {
+				b.add(inv, i);
+			}
+		}
+
+		return b;
 	}
 
 	/**
@@ -107,11 +140,11 @@ public class Datastore {
 	 * @return A list with all nodes that belong to one of the given streams.
 	 */
 	public List<NetworkAddressMessage> getNodes(long[] streams) {
-		List<Map<NetworkAddressMessage, NetworkAddressMessage>> nodeLists = new ArrayList<>();
+		List<NodeTable> nodeLists = new ArrayList<>();
 		int size = 0;
 
 		for (long stream : streams) {
-			Map<NetworkAddressMessage, NetworkAddressMessage> s = knownNodes.get(stream);
+			NodeTable s = knownNodes.get(stream);
 
 			if (s != null) {
 				nodeLists.add(s);
@@ -121,25 +154,33 @@ public class Datastore {
 
 		List<NetworkAddressMessage> l = new ArrayList<>(size);
 
-		for (Map<NetworkAddressMessage, NetworkAddressMessage> s : nodeLists) {
-			l.addAll(s.values());
+		for (NodeTable s : nodeLists) {
+			s.addTo(l);
 		}
 
 		return l;
 	}
 
 	/**
-	 * Returns the POWMessages that belong to the given InventoryVectors
-	 * (hashes).
+	 * Returns the POWMessages that belong to the given hashes. Hashes of
+	 * objects that we don't have are skipped without touching the cache or the
+	 * database.
 	 * 
-	 * @param inventoryVectors
+	 * @param inv
 	 *            The hashes.
 	 * @return The objects that belong to the given hashes.
 	 */
-	public List<POWMessage> getObjects(List<InventoryVectorMessage> inventoryVectors) {
-		List<POWMessage> objects = new ArrayList<>(inventoryVectors.size());
+	public List<POWMessage> getObjects(InventoryBatch inv) {
+		int count = inv.size();
+		boolean[] contained = new boolean[count];
+		List<POWMessage> objects = new ArrayList<>(count - database.containsAll(inv.array(), count, contained));
+
+		for (int i = 0; i < count; i++) {
+			if (!contained[i]) {
+				continue;
+			}
 
-		for (InventoryVectorMessage m : inventoryVectors) {
+			InventoryVectorMessage m = inv.get(i, factory);
 			POWMessage p = objectCache.get(m);
 
 			if (p != null) {
@@ -148,6 +189,7 @@ public class Datastore {
 				p = database.getObject(m);
 
 				if (p != null) {
+					objectCache.put(m, p, ObjectCache.estimateSize(p));
 					objects.add(p);
 				}
 			}
@@ -157,14 +199,70 @@ public class Datastore {
 	}
 
 	/**
-	 * Returns a random node from the datastore.
+	 * Returns the object cache, for example to read its statistics.
+	 * 
+	 * @return The object cache.
+	 */
+	public ObjectCache getObjectCache() {
+		return objectCache;
+	}
+
+	/**
+	 * Returns a random node from the datastore. Every node of the stream has
+	 * the same probability.
 	 * 
-	 * @return A random node from the datastore.
+	 * @param stream
+	 *            The stream of the node.
+	 * @return A random node from the datastore or null if we know no node of
+	 *         the given stream.
 	 */
 	public NetworkAddressMessage getRandomNode(long stream) {
-		List<NetworkAddressMessage> nodes = new ArrayList<>(knownNodes.get(stream).keySet());
+		NodeTable s = knownNodes.get(stream);
+
+		return s == null ? null : s.sample();
+	}
+
+	/**
+	 * Returns up to {@code count} distinct random nodes of the given stream.
+	 * 
+	 * @param stream
+	 *            The stream of the nodes.
+	 * @param count
+	 *            The amount of nodes. Must be >= 0.
+	 * @param weighted
+	 *            If true, the probability of a node is proportional to its
+	 *            weight. Otherwise every node has the same probability.
+	 * @return A list with up to {@code count} nodes.
+	 * @see #setNodeWeight(long, InetAddress, int, double)
+	 */
+	public List<NetworkAddressMessage> getRandomNodes(long stream, int count, boolean weighted) {
+		if (count < 0) {
+			throw new IllegalArgumentException("count must be >= 0.");
+		}
+
+		NodeTable s = knownNodes.get(stream);
+
+		return s == null ? new ArrayList<NetworkAddressMessage>(0) : s.sample(count, weighted);
+	}
+
+	/**
+	 * Sets the weight of the given node for weighted random sampling. New
+	 * nodes have the weight 1.
+	 * 
+	 * @param stream
+	 *            The stream of the node.
+	 * @param address
+	 *            The ip of the node.
+	 * @param port
+	 *            The port of the node.
+	 * @param weight
+	 *            The weight. Must be > 0.
+	 * @return True if the node is known.
+	 */
+	public boolean setNodeWeight(long stream, InetAddress address, int port, double weight) {
+		NodeTable s = knownNodes.get(stream);
 
-		return nodes.get((int) (Math.random() * nodes.size()));
+		return s != null && s.setWeight(address, port, weight);
 	}
 
 	/**
@@ -177,8 +275,8 @@ public class Datastore {
 	public boolean put(POWMessage m) {
 		InventoryVectorMessage i = m.getInventoryVector();
 
-		if (localObjects.contains(i)) {
-			objectCache.put(i, m);
+		if (database.put(m)) {
+			objectCache.put(i, m, ObjectCache.estimateSize(m));
 			return true;
 		} else {
 			return false;
@@ -196,9 +294,20 @@ public class Datastore {
 		List<NetworkAddressMessage> added = new ArrayList<>(list.size());
 
 		for (NetworkAddressMessage m : list) {
-			NetworkAddressMessage before = knownNodes.get(m.getStream()).put(m, m);
+			NodeTable s;
+
+			long stream = m.getStream();
+
+			synchronized (knownNodes) {
+				s = knownNodes.get(stream);
+
+				if (s == null) {
+					s = new NodeTable();
+					knownNodes.put(stream, s);
+				}
+			}
 
-			if (before == null) {
+			if (s.put(m)) {
 				added.add(m);
 			}
 		}
@@ -214,20 +323,24 @@ public class Datastore {
 	 *            The address of the node.
 	 * @param port
 	 *            The port of the node.
+	 * @return True if the node was removed from at least one stream.
 	 */
-	public void removeNodeIfOld(InetAddress address, int port) {
-		for (Map<NetworkAddressMessage, NetworkAddressMessage> s : knownNodes.values()) {
-			// NetworkAddressMessage m = s.get(new NetworkAddressMessage(1, 1,
-			// new NodeServicesMessage(NodeServicesMessage.NODE_NETWORK),
-			// address, port));
-
-			// if (m.getTime() < (System.currentTimeMillis() / 1000)
-			// - Options.getInstance().getInt("data.maxNodeStorageTime")) {
-			// s.remove(m);
-			// }
-
-			throw new RuntimeException("Not implemented!");
+	public boolean removeNodeIfOld(InetAddress address, int port) {
+		long threshold = System.currentTimeMillis() / 1000 - Options.getInstance().getInt("data.maxNodeStorageTime");
+		boolean removed = false;
+
+		for (NodeTable s : new ArrayList<>(knownNodes.values())) {
+			synchronized (s) {
+				NetworkAddressMessage m = s.get(address, port);
+
+				if (m != null && (m.getTime() & 0xFFFFFFFFL) < threshold) {
+					s.remove(address, port);
+					removed = true;
+				}
+			}
 		}
+
+		return removed;
 	}
 
 	/**
@@ -235,5 +348,6 @@ public class Datastore {
 	 */
 	public void stop() {
 		stop = true;
+		database.close();
 	}
 }
\ No newline at end of file
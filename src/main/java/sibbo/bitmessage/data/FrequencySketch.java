@@ -0,0 +1,116 @@
+package sibbo.bitmessage.data;
+
+import java.util.logging.Logger;
+
+/**
+ * Estimates how often keys were accessed recently. It is a count-min sketch
+ * with four 4 bit counters per key, packed into longs. When the amount of
+ * increments reaches ten times the capacity, all counters are halved, so old
+ * accesses are forgotten.
+ * 
+ * This class is not thread safe.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+class FrequencySketch {
+	private static final Logger LOG = Logger.getLogger(FrequencySketch.class.getName());
+
+	/** Seeds of the four hash functions. */
+	private static final long[] SEEDS = { 0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL,
+			0xCBF29CE484222325L };
+
+	/** Sixteen 4 bit counters per long. */
+	private final long[] table;
+
+	/** The amount of increments after which the counters are halved. */
+	private final int sampleSize;
+
+	/** The amount of increments since the last halving. */
+	private int size;
+
+	/**
+	 * Creates a new sketch for about the given amount of keys.
+	 * 
+	 * @param capacity
+	 *            The expected amount of keys.
+	 */
+	public FrequencySketch(int capacity) {
+		int length = 1;
+
+		while (length < capacity / 4 && length < 1 << 24) {
+			length *= 2;
+		}
+
+		table = new long[length];
+		sampleSize = Math.max(10, 10 * capacity);
+	}
+
+	/**
+	 * Returns the estimated frequency of the given key, between 0 and 15.
+	 * 
+	 * @param hash
+	 *            The hash code of the key.
+	 * @return The estimated frequency.
+	 */
+	public int frequency(int hash) {
+		int frequency = 15;
+
+		for (int i = 0; i < SEEDS.length; i++) {
+			int index = index(hash, i);
+			int shift = shift(hash, i);
+			frequency = Math.min(frequency, (int) (table[index] >>> shift) & 0xF);
+		}
+
+		return frequency;
+	}
+
+	/**
+	 * Increments the counters of the given key.
+	 * 
+	 * @param hash
+	 *            The hash code of the key.
+	 */
+	public void increment(int hash) {
+		boolean added = false;
+
+		for (int i = 0; i < SEEDS.length; i++) {
+			int index = index(hash, i);
+			int shift = shift(hash, i);
+
+			if (((table[index] >>> shift) & 0xF) != 0xF) {
+				table[index] += 1L << shift;
+				added = true;
+			}
+		}
+
+		if (added && ++size >= sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Halves all counters.
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+		}
+
+		size /= 2;
+	}
+
+	private long mix(int hash, int i) {
+		long h = (hash + SEEDS[i]) * SEEDS[(i + 1) % SEEDS.length];
+
+		return h ^ (h >>> 29);
+	}
+
+	private int index(int hash, int i) {
+		return (int) mix(hash, i) & (table.length - 1);
+	}
+
+	private int shift(int hash, int i) {
+		return (int) (mix(hash, i) >>> 60) << 2;
+	}
+}
@@ -0,0 +1,314 @@
+package sibbo.bitmessage.data;
+
+import java.util.Objects;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.network.protocol.Util;
+
+/**
+ * A map from 32 byte inventory hashes to values. Like the
+ * {@link ObjectIndex} the hashes are stored as four longs per slot using
+ * open addressing with linear probing, so hashes can be looked up at any
+ * offset of an array without creating a key object. A slot is empty if its
+ * value is null, so null values are not allowed. Removed entries are closed
+ * by shifting the following entries back.<br />
+ * Not thread safe.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ * 
+ * @param <V>
+ *            The type of the values.
+ */
+public class InventoryHashMap<V> {
+	private static final Logger LOG = Logger.getLogger(InventoryHashMap.class.getName());
+
+	/** The length of a hash in bytes. */
+	public static final int HASH_LENGTH = 32;
+
+	/** Four longs per slot. */
+	private long[] keys;
+
+	/** The values, null for empty slots. */
+	private Object[] values;
+
+	private int mask;
+
+	/** The amount of entries. */
+	private int size;
+
+	/**
+	 * Creates a new map with space for the given amount of entries.
+	 * 
+	 * @param capacity
+	 *            The expected amount of entries.
+	 */
+	public InventoryHashMap(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must be >= 0.");
+		}
+
+		int slots = 16;
+
+		while (slots * 3L / 4 < capacity) {
+			slots *= 2;
+		}
+
+		allocate(slots);
+	}
+
+	/**
+	 * Returns the value of the hash that starts at the given offset of the
+	 * array.
+	 * 
+	 * @param b
+	 *            The array containing the hash.
+	 * @param offset
+	 *            The first byte of the hash.
+	 * @return The value or null if the map does not contain the hash.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(byte[] b, int offset) {
+		int slot = find(b, offset);
+
+		return slot < 0 ? null : (V) values[slot];
+	}
+
+	/**
+	 * Returns true if the map contains the hash that starts at the given offset
+	 * of the array.
+	 * 
+	 * @param b
+	 *            The array containing the hash.
+	 * @param offset
+	 *            The first byte of the hash.
+	 * @return True if the map contains the hash.
+	 */
+	public boolean containsKey(byte[] b, int offset) {
+		return find(b, offset) >= 0;
+	}
+
+	/**
+	 * Maps the hash that starts at the given offset of the array to the given
+	 * value.
+	 * 
+	 * @param b
+	 *            The array containing the hash.
+	 * @param offset
+	 *            The first byte of the hash.
+	 * @param value
+	 *            The value.
+	 * @return The previous value or null if the map did not contain the hash.
+	 */
+	public V put(byte[] b, int offset, V value) {
+		return put(b, offset, value, true);
+	}
+
+	/**
+	 * Maps the hash that starts at the given offset of the array to the given
+	 * value if the map does not contain the hash yet.
+	 * 
+	 * @param b
+	 *            The array containing the hash.
+	 * @param offset
+	 *            The first byte of the hash.
+	 * @param value
+	 *            The value.
+	 * @return The current value or null if the given value was inserted.
+	 */
+	public V putIfAbsent(byte[] b, int offset, V value) {
+		return put(b, offset, value, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V put(byte[] b, int offset, V value, boolean replace) {
+		Objects.requireNonNull(value, "value must not be null.");
+		checkLength(b, offset);
+
+		long k0 = Util.getLong(b, offset);
+		long k1 = Util.getLong(b, offset + 8);
+		long k2 = Util.getLong(b, offset + 16);
+		long k3 = Util.getLong(b, offset + 24);
+
+		for (int slot = slot(k0);; slot = (slot + 1) & mask) {
+			if (values[slot] == null) {
+				if ((size + 1) * 4L > (mask + 1) * 3L) {
+					grow();
+					return put(b, offset, value, replace);
+				}
+
+				set(slot, k0, k1, k2, k3, value);
+				size++;
+				return null;
+			}
+
+			if (equals(slot, k0, k1, k2, k3)) {
+				V old = (V) values[slot];
+
+				if (replace) {
+					values[slot] = value;
+				}
+
+				return old;
+			}
+		}
+	}
+
+	/**
+	 * Removes the hash that starts at the given offset of the array.
+	 * 
+	 * @param b
+	 *            The array containing the hash.
+	 * @param offset
+	 *            The first byte of the hash.
+	 * @return The removed value or null if the map did not contain the hash.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(byte[] b, int offset) {
+		int slot = find(b, offset);
+
+		if (slot < 0) {
+			return null;
+		}
+
+		V old = (V) values[slot];
+		delete(slot);
+
+		return old;
+	}
+
+	/**
+	 * Removes all entries with the given value. Needs a single pass over the
+	 * table.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @return The amount of removed entries.
+	 */
+	public int removeValue(V value) {
+		int removed = 0;
+
+		for (int slot = 0; slot <= mask; slot++) {
+			// Deleting shifts a following entry into this slot.
+			while (values[slot] != null && values[slot].equals(value)) {
+				delete(slot);
+				removed++;
+			}
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Returns the amount of entries.
+	 * 
+	 * @return The amount of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		allocate(16);
+		size = 0;
+	}
+
+	private int find(byte[] b, int offset) {
+		checkLength(b, offset);
+
+		long k0 = Util.getLong(b, offset);
+		long k1 = Util.getLong(b, offset + 8);
+		long k2 = Util.getLong(b, offset + 16);
+		long k3 = Util.getLong(b, offset + 24);
+
+		for (int slot = slot(k0);; slot = (slot + 1) & mask) {
+			if (values[slot] == null) {
+				return -1;
+			}
+
+			if (equals(slot, k0, k1, k2, k3)) {
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * Empties the given slot and moves following entries back until the probe
+	 * sequence ends, so lookups never stop at a hole.
+	 */
+	private void delete(int slot) {
+		int hole = slot;
+
+		for (int j = (hole + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+			int home = slot(keys[j * 4]);
+
+			// The entry can only move back if the hole is between its home and j.
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				set(hole, keys[j * 4], keys[j * 4 + 1], keys[j * 4 + 2], keys[j * 4 + 3], values[j]);
+				hole = j;
+			}
+		}
+
+		values[hole] = null;
+		size--;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate((mask + 1) * 2);
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int k = i * 4;
+				int slot = slot(oldKeys[k]);
+
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+
+				set(slot, oldKeys[k], oldKeys[k + 1], oldKeys[k + 2], oldKeys[k + 3], oldValues[i]);
+			}
+		}
+	}
+
+	private void allocate(int slots) {
+		keys = new long[slots * 4];
+		values = new Object[slots];
+		mask = slots - 1;
+	}
+
+	private void set(int slot, long k0, long k1, long k2, long k3, Object value) {
+		int k = slot * 4;
+		keys[k] = k0;
+		keys[k + 1] = k1;
+		keys[k + 2] = k2;
+		keys[k + 3] = k3;
+		values[slot] = value;
+	}
+
+	private boolean equals(int slot, long k0, long k1, long k2, long k3) {
+		int k = slot * 4;
+
+		return keys[k] == k0 && keys[k + 1] == k1 && keys[k + 2] == k2 && keys[k + 3] == k3;
+	}
+
+	private int slot(long k0) {
+		long h = k0 * 0x9E3779B97F4A7C15L;
+
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private static void checkLength(byte[] b, int offset) {
+		if (offset < 0 || offset + HASH_LENGTH > b.length) {
+			throw new IllegalArgumentException("A hash must have a length of " + HASH_LENGTH + ".");
+		}
+	}
+}
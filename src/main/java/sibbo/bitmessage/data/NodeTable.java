@@ -0,0 +1,390 @@
+package sibbo.bitmessage.data;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.network.protocol.NetworkAddressMessage;
+
+/**
+ * The known nodes of a stream, by ip and port. Besides lookups the table
+ * supports drawing random nodes in constant time, either uniformly or with a
+ * probability proportional to the weight of the node, and drawing several
+ * distinct nodes at once. Adding and removing a node takes constant time as
+ * well, so there is nothing to rebuild when nodes come and go.<br />
+ * All nodes are kept in an array for uniform sampling. For weighted sampling
+ * the nodes are additionally grouped into buckets of weights within a power
+ * of two. A bucket is chosen with a probability proportional to its size times
+ * the upper bound of its weights, then a node of the bucket is accepted with
+ * the probability weight / upper bound, which is at least 1/2. Removing a node
+ * moves the last node of an array into its place.<br />
+ * Weights are clamped to [2^-32, 2^32). New nodes have the weight 1.<br />
+ * Thread safe.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class NodeTable {
+	private static final Logger LOG = Logger.getLogger(NodeTable.class.getName());
+
+	/** The exponent of the smallest weight. */
+	private static final int MIN_EXPONENT = -32;
+
+	/** One bucket per exponent, so the non-empty buckets fit into a long. */
+	private static final int BUCKETS = 64;
+
+	/** The smallest weight. */
+	private static final double MIN_WEIGHT = Math.scalb(1.0, MIN_EXPONENT);
+
+	/** The largest weight. */
+	private static final double MAX_WEIGHT = Math.nextAfter(Math.scalb(1.0, MIN_EXPONENT + BUCKETS), 0);
+
+	/** The entries by address. */
+	private final Map<InetSocketAddress, Entry> entries = new HashMap<>();
+
+	/** All entries, the first {@code size} are used. */
+	private Entry[] all = new Entry[16];
+
+	/** The amount of entries. */
+	private int size;
+
+	/** The entries of every weight bucket. */
+	private final Entry[][] buckets = new Entry[BUCKETS][];
+
+	/** The amount of entries of every weight bucket. */
+	private final int[] bucketSizes = new int[BUCKETS];
+
+	/** Bit i is set if bucket i is not empty. */
+	private long nonEmpty;
+
+	private final Random random;
+
+	/**
+	 * Creates a new empty node table.
+	 */
+	public NodeTable() {
+		this(new Random());
+	}
+
+	/**
+	 * Creates a new empty node table that draws nodes with the given random
+	 * number generator.
+	 * 
+	 * @param random
+	 *            The random number generator.
+	 */
+	public NodeTable(Random random) {
+		this.random = Objects.requireNonNull(random, "random must not be null.");
+	}
+
+	/**
+	 * Adds the given node. If a node with the same ip and port is present,
+	 * it is replaced and keeps its weight.
+	 * 
+	 * @param m
+	 *            The node.
+	 * @return True if the node was not present before.
+	 */
+	public synchronized boolean put(NetworkAddressMessage m) {
+		InetSocketAddress key = new InetSocketAddress(m.getIp(), m.getPort());
+		Entry e = entries.get(key);
+
+		if (e != null) {
+			e.node = m;
+			return false;
+		}
+
+		e = new Entry(m, 1);
+		entries.put(key, e);
+		link(e);
+
+		return true;
+	}
+
+	/**
+	 * Returns true if a node with the ip and port of the given node is
+	 * present.
+	 * 
+	 * @param m
+	 *            The node.
+	 * @return True if the node is present.
+	 */
+	public synchronized boolean contains(NetworkAddressMessage m) {
+		return entries.containsKey(new InetSocketAddress(m.getIp(), m.getPort()));
+	}
+
+	/**
+	 * Returns the node with the given ip and port.
+	 * 
+	 * @param address
+	 *            The ip of the node.
+	 * @param port
+	 *            The port of the node.
+	 * @return The node or null if it is not present.
+	 */
+	public synchronized NetworkAddressMessage get(InetAddress address, int port) {
+		Entry e = entries.get(new InetSocketAddress(address, port));
+
+		return e == null ? null : e.node;
+	}
+
+	/**
+	 * Removes the node with the given ip and port.
+	 * 
+	 * @param address
+	 *            The ip of the node.
+	 * @param port
+	 *            The port of the node.
+	 * @return The removed node or null if it was not present.
+	 */
+	public synchronized NetworkAddressMessage remove(InetAddress address, int port) {
+		Entry e = entries.remove(new InetSocketAddress(address, port));
+
+		if (e == null) {
+			return null;
+		}
+
+		unlink(e);
+
+		return e.node;
+	}
+
+	/**
+	 * Sets the weight of the node with the given ip and port.
+	 * 
+	 * @param address
+	 *            The ip of the node.
+	 * @param port
+	 *            The port of the node.
+	 * @param weight
+	 *            The weight. Must be > 0. Is clamped to [2^-32, 2^32).
+	 * @return True if the node is present.
+	 */
+	public synchronized boolean setWeight(InetAddress address, int port, double weight) {
+		if (!(weight > 0)) {
+			throw new IllegalArgumentException("weight must be > 0: " + weight);
+		}
+
+		Entry e = entries.get(new InetSocketAddress(address, port));
+
+		if (e == null) {
+			return false;
+		}
+
+		removeFromBucket(e);
+		e.weight = Math.min(Math.max(weight, MIN_WEIGHT), MAX_WEIGHT);
+		addToBucket(e);
+
+		return true;
+	}
+
+	/**
+	 * Returns the weight of the node with the given ip and port.
+	 * 
+	 * @param address
+	 *            The ip of the node.
+	 * @param port
+	 *            The port of the node.
+	 * @return The weight or 0 if the node is not present.
+	 */
+	public synchronized double getWeight(InetAddress address, int port) {
+		Entry e = entries.get(new InetSocketAddress(address, port));
+
+		return e == null ? 0 : e.weight;
+	}
+
+	/**
+	 * Returns the amount of nodes.
+	 * 
+	 * @return The amount of nodes.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Adds all nodes to the given collection.
+	 * 
+	 * @param c
+	 *            The collection.
+	 */
+	public synchronized void addTo(Collection<? super NetworkAddressMessage> c) {
+		for (int i = 0; i < size; i++) {
+			c.add(all[i].node);
+		}
+	}
+
+	/**
+	 * Returns a random node. Every node has the same probability.
+	 * 
+	 * @return A random node or null if the table is empty.
+	 */
+	public synchronized NetworkAddressMessage sample() {
+		return size == 0 ? null : all[random.nextInt(size)].node;
+	}
+
+	/**
+	 * Returns a random node. The probability of a node is proportional to its
+	 * weight.
+	 * 
+	 * @return A random node or null if the table is empty.
+	 */
+	public synchronized NetworkAddressMessage sampleWeighted() {
+		return size == 0 ? null : sampleEntry().node;
+	}
+
+	/**
+	 * Returns up to {@code count} distinct random nodes. The nodes are drawn
+	 * one after the other without replacement.
+	 * 
+	 * @param count
+	 *            The amount of nodes. Must be >= 0.
+	 * @param weighted
+	 *            If true, the probability of a node is proportional to its
+	 *            weight. Otherwise every node has the same probability.
+	 * @return A list with {@code min(count, size())} nodes.
+	 */
+	public synchronized List<NetworkAddressMessage> sample(int count, boolean weighted) {
+		if (count < 0) {
+			throw new IllegalArgumentException("count must be >= 0.");
+		}
+
+		int n = Math.min(count, size);
+		List<Entry> drawn = new ArrayList<>(n);
+
+		// The drawn entries are taken out until all are drawn.
+		for (int i = 0; i < n; i++) {
+			Entry e = weighted ? sampleEntry() : all[random.nextInt(size)];
+			unlink(e);
+			drawn.add(e);
+		}
+
+		List<NetworkAddressMessage> l = new ArrayList<>(n);
+
+		for (Entry e : drawn) {
+			link(e);
+			l.add(e.node);
+		}
+
+		return l;
+	}
+
+	/**
+	 * Draws an entry with a probability proportional to its weight. The table
+	 * must not be empty.
+	 */
+	private Entry sampleEntry() {
+		double total = 0;
+
+		for (long bits = nonEmpty; bits != 0; bits &= bits - 1) {
+			int b = Long.numberOfTrailingZeros(bits);
+			total += Math.scalb((double) bucketSizes[b], b + MIN_EXPONENT + 1);
+		}
+
+		while (true) {
+			double x = random.nextDouble() * total;
+			int b = 0;
+
+			for (long bits = nonEmpty; bits != 0; bits &= bits - 1) {
+				b = Long.numberOfTrailingZeros(bits);
+				x -= Math.scalb((double) bucketSizes[b], b + MIN_EXPONENT + 1);
+
+				if (x < 0) {
+					break;
+				}
+			}
+
+			Entry e = buckets[b][random.nextInt(bucketSizes[b])];
+
+			if (random.nextDouble() * Math.scalb(1.0, b + MIN_EXPONENT + 1) < e.weight) {
+				return e;
+			}
+		}
+	}
+
+	/**
+	 * Adds the given entry to the array of all entries and to its bucket.
+	 */
+	private void link(Entry e) {
+		if (size == all.length) {
+			Entry[] a = new Entry[all.length * 2];
+			System.arraycopy(all, 0, a, 0, size);
+			all = a;
+		}
+
+		e.index = size;
+		all[size++] = e;
+		addToBucket(e);
+	}
+
+	/**
+	 * Removes the given entry from the array of all entries and from its
+	 * bucket.
+	 */
+	private void unlink(Entry e) {
+		Entry last = all[--size];
+		all[e.index] = last;
+		last.index = e.index;
+		all[size] = null;
+
+		removeFromBucket(e);
+	}
+
+	private void addToBucket(Entry e) {
+		int b = Math.getExponent(e.weight) - MIN_EXPONENT;
+		Entry[] bucket = buckets[b];
+
+		if (bucket == null) {
+			bucket = new Entry[4];
+		} else if (bucketSizes[b] == bucket.length) {
+			Entry[] a = new Entry[bucket.length * 2];
+			System.arraycopy(bucket, 0, a, 0, bucket.length);
+			bucket = a;
+		}
+
+		buckets[b] = bucket;
+		e.bucket = b;
+		e.bucketIndex = bucketSizes[b];
+		bucket[bucketSizes[b]++] = e;
+		nonEmpty |= 1L << b;
+	}
+
+	private void removeFromBucket(Entry e) {
+		int b = e.bucket;
+		Entry[] bucket = buckets[b];
+		Entry last = bucket[--bucketSizes[b]];
+		bucket[e.bucketIndex] = last;
+		last.bucketIndex = e.bucketIndex;
+		bucket[bucketSizes[b]] = null;
+
+		if (bucketSizes[b] == 0) {
+			nonEmpty &= ~(1L << b);
+		}
+	}
+
+	/**
+	 * A node and its position in the arrays.
+	 */
+	private static class Entry {
+		private NetworkAddressMessage node;
+		private double weight;
+
+		/** The position in the array of all entries. */
+		private int index;
+
+		/** The bucket of the weight and the position in the bucket. */
+		private int bucket, bucketIndex;
+
+		public Entry(NetworkAddressMessage node, double weight) {
+			this.node = node;
+			this.weight = weight;
+		}
+	}
+}
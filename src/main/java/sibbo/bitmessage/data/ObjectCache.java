@@ -0,0 +1,439 @@
+package sibbo.bitmessage.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.network.protocol.InventoryVectorMessage;
+import sibbo.bitmessage.network.protocol.POWMessage;
+
+/**
+ * A cache for objects that is bounded by the size of the objects in bytes.
+ * Two eviction policies are supported:
+ * <ul>
+ * <li>{@link Policy#LRU}: The least recently used object is evicted.</li>
+ * <li>{@link Policy#TINY_LFU}: New objects enter a small LRU window. Objects
+ * that leave the window are only admitted to the main cache if they were
+ * accessed more often than the object that would be evicted for them. The
+ * main cache is a segmented LRU with a probation and a protected segment.</li>
+ * </ul>
+ * The cache is split into segments by the hash of the objects. Every segment
+ * has its own share of the size and its own lock, so lookups of different
+ * objects rarely wait for each other. Thread safe.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class ObjectCache {
+	private static final Logger LOG = Logger.getLogger(ObjectCache.class.getName());
+
+	/** The expected average size of an object, used to size the sketch. */
+	private static final int AVERAGE_OBJECT_SIZE = 1024;
+
+	/**
+	 * The estimated size of the parts of a parsed object that do not depend
+	 * on its length, like the hash, the inventory vector and public keys.
+	 */
+	private static final int OBJECT_OVERHEAD = 512;
+
+	/**
+	 * An eviction policy.
+	 */
+	public enum Policy {
+		LRU, TINY_LFU;
+	}
+
+	/** The segments, selected by the hash of the key. */
+	private final Segment[] segments;
+
+	/**
+	 * Creates a new cache with a single segment.
+	 * 
+	 * @param maxSize
+	 *            The maximum size of all cached objects in bytes.
+	 * @param policy
+	 *            The eviction policy.
+	 */
+	public ObjectCache(long maxSize, Policy policy) {
+		this(maxSize, policy, 1);
+	}
+
+	/**
+	 * Creates a new cache.
+	 * 
+	 * @param maxSize
+	 *            The maximum size of all cached objects in bytes.
+	 * @param policy
+	 *            The eviction policy.
+	 * @param segments
+	 *            The amount of segments. Every segment gets an equal share of
+	 *            maxSize, so no object larger than that share is cached.
+	 */
+	public ObjectCache(long maxSize, Policy policy, int segments) {
+		Objects.requireNonNull(policy, "policy must not be null.");
+
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize must be >= 0.");
+		}
+
+		if (segments <= 0) {
+			throw new IllegalArgumentException("segments must be > 0.");
+		}
+
+		this.segments = new Segment[segments];
+
+		for (int i = 0; i < segments; i++) {
+			this.segments[i] = new Segment(maxSize / segments, policy);
+		}
+	}
+
+	/**
+	 * Estimates the memory used by the given object. The object keeps its
+	 * encoding and the parsed fields, which hold about as many bytes as the
+	 * encoding again, plus a fixed overhead.
+	 * 
+	 * @param m
+	 *            The object.
+	 * @return The estimated size in bytes.
+	 */
+	public static int estimateSize(POWMessage m) {
+		return 2 * m.getBytes().length + OBJECT_OVERHEAD;
+	}
+
+	private Segment segment(InventoryVectorMessage key) {
+		// The high bits of the mixed hash select the segment.
+		long h = (key.hashCode() * 0x9E3779B9) & 0xFFFFFFFFL;
+
+		return segments[(int) (h * segments.length >>> 32)];
+	}
+
+	/**
+	 * Returns the cached object with the given hash.
+	 * 
+	 * @param key
+	 *            The hash.
+	 * @return The object or null, if it is not cached.
+	 */
+	public POWMessage get(InventoryVectorMessage key) {
+		return segment(key).get(key);
+	}
+
+	/**
+	 * Adds the given object to the cache. An object larger than a segment is
+	 * not added.
+	 * 
+	 * @param key
+	 *            The hash.
+	 * @param value
+	 *            The object.
+	 * @param size
+	 *            The size of the object in bytes, see
+	 *            {@link #estimateSize(POWMessage)}.
+	 */
+	public void put(InventoryVectorMessage key, POWMessage value, int size) {
+		Objects.requireNonNull(key, "key must not be null.");
+		Objects.requireNonNull(value, "value must not be null.");
+
+		segment(key).put(key, value, size);
+	}
+
+	/**
+	 * Returns the amount of cached objects.
+	 * 
+	 * @return The amount of cached objects.
+	 */
+	public int size() {
+		int size = 0;
+
+		for (Segment s : segments) {
+			size += s.size();
+		}
+
+		return size;
+	}
+
+	/**
+	 * Returns the size of all cached objects in bytes.
+	 * 
+	 * @return The size of all cached objects in bytes.
+	 */
+	public long getSize() {
+		long size = 0;
+
+		for (Segment s : segments) {
+			size += s.getSize();
+		}
+
+		return size;
+	}
+
+	/**
+	 * Returns the amount of lookups that found an object.
+	 * 
+	 * @return The amount of hits.
+	 */
+	public long getHits() {
+		long hits = 0;
+
+		for (Segment s : segments) {
+			hits += s.getHits();
+		}
+
+		return hits;
+	}
+
+	/**
+	 * Returns the amount of lookups that did not find an object.
+	 * 
+	 * @return The amount of misses.
+	 */
+	public long getMisses() {
+		long misses = 0;
+
+		for (Segment s : segments) {
+			misses += s.getMisses();
+		}
+
+		return misses;
+	}
+
+	/**
+	 * Returns the amount of objects that were evicted or not admitted.
+	 * 
+	 * @return The amount of evictions.
+	 */
+	public long getEvictions() {
+		long evictions = 0;
+
+		for (Segment s : segments) {
+			evictions += s.getEvictions();
+		}
+
+		return evictions;
+	}
+
+	@Override
+	public String toString() {
+		return "ObjectCache [objects=" + size() + ", size=" + getSize() + ", hits=" + getHits() + ", misses="
+				+ getMisses() + ", evictions=" + getEvictions() + "]";
+	}
+
+	/**
+	 * A part of the cache with its own eviction policy. All methods are
+	 * synchronized.
+	 */
+	private static class Segment {
+		/** The cached objects. */
+		private final Map<InventoryVectorMessage, Node> nodes = new HashMap<>();
+
+		/** Estimates the access frequencies. Null for LRU. */
+		private final FrequencySketch sketch;
+
+		/** New objects, most recently used first. */
+		private final Queue window = new Queue();
+
+		/** Objects that were admitted to the main cache. */
+		private final Queue probation = new Queue();
+
+		/** Objects of the main cache that were accessed again. */
+		private final Queue protectedQueue = new Queue();
+
+		/** The maximum size of the window in bytes. */
+		private final long maxWindowSize;
+
+		/** The maximum size of the main cache in bytes. */
+		private final long maxMainSize;
+
+		/** The maximum size of the protected segment in bytes. */
+		private final long maxProtectedSize;
+
+		private long hits;
+		private long misses;
+		private long evictions;
+
+		public Segment(long maxSize, Policy policy) {
+			if (policy == Policy.LRU) {
+				sketch = null;
+				maxWindowSize = maxSize;
+				maxMainSize = 0;
+				maxProtectedSize = 0;
+			} else {
+				sketch = new FrequencySketch((int) Math.max(16, Math.min(1 << 24, maxSize / AVERAGE_OBJECT_SIZE)));
+				maxWindowSize = maxSize / 100;
+				maxMainSize = maxSize - maxWindowSize;
+				maxProtectedSize = maxMainSize * 4 / 5;
+			}
+		}
+
+		public synchronized POWMessage get(InventoryVectorMessage key) {
+			record(key);
+			Node n = nodes.get(key);
+
+			if (n == null) {
+				misses++;
+				return null;
+			}
+
+			hits++;
+
+			if (n.queue == probation) {
+				probation.remove(n);
+				protectedQueue.addFirst(n);
+
+				while (protectedQueue.size > maxProtectedSize) {
+					Node demoted = protectedQueue.last;
+					protectedQueue.remove(demoted);
+					probation.addFirst(demoted);
+				}
+			} else {
+				n.queue.moveToFront(n);
+			}
+
+			return n.value;
+		}
+
+		public synchronized void put(InventoryVectorMessage key, POWMessage value, int size) {
+			if (nodes.containsKey(key) || size > maxWindowSize + maxMainSize) {
+				return;
+			}
+
+			record(key);
+			Node n = new Node(key, value, size);
+			nodes.put(key, n);
+			window.addFirst(n);
+
+			while (window.size > maxWindowSize) {
+				Node candidate = window.last;
+				window.remove(candidate);
+				admit(candidate);
+			}
+		}
+
+		/**
+		 * Moves an object that left the window into the main cache, or evicts
+		 * it if it is accessed less often than the objects it would replace.
+		 */
+		private void admit(Node candidate) {
+			while (probation.size + protectedQueue.size + candidate.size > maxMainSize) {
+				Node victim = probation.last != null ? probation.last : protectedQueue.last;
+
+				if (victim != null && frequency(candidate) > frequency(victim)) {
+					victim.queue.remove(victim);
+					evict(victim);
+				} else {
+					evict(candidate);
+					return;
+				}
+			}
+
+			probation.addFirst(candidate);
+		}
+
+		private void evict(Node n) {
+			nodes.remove(n.key);
+			evictions++;
+		}
+
+		private void record(InventoryVectorMessage key) {
+			if (sketch != null) {
+				sketch.increment(key.hashCode());
+			}
+		}
+
+		private int frequency(Node n) {
+			return sketch.frequency(n.key.hashCode());
+		}
+
+		public synchronized int size() {
+			return nodes.size();
+		}
+
+		public synchronized long getSize() {
+			return window.size + probation.size + protectedQueue.size;
+		}
+
+		public synchronized long getHits() {
+			return hits;
+		}
+
+		public synchronized long getMisses() {
+			return misses;
+		}
+
+		public synchronized long getEvictions() {
+			return evictions;
+		}
+	}
+
+	/**
+	 * A cached object.
+	 */
+	private static class Node {
+		private final InventoryVectorMessage key;
+		private final POWMessage value;
+		private final int size;
+
+		private Queue queue;
+		private Node previous;
+		private Node next;
+
+		public Node(InventoryVectorMessage key, POWMessage value, int size) {
+			this.key = key;
+			this.value = value;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * A doubly linked list of nodes, most recently used first.
+	 */
+	private static class Queue {
+		private Node first;
+		private Node last;
+
+		/** The size of all objects in this queue in bytes. */
+		private long size;
+
+		public void addFirst(Node n) {
+			n.queue = this;
+			n.previous = null;
+			n.next = first;
+
+			if (first != null) {
+				first.previous = n;
+			} else {
+				last = n;
+			}
+
+			first = n;
+			size += n.size;
+		}
+
+		public void remove(Node n) {
+			if (n.previous != null) {
+				n.previous.next = n.next;
+			} else {
+				first = n.next;
+			}
+
+			if (n.next != null) {
+				n.next.previous = n.previous;
+			} else {
+				last = n.previous;
+			}
+
+			n.queue = null;
+			n.previous = null;
+			n.next = null;
+			size -= n.size;
+		}
+
+		public void moveToFront(Node n) {
+			if (first != n) {
+				remove(n);
+				addFirst(n);
+			}
+		}
+	}
+}
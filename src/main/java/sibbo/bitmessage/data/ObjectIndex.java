@@ -0,0 +1,291 @@
+package sibbo.bitmessage.data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.network.protocol.Util;
+
+/**
+ * Maps 32 byte inventory hashes to positions in the object log. The hashes are
+ * stored as four longs in a flat array using open addressing with linear
+ * probing, so an entry needs 40 bytes and no objects. Entries can't be
+ * removed.<br />
+ * The index is the only set of the hashes of all local objects, so it is used
+ * both to find objects in the log and to filter advertised objects. Reads are
+ * lock free: The position of a slot is written last with volatile semantics
+ * and a slot with a negative position is empty. Writes must be serialized by
+ * the caller.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+class ObjectIndex {
+	private static final Logger LOG = Logger.getLogger(ObjectIndex.class.getName());
+
+	/** The amount of longs per key. */
+	private static final int KEY_LONGS = 4;
+
+	/** The length of a key in bytes. */
+	public static final int KEY_LENGTH = KEY_LONGS * 8;
+
+	/** The current table. Replaced when it is full. */
+	private volatile Table table;
+
+	/** The amount of entries. */
+	private int size;
+
+	/**
+	 * Creates a new index with space for the given amount of entries.
+	 * 
+	 * @param capacity
+	 *            The expected amount of entries.
+	 */
+	public ObjectIndex(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must be >= 0.");
+		}
+
+		int slots = 16;
+
+		while (slots * 3L / 4 < capacity) {
+			slots *= 2;
+		}
+
+		table = new Table(slots);
+	}
+
+	/**
+	 * Returns the position of the given hash.
+	 * 
+	 * @param hash
+	 *            The 32 byte hash.
+	 * @return The position or -1 if the hash is unknown.
+	 */
+	public long get(byte[] hash) {
+		checkLength(hash);
+
+		Table t = table;
+		int slot = t.find(hash, 0);
+
+		return slot < 0 ? -1 : t.positions.get(slot);
+	}
+
+	/**
+	 * Returns true if the index contains the given hash.
+	 * 
+	 * @param hash
+	 *            The 32 byte hash.
+	 * @return True if the index contains the given hash.
+	 */
+	public boolean contains(byte[] hash) {
+		checkLength(hash);
+
+		return table.find(hash, 0) >= 0;
+	}
+
+	/**
+	 * Checks which of the given hashes are contained in the index. The hashes
+	 * are probed one after another against the same table.
+	 * 
+	 * @param hashes
+	 *            The hashes, 32 bytes each, one after another.
+	 * @param count
+	 *            The amount of hashes.
+	 * @param result
+	 *            Receives true at index i if the i-th hash is contained.
+	 * @return The amount of hashes that are not contained.
+	 */
+	public int containsAll(byte[] hashes, int count, boolean[] result) {
+		if (count < 0 || (long) count * KEY_LENGTH > hashes.length || count > result.length) {
+			throw new IllegalArgumentException("count out of range: " + count);
+		}
+
+		Table t = table;
+		int missing = 0;
+
+		for (int i = 0; i < count; i++) {
+			result[i] = t.find(hashes, i * KEY_LENGTH) >= 0;
+
+			if (!result[i]) {
+				missing++;
+			}
+		}
+
+		return missing;
+	}
+
+	/**
+	 * Adds the given hash if it is not already contained.
+	 * 
+	 * @param hash
+	 *            The 32 byte hash.
+	 * @param position
+	 *            The position of the object. Must be >= 0.
+	 * @return True if the hash was added, false if it was already contained.
+	 */
+	public boolean put(byte[] hash, long position) {
+		if (position < 0) {
+			throw new IllegalArgumentException("position must be >= 0.");
+		}
+
+		checkLength(hash);
+
+		if (table.find(hash, 0) >= 0) {
+			return false;
+		}
+
+		if ((size + 1) * 4L > table.capacity() * 3L) {
+			table = table.grow();
+		}
+
+		table.insert(Util.getLong(hash, 0), Util.getLong(hash, 8), Util.getLong(hash, 16), Util.getLong(hash, 24),
+				position);
+		size++;
+
+		return true;
+	}
+
+	/**
+	 * Returns the amount of entries.
+	 * 
+	 * @return The amount of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the amount of slots. Used to iterate over all entries.
+	 * 
+	 * @return The amount of slots.
+	 */
+	public int capacity() {
+		return table.capacity();
+	}
+
+	/**
+	 * Returns the position stored in the given slot.
+	 * 
+	 * @param slot
+	 *            The slot.
+	 * @return The position or -1 if the slot is empty.
+	 */
+	public long getPosition(int slot) {
+		return table.positions.get(slot);
+	}
+
+	/**
+	 * Writes the key of the given slot into the given array.
+	 * 
+	 * @param slot
+	 *            The slot. Must not be empty.
+	 * @param hash
+	 *            The array for the 32 byte hash.
+	 * @param offset
+	 *            The offset of the hash in the array.
+	 */
+	public void getKey(int slot, byte[] hash, int offset) {
+		Table t = table;
+
+		for (int i = 0; i < KEY_LONGS; i++) {
+			Util.putLong(t.keys.get(slot * KEY_LONGS + i), hash, offset + i * 8);
+		}
+	}
+
+	private static void checkLength(byte[] hash) {
+		if (hash.length != KEY_LENGTH) {
+			throw new IllegalArgumentException("hash must have a length of " + KEY_LENGTH + ".");
+		}
+	}
+
+	/**
+	 * The slots of the index. The four longs of a key are stored next to each
+	 * other, so a probe touches a single cache line. Only the writer modifies
+	 * a table.
+	 */
+	private static class Table {
+		/** Four longs per slot. */
+		private final AtomicLongArray keys;
+
+		/** The positions, -1 for empty slots. */
+		private final AtomicLongArray positions;
+
+		private final int mask;
+
+		public Table(int slots) {
+			keys = new AtomicLongArray(slots * KEY_LONGS);
+			positions = new AtomicLongArray(slots);
+			mask = slots - 1;
+
+			// Published by the volatile write of the table.
+			for (int i = 0; i < slots; i++) {
+				positions.lazySet(i, -1);
+			}
+		}
+
+		public int capacity() {
+			return mask + 1;
+		}
+
+		public int find(byte[] b, int offset) {
+			long k0 = Util.getLong(b, offset);
+			long k1 = Util.getLong(b, offset + 8);
+			long k2 = Util.getLong(b, offset + 16);
+			long k3 = Util.getLong(b, offset + 24);
+
+			for (int slot = slot(k0, mask);; slot = (slot + 1) & mask) {
+				if (positions.get(slot) < 0) {
+					return -1;
+				}
+
+				int k = slot * KEY_LONGS;
+
+				if (keys.get(k) == k0 && keys.get(k + 1) == k1 && keys.get(k + 2) == k2 && keys.get(k + 3) == k3) {
+					return slot;
+				}
+			}
+		}
+
+		public void insert(long k0, long k1, long k2, long k3, long position) {
+			int slot = slot(k0, mask);
+
+			while (positions.get(slot) >= 0) {
+				slot = (slot + 1) & mask;
+			}
+
+			int k = slot * KEY_LONGS;
+			keys.lazySet(k, k0);
+			keys.lazySet(k + 1, k1);
+			keys.lazySet(k + 2, k2);
+			keys.lazySet(k + 3, k3);
+
+			// Publishes the key to readers.
+			positions.set(slot, position);
+		}
+
+		public Table grow() {
+			Table t = new Table(capacity() * 2);
+
+			for (int i = 0; i < positions.length(); i++) {
+				long position = positions.get(i);
+
+				if (position >= 0) {
+					int k = i * KEY_LONGS;
+					t.insert(keys.get(k), keys.get(k + 1), keys.get(k + 2), keys.get(k + 3), position);
+				}
+			}
+
+			return t;
+		}
+
+		/**
+		 * Returns the first slot for the given key. Inventory hashes are
+		 * already random, so mixing the first long is enough.
+		 */
+		private static int slot(long k0, int mask) {
+			long h = k0 * 0x9E3779B97F4A7C15L;
+
+			return (int) (h ^ (h >>> 32)) & mask;
+		}
+	}
+}
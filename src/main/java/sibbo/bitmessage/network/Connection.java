@@ -1,19 +1,24 @@
 package sibbo.bitmessage.network;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,8 +26,12 @@ import sibbo.bitmessage.Options;
 import sibbo.bitmessage.data.Datastore;
 import sibbo.bitmessage.network.protocol.AddrMessage;
 import sibbo.bitmessage.network.protocol.BaseMessage;
+import sibbo.bitmessage.network.protocol.BufferPool;
+import sibbo.bitmessage.network.protocol.Frame;
+import sibbo.bitmessage.network.protocol.FrameDecoder;
 import sibbo.bitmessage.network.protocol.GetdataMessage;
 import sibbo.bitmessage.network.protocol.InvMessage;
+import sibbo.bitmessage.network.protocol.InventoryBatch;
 import sibbo.bitmessage.network.protocol.InventoryVectorMessage;
 import sibbo.bitmessage.network.protocol.MessageFactory;
 import sibbo.bitmessage.network.protocol.NetworkAddressMessage;
@@ -30,6 +39,7 @@ import sibbo.bitmessage.network.protocol.NodeServicesMessage;
 import sibbo.bitmessage.network.protocol.P2PMessage;
 import sibbo.bitmessage.network.protocol.POWMessage;
 import sibbo.bitmessage.network.protocol.ParsingException;
+import sibbo.bitmessage.network.protocol.RawObject;
 import sibbo.bitmessage.network.protocol.SimpleNetworkAddressMessage;
 import sibbo.bitmessage.network.protocol.VerackMessage;
 import sibbo.bitmessage.network.protocol.VersionMessage;
@@ -37,6 +47,19 @@ import sibbo.bitmessage.network.protocol.VersionMessage;
 /**
  * A network connection to a single node.<br />
  * <br />
+ * A connection does not own a thread. It is driven by the {@link EventLoop}
+ * it is registered with, so all socket operations and the protocol state are
+ * only touched by the loop thread. Other threads only interact with a
+ * connection through the buffers filled by the advertise and request methods.
+ * Filling a buffer wakes up the loop, which sends everything that was queued
+ * in the meantime in as few messages as possible.<br />
+ * Requested objects are looked up in the datastore by the lookup threads of
+ * the {@link NetworkEngine}, a chunk at a time. Reading is suspended while
+ * too many received objects wait for verification, while more than
+ * {@code network.maxQueuedBytes} wait to be written or while an inv worth of
+ * requested objects waits for the lookup, so a node that does not read what
+ * we send can't make us buffer without limit.<br />
+ * <br />
  * Operation modes:
  * <ul>
  * <li>FOLLOW_STREAM: Follows the given stream and its parent and child streams.
@@ -48,9 +71,15 @@ import sibbo.bitmessage.network.protocol.VersionMessage;
  * @author Sebastian Schmidt
  * @version 1.0
  */
-public class Connection implements Runnable {
+public class Connection implements ObjectSource {
 	private static final Logger LOG = Logger.getLogger(Connection.class.getName());
 
+	/** The maximum amount of reads per read event, so other connections are not starved. */
+	private static final int MAX_READS_PER_EVENT = 16;
+
+	/** The maximum amount of requested objects that are looked up at once. */
+	private static final int LOOKUP_CHUNK_SIZE = 32;
+
 	/** The operation mode of this connection. */
 	private Agenda agenda;
 
@@ -70,22 +99,109 @@ public class Connection implements Runnable {
 	private final ConnectionListener listener;
 
 	/** Holds hashes of objects that should be advertised as soon as possible. */
-	private final Queue<InventoryVectorMessage> invBuffer = new LinkedList<>();
+	private final InventoryBatch invBuffer = new InventoryBatch(0);
 
 	/** Nodes that should be advertised. */
 	private final Queue<NetworkAddressMessage> nodeBuffer = new LinkedList<>();
 
 	/** Holds hashes of objects that should be requested. */
-	private final Queue<InventoryVectorMessage> requestBuffer = new LinkedList<>();
+	private final InventoryBatch requestBuffer = new InventoryBatch(0);
+
+	/** True if sending the buffered messages is already scheduled. */
+	private final AtomicBoolean sendScheduled = new AtomicBoolean();
+
+	/** Sends the buffered messages. */
+	private final Runnable sendTask = new Runnable() {
+		@Override
+		public void run() {
+			sendScheduled.set(false);
+
+			try {
+				sendMessages();
+			} catch (IOException e) {
+				LOG.log(Level.INFO,
+						"Connection to " + address.getHostAddress() + ":" + port + " aborted: " + e.getMessage());
+				close();
+			}
+		}
+	};
+
+	/** Encoded messages that wait for the socket to become writable. */
+	private final Queue<PendingWrite> writeQueue = new LinkedList<>();
+
+	/** The bytes in the write queue. Only written by the loop thread. */
+	private volatile long queuedBytes;
+
+	/** The amount of queued bytes above which reading is suspended. */
+	private final long maxQueuedBytes;
+
+	/** Hashes of objects the remote node requested, oldest first. */
+	private final Queue<InventoryBatch> requested = new LinkedList<>();
+
+	/** The first hash of the oldest requested batch that is not looked up. */
+	private int requestedOffset;
+
+	/** The amount of requested hashes that are not looked up yet. */
+	private int requestedCount;
+
+	/** True if a chunk of requested objects is being looked up. */
+	private boolean lookupRunning;
+
+	/** Looks up requested objects in the datastore. */
+	private final Executor lookupExecutor;
+
+	/** The maximum amount of hashes in an inv or getdata message. */
+	private final int maxInvLength;
+
+	/** The frames of the objects sent to other nodes. */
+	private final FrameCache frameCache;
 
-	/** If true, the connection is aborted as fast as possible. */
-	private volatile boolean stop = false;
+	/** The event loop that drives this connection. */
+	private final EventLoop loop;
 
-	/** If true, there is a thread operating on this object. */
-	private volatile boolean running = false;
+	/** The channel used for the connection. */
+	private SocketChannel channel;
 
-	/** The socket used for the connection. */
-	private Socket s;
+	/** The selection key of the channel. */
+	private SelectionKey key;
+
+	/** Decodes the incoming bytes into messages. */
+	private final FrameDecoder decoder;
+
+	/** Checks the POW of the received objects. */
+	private final ObjectVerifier verifier;
+
+	/** The maximum amount of objects that wait for verification. */
+	private final int maxPendingObjects;
+
+	/** The amount of received objects that wait for verification. */
+	private final AtomicInteger pendingObjects = new AtomicInteger();
+
+	/** The maximum amount of bytes of objects that wait for verification. */
+	private final long maxPendingBytes;
+
+	/** The bytes of the received objects that wait for verification. */
+	private final AtomicLong pendingBytes = new AtomicLong();
+
+	/**
+	 * True if reading is suspended until the pending objects are verified,
+	 * the write queue is drained or the requested objects are looked up.
+	 */
+	private boolean readSuspended;
+
+	/** Continues reading as soon as enough objects are verified. */
+	private final Runnable resumeTask = new Runnable() {
+		@Override
+		public void run() {
+			updateReadInterest();
+		}
+	};
+
+	/** True if the connection was closed. */
+	private volatile boolean closed = false;
+
+	/** True if the TCP connection has been established. */
+	private boolean connected = false;
 
 	/** True if we have verified the remote node with a verack message. */
 	private boolean remoteVerified = false;
@@ -106,10 +222,16 @@ public class Connection implements Runnable {
 	private boolean addrSent;
 
 	/** The factory used to parse and create messages. */
-	private MessageFactory factory;
+	private final MessageFactory factory;
 
 	/** The datastore that stores the nodes and objects for this node. */
-	private Datastore datastore;
+	private final Datastore datastore;
+
+	/** The statistics of the remote node. */
+	private final PeerStatistics statistics;
+
+	/** The time the connect or the accept started. */
+	private long connectStart;
 
 	/**
 	 * Creates and starts a new Connection with the agenda FOLLOW_STREAM.
@@ -127,10 +249,17 @@ public class Connection implements Runnable {
 	 * @param nonce
 	 *            Random nonce to detect connections to self. Must be the same
 	 *            for every connection of the program.
+	 * @param engine
+	 *            The network engine that drives the connection.
+	 * @param datastore
+	 *            The datastore used to answer requests of the remote node.
 	 */
-	public Connection(InetAddress address, int port, long stream, ConnectionListener listener, long nonce) {
+	public Connection(InetAddress address, int port, long stream, ConnectionListener listener, long nonce,
+			NetworkEngine engine, Datastore datastore) {
 		Objects.requireNonNull(address, "address must not be null.");
 		Objects.requireNonNull(listener, "listener must not be null.");
+		Objects.requireNonNull(engine, "engine must not be null.");
+		Objects.requireNonNull(datastore, "datastore must not be null.");
 
 		if (port <= 0 || port > 65535) {
 			throw new IllegalArgumentException("port out of range: " + port);
@@ -141,6 +270,19 @@ public class Connection implements Runnable {
 		streams = Streams.getPerimeter(stream);
 		this.listener = listener;
 		this.nonce = nonce;
+		this.datastore = datastore;
+		loop = engine.next();
+		factory = MessageFactory.getFactoryByVersion(Options.getInstance().getInt("protocol.version"));
+		decoder = new FrameDecoder(factory, BufferPool.getInstance(), Options.getInstance().getInt(
+				"protocol.maxMessageLength"), true);
+		verifier = engine.getVerifier();
+		frameCache = engine.getFrameCache();
+		maxPendingObjects = Options.getInstance().getInt("network.maxPendingObjects");
+		maxPendingBytes = Options.getInstance().getLong("network.maxPendingBytes");
+		maxQueuedBytes = Options.getInstance().getLong("network.maxQueuedBytes");
+		maxInvLength = Options.getInstance().getInt("protocol.maxInvLength");
+		lookupExecutor = engine.getLookupExecutor();
+		statistics = engine.getPeers().get(address, port);
 		client = true;
 
 		start();
@@ -149,8 +291,8 @@ public class Connection implements Runnable {
 	/**
 	 * Creates and starts a new Connection with the agenda FOLLOW_STREAM.
 	 * 
-	 * @param s
-	 *            The connection socket.
+	 * @param channel
+	 *            The connected channel.
 	 * @param stream
 	 *            The stream to follow.
 	 * @param listener
@@ -160,16 +302,38 @@ public class Connection implements Runnable {
 	 * @param nonce
 	 *            Random nonce to detect connections to self. Must be the same
 	 *            for every connection of the program.
+	 * @param engine
+	 *            The network engine that drives the connection.
+	 * @param datastore
+	 *            The datastore used to answer requests of the remote node.
 	 */
-	public Connection(Socket s, long stream, ConnectionListener listener, long nonce) {
-		Objects.requireNonNull(s, "s must not be null");
+	public Connection(SocketChannel channel, long stream, ConnectionListener listener, long nonce,
+			NetworkEngine engine, Datastore datastore) {
+		Objects.requireNonNull(channel, "channel must not be null");
+		Objects.requireNonNull(listener, "listener must not be null.");
+		Objects.requireNonNull(engine, "engine must not be null.");
+		Objects.requireNonNull(datastore, "datastore must not be null.");
 
-		this.s = s;
+		this.channel = channel;
 		this.listener = listener;
 		this.nonce = nonce;
-		address = s.getInetAddress();
-		port = s.getPort();
+		this.datastore = datastore;
+		address = channel.socket().getInetAddress();
+		port = channel.socket().getPort();
 		streams = Streams.getPerimeter(stream);
+		loop = engine.next();
+		factory = MessageFactory.getFactoryByVersion(Options.getInstance().getInt("protocol.version"));
+		decoder = new FrameDecoder(factory, BufferPool.getInstance(), Options.getInstance().getInt(
+				"protocol.maxMessageLength"), true);
+		verifier = engine.getVerifier();
+		frameCache = engine.getFrameCache();
+		maxPendingObjects = Options.getInstance().getInt("network.maxPendingObjects");
+		maxPendingBytes = Options.getInstance().getLong("network.maxPendingBytes");
+		maxQueuedBytes = Options.getInstance().getLong("network.maxQueuedBytes");
+		maxInvLength = Options.getInstance().getInt("protocol.maxInvLength");
+		lookupExecutor = engine.getLookupExecutor();
+		// The remote port is random, so the statistics are not kept.
+		statistics = new PeerStatistics();
 		client = false;
 
 		start();
@@ -187,12 +351,25 @@ public class Connection implements Runnable {
 			synchronized (nodeBuffer) {
 				nodeBuffer.addAll(c);
 			}
+
+			scheduleSend();
 		}
 	}
 
+	/**
+	 * Schedules the advertising of the given object. If the agenda of this
+	 * connection is FIND_STREAM, this method does nothing.
+	 * 
+	 * @param inventoryVector
+	 *            The hash of the object to advertise.
+	 */
 	public void advertiseObject(InventoryVectorMessage inventoryVector) {
-		synchronized (invBuffer) {
-			invBuffer.add(inventoryVector);
+		if (agenda != Agenda.FIND_STREAM) {
+			synchronized (invBuffer) {
+				invBuffer.add(inventoryVector.getHash(), 0);
+			}
+
+			scheduleSend();
 		}
 	}
 
@@ -206,19 +383,150 @@ public class Connection implements Runnable {
 	public void advertiseObjects(Collection<? extends InventoryVectorMessage> c) {
 		if (agenda != Agenda.FIND_STREAM) {
 			synchronized (invBuffer) {
-				invBuffer.addAll(c);
+				for (InventoryVectorMessage m : c) {
+					invBuffer.add(m.getHash(), 0);
+				}
 			}
+
+			scheduleSend();
 		}
 	}
 
-	private void close(Socket s) {
-		try {
-			s.close();
-		} catch (IOException e) {
-			LOG.log(Level.WARNING, "Could not close socket.", e);
+	/**
+	 * Closes the channel and informs the listener. Does nothing if the
+	 * connection is already closed. Must be called from the loop thread.
+	 */
+	private void close() {
+		if (closed) {
+			return;
+		} else {
+			closed = true;
+		}
+
+		if (key != null) {
+			key.cancel();
+		}
+
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not close channel.", e);
+			}
+		}
+
+		decoder.release();
+
+		for (PendingWrite w : writeQueue) {
+			w.release();
+		}
+
+		writeQueue.clear();
+		queuedBytes = 0;
+		requested.clear();
+		requestedCount = 0;
+
+		if (connected) {
+			statistics.disconnected(System.currentTimeMillis());
+			listener.connectionAborted(this);
+		} else {
+			listener.couldNotConnect(this);
+		}
+	}
+
+	/**
+	 * Finishes a pending connect and starts the handshake.
+	 * 
+	 * @throws IOException
+	 *             If the connection could not be established.
+	 */
+	private void finishConnect() throws IOException {
+		if (channel.finishConnect()) {
+			connected();
+		}
+	}
+
+	/**
+	 * Called as soon as the TCP connection is established.
+	 * 
+	 * @throws IOException
+	 *             If sending the version message fails.
+	 */
+	private void connected() throws IOException {
+		connected = true;
+		statistics.connected(System.currentTimeMillis());
+		key.interestOps(SelectionKey.OP_READ);
+		listener.connected(this);
+
+		// Send the version message if we are the one that connected.
+		if (client) {
+			sendVersion();
 		}
 	}
 
+	/**
+	 * Writes as much of the pending data to the channel as possible.
+	 * 
+	 * @throws IOException
+	 *             If writing to the channel fails.
+	 */
+	private void flush() throws IOException {
+		while (!writeQueue.isEmpty()) {
+			ByteBuffer b = writeQueue.peek().buffer;
+			channel.write(b);
+
+			if (b.hasRemaining()) {
+				break;
+			} else {
+				PendingWrite w = writeQueue.poll();
+				queuedBytes -= w.length;
+				w.release();
+			}
+		}
+
+		if (key.isValid()) {
+			if (writeQueue.isEmpty()) {
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			} else {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+
+			updateReadInterest();
+			lookupRequested();
+		}
+	}
+
+	/**
+	 * Suspends reading while too many received objects wait for
+	 * verification, too many bytes wait to be written or too many requested
+	 * objects wait for the lookup. Resumes it otherwise.
+	 */
+	private void updateReadInterest() {
+		if (closed || key == null || !key.isValid()) {
+			return;
+		}
+
+		boolean suspend = pendingObjects.get() >= maxPendingObjects || pendingBytes.get() >= maxPendingBytes
+				|| queuedBytes > maxQueuedBytes || requestedCount >= maxInvLength;
+
+		if (suspend && !readSuspended) {
+			readSuspended = true;
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		} else if (!suspend && readSuspended) {
+			readSuspended = false;
+			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Returns the amount of bytes that wait to be written.
+	 * 
+	 * @return The amount of queued bytes.
+	 */
+	long getQueuedBytes() {
+		return queuedBytes;
+	}
+
 	public InetAddress getAddress() {
 		return address;
 	}
@@ -227,185 +535,475 @@ public class Connection implements Runnable {
 		return port;
 	}
 
-	private void receiveAddr(AddrMessage m, OutputStream out) throws IOException {
-		listener.receivedNodes(m.getAddresses(), this);
+	/**
+	 * Returns the statistics of the remote node.
+	 * 
+	 * @return The statistics of the remote node.
+	 */
+	@Override
+	public PeerStatistics getStatistics() {
+		return statistics;
 	}
 
-	private void receiveGetdata(GetdataMessage m, OutputStream out) throws IOException {
-		List<POWMessage> objects = datastore.getObjects(m.getInventoryVectors());
+	/**
+	 * Handles the events reported for the channel of this connection. Called
+	 * by the event loop.
+	 * 
+	 * @param key
+	 *            The selection key of the channel.
+	 */
+	void handle(SelectionKey key) {
+		try {
+			if (key.isConnectable()) {
+				finishConnect();
+			}
 
-		for (POWMessage object : objects) {
-			out.write(new BaseMessage(object, factory).getBytes());
+			if (key.isValid() && key.isReadable()) {
+				read();
+			}
+
+			if (key.isValid() && key.isWritable()) {
+				flush();
+			}
+		} catch (IOException e) {
+			LOG.log(Level.INFO,
+					"Connection to " + address.getHostAddress() + ":" + port + " aborted: " + e.getMessage());
+			close();
 		}
 	}
 
-	private void receiveInv(InvMessage m, OutputStream out) throws IOException {
-		listener.advertisedObjects(m.getInventoryVectors(), this);
+	/**
+	 * Opens the channel if necessary and registers it with the event loop.
+	 */
+	private void open() {
+		connectStart = System.currentTimeMillis();
+
+		try {
+			if (channel == null) {
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+
+				if (channel.connect(new InetSocketAddress(address, port))) {
+					connected();
+				} else {
+					loop.schedule(new Runnable() {
+						@Override
+						public void run() {
+							if (!connected && !closed) {
+								LOG.log(Level.INFO, "Could not connect to " + address.getHostAddress() + ":" + port
+										+ " because: Connect timed out");
+								close();
+							}
+						}
+					}, Options.getInstance().getInt("network.connectTimeout"));
+				}
+			} else {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				key = loop.register(channel, SelectionKey.OP_READ, this);
+				connected();
+			}
+		} catch (IOException e) {
+			LOG.log(Level.INFO,
+					"Could not connect to " + address.getHostAddress() + ":" + port + " because: " + e.getMessage());
+			close();
+		}
 	}
 
-	private void receiveVerack(VerackMessage m, OutputStream out) {
-		localVerified = true;
+	/**
+	 * Reads all available bytes from the channel and processes all complete
+	 * messages.
+	 * 
+	 * @throws IOException
+	 *             If reading fails or the remote node violates the protocol.
+	 */
+	private void read() throws IOException {
+		ByteBuffer b = loop.getReadBuffer();
+		int bytes = 0;
+
+		for (int i = 0; i < MAX_READS_PER_EVENT && !closed && !readSuspended; i++) {
+			b.clear();
+			int read = channel.read(b);
+
+			if (read == -1) {
+				throw new IOException("End of stream.");
+			} else if (read == 0) {
+				break;
+			}
+
+			bytes += read;
+			b.flip();
+
+			while (!closed && b.hasRemaining()) {
+				BaseMessage m;
+
+				try {
+					m = decoder.decode(b);
+				} catch (ParsingException e) {
+					LOG.log(Level.WARNING, "Could not parse incoming message.", e);
+					continue;
+				}
+
+				if (m != null) {
+					receive(m);
+				}
+			}
+		}
+
+		statistics.bytesReceived(bytes);
 	}
 
-	private void receiveVersion(VersionMessage m, OutputStream out) throws IOException {
-		VersionMessage version = m;
-		LOG.log(Level.INFO, "Remote user agent: " + version.getUserAgent());
+	/**
+	 * Processes a received message.
+	 * 
+	 * @param b
+	 *            The message.
+	 * @throws IOException
+	 *             If answering the message fails.
+	 */
+	private void receive(BaseMessage b) throws IOException {
+		LOG.log(Level.FINE, "Received: " + b.getCommand());
 
-		if (version.getNonce() == nonce) {
-			LOG.log(Level.WARNING, "Connected to self!");
-			close(s);
-			listener.connectionAborted(this);
+		if (b.getObject() != null) {
+			receiveObject(b.getObject());
+			return;
 		}
 
-		remoteStreams = version.getStreams();
+		P2PMessage m = b.getPayload();
 
-		sendVerack(out);
-		remoteVerified = true;
+		switch (m.getCommand()) {
+		case VersionMessage.COMMAND:
+			receiveVersion((VersionMessage) m);
+			break;
 
-		if (!client) {
-			sendVersion(out);
+		case VerackMessage.COMMAND:
+			receiveVerack((VerackMessage) m);
+			break;
+
+		case AddrMessage.COMMAND:
+			receiveAddr((AddrMessage) m);
+			break;
+
+		case InvMessage.COMMAND:
+			receiveInv((InvMessage) m);
+			break;
+
+		case GetdataMessage.COMMAND:
+			receiveGetdata((GetdataMessage) m);
+			break;
+
+		default:
+			LOG.log(Level.WARNING, "Unknown command: " + m.getCommand());
+			close();
+			return;
 		}
 	}
 
 	/**
-	 * Schedules the requesting of all given objects. If the agenda of this
-	 * connection is FIND_STREAM, this method does nothing.
+	 * Queues a received object for verification. The verifier parses it, so
+	 * the loop does not. Reading is suspended if too many objects or too many
+	 * bytes of this connection wait for verification, so a node that sends
+	 * many large objects can't make us buffer them without limit.
 	 * 
-	 * @param c
-	 *            The hashes of the objects to request.
+	 * @param m
+	 *            The object.
 	 */
-	public void requestObjects(Collection<? extends InventoryVectorMessage> c) {
-		if (agenda != Agenda.FIND_STREAM) {
-			synchronized (requestBuffer) {
-				requestBuffer.addAll(c);
-			}
+	private void receiveObject(RawObject m) {
+		boolean full = pendingObjects.incrementAndGet() >= maxPendingObjects;
+
+		if (pendingBytes.addAndGet(m.getLength()) >= maxPendingBytes || full) {
+			updateReadInterest();
 		}
+
+		verifier.verify(m, this);
 	}
 
-	@Override
-	public void run() {
-		InputStream in;
-		OutputStream out;
+	/**
+	 * Called by the verifier as soon as a received object was checked and
+	 * parsed. Valid objects are handed to the listener. Reading is resumed if
+	 * it was suspended and the pending objects or bytes drop to half of their
+	 * maximum.
+	 * 
+	 * @param m
+	 *            The parsed object or null if its POW is insufficient or it
+	 *            could not be parsed.
+	 * @param length
+	 *            The length of the raw object.
+	 */
+	void verified(POWMessage m, int length) {
+		if (m == null) {
+			LOG.log(Level.WARNING, "Received invalid object from " + address.getHostAddress() + ":" + port);
+			statistics.invalidObject();
+		} else if (!closed) {
+			listener.receivedObject(m, this);
+		}
 
-		factory = MessageFactory.getFactoryByVersion(Options.getInstance().getInt("protocol.version"));
+		long bytes = pendingBytes.addAndGet(-length);
+		boolean resume = pendingObjects.decrementAndGet() == maxPendingObjects / 2;
 
-		// If there is no connection, connect.
-		if (s == null) {
-			s = new Socket();
+		if (resume || bytes <= maxPendingBytes / 2 && bytes + length > maxPendingBytes / 2) {
+			loop.execute(resumeTask);
+		}
+	}
 
-			try {
-				s.connect(new InetSocketAddress(address, port), Options.getInstance().getInt("network.connectTimeout"));
-				s.setSoTimeout(Options.getInstance().getInt("network.timeout"));
-				s.setTcpNoDelay(true);
-			} catch (IOException e) {
-				LOG.log(Level.INFO,
-						"Could not connect to " + address.getHostAddress() + ":" + port + " because: " + e.getMessage());
-				close(s);
-				listener.couldNotConnect(this);
-				return;
-			}
+	private void receiveAddr(AddrMessage m) {
+		listener.receivedNodes(m.getAddresses(), this);
+	}
+
+	/**
+	 * Queues the requested objects for the lookup.
+	 * 
+	 * @param m
+	 *            The getdata message.
+	 */
+	private void receiveGetdata(GetdataMessage m) {
+		InventoryBatch inv = m.getInventory();
+
+		if (inv.isEmpty()) {
+			return;
 		}
 
-		// Create the streams.
-		try {
-			in = s.getInputStream();
-			out = s.getOutputStream();
-		} catch (IOException e) {
-			LOG.log(Level.INFO,
-					"Could open streams " + address.getHostAddress() + ":" + port + " because: " + e.getMessage());
-			close(s);
-			listener.connectionAborted(this);
+		requested.add(inv);
+		requestedCount += inv.size();
+		lookupRequested();
+		updateReadInterest();
+	}
+
+	/**
+	 * Looks up the next chunk of requested objects on a lookup thread, unless
+	 * a lookup is running already or the write queue is full. The frames of
+	 * the objects are sent by {@link #sendRequested(List)} on the loop
+	 * thread.
+	 */
+	private void lookupRequested() {
+		if (lookupRunning || closed || requestedCount == 0 || queuedBytes > maxQueuedBytes) {
 			return;
 		}
 
-		// Send the version message if we are the one that connected.
-		if (client) {
+		InventoryBatch first = requested.peek();
+		int end = Math.min(first.size(), requestedOffset + LOOKUP_CHUNK_SIZE);
+		final InventoryBatch chunk = first.subBatch(requestedOffset, end);
+
+		requestedCount -= chunk.size();
+		requestedOffset = end;
+
+		if (requestedOffset == first.size()) {
+			requested.poll();
+			requestedOffset = 0;
+		}
+
+		lookupRunning = true;
+
+		try {
+			lookupExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					final List<Frame> frames = new ArrayList<>(chunk.size());
+
+					for (POWMessage object : datastore.getObjects(chunk)) {
+						frames.add(frameCache.get(object));
+					}
+
+					loop.execute(new Runnable() {
+						@Override
+						public void run() {
+							sendRequested(frames);
+						}
+					});
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The engine is stopping.
+			lookupRunning = false;
+		}
+	}
+
+	/**
+	 * Sends the frames of looked up objects and starts the next lookup.
+	 * 
+	 * @param frames
+	 *            The frames. The references are taken over.
+	 */
+	private void sendRequested(List<Frame> frames) {
+		for (int i = 0; i < frames.size(); i++) {
+			if (closed) {
+				frames.get(i).release();
+				continue;
+			}
+
 			try {
-				sendVersion(out);
+				send(frames.get(i));
 			} catch (IOException e) {
 				LOG.log(Level.INFO,
 						"Connection to " + address.getHostAddress() + ":" + port + " aborted: " + e.getMessage());
-				close(s);
-				listener.connectionAborted(this);
-				return;
+				close();
 			}
 		}
 
-		// Parse an incoming message.
-		try {
-			while (!stop) {
-				BaseMessage b = null;
+		// Not before the whole chunk is queued, flush() starts lookups too.
+		lookupRunning = false;
+		lookupRequested();
+		updateReadInterest();
+	}
 
-				try {
-					b = factory.parseBaseMessage(in, Options.getInstance().getInt("protocol.maxMessageLength"));
-				} catch (SocketTimeoutException e) {
-					sendMessages(out);
-					continue;
-				} catch (ParsingException e) {
-					LOG.log(Level.WARNING, "Could not parse incoming message.", e);
-					continue;
-				}
+	private void receiveInv(InvMessage m) {
+		listener.advertisedObjects(m.getInventory(), this);
+	}
 
-				P2PMessage m = b.getPayload();
+	private void receiveVerack(VerackMessage m) throws IOException {
+		localVerified = true;
+		handshakeProgressed();
+		sendMessages();
+	}
 
-				LOG.log(Level.FINE, "Received: " + b.getCommand());
+	private void receiveVersion(VersionMessage m) throws IOException {
+		VersionMessage version = m;
+		LOG.log(Level.INFO, "Remote user agent: " + version.getUserAgent());
 
-				switch (m.getCommand()) {
-				case VersionMessage.COMMAND:
-					receiveVersion((VersionMessage) m, out);
-					break;
+		if (version.getNonce() == nonce) {
+			LOG.log(Level.WARNING, "Connected to self!");
+			close();
+			return;
+		}
 
-				case VerackMessage.COMMAND:
-					receiveVerack((VerackMessage) m, out);
-					break;
+		remoteStreams = version.getStreams();
 
-				case AddrMessage.COMMAND:
-					receiveAddr((AddrMessage) m, out);
-					break;
+		sendVerack();
+		remoteVerified = true;
+		handshakeProgressed();
 
-				case InvMessage.COMMAND:
-					receiveInv((InvMessage) m, out);
-					break;
+		if (!client) {
+			sendVersion();
+		}
 
-				case GetdataMessage.COMMAND:
-					receiveGetdata((GetdataMessage) m, out);
-					break;
+		sendMessages();
+	}
 
-				default:
-					if (m instanceof POWMessage) {
-						listener.receivedObject((POWMessage) m, this);
-					} else {
-						LOG.log(Level.WARNING, "Unknown command: " + m.getCommand());
-						close(s);
-						listener.connectionAborted(this);
-						return;
-					}
+	/**
+	 * Records the handshake latency as soon as both nodes are verified.
+	 */
+	private void handshakeProgressed() {
+		if (localVerified && remoteVerified && connectStart > 0) {
+			statistics.handshakeCompleted(System.currentTimeMillis() - connectStart);
+			connectStart = 0;
+		}
+	}
+
+	/**
+	 * Removes up to {@code max} elements from the given buffer.
+	 * 
+	 * @param buffer
+	 *            The buffer.
+	 * @param max
+	 *            The maximum amount of elements to remove.
+	 * @return A list with the removed elements.
+	 */
+	private static <T> List<T> poll(Queue<T> buffer, int max) {
+		synchronized (buffer) {
+			List<T> l = new ArrayList<>(Math.min(buffer.size(), max));
+
+			while (l.size() < max && !buffer.isEmpty()) {
+				l.add(buffer.poll());
+			}
+
+			return l;
+		}
+	}
+
+	/**
+	 * Removes all hashes from the given buffer.
+	 * 
+	 * @param buffer
+	 *            The buffer.
+	 * @return A batch with the removed hashes.
+	 */
+	private static InventoryBatch take(InventoryBatch buffer) {
+		synchronized (buffer) {
+			InventoryBatch b = buffer.subBatch(0, buffer.size());
+			buffer.clear();
+
+			return b;
+		}
+	}
+
+	/**
+	 * Schedules the requesting of all given objects. If the agenda of this
+	 * connection is FIND_STREAM, this method does nothing.
+	 * 
+	 * @param c
+	 *            The hashes of the objects to request.
+	 */
+	@Override
+	public void requestObjects(InventoryBatch c) {
+		if (agenda != Agenda.FIND_STREAM) {
+			synchronized (requestBuffer) {
+				for (int i = 0; i < c.size(); i++) {
+					requestBuffer.add(c, i);
 				}
+			}
+
+			scheduleSend();
+		}
+	}
 
-				sendMessages(out);
+	/**
+	 * Schedules sending the buffered messages. Messages that are buffered
+	 * until the send task runs are sent together with the ones that are
+	 * already buffered.
+	 */
+	private void scheduleSend() {
+		if (sendScheduled.compareAndSet(false, true)) {
+			int delay = Options.getInstance().getInt("network.sendDelay");
+
+			if (delay > 0) {
+				loop.schedule(sendTask, delay);
+			} else {
+				loop.execute(sendTask);
 			}
-		} catch (IOException e) {
-			LOG.log(Level.INFO,
-					"Connection to " + address.getHostAddress() + ":" + port + " aborted: " + e.getMessage());
-			close(s);
-			listener.connectionAborted(this);
-			return;
-		} /*
-		 * catch (ParsingException e) { LOG.log(Level.WARNING, "Parsing error",
-		 * e); close(s); listener.connectionAborted(this); return; }
-		 */
+		}
+	}
+
+	/**
+	 * Queues the given message for sending and tries to write it immediately.
+	 * 
+	 * @param m
+	 *            The message to send.
+	 * @throws IOException
+	 *             If writing to the channel fails.
+	 */
+	private void send(BaseMessage m) throws IOException {
+		send(new PendingWrite(ByteBuffer.wrap(m.getBytes()), null));
+	}
+
+	/**
+	 * Queues the given frame for sending and tries to write it immediately.
+	 * The reference of the caller is taken over and released as soon as the
+	 * frame is written.
+	 * 
+	 * @param f
+	 *            The frame to send.
+	 * @throws IOException
+	 *             If writing to the channel fails.
+	 */
+	private void send(Frame f) throws IOException {
+		send(new PendingWrite(f.getBuffer(), f));
+	}
 
-		close(s);
-		listener.connectionAborted(this);
+	private void send(PendingWrite w) throws IOException {
+		writeQueue.add(w);
+		queuedBytes += w.length;
+		flush();
 	}
 
-	private void sendAddr(ArrayList<NetworkAddressMessage> toSend, OutputStream out) throws IOException {
-		out.write(factory.createBaseMessage(factory.createAddrMessage(toSend)).getBytes());
+	private void sendAddr(List<NetworkAddressMessage> toSend) throws IOException {
+		send(factory.createBaseMessage(factory.createAddrMessage(toSend)));
 
 		LOG.fine("Sent: addr (" + toSend.size() + ")");
 	}
 
-	private void sendAddr(OutputStream out) throws IOException {
+	private void sendAddr() throws IOException {
 		if (addrSent) {
 			return;
 		} else {
@@ -413,100 +1011,66 @@ public class Connection implements Runnable {
 		}
 
 		List<NetworkAddressMessage> addresses = datastore.getNodes(remoteStreams);
+		int maxLength = Options.getInstance().getInt("protocol.maxAddrLength");
 
-		while (!addresses.isEmpty()) {
-			List<NetworkAddressMessage> tmp = new ArrayList<>(1000);
-
-			for (int i = 0; i < 1000 && !addresses.isEmpty(); i++) {
-				tmp.add(addresses.get(addresses.size() - 1));
-			}
-
-			AddrMessage addr = factory.createAddrMessage(tmp);
-			BaseMessage b = factory.createBaseMessage(addr);
-			out.write(b.getBytes());
-
-			LOG.fine("Sent: addr (" + tmp.size() + ")");
+		for (int i = 0; i < addresses.size(); i += maxLength) {
+			sendAddr(addresses.subList(i, Math.min(i + maxLength, addresses.size())));
 		}
 	}
 
-	private void sendGetdata(List<InventoryVectorMessage> toSend, OutputStream out) throws IOException {
+	private void sendGetdata(InventoryBatch toSend) throws IOException {
 		GetdataMessage m = factory.createGetdataMessage(toSend);
 		BaseMessage b = factory.createBaseMessage(m);
-		out.write(b.getBytes());
+		send(b);
 		LOG.fine("Sent: getdata (" + toSend.size() + ")");
 	}
 
-	private void sendInv(ArrayList<InventoryVectorMessage> toSend, OutputStream out) throws IOException {
-		out.write(factory.createBaseMessage(factory.createInvMessage(toSend)).getBytes());
+	private void sendInv(InventoryBatch toSend) throws IOException {
+		send(factory.createBaseMessage(factory.createInvMessage(toSend)));
 
 		LOG.fine("Sent: inv (" + toSend.size() + ")");
 	}
 
-	private void sendMessages(OutputStream out) throws IOException {
-		if (!(localVerified && remoteVerified)) {
+	/**
+	 * Sends all buffered messages. The buffers are split into as few messages
+	 * as the protocol limits allow.
+	 * 
+	 * @throws IOException
+	 *             If writing to the channel fails.
+	 */
+	private void sendMessages() throws IOException {
+		if (!(localVerified && remoteVerified) || closed) {
 			return;
 		}
 
-		sendAddr(out);
+		sendAddr();
 
-		synchronized (invBuffer) {
-			if (invBuffer.size() > 0) {
-				int messageSize = invBuffer.size();
+		int maxInvLength = Options.getInstance().getInt("protocol.maxInvLength");
+		int maxAddrLength = Options.getInstance().getInt("protocol.maxAddrLength");
+		InventoryBatch inv = take(invBuffer);
+		List<NetworkAddressMessage> nodes;
 
-				if (messageSize > Options.getInstance().getInt("protocol.maxInvLength")) {
-					messageSize = Options.getInstance().getInt("protocol.maxInvLength");
-				}
-
-				ArrayList<InventoryVectorMessage> toSend = new ArrayList<>(messageSize);
-				for (int i = 0; i < messageSize; i++) {
-					toSend.add(invBuffer.poll());
-				}
-
-				sendInv(toSend, out);
-			}
+		for (int i = 0; i < inv.size(); i += maxInvLength) {
+			sendInv(inv.subBatch(i, Math.min(i + maxInvLength, inv.size())));
 		}
 
-		synchronized (nodeBuffer) {
-			if (nodeBuffer.size() > 0) {
-				int messageSize = nodeBuffer.size();
-
-				if (messageSize > Options.getInstance().getInt("protocol.maxAddrLength")) {
-					messageSize = Options.getInstance().getInt("protocol.maxAddrLength");
-				}
-
-				ArrayList<NetworkAddressMessage> toSend = new ArrayList<>(messageSize);
-				for (int i = 0; i < messageSize; i++) {
-					toSend.add(nodeBuffer.poll());
-				}
-
-				sendAddr(toSend, out);
-			}
+		while (!(nodes = poll(nodeBuffer, maxAddrLength)).isEmpty()) {
+			sendAddr(nodes);
 		}
 
-		synchronized (requestBuffer) {
-			if (requestBuffer.size() > 0) {
-				int messageSize = requestBuffer.size();
+		inv = take(requestBuffer);
 
-				if (messageSize > Options.getInstance().getInt("protocol.maxInvLength")) {
-					messageSize = Options.getInstance().getInt("protocol.maxInvLength");
-				}
-
-				ArrayList<InventoryVectorMessage> toSend = new ArrayList<>(messageSize);
-				for (int i = 0; i < messageSize; i++) {
-					toSend.add(requestBuffer.poll());
-				}
-
-				sendGetdata(toSend, out);
-			}
+		for (int i = 0; i < inv.size(); i += maxInvLength) {
+			sendGetdata(inv.subBatch(i, Math.min(i + maxInvLength, inv.size())));
 		}
 	}
 
-	private void sendVerack(OutputStream out) throws IOException {
-		out.write(factory.createBaseMessage(factory.createVerackMessage()).getBytes());
+	private void sendVerack() throws IOException {
+		send(factory.createBaseMessage(factory.createVerackMessage()));
 		LOG.fine("Sent: verack");
 	}
 
-	private void sendVersion(OutputStream out) throws IOException {
+	private void sendVersion() throws IOException {
 		try {
 
 			NodeServicesMessage services = factory.createNodeServicesMessage(Options.getInstance().getLong(
@@ -521,7 +1085,7 @@ public class Connection implements Runnable {
 					receiver, sender, nonce, Options.getInstance().getString("network.userAgent"), streams);
 			BaseMessage m = factory.createBaseMessage(version);
 
-			out.write(m.getBytes());
+			send(m);
 			LOG.fine("Sent: version");
 		} catch (UnknownHostException e) {
 			LOG.log(Level.SEVERE, "Localhost is unknown!", e);
@@ -532,20 +1096,51 @@ public class Connection implements Runnable {
 	/**
 	 * Starts this connection.
 	 */
-	private synchronized void start() {
-		if (running) {
-			throw new IllegalStateException("This connection is already started.");
-		} else {
-			running = true;
-		}
-
-		new Thread(this, "Connection: " + address.getHostAddress() + ":" + port).start();
+	private void start() {
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				open();
+			}
+		});
 	}
 
 	/**
 	 * Stops the connection as fast as possible.
 	 */
 	public void stop() {
-		stop = true;
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * An encoded message in the write queue and the shared frame it views, if
+	 * any.
+	 */
+	private static class PendingWrite {
+		private final ByteBuffer buffer;
+		private final Frame frame;
+
+		/** The amount of bytes to write. */
+		private final int length;
+
+		public PendingWrite(ByteBuffer buffer, Frame frame) {
+			this.buffer = buffer;
+			this.frame = frame;
+			length = buffer.remaining();
+		}
+
+		/**
+		 * Releases the frame after the buffer was written or dropped.
+		 */
+		public void release() {
+			if (frame != null) {
+				frame.release();
+			}
+		}
 	}
-}
\ No newline at end of file
+}
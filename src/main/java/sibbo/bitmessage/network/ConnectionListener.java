@@ -2,7 +2,7 @@ package sibbo.bitmessage.network;
 
 import java.util.List;
 
-import sibbo.bitmessage.network.protocol.InventoryVectorMessage;
+import sibbo.bitmessage.network.protocol.InventoryBatch;
 import sibbo.bitmessage.network.protocol.NetworkAddressMessage;
 import sibbo.bitmessage.network.protocol.POWMessage;
 
@@ -23,6 +23,15 @@ public interface ConnectionListener {
 	 */
 	void couldNotConnect(Connection c);
 
+	/**
+	 * The connection to the target was established. Called before any message
+	 * is exchanged.
+	 * 
+	 * @param c
+	 *            A connection.
+	 */
+	void connected(Connection c);
+
 	/**
 	 * The connection to the target was canceled.
 	 * 
@@ -32,7 +41,8 @@ public interface ConnectionListener {
 	void connectionAborted(Connection c);
 
 	/**
-	 * The connection received a new object from its target.
+	 * The connection received a new object from its target. The POW of the
+	 * object is already checked. Called by a thread of the object verifier.
 	 * 
 	 * @param m
 	 *            An object.
@@ -50,8 +60,8 @@ public interface ConnectionListener {
 	/**
 	 * The connection received a list of object hashes.
 	 * 
-	 * @param inventoryVectors
-	 *            A list of object hashes.
+	 * @param inv
+	 *            The object hashes.
 	 */
-	void advertisedObjects(List<InventoryVectorMessage> inventoryVectors, Connection c);
+	void advertisedObjects(InventoryBatch inv, Connection c);
 }
\ No newline at end of file
@@ -0,0 +1,334 @@
+package sibbo.bitmessage.network;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.Options;
+import sibbo.bitmessage.data.Datastore;
+import sibbo.bitmessage.network.protocol.NetworkAddressMessage;
+
+/**
+ * Opens the outgoing connections of a node. Several connect attempts run in
+ * parallel, up to {@code network.maxPendingConnections}. Pending attempts
+ * don't count as established connections, so a cold start fills all slots as
+ * fast as the reachable nodes answer.<br />
+ * The nodes to dial are drawn at random with a probability proportional to
+ * their weight in the datastore. When a connection is closed, the weight of its
+ * node is set to its score relative to the score of an unknown node, see
+ * {@link PeerStatistics#getScore(long)}. So good nodes are dialed more often,
+ * but every node gets a chance. If more attempts succeed
+ * than there are free slots, a new connection replaces the established
+ * connection with the lowest score if its own score is at least
+ * {@code REPLACE_FACTOR} times higher. Otherwise it is closed.<br />
+ * An address that could not be connected is not dialed again before its
+ * backoff is over. The backoff starts at {@code network.dialBackoff} and
+ * doubles with every failure up to {@code network.maxDialBackoff}.<br />
+ * The owner must forward {@link #connected(Connection)},
+ * {@link #couldNotConnect(Connection)} and {@link #closed(Connection)} for the
+ * connections of the dialer. Thread safe.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class Dialer {
+	private static final Logger LOG = Logger.getLogger(Dialer.class.getName());
+
+	/** The amount of random nodes that are drawn per free attempt. */
+	private static final int SAMPLES_PER_ATTEMPT = 4;
+
+	/**
+	 * How much better a new connection must be to replace an established one.
+	 */
+	private static final double REPLACE_FACTOR = 2;
+
+	/** The stream whose nodes are dialed. */
+	private final long stream;
+
+	/** The listener of the new connections. */
+	private final ConnectionListener listener;
+
+	/** Random nonce to detect connections to self. */
+	private final long nonce;
+
+	/** The engine that drives the new connections. */
+	private final NetworkEngine engine;
+
+	/** The datastore containing the known nodes. */
+	private final Datastore datastore;
+
+	/** The maximum amount of parallel connect attempts. */
+	private final int maxPending;
+
+	/** The backoff after the first failure in milliseconds. */
+	private final long backoff;
+
+	/** The maximum backoff in milliseconds. */
+	private final long maxBackoff;
+
+	/** Connections that are not established yet. */
+	private final Set<Connection> pending = new HashSet<>();
+
+	/** Established connections. */
+	private final Set<Connection> established = new HashSet<>();
+
+	/** The addresses of all pending and established connections. */
+	private final Set<InetSocketAddress> inUse = new HashSet<>();
+
+	/** The addresses that could not be connected recently. */
+	private final Map<InetSocketAddress, Backoff> failures = new HashMap<>();
+
+	/** The amount of connections that should be established. */
+	private int target;
+
+	/** If true, no connections are opened anymore. */
+	private boolean stop;
+
+	/**
+	 * Creates a new dialer.
+	 * 
+	 * @param stream
+	 *            The stream whose nodes are dialed.
+	 * @param listener
+	 *            The listener of the new connections.
+	 * @param nonce
+	 *            Random nonce to detect connections to self.
+	 * @param engine
+	 *            The engine that drives the new connections.
+	 * @param datastore
+	 *            The datastore containing the known nodes.
+	 */
+	public Dialer(long stream, ConnectionListener listener, long nonce, NetworkEngine engine, Datastore datastore) {
+		this.stream = stream;
+		this.listener = Objects.requireNonNull(listener, "listener must not be null.");
+		this.nonce = nonce;
+		this.engine = Objects.requireNonNull(engine, "engine must not be null.");
+		this.datastore = Objects.requireNonNull(datastore, "datastore must not be null.");
+
+		maxPending = Options.getInstance().getInt("network.maxPendingConnections");
+		backoff = Options.getInstance().getLong("network.dialBackoff");
+		maxBackoff = Options.getInstance().getLong("network.maxDialBackoff");
+	}
+
+	/**
+	 * Starts connect attempts until {@code target} connections are established
+	 * or pending, or until the attempt budget is used up. Up to two attempts
+	 * per missing connection run in parallel.
+	 * 
+	 * @param target
+	 *            The amount of connections that should be established.
+	 * @return The amount of started attempts.
+	 */
+	public synchronized int dial(int target) {
+		this.target = target;
+
+		if (stop) {
+			return 0;
+		}
+
+		int attempts = Math.min(maxPending, 2 * (target - established.size())) - pending.size();
+		int started = 0;
+		long now = System.currentTimeMillis();
+
+		if (attempts <= 0) {
+			return 0;
+		}
+
+		for (NetworkAddressMessage m : datastore.getRandomNodes(stream, attempts * SAMPLES_PER_ATTEMPT, true)) {
+			InetSocketAddress address = new InetSocketAddress(m.getIp(), m.getPort());
+			Backoff b = failures.get(address);
+
+			if (inUse.contains(address) || (b != null && b.next > now)) {
+				continue;
+			}
+
+			pending.add(new Connection(m.getIp(), m.getPort(), stream, listener, nonce, engine, datastore));
+			inUse.add(address);
+
+			if (++started == attempts) {
+				break;
+			}
+		}
+
+		return started;
+	}
+
+	/**
+	 * Registers that the given connection was established. If enough
+	 * connections are established already, either the given connection or the
+	 * established connection with the lowest score is closed.
+	 * 
+	 * @param c
+	 *            The connection.
+	 * @return True if the connection is kept.
+	 */
+	public synchronized boolean connected(Connection c) {
+		if (!pending.remove(c)) {
+			return true;
+		}
+
+		failures.remove(address(c));
+
+		if (stop) {
+			inUse.remove(address(c));
+			c.stop();
+			return false;
+		}
+
+		if (established.size() >= target) {
+			// A parallel attempt was faster. Keep the better one.
+			long now = System.currentTimeMillis();
+			Connection worst = getWorst(now);
+
+			if (worst == null
+					|| c.getStatistics().getScore(now) < REPLACE_FACTOR * worst.getStatistics().getScore(now)) {
+				inUse.remove(address(c));
+				c.stop();
+				return false;
+			}
+
+			LOG.fine("Replacing " + address(worst) + " with " + address(c) + ".");
+			established.remove(worst);
+			inUse.remove(address(worst));
+			worst.stop();
+		}
+
+		established.add(c);
+
+		return true;
+	}
+
+	/**
+	 * Returns the established connection with the lowest score.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The connection or null if there is none.
+	 */
+	private Connection getWorst(long now) {
+		Connection worst = null;
+		double worstScore = 0;
+
+		for (Connection c : established) {
+			double score = c.getStatistics().getScore(now);
+
+			if (worst == null || score < worstScore) {
+				worst = c;
+				worstScore = score;
+			}
+		}
+
+		return worst;
+	}
+
+	/**
+	 * Registers that the given connection could not be established and starts
+	 * the backoff of its address.
+	 * 
+	 * @param c
+	 *            The connection.
+	 */
+	public synchronized void couldNotConnect(Connection c) {
+		if (!pending.remove(c)) {
+			return;
+		}
+
+		InetSocketAddress address = address(c);
+		Backoff b = failures.get(address);
+
+		if (b == null) {
+			b = new Backoff();
+			failures.put(address, b);
+		}
+
+		b.failures++;
+		b.next = System.currentTimeMillis() + getBackoff(b.failures);
+		inUse.remove(address);
+		dial(target);
+	}
+
+	/**
+	 * Registers that the given established connection was closed and sets the
+	 * weight of its node to the score of the connection.
+	 * 
+	 * @param c
+	 *            The connection.
+	 */
+	public synchronized void closed(Connection c) {
+		double score = c.getStatistics().getScore(System.currentTimeMillis());
+		datastore.setNodeWeight(stream, c.getAddress(), c.getPort(), score / PeerStatistics.UNKNOWN_SCORE);
+
+		if (established.remove(c) || pending.remove(c)) {
+			inUse.remove(address(c));
+			dial(target);
+		}
+	}
+
+	/**
+	 * Returns the amount of pending connect attempts.
+	 * 
+	 * @return The amount of pending connect attempts.
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Returns the amount of established connections opened by this dialer.
+	 * 
+	 * @return The amount of established connections.
+	 */
+	public synchronized int getEstablishedCount() {
+		return established.size();
+	}
+
+	/**
+	 * Returns the time in milliseconds an address is not dialed after the
+	 * given amount of failures in a row.
+	 * 
+	 * @param failures
+	 *            The amount of failures. Must be > 0.
+	 * @return The backoff in milliseconds.
+	 */
+	long getBackoff(int failures) {
+		int shift = Math.min(failures - 1, 62);
+
+		if (backoff > maxBackoff >> shift) {
+			return maxBackoff;
+		}
+
+		return backoff << shift;
+	}
+
+	/**
+	 * Stops all pending connect attempts. Established connections are not
+	 * touched.
+	 */
+	public synchronized void stop() {
+		stop = true;
+
+		for (Connection c : new ArrayList<>(pending)) {
+			c.stop();
+		}
+	}
+
+	private static InetSocketAddress address(Connection c) {
+		return new InetSocketAddress(c.getAddress(), c.getPort());
+	}
+
+	/**
+	 * The failures of an address.
+	 */
+	private static class Backoff {
+		/** The amount of failures in a row. */
+		private int failures;
+
+		/** The earliest time the address is dialed again. */
+		private long next;
+	}
+}
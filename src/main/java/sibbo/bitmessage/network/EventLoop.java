@@ -0,0 +1,264 @@
+package sibbo.bitmessage.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single threaded selector loop. All channels registered with an event loop
+ * are served by its thread, so all state of a {@link Connection} is only
+ * accessed by that thread. Other threads can hand work to the loop using
+ * {@link #execute(Runnable)} and {@link #schedule(Runnable, long)}.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class EventLoop implements Runnable {
+	private static final Logger LOG = Logger.getLogger(EventLoop.class.getName());
+
+	/** The size of the buffer that is used to read from the channels. */
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	/** The selector used to wait for channel events. */
+	private final Selector selector;
+
+	/** Tasks that should be executed on the loop thread as soon as possible. */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	/** Tasks that should be executed after a delay. Only used by the loop. */
+	private final PriorityQueue<ScheduledTask> timers = new PriorityQueue<>();
+
+	/** The thread running this loop. */
+	private final Thread thread;
+
+	/**
+	 * The buffer all connections of this loop read into. Connections only keep
+	 * the bytes of frames that are incomplete after a read.
+	 */
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+	/** Used to keep the order of timers with the same deadline. */
+	private long timerSequence;
+
+	/** If true, the loop stops as fast as possible. */
+	private volatile boolean stop;
+
+	/**
+	 * Creates and starts a new event loop.
+	 * 
+	 * @param name
+	 *            The name of the loop thread.
+	 * @throws IOException
+	 *             If the selector could not be opened.
+	 */
+	public EventLoop(String name) throws IOException {
+		selector = Selector.open();
+		thread = new Thread(this, name);
+		thread.start();
+	}
+
+	/**
+	 * Executes the given task on the loop thread. If called from the loop
+	 * thread, the task is executed after the current event was handled.
+	 * 
+	 * @param task
+	 *            The task to execute.
+	 */
+	public void execute(Runnable task) {
+		Objects.requireNonNull(task, "task must not be null.");
+
+		tasks.add(task);
+
+		if (!inEventLoop()) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Returns true if the calling thread is the loop thread.
+	 * 
+	 * @return True if the calling thread is the loop thread.
+	 */
+	public boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Registers the given channel with the selector of this loop. Must be
+	 * called from the loop thread.
+	 * 
+	 * @param channel
+	 *            The channel to register. Must be non blocking.
+	 * @param ops
+	 *            The initial interest set.
+	 * @param handler
+	 *            The connection that handles the events of the channel.
+	 * @return The selection key of the channel.
+	 * @throws IOException
+	 *             If the channel could not be registered.
+	 */
+	SelectionKey register(SelectableChannel channel, int ops, Connection handler) throws IOException {
+		if (!inEventLoop()) {
+			throw new IllegalStateException("Channels must be registered from the loop thread.");
+		}
+
+		return channel.register(selector, ops, handler);
+	}
+
+	/**
+	 * Returns the buffer that is shared by all connections of this loop for
+	 * reading. Must only be used from the loop thread and must not be kept
+	 * after handling an event.
+	 * 
+	 * @return The shared read buffer.
+	 */
+	ByteBuffer getReadBuffer() {
+		return readBuffer;
+	}
+
+	@Override
+	public void run() {
+		while (!stop) {
+			try {
+				long timeout = 0;
+				ScheduledTask next = timers.peek();
+
+				if (next != null) {
+					timeout = Math.max(1, next.deadline - System.currentTimeMillis());
+				}
+
+				if (tasks.isEmpty()) {
+					selector.select(timeout);
+				} else {
+					selector.selectNow();
+				}
+			} catch (IOException e) {
+				LOG.log(Level.SEVERE, "Selecting failed.", e);
+				break;
+			}
+
+			Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+
+			while (i.hasNext()) {
+				SelectionKey key = i.next();
+				i.remove();
+
+				try {
+					((Connection) key.attachment()).handle(key);
+				} catch (CancelledKeyException e) {
+					// The connection was closed while handling the event.
+				} catch (RuntimeException e) {
+					LOG.log(Level.SEVERE, "Connection failed to handle a channel event.", e);
+				}
+			}
+
+			runTasks();
+			runTimers();
+		}
+
+		for (SelectionKey key : selector.keys()) {
+			((Connection) key.attachment()).stop();
+		}
+
+		runTasks();
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not close selector.", e);
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOG.log(Level.SEVERE, "Task failed.", e);
+			}
+		}
+	}
+
+	private void runTimers() {
+		long now = System.currentTimeMillis();
+
+		while (!timers.isEmpty() && timers.peek().deadline <= now) {
+			try {
+				timers.poll().task.run();
+			} catch (RuntimeException e) {
+				LOG.log(Level.SEVERE, "Scheduled task failed.", e);
+			}
+		}
+	}
+
+	/**
+	 * Executes the given task on the loop thread after the given delay.
+	 * 
+	 * @param task
+	 *            The task to execute.
+	 * @param delay
+	 *            The delay in milliseconds.
+	 */
+	public void schedule(final Runnable task, long delay) {
+		Objects.requireNonNull(task, "task must not be null.");
+
+		final long deadline = System.currentTimeMillis() + delay;
+
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				timers.add(new ScheduledTask(task, deadline, timerSequence++));
+			}
+		});
+	}
+
+	/**
+	 * Stops the loop as fast as possible. All connections registered with this
+	 * loop are closed.
+	 */
+	public void stop() {
+		stop = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * A task that should be executed after a deadline.
+	 */
+	private static class ScheduledTask implements Comparable<ScheduledTask> {
+		/** The task. */
+		private final Runnable task;
+
+		/** The time in milliseconds after which the task should be executed. */
+		private final long deadline;
+
+		/** Breaks ties between tasks with the same deadline. */
+		private final long sequence;
+
+		public ScheduledTask(Runnable task, long deadline, long sequence) {
+			this.task = task;
+			this.deadline = deadline;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(ScheduledTask o) {
+			if (deadline != o.deadline) {
+				return deadline < o.deadline ? -1 : 1;
+			} else {
+				return Long.compare(sequence, o.sequence);
+			}
+		}
+	}
+}
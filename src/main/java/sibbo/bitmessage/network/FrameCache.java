@@ -0,0 +1,190 @@
+package sibbo.bitmessage.network;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.network.protocol.BufferPool;
+import sibbo.bitmessage.network.protocol.Frame;
+import sibbo.bitmessage.network.protocol.InventoryVectorMessage;
+import sibbo.bitmessage.network.protocol.POWMessage;
+
+/**
+ * Caches the encoded frames of objects that are sent to other nodes, so an
+ * object that is requested by many nodes is only encoded and checksummed once.
+ * The cache is bounded by the size of the frames in bytes. The least recently
+ * used frames are evicted first.<br />
+ * The cache owns one reference of every cached frame and releases it on
+ * eviction, so a frame that is still being written to a channel stays valid.
+ * 
+ * All methods are thread safe.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class FrameCache {
+	private static final Logger LOG = Logger.getLogger(FrameCache.class.getName());
+
+	/** The cached frames, least recently used first. */
+	private final Map<InventoryVectorMessage, Frame> frames = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** The pool that provides the buffers of the frames. */
+	private final BufferPool pool;
+
+	/** The maximum size of all cached frames in bytes. */
+	private final long maxSize;
+
+	/** The size of all cached frames in bytes. */
+	private long size;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a new frame cache.
+	 * 
+	 * @param maxSize
+	 *            The maximum size of all cached frames in bytes.
+	 * @param pool
+	 *            The pool that provides the buffers of the frames.
+	 */
+	public FrameCache(long maxSize, BufferPool pool) {
+		Objects.requireNonNull(pool, "pool must not be null.");
+
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize must be >= 0.");
+		}
+
+		this.maxSize = maxSize;
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the frame of the given object. The object is encoded if its
+	 * frame is not cached. The caller owns one reference of the returned frame
+	 * and must release it when done.
+	 * 
+	 * @param object
+	 *            The object.
+	 * @return The frame of the object.
+	 */
+	public Frame get(POWMessage object) {
+		InventoryVectorMessage key = object.getInventoryVector();
+
+		synchronized (this) {
+			Frame f = frames.get(key);
+
+			if (f != null) {
+				hits++;
+				f.retain();
+				return f;
+			}
+
+			misses++;
+		}
+
+		// Encode without blocking the other connections.
+		Frame f = Frame.encode(object, pool);
+
+		synchronized (this) {
+			Frame cached = frames.get(key);
+
+			if (cached != null) {
+				// Another thread was faster.
+				f.release();
+				cached.retain();
+				return cached;
+			}
+
+			if (f.length() > maxSize) {
+				return f;
+			}
+
+			frames.put(key, f);
+			size += f.length();
+			f.retain();
+			evict();
+
+			return f;
+		}
+	}
+
+	/**
+	 * Evicts the least recently used frames until the size limit is met.
+	 */
+	private void evict() {
+		Iterator<Frame> i = frames.values().iterator();
+
+		while (size > maxSize && i.hasNext()) {
+			Frame f = i.next();
+			i.remove();
+			size -= f.length();
+			f.release();
+		}
+	}
+
+	/**
+	 * Removes all frames from the cache.
+	 */
+	public synchronized void clear() {
+		for (Frame f : frames.values()) {
+			f.release();
+		}
+
+		frames.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns the amount of cached frames.
+	 * 
+	 * @return The amount of cached frames.
+	 */
+	public synchronized int size() {
+		return frames.size();
+	}
+
+	/**
+	 * Returns the size of all cached frames in bytes.
+	 * 
+	 * @return The size of all cached frames in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the amount of lookups that found a frame.
+	 * 
+	 * @return The amount of hits.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the amount of lookups that had to encode the object.
+	 * 
+	 * @return The amount of misses.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a frame.
+	 * 
+	 * @return The hit rate between 0 and 1, or 0 if there were no lookups.
+	 */
+	public synchronized double getHitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "FrameCache [frames=" + frames.size() + ", size=" + size + ", hits=" + hits + ", misses=" + misses
+				+ "]";
+	}
+}
@@ -0,0 +1,150 @@
+package sibbo.bitmessage.network;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.Options;
+import sibbo.bitmessage.network.protocol.BufferPool;
+
+/**
+ * A small pool of {@link EventLoop}s that serves all connections of a node.
+ * Connections are distributed over the loops round robin. The POW of received
+ * objects is checked by the {@link ObjectVerifier} of the engine. The frames
+ * of objects that are sent to other nodes are shared through the
+ * {@link FrameCache} of the engine. Objects requested by other nodes are
+ * looked up in the datastore by the lookup threads of the engine, so the loops
+ * never wait for the disc. The statistics of the nodes are kept in the
+ * {@link PeerTable} of the engine.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class NetworkEngine {
+	private static final Logger LOG = Logger.getLogger(NetworkEngine.class.getName());
+
+	/** The event loops. */
+	private final EventLoop[] loops;
+
+	/** Checks the POW of received objects. */
+	private final ObjectVerifier verifier;
+
+	/** The frames of the objects sent by all connections. */
+	private final FrameCache frameCache;
+
+	/** Looks up requested objects in the datastore. */
+	private final ExecutorService lookupExecutor;
+
+	/** The statistics of the nodes we connected to. */
+	private final PeerTable peers = new PeerTable();
+
+	/** The index of the next loop to use. */
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Creates and starts a new network engine with the given amount of event
+	 * loops and verifier threads.
+	 * 
+	 * @param threads
+	 *            The amount of event loops. Must be > 0.
+	 * @param verifierThreads
+	 *            The amount of threads that check the POW of received objects.
+	 *            Must be > 0.
+	 * @throws IOException
+	 *             If a selector could not be opened.
+	 */
+	public NetworkEngine(int threads, int verifierThreads) throws IOException {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be > 0.");
+		}
+
+		if (verifierThreads <= 0) {
+			throw new IllegalArgumentException("verifierThreads must be > 0.");
+		}
+
+		loops = new EventLoop[threads];
+
+		for (int i = 0; i < threads; i++) {
+			loops[i] = new EventLoop("Network Event Loop No. " + i);
+		}
+
+		verifier = new ObjectVerifier(verifierThreads);
+		frameCache = new FrameCache(Options.getInstance().getLong("network.frameCacheSize"),
+				BufferPool.getInstance());
+		lookupExecutor = Executors.newFixedThreadPool(Options.getInstance().getInt("network.lookupThreads"),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Object Lookup No. " + count.getAndIncrement());
+						t.setDaemon(true);
+
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Returns the event loop that should serve the next connection.
+	 * 
+	 * @return An event loop.
+	 */
+	public EventLoop next() {
+		return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+	}
+
+	/**
+	 * Returns the verifier that checks the POW of received objects.
+	 * 
+	 * @return The verifier.
+	 */
+	ObjectVerifier getVerifier() {
+		return verifier;
+	}
+
+	/**
+	 * Returns the cache of the frames of the objects sent by all connections.
+	 * 
+	 * @return The frame cache.
+	 */
+	public FrameCache getFrameCache() {
+		return frameCache;
+	}
+
+	/**
+	 * Returns the executor that looks up requested objects in the datastore.
+	 * 
+	 * @return The lookup executor.
+	 */
+	Executor getLookupExecutor() {
+		return lookupExecutor;
+	}
+
+	/**
+	 * Returns the statistics of the nodes we connected to.
+	 * 
+	 * @return The peer table.
+	 */
+	public PeerTable getPeers() {
+		return peers;
+	}
+
+	/**
+	 * Stops all event loops, the verifier and the lookup threads. All
+	 * connections are closed.
+	 */
+	public void stop() {
+		for (EventLoop l : loops) {
+			l.stop();
+		}
+
+		verifier.stop();
+		lookupExecutor.shutdownNow();
+		frameCache.clear();
+	}
+}
@@ -1,17 +1,16 @@
 package sibbo.bitmessage.network;
 
+import java.io.IOException;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.Vector;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import sibbo.bitmessage.Options;
 import sibbo.bitmessage.data.Datastore;
-import sibbo.bitmessage.network.protocol.InventoryVectorMessage;
+import sibbo.bitmessage.network.protocol.InventoryBatch;
 import sibbo.bitmessage.network.protocol.MsgMessage;
 import sibbo.bitmessage.network.protocol.NetworkAddressMessage;
 import sibbo.bitmessage.network.protocol.POWMessage;
@@ -24,7 +23,7 @@ import sibbo.bitmessage.network.protocol.Util;
  * @author Sebastian Schmidt
  * @version 1.0
  */
-public class NetworkManager implements ConnectionListener, Runnable {
+public class NetworkManager implements ConnectionListener {
 	private static final Logger LOG = Logger.getLogger(NetworkManager.class.getName());
 
 	/**
@@ -42,12 +41,39 @@ public class NetworkManager implements ConnectionListener, Runnable {
 	/** The datastore that makes all data persistent. */
 	private final Datastore datastore;
 
-	/** Contains all objects that are currently requested from a node. */
-	// Note that this is a bad method to ensure that we get all objects but
-	// don't get anything twice. If someone sends an inv but never responds to a
-	// getdata and keeps connected, the respective objects will be blocked and
-	// can only be received if the network manager is restarted.
-	private final Map<InventoryVectorMessage, Connection> alreadyRequested = new Hashtable<>();
+	/** The event loops that drive all connections. */
+	private final NetworkEngine engine;
+
+	/** Decides which object is requested from which node. */
+	private final RequestScheduler requestScheduler;
+
+	/** Requests objects again whose request timed out. */
+	private final Runnable requestTimeoutTask = new Runnable() {
+		@Override
+		public void run() {
+			if (!stop) {
+				requestScheduler.checkTimeouts(System.currentTimeMillis());
+				timerLoop.schedule(this, Options.getInstance().getInt("network.requestTimeout") / 4);
+			}
+		}
+	};
+
+	/** The loop that runs the timers of the network manager. */
+	private final EventLoop timerLoop;
+
+	/** Opens the outgoing connections. */
+	private final Dialer dialer;
+
+	/** Opens new connections if some are missing. */
+	private final Runnable dialTask = new Runnable() {
+		@Override
+		public void run() {
+			if (!stop) {
+				dialer.dial(getMaxConnections());
+				timerLoop.schedule(this, Options.getInstance().getInt("network.dialInterval"));
+			}
+		}
+	};
 
 	/**
 	 * The parser to parse new objects. This is used to prevent timing attacks
@@ -76,14 +102,30 @@ public class NetworkManager implements ConnectionListener, Runnable {
 	 */
 	public NetworkManager(String datastoreName) {
 		this.datastore = new Datastore(datastoreName);
-		objectParser = new ObjectParser(datastore.getAddresses());
+		objectParser = new ObjectParser(datastore.getAddresses(), Options.getInstance().getInt("network.parserThreads"),
+				Options.getInstance().getInt("network.parserQueueSize"));
+
+		try {
+			engine = new NetworkEngine(Options.getInstance().getInt("network.eventLoops"), Options.getInstance()
+					.getInt("network.verifierThreads"));
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Could not start the network engine.", e);
+			System.exit(1);
+			throw new IllegalStateException(e);
+		}
+
+		requestScheduler = new RequestScheduler(Options.getInstance().getInt("network.requestTimeout"), Options
+				.getInstance().getInt("network.maxRequestsPerConnection"));
+		timerLoop = engine.next();
+		timerLoop.schedule(requestTimeoutTask, Options.getInstance().getInt("network.requestTimeout") / 4);
 
 		Random r = new Random();
 		byte[] nonce = new byte[8];
 		r.nextBytes(nonce);
 		this.nonce = Util.getLong(nonce);
 
-		new Thread(this, "Network Manager").start();
+		dialer = new Dialer(1, this, this.nonce, engine, datastore); // TODO Add multi stream management
+		timerLoop.execute(dialTask);
 	}
 
 	/**
@@ -97,35 +139,35 @@ public class NetworkManager implements ConnectionListener, Runnable {
 	}
 
 	@Override
-	public void advertisedObjects(List<InventoryVectorMessage> inventoryVectors, Connection c) {
-		Collection<InventoryVectorMessage> toSend = datastore.filterObjectsThatWeAlreadyHave(inventoryVectors);
-		toSend.removeAll(alreadyRequested.keySet());
+	public void advertisedObjects(InventoryBatch inv, Connection c) {
+		requestScheduler.advertised(datastore.filterObjectsThatWeAlreadyHave(inv), c);
+	}
 
-		for (InventoryVectorMessage i : toSend) {
-			alreadyRequested.put(i, c);
+	@Override
+	public void connected(Connection c) {
+		if (dialer.connected(c)) {
+			connections.add(c);
+			fireConnectionCountChanged(connections.size(), true);
 		}
-
-		c.requestObjects(toSend);
 	}
 
 	@Override
 	public void connectionAborted(Connection c) {
-		connections.remove(c);
+		dialer.closed(c);
+		requestScheduler.sourceClosed(c);
 
-		for (InventoryVectorMessage i : new HashSet<>(alreadyRequested.keySet())) {
-			if (alreadyRequested.get(i) == c) {
-				alreadyRequested.remove(i);
-			}
+		if (connections.remove(c)) {
+			fireConnectionCountChanged(connections.size(), false);
 		}
-
-		fireConnectionCountChanged(connections.size(), false);
 	}
 
 	@Override
 	public void couldNotConnect(Connection c) {
-		connections.remove(c);
-		datastore.removeNodeIfOld(c.getAddress(), c.getPort());
-		fireConnectionCountChanged(connections.size(), false);
+		dialer.couldNotConnect(c);
+
+		if (datastore.removeNodeIfOld(c.getAddress(), c.getPort())) {
+			engine.getPeers().remove(c.getAddress(), c.getPort());
+		}
 	}
 
 	/**
@@ -150,40 +192,40 @@ public class NetworkManager implements ConnectionListener, Runnable {
 
 	@Override
 	public void receivedObject(POWMessage m, Connection c) {
-		alreadyRequested.remove(m.getInventoryVector());
+		boolean added = datastore.put(m);
 
-		if (datastore.put(m)) {
+		// After adding, so the object is not requested again in between.
+		requestScheduler.received(m.getInventoryVector().getHash(), 0);
+
+		if (added) {
 			for (Connection con : connections) {
 				if (con != c) {
 					con.advertiseObject(m.getInventoryVector());
 				}
 			}
 
+			// Waits while the parser is busy, which suspends the connections.
 			if (m.getCommand().equals(MsgMessage.COMMAND)) {
-				objectParser.parse((MsgMessage) m, m.getMessageFactory());
+				try {
+					objectParser.parse((MsgMessage) m, m.getMessageFactory());
+				} catch (InterruptedException e) {
+					// The verifiers are stopping.
+					Thread.currentThread().interrupt();
+				}
 			}
 		}
 	}
 
-	@Override
-	public void run() {
-		while (!stop) {
-			if ((activeMode && connections.size() < Options.getInstance().getInt("network.activeMode.maxConnections"))
-					|| (!activeMode && connections.size() < Options.getInstance().getInt(
-							"network.passiveMode.maxConnections"))) {
-				NetworkAddressMessage m = datastore.getRandomNode(1); // TODO
-																		// Add
-																		// multi
-																		// stream
-																		// management
-				Connection c = new Connection(m.getIp(), m.getPort(), m.getStream(), this, nonce);
-				connections.add(c);
-			}
-
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {
-			}
+	/**
+	 * Returns the amount of connections the network manager should hold.
+	 * 
+	 * @return The maximum amount of connections.
+	 */
+	private int getMaxConnections() {
+		if (activeMode) {
+			return Options.getInstance().getInt("network.activeMode.maxConnections");
+		} else {
+			return Options.getInstance().getInt("network.passiveMode.maxConnections");
 		}
 	}
 
@@ -194,11 +236,14 @@ public class NetworkManager implements ConnectionListener, Runnable {
 	public void stop() {
 		stop = true;
 
+		dialer.stop();
 		objectParser.stop();
 		datastore.stop();
 
 		for (Connection c : connections) {
 			c.stop();
 		}
+
+		engine.stop();
 	}
 }
\ No newline at end of file
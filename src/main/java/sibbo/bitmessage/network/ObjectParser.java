@@ -2,19 +2,20 @@ package sibbo.bitmessage.network;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import sibbo.bitmessage.crypt.AddressDataPair;
 import sibbo.bitmessage.crypt.BMAddress;
-import sibbo.bitmessage.crypt.CryptManager;
+import sibbo.bitmessage.crypt.TrialDecryptor;
 import sibbo.bitmessage.network.protocol.InputBuffer;
 import sibbo.bitmessage.network.protocol.MessageFactory;
 import sibbo.bitmessage.network.protocol.MsgMessage;
@@ -22,37 +23,84 @@ import sibbo.bitmessage.network.protocol.ParsingException;
 import sibbo.bitmessage.network.protocol.UnencryptedMsgMessage;
 
 /**
- * Tries to decrypt messages.
+ * Tries to decrypt messages. Messages are queued in a bounded queue that is
+ * drained by a pool of worker threads, so the trial decryptions of a burst of
+ * messages run in parallel. Each worker tries the identities of its message
+ * serially, so the workers are the only threads that decrypt and their amount
+ * is the whole parallelism budget.<br />
+ * If the queue is full, {@link #parse(MsgMessage, MessageFactory)} waits.
+ * The message is already stored and will not be received again, so it must
+ * not be dropped. The caller is an object verifier, so a waiting parser stops
+ * the verification, which makes the connections suspend reading once too many
+ * of their objects are pending.<br />
+ * A message that makes the decryption fail is logged and skipped, the worker
+ * goes on with the next one.
  * 
  * @author Sebastian Schmidt
  * @version 1.0
  */
-public class ObjectParser implements Runnable {
+public class ObjectParser {
 	private static final Logger LOG = Logger.getLogger(ObjectParser.class.getName());
 
-	/** Messages to decrypt. */
-	private final Queue<MsgMessage> queue = new LinkedList<>();
-
-	/** Factories for the messages to decrypt. */
-	private final Queue<MessageFactory> factoryQueue = new LinkedList<>();
+	/** Messages to decrypt together with their factories. */
+	private final BlockingQueue<Task> queue;
 
 	/** The listeners that have to be informed if a new message was received. */
 	private final List<MessageListener> listeners = new Vector<>();
 
 	/** Contains all addresses that can be used for decryption. */
-	private final List<BMAddress> addresses = new ArrayList<>();
+	private final List<BMAddress> addresses = new CopyOnWriteArrayList<>();
+
+	/** Tries the private keys of all addresses in the calling worker. */
+	private final TrialDecryptor decryptor = new TrialDecryptor(1);
+
+	/** The worker threads. */
+	private final Thread[] workers;
 
 	/** True if the object parser should stop as fast as possible. */
 	private volatile boolean stop;
 
 	/**
-	 * Creates a new object parser with the given addresses.
+	 * Creates a new object parser with the given addresses and starts its
+	 * workers.
 	 * 
 	 * @param addresses
 	 *            The addresses.
+	 * @param threads
+	 *            The amount of worker threads, which is the amount of
+	 *            messages that are decrypted at the same time. Must be > 0.
+	 * @param capacity
+	 *            The maximum amount of queued messages. Must be > 0.
 	 */
-	public ObjectParser(Collection<BMAddress> addresses) {
+	public ObjectParser(Collection<BMAddress> addresses, int threads, int capacity) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be > 0.");
+		}
+
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0.");
+		}
+
 		this.addresses.addAll(addresses);
+		queue = new ArrayBlockingQueue<>(capacity);
+		workers = new Thread[threads];
+
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Worker(), "Object Parser No. " + i);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Adds the given listener.
+	 * 
+	 * @param l
+	 *            The listener to add.
+	 */
+	public void addMessageListener(MessageListener l) {
+		Objects.requireNonNull(l, "l must not be null.");
+
+		listeners.add(l);
 	}
 
 	/**
@@ -74,74 +122,111 @@ public class ObjectParser implements Runnable {
 	}
 
 	/**
-	 * Schedules the parsing of the given message.
+	 * Schedules the parsing of the given message. Waits while the queue is
+	 * full.
 	 * 
 	 * @param m
 	 *            The message to parse.
+	 * @param factory
+	 *            The factory used to parse the decrypted message.
+	 * @throws InterruptedException
+	 *             If the calling thread was interrupted while waiting. The
+	 *             message was not queued.
 	 */
-	public void parse(MsgMessage m, MessageFactory factory) {
-		synchronized (queue) {
-			queue.add(m);
-			factoryQueue.add(factory);
-		}
+	public void parse(MsgMessage m, MessageFactory factory) throws InterruptedException {
+		queue.put(new Task(m, factory));
 	}
 
-	@Override
-	public void run() {
-		while (!stop) {
-			MsgMessage m = null;
-			MessageFactory factory = null;
+	/**
+	 * Returns the amount of messages that wait for a worker.
+	 * 
+	 * @return The amount of messages that wait for a worker.
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
 
-			synchronized (queue) {
-				if (queue.size() > 0) {
-					m = queue.poll();
-					factory = factoryQueue.poll();
-				}
-			}
+	/**
+	 * Tries to decrypt the given message with all addresses and informs the
+	 * listeners if that worked.
+	 * 
+	 * @param m
+	 *            The message.
+	 * @param factory
+	 *            The factory used to parse the decrypted message.
+	 */
+	private void decrypt(MsgMessage m, MessageFactory factory) {
+		AddressDataPair decrypted = decryptor.tryDecrypt(m.getEncrypted(), addresses);
 
-			if (m == null) {
-				try {
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-					LOG.log(Level.WARNING, "Sleeping interrupted!", e);
-				}
-			} else {
-				byte[] result = null;
-				BMAddress addr = null;
-
-				for (BMAddress a : addresses) {
-					if (CryptManager.getInstance().checkMac(m.getEncrypted(), a.getPrivateEncryptionKey())) {
-						result = CryptManager.getInstance().decrypt(m.getEncrypted(), a.getPrivateEncryptionKey());
-						addr = a;
-						break;
-					}
-				}
+		if (decrypted != null) {
+			byte[] result = decrypted.getData();
 
-				if (result != null) {
-					try {
-						UnencryptedMsgMessage u = factory.parseUnencryptedMsgMessage(new InputBuffer(
-								new ByteArrayInputStream(result), result.length, result.length));
-
-						if (!Arrays.equals(u.getDestinationRipe(), addr.getRipe())) {
-							LOG.log(Level.WARNING, "Received message that contained a wrong destination ripe.");
-						} else {
-							fireMessageReceived(u);
-						}
-					} catch (IOException e) {
-						LOG.log(Level.SEVERE, "Could not read from local byte[]!", e);
-					} catch (ParsingException e) {
-						LOG.log(Level.WARNING, "Received a message that we could decrypt but not parse.", e);
-					}
+			try {
+				UnencryptedMsgMessage u = factory.parseUnencryptedMsgMessage(new InputBuffer(
+						new ByteArrayInputStream(result), result.length, result.length));
 
+				if (!Arrays.equals(u.getDestinationRipe(), decrypted.getAddress().getRipe())) {
+					LOG.log(Level.WARNING, "Received message that contained a wrong destination ripe.");
+				} else {
+					fireMessageReceived(u);
 				}
+			} catch (IOException e) {
+				LOG.log(Level.SEVERE, "Could not read from local byte[]!", e);
+			} catch (ParsingException e) {
+				LOG.log(Level.WARNING, "Received a message that we could decrypt but not parse.", e);
 			}
 		}
 	}
 
 	/**
-	 * Stops the object parser as fast as possible.
+	 * Stops the object parser as fast as possible. Queued messages are
+	 * dropped.
 	 */
 	public void stop() {
 		stop = true;
+
+		for (Thread t : workers) {
+			t.interrupt();
+		}
+
+		decryptor.stop();
+	}
+
+	/**
+	 * A message and the factory used to parse it.
+	 */
+	private static class Task {
+		private final MsgMessage message;
+		private final MessageFactory factory;
+
+		public Task(MsgMessage message, MessageFactory factory) {
+			this.message = message;
+			this.factory = factory;
+		}
+	}
+
+	/**
+	 * Decrypts queued messages until the parser is stopped.
+	 */
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			while (!stop) {
+				Task t;
+
+				try {
+					t = queue.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+
+				try {
+					decrypt(t.message, t.factory);
+				} catch (RuntimeException e) {
+					// A crafted message must not kill the worker.
+					LOG.log(Level.WARNING, "Could not decrypt message.", e);
+				}
+			}
+		}
 	}
-}
\ No newline at end of file
+}
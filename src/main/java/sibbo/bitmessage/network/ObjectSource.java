@@ -0,0 +1,28 @@
+package sibbo.bitmessage.network;
+
+import sibbo.bitmessage.network.protocol.InventoryBatch;
+
+/**
+ * A node that can be asked for objects, usually a {@link Connection}.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public interface ObjectSource {
+	/**
+	 * Requests the objects with the given hashes from the node. Must not block
+	 * and must not call back into the caller.
+	 * 
+	 * @param inv
+	 *            The hashes of the objects to request.
+	 */
+	void requestObjects(InventoryBatch inv);
+
+	/**
+	 * Returns the statistics of the node. They decide which node is asked for
+	 * an object that was advertised by several nodes.
+	 * 
+	 * @return The statistics of the node.
+	 */
+	PeerStatistics getStatistics();
+}
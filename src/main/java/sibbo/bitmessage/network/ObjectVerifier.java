@@ -0,0 +1,142 @@
+package sibbo.bitmessage.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.network.protocol.POWMessage;
+import sibbo.bitmessage.network.protocol.ParsingException;
+import sibbo.bitmessage.network.protocol.RawObject;
+
+/**
+ * Checks and parses received objects with a pool of worker threads, so the
+ * event loops never hash or parse object payloads. The POW is checked on the
+ * raw bytes first, so objects with insufficient POW are never parsed. Each
+ * worker takes the queued objects in batches and reports every result to the
+ * connection that received the object.<br />
+ * The queue itself is not bounded. Every connection limits the amount and the
+ * bytes of its objects that wait for verification and stops reading if a limit
+ * is reached, so the queue holds at most the sum of these limits.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+class ObjectVerifier {
+	private static final Logger LOG = Logger.getLogger(ObjectVerifier.class.getName());
+
+	/** The maximum amount of objects a worker takes from the queue at once. */
+	private static final int BATCH_SIZE = 16;
+
+	/** The objects waiting for verification. */
+	private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+
+	/** The worker threads. */
+	private final Thread[] workers;
+
+	/** A stop request can be made by setting this to true. */
+	private volatile boolean stop;
+
+	/**
+	 * Creates a new verifier and starts its workers.
+	 * 
+	 * @param threads
+	 *            The amount of worker threads. Must be > 0.
+	 */
+	public ObjectVerifier(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be > 0.");
+		}
+
+		workers = new Thread[threads];
+
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Worker(), "Object Verifier No. " + i);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Queues the given object. The result is reported to
+	 * {@link Connection#verified(POWMessage, int)}.
+	 * 
+	 * @param m
+	 *            The object.
+	 * @param c
+	 *            The connection that received the object.
+	 */
+	public void verify(RawObject m, Connection c) {
+		queue.add(new Task(m, c));
+	}
+
+	/**
+	 * Stops the workers. Queued objects are dropped.
+	 */
+	public void stop() {
+		stop = true;
+
+		for (Thread t : workers) {
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * An object and the connection that received it.
+	 */
+	private static class Task {
+		private final RawObject object;
+		private final Connection connection;
+
+		public Task(RawObject object, Connection connection) {
+			this.object = object;
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * Verifies batches of queued objects until the verifier is stopped.
+	 */
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			List<Task> batch = new ArrayList<>(BATCH_SIZE);
+
+			while (!stop) {
+				try {
+					batch.add(queue.take());
+				} catch (InterruptedException e) {
+					continue;
+				}
+
+				queue.drainTo(batch, BATCH_SIZE - 1);
+
+				for (Task t : batch) {
+					t.connection.verified(verify(t.object), t.object.getLength());
+				}
+
+				batch.clear();
+			}
+		}
+
+		/**
+		 * Checks the POW of the given object and parses it.
+		 * 
+		 * @return The parsed object or null if it is invalid.
+		 */
+		private POWMessage verify(RawObject m) {
+			if (!m.checkPOW()) {
+				LOG.log(Level.FINE, "Insufficient POW: " + m.getCommand());
+				return null;
+			}
+
+			try {
+				return m.parse();
+			} catch (ParsingException e) {
+				LOG.log(Level.WARNING, "Could not parse received object.", e);
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package sibbo.bitmessage.network;
+
+import java.util.logging.Logger;
+
+/**
+ * Measures how useful a node is. The statistics cover the latency of the
+ * version handshake, the time the node needs to answer a getdata request, the
+ * bytes received per second of connection time, the objects with insufficient
+ * POW and the time the node was connected.<br />
+ * {@link #getScore(long)} folds them into a single number that is used to
+ * choose which nodes are dialed, which connections are kept and which node is
+ * asked for an object. A node without any measurements gets the score of a
+ * node with average latencies, so new nodes are tried, but nodes that proved
+ * to be good are preferred.<br />
+ * Thread safe.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class PeerStatistics {
+	private static final Logger LOG = Logger.getLogger(PeerStatistics.class.getName());
+
+	/** The score of a node without measurements. */
+	public static final double UNKNOWN_SCORE = 0.25;
+
+	/** The handshake latency in milliseconds that halves the score. */
+	private static final long HANDSHAKE_LATENCY_SCALE = 1_000;
+
+	/** The getdata response time in milliseconds that halves the score. */
+	private static final long RESPONSE_TIME_SCALE = 2_000;
+
+	/** The receive rate in bytes per second that doubles the score. */
+	private static final long RATE_SCALE = 1_024;
+
+	/** The connected time in milliseconds that gives half of the uptime bonus. */
+	private static final long UPTIME_SCALE = 600_000;
+
+	/** Each invalid object halves the score up to this amount of objects. */
+	private static final int MAX_INVALID_OBJECTS = 32;
+
+	/** The weight of a new sample in the moving averages is 1 / 2^SHIFT. */
+	private static final int SHIFT = 3;
+
+	/** The average handshake latency in milliseconds, -1 if unknown. */
+	private long handshakeLatency = -1;
+
+	/** The average getdata response time in milliseconds, -1 if unknown. */
+	private long responseTime = -1;
+
+	/** The bytes received from the node. */
+	private long bytes;
+
+	/** The time the node was connected before the current connection. */
+	private long connectedTime;
+
+	/** The start of the current connection, -1 if not connected. */
+	private long connectedSince = -1;
+
+	/** The amount of received objects with insufficient POW. */
+	private int invalidObjects;
+
+	/**
+	 * Registers that a connection to the node was established.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 */
+	public synchronized void connected(long now) {
+		if (connectedSince < 0) {
+			connectedSince = now;
+		}
+	}
+
+	/**
+	 * Registers that the connection to the node was closed.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 */
+	public synchronized void disconnected(long now) {
+		if (connectedSince >= 0) {
+			connectedTime += Math.max(0, now - connectedSince);
+			connectedSince = -1;
+		}
+	}
+
+	/**
+	 * Adds a sample of the handshake latency.
+	 * 
+	 * @param latency
+	 *            The time from the connect until both nodes are verified in
+	 *            milliseconds.
+	 */
+	public synchronized void handshakeCompleted(long latency) {
+		handshakeLatency = average(handshakeLatency, Math.max(0, latency));
+	}
+
+	/**
+	 * Adds a sample of the getdata response time.
+	 * 
+	 * @param time
+	 *            The time from the request until the object was received in
+	 *            milliseconds. A request that timed out counts with its
+	 *            timeout.
+	 */
+	public synchronized void objectReceived(long time) {
+		responseTime = average(responseTime, Math.max(0, time));
+	}
+
+	/**
+	 * Adds the given amount of received bytes.
+	 * 
+	 * @param count
+	 *            The amount of bytes.
+	 */
+	public synchronized void bytesReceived(int count) {
+		bytes += count;
+	}
+
+	/**
+	 * Registers that the node sent an object with insufficient POW.
+	 */
+	public synchronized void invalidObject() {
+		invalidObjects++;
+	}
+
+	/**
+	 * Returns the average handshake latency.
+	 * 
+	 * @return The latency in milliseconds or -1 if unknown.
+	 */
+	public synchronized long getHandshakeLatency() {
+		return handshakeLatency;
+	}
+
+	/**
+	 * Returns the average time the node needs to deliver a requested object.
+	 * 
+	 * @return The response time in milliseconds or -1 if unknown.
+	 */
+	public synchronized long getResponseTime() {
+		return responseTime;
+	}
+
+	/**
+	 * Returns the bytes received per second of connection time.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The receive rate in bytes per second.
+	 */
+	public synchronized long getBytesPerSecond(long now) {
+		long uptime = getUptime(now);
+
+		return uptime == 0 ? 0 : bytes * 1_000 / uptime;
+	}
+
+	/**
+	 * Returns the amount of received objects with insufficient POW.
+	 * 
+	 * @return The amount of invalid objects.
+	 */
+	public synchronized int getInvalidObjects() {
+		return invalidObjects;
+	}
+
+	/**
+	 * Returns the time the node was connected in total.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The connected time in milliseconds.
+	 */
+	public synchronized long getUptime(long now) {
+		if (connectedSince < 0) {
+			return connectedTime;
+		} else {
+			return connectedTime + Math.max(0, now - connectedSince);
+		}
+	}
+
+	/**
+	 * Returns the score of the node. Higher is better. The score is the
+	 * product of the following factors:
+	 * <ul>
+	 * <li>{@code L / (L + latency)} for the handshake latency and the getdata
+	 * response time, where {@code L} is the latency that halves the score and
+	 * an unknown latency counts as {@code L},</li>
+	 * <li>{@code 1 + log2(1 + rate / 1KiB)} for the receive rate,</li>
+	 * <li>{@code 1 + uptime / (uptime + 10min)} for the connected time,</li>
+	 * <li>{@code 2^-invalid} for the objects with insufficient POW.</li>
+	 * </ul>
+	 * A node without measurements has a score of {@link #UNKNOWN_SCORE}.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The score, always >= 0.
+	 */
+	public synchronized double getScore(long now) {
+		long uptime = getUptime(now);
+		double score = factor(handshakeLatency, HANDSHAKE_LATENCY_SCALE) * factor(responseTime, RESPONSE_TIME_SCALE);
+
+		score *= 1 + Math.log1p((double) getBytesPerSecond(now) / RATE_SCALE) / Math.log(2);
+		score *= 1 + (double) uptime / (uptime + UPTIME_SCALE);
+		score = Math.scalb(score, -Math.min(invalidObjects, MAX_INVALID_OBJECTS));
+
+		return score;
+	}
+
+	/**
+	 * Returns {@code scale / (scale + latency)}. An unknown latency counts as
+	 * {@code scale}.
+	 */
+	private static double factor(long latency, long scale) {
+		return (double) scale / (scale + (latency < 0 ? scale : latency));
+	}
+
+	/**
+	 * Adds a sample to an exponential moving average that is -1 if empty.
+	 */
+	private static long average(long average, long sample) {
+		if (average < 0) {
+			return sample;
+		} else {
+			return average + ((sample - average) >> SHIFT);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "handshake: " + handshakeLatency + "ms, response: " + responseTime + "ms, received: " + bytes
+				+ "B, invalid objects: " + invalidObjects;
+	}
+}
@@ -0,0 +1,74 @@
+package sibbo.bitmessage.network;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * The statistics of all nodes we connected to, by address. The statistics
+ * outlive the connections, so a node that was good before is preferred the
+ * next time nodes are dialed. They are forgotten when the node is removed
+ * from the known nodes.<br />
+ * Only nodes we connect to are stored. Incoming connections come from random
+ * ports and get statistics that are forgotten with the connection.<br />
+ * Thread safe.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class PeerTable {
+	private static final Logger LOG = Logger.getLogger(PeerTable.class.getName());
+
+	/** The statistics by address. Guarded by this. */
+	private final Map<InetSocketAddress, PeerStatistics> peers = new HashMap<>();
+
+	/**
+	 * Returns the statistics of the given node. Creates them if the node is
+	 * not known.
+	 * 
+	 * @param address
+	 *            The address of the node.
+	 * @param port
+	 *            The port of the node.
+	 * @return The statistics of the node.
+	 */
+	public synchronized PeerStatistics get(InetAddress address, int port) {
+		InetSocketAddress key = new InetSocketAddress(Objects.requireNonNull(address, "address must not be null."),
+				port);
+		PeerStatistics s = peers.get(key);
+
+		if (s == null) {
+			s = new PeerStatistics();
+			peers.put(key, s);
+		}
+
+		return s;
+	}
+
+	/**
+	 * Forgets the statistics of the given node. Must be called when the node
+	 * is removed from the known nodes, so the table does not grow beyond
+	 * them.
+	 * 
+	 * @param address
+	 *            The address of the node.
+	 * @param port
+	 *            The port of the node.
+	 * @return True if the node had statistics.
+	 */
+	public synchronized boolean remove(InetAddress address, int port) {
+		return peers.remove(new InetSocketAddress(address, port)) != null;
+	}
+
+	/**
+	 * Returns the amount of nodes with statistics.
+	 * 
+	 * @return The amount of nodes.
+	 */
+	public synchronized int size() {
+		return peers.size();
+	}
+}
@@ -0,0 +1,456 @@
+package sibbo.bitmessage.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.data.InventoryHashMap;
+import sibbo.bitmessage.network.protocol.InventoryBatch;
+
+/**
+ * Decides which object is requested from which node. Every hash that is
+ * requested has a deadline and remembers all nodes that advertised it. If the
+ * node that was asked does not deliver the object in time or disconnects, the
+ * object is requested from the next advertising node. The next node is the one
+ * with the highest score per request in flight, see
+ * {@link PeerStatistics#getScore(long)}. The response times and timeouts of
+ * the requests are fed back into the statistics of the nodes. A node that
+ * timed out is not asked for the same object again.<br />
+ * Each node has at most {@code maxRequestsPerSource} requests in flight. The
+ * hashes above that limit wait until the node has answered some requests or
+ * until another node that advertised them has capacity, so large inventories
+ * are fetched from several nodes in parallel. The limit of a node is halved
+ * when its requests time out and grows by one with every received object.
+ * A node that timed out only gets new requests as soon as it delivers again
+ * or has no requests left in flight.<br />
+ * Thread safe.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class RequestScheduler {
+	private static final Logger LOG = Logger.getLogger(RequestScheduler.class.getName());
+
+	/** The time in milliseconds a node has to deliver a requested object. */
+	private final long timeout;
+
+	/** The maximum amount of requests in flight per node. */
+	private final int maxRequestsPerSource;
+
+	/** All hashes that are requested or waiting to be requested. */
+	private final InventoryHashMap<Request> requests = new InventoryHashMap<>(0);
+
+	/** The state of every node that advertised something. */
+	private final Map<ObjectSource, Source> sources = new HashMap<>();
+
+	/** The nodes that have requests that are not sent yet. */
+	private final List<Source> unsent = new ArrayList<>();
+
+	/**
+	 * Creates a new scheduler.
+	 * 
+	 * @param timeout
+	 *            The time in milliseconds a node has to deliver a requested
+	 *            object.
+	 * @param maxRequestsPerSource
+	 *            The maximum amount of requests in flight per node. Must be >
+	 *            0.
+	 */
+	public RequestScheduler(long timeout, int maxRequestsPerSource) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout must be >= 0.");
+		}
+
+		if (maxRequestsPerSource <= 0) {
+			throw new IllegalArgumentException("maxRequestsPerSource must be > 0.");
+		}
+
+		this.timeout = timeout;
+		this.maxRequestsPerSource = maxRequestsPerSource;
+	}
+
+	/**
+	 * Registers that the given node advertised the given hashes and requests
+	 * those that are neither in flight nor waiting for another node.
+	 * 
+	 * @param inv
+	 *            The hashes of objects we don't have.
+	 * @param s
+	 *            The node that advertised them.
+	 */
+	public synchronized void advertised(InventoryBatch inv, ObjectSource s) {
+		Objects.requireNonNull(s, "s must not be null.");
+
+		Source source = sources.get(s);
+		long deadline = System.currentTimeMillis() + timeout;
+
+		if (source == null) {
+			source = new Source(s, maxRequestsPerSource);
+			sources.put(s, source);
+		}
+
+		for (int i = 0; i < inv.size(); i++) {
+			Request r = requests.get(inv.array(), inv.offset(i));
+
+			if (r == null) {
+				r = new Request(inv.getHash(i));
+				requests.put(r.hash, 0, r);
+			} else if (r.sources.contains(source)) {
+				continue;
+			}
+
+			r.sources.add(source);
+			source.advertised.add(r);
+
+			if (r.owner == null) {
+				if (source.load < source.limit) {
+					assign(r, source, deadline);
+				} else {
+					source.waiting.add(r);
+				}
+			}
+		}
+
+		flush();
+	}
+
+	/**
+	 * Registers that the object with the given hash was received. The node
+	 * that was asked for it may be asked for the next waiting objects.
+	 * 
+	 * @param b
+	 *            The array containing the hash.
+	 * @param offset
+	 *            The first byte of the hash.
+	 */
+	public synchronized void received(byte[] b, int offset) {
+		Request r = requests.remove(b, offset);
+
+		if (r == null) {
+			return;
+		}
+
+		r.done = true;
+		Source owner = r.owner;
+
+		for (Source s : r.sources) {
+			s.advertised.remove(r);
+			s.waiting.remove(r);
+		}
+
+		if (owner != null) {
+			long now = System.currentTimeMillis();
+			owner.source.getStatistics().objectReceived(now - (r.deadline - timeout));
+			owner.remove(r);
+			owner.limit = Math.min(maxRequestsPerSource, owner.limit + 1);
+			fill(owner, now + timeout);
+			flush();
+		}
+	}
+
+	/**
+	 * Forgets the given node. It is removed from all hashes it advertised, and
+	 * the objects that were requested from it or waited for it are requested
+	 * from the other nodes that advertised them.
+	 * 
+	 * @param s
+	 *            The node.
+	 */
+	public synchronized void sourceClosed(ObjectSource s) {
+		Source source = sources.remove(s);
+
+		if (source == null) {
+			return;
+		}
+
+		long deadline = System.currentTimeMillis() + timeout;
+
+		for (Request r : source.advertised) {
+			r.sources.remove(source);
+
+			if (r.owner == source) {
+				source.remove(r);
+				reassign(r, deadline);
+			} else if (r.owner == null) {
+				reassign(r, deadline);
+			}
+		}
+
+		flush();
+	}
+
+	/**
+	 * Requests all objects whose deadline is over from the next node that
+	 * advertised them. Should be called regularly.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The amount of requests that timed out.
+	 */
+	public synchronized int checkTimeouts(long now) {
+		List<Request> expired = new ArrayList<>();
+		List<Source> idle = new ArrayList<>();
+
+		for (Source source : sources.values()) {
+			int before = expired.size();
+			Request r;
+
+			while ((r = source.first) != null && r.deadline <= now) {
+				source.remove(r);
+				r.sources.remove(source);
+				source.advertised.remove(r);
+				expired.add(r);
+			}
+
+			if (expired.size() > before) {
+				// One sample per check, so a burst does not erase the history.
+				source.source.getStatistics().objectReceived(timeout);
+				source.limit = Math.max(1, source.limit / 2);
+
+				if (source.load == 0) {
+					idle.add(source);
+				}
+			}
+		}
+
+		long deadline = now + timeout;
+
+		for (Request r : expired) {
+			reassign(r, deadline);
+		}
+
+		// Nothing in flight would refill them, so they get a few requests.
+		for (Source source : idle) {
+			fill(source, deadline);
+		}
+
+		flush();
+
+		if (!expired.isEmpty()) {
+			LOG.fine(expired.size() + " object requests timed out.");
+		}
+
+		return expired.size();
+	}
+
+	/**
+	 * Returns the amount of hashes that are requested or waiting to be
+	 * requested.
+	 * 
+	 * @return The amount of hashes.
+	 */
+	public synchronized int size() {
+		return requests.size();
+	}
+
+	/**
+	 * Returns the amount of requests that are in flight at the given node.
+	 * 
+	 * @param s
+	 *            The node.
+	 * @return The amount of requests in flight.
+	 */
+	public synchronized int getLoad(ObjectSource s) {
+		Source source = sources.get(s);
+
+		return source == null ? 0 : source.load;
+	}
+
+	/**
+	 * Requests the given object from the advertising node with capacity left
+	 * that has the highest score per request in flight. If all advertising
+	 * nodes are busy, the object waits for the first of them that gets
+	 * capacity. Forgets the object if no open node advertised it.
+	 */
+	private void reassign(Request r, long deadline) {
+		Source best = null;
+		double bestValue = 0;
+		long now = deadline - timeout;
+
+		for (Source s : r.sources) {
+			if (s.load >= s.limit) {
+				continue;
+			}
+
+			double value = s.source.getStatistics().getScore(now) / (s.load + 1);
+
+			if (best == null || value > bestValue) {
+				best = s;
+				bestValue = value;
+			}
+		}
+
+		if (r.sources.isEmpty()) {
+			// The next advertisement creates a new request.
+			r.done = true;
+			requests.remove(r.hash, 0);
+		} else if (best != null) {
+			assign(r, best, deadline);
+		} else {
+			for (Source s : r.sources) {
+				s.waiting.add(r);
+			}
+		}
+	}
+
+	/**
+	 * Requests waiting objects from the given node until it has no capacity
+	 * left.
+	 */
+	private void fill(Source source, long deadline) {
+		Iterator<Request> i = source.waiting.iterator();
+
+		while (source.load < source.limit && i.hasNext()) {
+			Request r = i.next();
+			i.remove();
+
+			if (!r.done && r.owner == null && r.sources.contains(source)) {
+				assign(r, source, deadline);
+			}
+		}
+	}
+
+	private void assign(Request r, Source source, long deadline) {
+		r.deadline = deadline;
+		source.add(r);
+
+		if (source.unsent.isEmpty()) {
+			unsent.add(source);
+		}
+
+		source.unsent.add(r.hash, 0);
+	}
+
+	/**
+	 * Sends the requests that were assigned during the current operation.
+	 */
+	private void flush() {
+		for (Source source : unsent) {
+			InventoryBatch inv = source.unsent;
+			source.unsent = new InventoryBatch(0);
+			source.source.requestObjects(inv);
+		}
+
+		unsent.clear();
+	}
+
+	/**
+	 * A hash that is requested or waiting to be requested.
+	 */
+	private static class Request {
+		private final byte[] hash;
+
+		/** The nodes that advertised the hash and did not time out. */
+		private final List<Source> sources = new ArrayList<>(2);
+
+		/** The node the object is requested from, null if waiting. */
+		private Source owner;
+
+		/** The neighbors in the list of requests in flight at the owner. */
+		private Request previous, next;
+
+		/** The time the owner has to deliver the object. */
+		private long deadline;
+
+		/** True if the object was received or forgotten. */
+		private boolean done;
+
+		public Request(byte[] hash) {
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * The request state of a node. The requests in flight at the node form a
+	 * doubly linked list ordered by deadline, so a request can be removed in
+	 * constant time when it is received and closing the node only touches its
+	 * own requests.
+	 */
+	private static class Source {
+		private final ObjectSource source;
+
+		/** The requests in flight with the earliest and latest deadline. */
+		private Request first, last;
+
+		/** The requests of the hashes the node advertised and did not time out. */
+		private final Set<Request> advertised = new LinkedHashSet<>();
+
+		/**
+		 * Requests that could be sent to the node once it has capacity, oldest
+		 * first. A set, so a request waits at most once per node.
+		 */
+		private final Set<Request> waiting = new LinkedHashSet<>();
+
+		/** The amount of requests in flight. */
+		private int load;
+
+		/** The maximum amount of requests in flight. */
+		private int limit;
+
+		/** Requests that are assigned to the node but not sent yet. */
+		private InventoryBatch unsent = new InventoryBatch(0);
+
+		public Source(ObjectSource source, int limit) {
+			this.source = source;
+			this.limit = limit;
+		}
+
+		/**
+		 * Adds the given request to the requests in flight. Deadlines usually
+		 * grow, so the right position is found from the end.
+		 */
+		public void add(Request r) {
+			Request before = last;
+
+			while (before != null && before.deadline > r.deadline) {
+				before = before.previous;
+			}
+
+			r.owner = this;
+			r.previous = before;
+			r.next = before == null ? first : before.next;
+
+			if (r.previous == null) {
+				first = r;
+			} else {
+				r.previous.next = r;
+			}
+
+			if (r.next == null) {
+				last = r;
+			} else {
+				r.next.previous = r;
+			}
+
+			load++;
+		}
+
+		/**
+		 * Removes the given request from the requests in flight.
+		 */
+		public void remove(Request r) {
+			if (r.previous == null) {
+				first = r.next;
+			} else {
+				r.previous.next = r.next;
+			}
+
+			if (r.next == null) {
+				last = r.previous;
+			} else {
+				r.next.previous = r.previous;
+			}
+
+			r.owner = null;
+			r.previous = null;
+			r.next = null;
+			load--;
+		}
+	}
+}
@@ -1,12 +1,11 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import sibbo.bitmessage.Options;
@@ -54,9 +53,8 @@ public class AddrMessage extends P2PMessage {
 
 	@Override
 	protected void read(InputBuffer b) throws IOException, ParsingException {
-		VariableLengthIntegerMessage vLength = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(vLength.length());
-		long length = vLength.getLong();
+		long length = b.getVarInt(0);
+		b = b.getSubBuffer(VariableLengthIntegerMessage.getLength(length));
 
 		if (length > Options.getInstance().getInt("protocol.maxAddrLength") || length < 0) {
 			throw new ParsingException("Addr message too long: " + length + " addresses");
@@ -72,21 +70,17 @@ public class AddrMessage extends P2PMessage {
 	}
 
 	@Override
-	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-
-		try {
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(addresses.size()).getBytes());
-
-			for (NetworkAddressMessage addr : addresses) {
-				b.write(addr.getBytes());
-			}
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
-		}
+	public int getEncodedLength() {
+		return VariableLengthIntegerMessage.getLength(addresses.size()) + addresses.size() * 34;
+	}
 
-		return b.toByteArray();
+	@Override
+	public void write(ByteBuffer out) {
+		VariableLengthIntegerMessage.write(addresses.size(), out);
+
+		for (NetworkAddressMessage addr : addresses) {
+			addr.write(out);
+		}
 	}
 
 	public List<NetworkAddressMessage> getAddresses() {
@@ -1,28 +1,34 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import sibbo.bitmessage.crypt.Digest;
+import sibbo.bitmessage.crypt.DigestContext;
 
 /**
  * Wraps any kind of message that can be sent over the network.
  * 
  * @author Sebastian Schmidt
- * @version 1.0System.exit(1);
+ * @version 1.0
  * 
  */
 public class BaseMessage {
 	private static final Logger LOG = Logger.getLogger(BaseMessage.class.getName());
 
+	/** The length of the header that precedes the payload. */
+	public static final int HEADER_LENGTH = 24;
+
+	/** Identifies the bitmessage protocol. */
+	private static final byte[] MAGIC = new byte[] { (byte) 0xE9, (byte) 0xBE, (byte) 0xB4, (byte) 0xD9 };
+
 	/** Identifies the bitmessage protocol. */
-	private byte[] magic = new byte[] { (byte) 0xE9, (byte) 0xBE, (byte) 0xB4, (byte) 0xD9 };
+	private byte[] magic = MAGIC;
 
 	/** The command of the message. */
 	private String command;
@@ -36,6 +42,9 @@ public class BaseMessage {
 	/** The payload */
 	private P2PMessage payload;
 
+	/** The unparsed object if the payload is an object that was not parsed. */
+	private RawObject object;
+
 	/** The factory used to create other message objects. */
 	private MessageFactory factory;
 
@@ -79,6 +88,101 @@ public class BaseMessage {
 		read(in, maxLength);
 	}
 
+	/**
+	 * Creates a new base message from a header and payload that have already
+	 * been checked.
+	 * 
+	 * @param header
+	 *            The header.
+	 * @param payload
+	 *            The parsed payload.
+	 * @param factory
+	 *            The MessageFactory used to create other message objects.
+	 */
+	BaseMessage(byte[] header, P2PMessage payload, MessageFactory factory) {
+		this(factory);
+
+		this.command = getCommand(header);
+		this.length = Util.getInt(header, 16);
+		this.checksum = Arrays.copyOfRange(header, 20, 24);
+		this.payload = payload;
+	}
+
+	/**
+	 * Creates a new base message from a header and an object that is not
+	 * parsed yet. The message has no payload, the object is returned by
+	 * {@link #getObject()}.
+	 * 
+	 * @param header
+	 *            The header.
+	 * @param object
+	 *            The unparsed object.
+	 * @param factory
+	 *            The MessageFactory used to create other message objects.
+	 */
+	BaseMessage(byte[] header, RawObject object, MessageFactory factory) {
+		this(factory);
+
+		this.command = getCommand(header);
+		this.length = Util.getInt(header, 16);
+		this.checksum = Arrays.copyOfRange(header, 20, 24);
+		this.object = object;
+	}
+
+	/**
+	 * Checks the magic bytes and the payload length of the given header.
+	 * 
+	 * @param header
+	 *            The header.
+	 * @param maxLength
+	 *            The maximum allowed payload length.
+	 * @return The length of the payload.
+	 * @throws ParsingException
+	 *             If the magic bytes are wrong or the length is out of range.
+	 */
+	static int checkHeader(byte[] header, int maxLength) throws ParsingException {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header[i] != MAGIC[i]) {
+				throw new ParsingException("Unknown magic bytes: " + Arrays.toString(Arrays.copyOf(header, 4)));
+			}
+		}
+
+		int length = Util.getInt(header, 16);
+
+		if (length < 0) {
+			throw new ParsingException("The length of the payload is < 0");
+		}
+
+		if (length > maxLength) {
+			throw new ParsingException("The payload is too long: " + length + " bytes");
+		}
+
+		return length;
+	}
+
+	/**
+	 * Returns the command contained in the given header.
+	 * 
+	 * @param header
+	 *            The header.
+	 * @return The command.
+	 */
+	static String getCommand(byte[] header) {
+		int length = 0;
+
+		while (length < 12 && header[4 + length] != 0) {
+			length++;
+		}
+
+		try {
+			return new String(header, 4, length, "ASCII");
+		} catch (UnsupportedEncodingException e) {
+			LOG.log(Level.SEVERE, "ASCII not supported!", e);
+			System.exit(1);
+			return null;
+		}
+	}
+
 	public byte[] getMagic() {
 		return magic;
 	}
@@ -101,91 +205,127 @@ public class BaseMessage {
 		return checksum;
 	}
 
+	/**
+	 * Returns the parsed payload.
+	 * 
+	 * @return The payload or null if the payload is an unparsed object.
+	 * @see #getObject()
+	 */
 	public P2PMessage getPayload() {
 		return payload;
 	}
 
+	/**
+	 * Returns the unparsed object that was received with this message.
+	 * 
+	 * @return The object or null if the payload was parsed.
+	 */
+	public RawObject getObject() {
+		return object;
+	}
+
 	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		ByteBuffer b = ByteBuffer.allocate(getEncodedLength());
+		write(b);
 
-		try {
-			b.write(magic);
+		return b.array();
+	}
 
-			byte[] ascii = command.getBytes("ASCII");
+	/**
+	 * Returns the exact amount of bytes written by {@link #write(ByteBuffer)}.
+	 * 
+	 * @return The length of the header and the payload.
+	 */
+	public int getEncodedLength() {
+		return HEADER_LENGTH + (payload == null ? object.getLength() : payload.getEncodedLength());
+	}
 
-			for (int i = 0; i < 12; i++) {
-				if (i < ascii.length) {
-					b.write(ascii[i]);
-				} else {
-					b.write(0);
-				}
-			}
+	/**
+	 * Writes the header and the payload to the given buffer, starting at its
+	 * position. The payload is encoded in place and the checksum is calculated
+	 * from the written bytes, so no intermediate array is created.
+	 * 
+	 * @param out
+	 *            The buffer to write to. Must have at least
+	 *            {@link #getEncodedLength()} bytes remaining.
+	 */
+	public void write(ByteBuffer out) {
+		int start = out.position();
 
-			byte[] pbytes = payload.getBytes();
-			length = pbytes.length;
-			checksum = Digest.sha512(pbytes, 4);
+		out.put(magic);
 
-			b.write(Util.getBytes(length));
-			b.write(checksum);
-			b.write(pbytes);
-		} catch (UnsupportedEncodingException e) {
-			LOG.log(Level.SEVERE, "ASCII not supported!", e);
-			System.exit(1);
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
+		for (int i = 0; i < 12; i++) {
+			out.put(i < command.length() ? (byte) command.charAt(i) : 0);
 		}
 
-		return b.toByteArray();
-	}
-
-	protected void read(InputStream in, int maxLength) throws IOException, ParsingException {
-		InputBuffer buffer = new InputBuffer(in, 24, 24);
+		// Length and checksum are written when the payload is known.
+		out.position(start + HEADER_LENGTH);
 
-		if (!Arrays.equals(magic, buffer.get(0, 4))) {
-			throw new ParsingException("Unknown magic bytes: " + Arrays.toString(buffer.get(0, 4)));
+		if (payload == null) {
+			out.put(object.getBytes());
+		} else {
+			payload.write(out);
 		}
 
-		byte[] ascii = buffer.get(4, 12);
+		ByteBuffer written = out.duplicate();
+		written.position(start + HEADER_LENGTH);
+		written.limit(out.position());
 
-		StringBuilder str = new StringBuilder();
+		length = written.remaining();
+		int sum = DigestContext.get().checksum(written);
+		checksum = Util.getBytes(sum);
 
-		for (byte b : ascii) {
-			if (b == 0) {
-				break;
-			}
-
-			str.append(new String(new byte[] { b }, "ASCII"));
-		}
+		out.putInt(start + 16, length);
+		out.putInt(start + 20, sum);
+	}
 
-		command = str.toString();
+	protected void read(InputStream in, int maxLength) throws IOException, ParsingException {
+		byte[] header = new byte[HEADER_LENGTH];
+		readComplete(in, header);
 
-		length = Util.getInt(buffer.get(16, 4));
+		length = checkHeader(header, maxLength);
+		command = getCommand(header);
+		checksum = Arrays.copyOfRange(header, 20, 24);
 
-		checksum = buffer.get(20, 4);
+		byte[] bytes = new byte[length];
+		readComplete(in, bytes);
 
-		if (length < 0) {
-			throw new ParsingException("The length of the payload is < 0");
-		}
+		byte[] digest = new byte[DigestContext.SHA512_LENGTH];
+		DigestContext.get().sha512(bytes, 0, bytes.length, digest, 0);
 
-		if (length > maxLength) {
-			throw new ParsingException("The payload is too long: " + length + " bytes");
+		if (Util.getInt(digest) != Util.getInt(checksum)) {
+			throw new ParsingException("Wrong digest for payload!");
 		}
 
-		int chunkSize = 1024;
+		payload = factory.parseP2PMessage(command, new InputBuffer(ByteBuffer.wrap(bytes)));
 
-		if (length > 1_000_000) {
-			chunkSize = 1024 * 1024;
-		} else if (length > 100_000) {
-			chunkSize = 128 * 1024;
+		if (payload instanceof POWMessage) {
+			((POWMessage) payload).setDigest(digest, 0);
 		}
+	}
+
+	/**
+	 * Ensures that the given byte array is completely filled with bytes from
+	 * the input stream. If that's not possible, an IOException is thrown.
+	 * 
+	 * @param in
+	 *            The input stream to read from.
+	 * @param b
+	 *            The byte array to fill.
+	 * @throws IOException
+	 *             If the byte array could not be filled.
+	 */
+	private static void readComplete(InputStream in, byte[] b) throws IOException {
+		int offset = 0;
 
-		buffer = new InputBuffer(in, chunkSize, length);
+		while (offset < b.length) {
+			int length = in.read(b, offset, b.length - offset);
 
-		if (!Arrays.equals(checksum, Digest.sha512(buffer.get(0, length), 4))) {
-			throw new ParsingException("Wrong digest for payload!");
+			if (length == -1) {
+				throw new IOException("End of stream.");
+			} else {
+				offset += length;
+			}
 		}
-
-		payload = factory.parseP2PMessage(command, buffer);
 	}
-}
\ No newline at end of file
+}
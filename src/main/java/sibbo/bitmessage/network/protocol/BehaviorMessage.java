@@ -1,6 +1,7 @@
 package sibbo.bitmessage.network.protocol;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.logging.Logger;
 
@@ -53,12 +54,17 @@ public class BehaviorMessage extends Message {
 
 	@Override
 	protected void read(InputBuffer b) throws IOException, ParsingException {
-		bitfield = Util.getInt(b.get(0, 4));
+		bitfield = b.getInt(0);
 	}
 
 	@Override
-	public byte[] getBytes() {
-		return Util.getBytes(bitfield);
+	public int getEncodedLength() {
+		return length();
+	}
+
+	@Override
+	public void write(ByteBuffer out) {
+		out.putInt(bitfield);
 	}
 
 	/**
@@ -0,0 +1,130 @@
+package sibbo.bitmessage.network.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.logging.Logger;
+
+/**
+ * A pool of byte buffers. Buffers are pooled in size classes of powers of
+ * two, so a released buffer can be reused for any request up to its capacity.
+ * Buffers that are larger than the largest size class are not pooled.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class BufferPool {
+	private static final Logger LOG = Logger.getLogger(BufferPool.class.getName());
+
+	/** The capacity of the smallest size class is 2^MIN_SHIFT. */
+	private static final int MIN_SHIFT = 10;
+
+	/** The capacity of the largest size class is 2^MAX_SHIFT. */
+	private static final int MAX_SHIFT = 20;
+
+	/** The maximum amount of bytes kept by a single size class. */
+	private static final int MAX_BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+	private static final BufferPool instance = new BufferPool();
+
+	/**
+	 * Returns the buffer pool shared by all connections.
+	 * 
+	 * @return The shared buffer pool.
+	 */
+	public static BufferPool getInstance() {
+		return instance;
+	}
+
+	/** The free buffers, one queue per size class. */
+	private final ArrayDeque<ByteBuffer>[] pools;
+
+	/**
+	 * Creates a new empty buffer pool.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool() {
+		pools = new ArrayDeque[MAX_SHIFT - MIN_SHIFT + 1];
+
+		for (int i = 0; i < pools.length; i++) {
+			pools[i] = new ArrayDeque<>();
+		}
+	}
+
+	/**
+	 * Returns a cleared buffer with a limit of {@code size}. The capacity of
+	 * the buffer may be larger.
+	 * 
+	 * @param size
+	 *            The amount of bytes needed.
+	 * @return A buffer that can hold at least {@code size} bytes.
+	 */
+	public ByteBuffer acquire(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("size must be >= 0.");
+		}
+
+		int sizeClass = getSizeClass(size);
+
+		if (sizeClass >= pools.length) {
+			return ByteBuffer.allocate(size);
+		}
+
+		ByteBuffer b;
+
+		synchronized (pools[sizeClass]) {
+			b = pools[sizeClass].poll();
+		}
+
+		if (b == null) {
+			b = ByteBuffer.allocate(1 << (sizeClass + MIN_SHIFT));
+		}
+
+		b.clear();
+		b.limit(size);
+
+		return b;
+	}
+
+	/**
+	 * Returns the given buffer to the pool. The buffer must not be used after
+	 * it was released.
+	 * 
+	 * @param b
+	 *            A buffer that was returned by {@link #acquire(int)}.
+	 */
+	public void release(ByteBuffer b) {
+		int capacity = b.capacity();
+
+		if (Integer.bitCount(capacity) != 1 || capacity < 1 << MIN_SHIFT || b.isReadOnly()) {
+			return;
+		}
+
+		int sizeClass = getSizeClass(capacity);
+
+		if (sizeClass >= pools.length) {
+			return;
+		}
+
+		synchronized (pools[sizeClass]) {
+			if (pools[sizeClass].size() * (long) capacity < MAX_BYTES_PER_CLASS) {
+				pools[sizeClass].add(b);
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the smallest size class that can hold the given
+	 * amount of bytes.
+	 * 
+	 * @param size
+	 *            The amount of bytes.
+	 * @return The index of the size class.
+	 */
+	private int getSizeClass(int size) {
+		if (size <= 1 << MIN_SHIFT) {
+			return 0;
+		}
+
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+}
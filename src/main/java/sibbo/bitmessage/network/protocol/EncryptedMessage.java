@@ -2,6 +2,7 @@ package sibbo.bitmessage.network.protocol;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import org.bouncycastle.jce.interfaces.ECPublicKey;
@@ -72,19 +73,20 @@ public class EncryptedMessage extends Message {
 	}
 
 	@Override
-	public byte[] getBytes() {
-		byte[] result = new byte[16 + 70 + encrypted.length + mac.length];
-
-		System.arraycopy(iv, 0, result, 0, 16);
-		System.arraycopy(Util.getBytes((short) 714), 0, result, 16, 2);
-		System.arraycopy(Util.getBytes((short) 32), 0, result, 18, 2);
-		System.arraycopy(Util.getUnsignedBytes(publicKey.getQ().getX().toBigInteger(), 32), 0, result, 20, 32);
-		System.arraycopy(Util.getBytes((short) 32), 0, result, 52, 2);
-		System.arraycopy(Util.getUnsignedBytes(publicKey.getQ().getY().toBigInteger(), 32), 0, result, 54, 32);
-		System.arraycopy(encrypted, 0, result, 86, encrypted.length);
-		System.arraycopy(mac, 0, result, result.length - 32, 32);
-
-		return result;
+	public int getEncodedLength() {
+		return 16 + 70 + encrypted.length + mac.length;
+	}
+
+	@Override
+	public void write(ByteBuffer out) {
+		out.put(iv);
+		out.putShort((short) 714);
+		out.putShort((short) 32);
+		out.put(Util.getUnsignedBytes(publicKey.getQ().getX().toBigInteger(), 32));
+		out.putShort((short) 32);
+		out.put(Util.getUnsignedBytes(publicKey.getQ().getY().toBigInteger(), 32));
+		out.put(encrypted);
+		out.put(mac);
 	}
 
 	public byte[] getEncrypted() {
@@ -107,13 +109,13 @@ public class EncryptedMessage extends Message {
 	protected void read(InputBuffer b) throws IOException, ParsingException {
 		iv = b.get(0, 16);
 
-		int curve = Util.getShort(b.get(16, 2));
+		int curve = b.getShort(16);
 
 		if (curve != 714) {
 			throw new ParsingException("Unknown curve: " + 714);
 		}
 
-		int xLength = Util.getShort(b.get(18, 2));
+		int xLength = b.getShort(18);
 
 		if (xLength > 32 || xLength < 0) {
 			throw new ParsingException("xLength must be between 0 and 32: " + xLength);
@@ -122,7 +124,7 @@ public class EncryptedMessage extends Message {
 		BigInteger x = Util.getUnsignedBigInteger(b.get(20, xLength), 0, xLength);
 		b = b.getSubBuffer(xLength + 20);
 
-		int yLength = Util.getShort(b.get(0, 2));
+		int yLength = b.getShort(0);
 
 		if (yLength > 32 || yLength < 0) {
 			throw new ParsingException("yLength must be between 0 and 32: " + yLength);
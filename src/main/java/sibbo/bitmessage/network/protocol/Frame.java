@@ -0,0 +1,109 @@
+package sibbo.bitmessage.network.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A complete encoded message, header included, that can be written to any
+ * number of channels. The frame is reference counted: Everyone who holds it
+ * owns one reference and releases it when done. The buffer is returned to its
+ * pool when the last reference is released.<br />
+ * Every writer gets its own read only view of the frame, so the bytes are
+ * never copied.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class Frame {
+	private static final Logger LOG = Logger.getLogger(Frame.class.getName());
+
+	/** The encoded message from position 0 to the limit. */
+	private final ByteBuffer buffer;
+
+	/** The pool the buffer came from. */
+	private final BufferPool pool;
+
+	/** The amount of owners. The buffer is released when it drops to 0. */
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	/**
+	 * Encodes the given object into a new frame with one reference.
+	 * 
+	 * @param object
+	 *            The object.
+	 * @param pool
+	 *            The pool that provides the buffer.
+	 * @return The frame.
+	 */
+	public static Frame encode(POWMessage object, BufferPool pool) {
+		Objects.requireNonNull(object, "object must not be null.");
+		Objects.requireNonNull(pool, "pool must not be null.");
+
+		BaseMessage message = new BaseMessage(object, object.getMessageFactory());
+		ByteBuffer buffer = pool.acquire(message.getEncodedLength());
+		message.write(buffer);
+		buffer.flip();
+
+		return new Frame(buffer, pool);
+	}
+
+	private Frame(ByteBuffer buffer, BufferPool pool) {
+		this.buffer = buffer;
+		this.pool = pool;
+	}
+
+	/**
+	 * Adds a reference to this frame.
+	 * 
+	 * @return False if the frame was already released by all owners and must
+	 *         not be used anymore.
+	 */
+	public boolean retain() {
+		while (true) {
+			int n = references.get();
+
+			if (n <= 0) {
+				return false;
+			}
+
+			if (references.compareAndSet(n, n + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases one reference. The frame must not be used by the caller after
+	 * this method returned.
+	 */
+	public void release() {
+		int n = references.decrementAndGet();
+
+		if (n == 0) {
+			pool.release(buffer);
+		} else if (n < 0) {
+			throw new IllegalStateException("Frame released too often.");
+		}
+	}
+
+	/**
+	 * Returns a new read only view of the frame, positioned at its first byte.
+	 * The view must not be used after the reference was released.
+	 * 
+	 * @return A view of the frame.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the length of the frame in bytes.
+	 * 
+	 * @return The length of the frame.
+	 */
+	public int length() {
+		return buffer.limit();
+	}
+}
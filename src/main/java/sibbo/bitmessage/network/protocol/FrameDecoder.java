@@ -0,0 +1,231 @@
+package sibbo.bitmessage.network.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.crypt.DigestContext;
+
+/**
+ * Decodes base messages from a sequence of byte buffers as they arrive from a
+ * channel. The header and the payload may be split over any number of reads.
+ * If a payload is contained completely in the input buffer, it is parsed
+ * directly from a slice of that buffer. Otherwise it is collected in a buffer
+ * from the {@link BufferPool}, which is released as soon as the message is
+ * parsed.
+ * 
+ * A decoder can be told to leave objects unparsed. It then returns them as
+ * {@link RawObject} with a copy of their payload beside a message without
+ * payload, see {@link BaseMessage#getObject()}. The checksum is not checked,
+ * so the event loop neither hashes nor parses objects.
+ * 
+ * A decoder is not thread safe and must only be used by one connection.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class FrameDecoder {
+	private static final Logger LOG = Logger.getLogger(FrameDecoder.class.getName());
+
+	/** The factory used to parse the payloads. */
+	private final MessageFactory factory;
+
+	/** The pool that provides buffers for incomplete payloads. */
+	private final BufferPool pool;
+
+	/** The maximum payload length. */
+	private final int maxLength;
+
+	/** If true, objects are returned as raw objects. */
+	private final boolean rawObjects;
+
+	/** Receives the sha512 sum of the current payload. */
+	private final byte[] digest = new byte[DigestContext.SHA512_LENGTH];
+
+	/** The header of the current frame. */
+	private final byte[] header = new byte[BaseMessage.HEADER_LENGTH];
+
+	/** The amount of header bytes already received. */
+	private int headerPosition;
+
+	/** The payload length of the current frame or -1 if the header is incomplete. */
+	private int length = -1;
+
+	/** Collects the payload if it is split over several reads. */
+	private ByteBuffer payload;
+
+	/**
+	 * Creates a new frame decoder.
+	 * 
+	 * @param factory
+	 *            The factory used to parse the payloads.
+	 * @param pool
+	 *            The pool that provides buffers for incomplete payloads.
+	 * @param maxLength
+	 *            The maximum payload length.
+	 */
+	public FrameDecoder(MessageFactory factory, BufferPool pool, int maxLength) {
+		this(factory, pool, maxLength, false);
+	}
+
+	/**
+	 * Creates a new frame decoder.
+	 * 
+	 * @param factory
+	 *            The factory used to parse the payloads.
+	 * @param pool
+	 *            The pool that provides buffers for incomplete payloads.
+	 * @param maxLength
+	 *            The maximum payload length.
+	 * @param rawObjects
+	 *            If true, objects are not parsed, but returned as
+	 *            {@link RawObject} by {@link BaseMessage#getObject()}.
+	 */
+	public FrameDecoder(MessageFactory factory, BufferPool pool, int maxLength, boolean rawObjects) {
+		Objects.requireNonNull(factory, "factory must not be null.");
+		Objects.requireNonNull(pool, "pool must not be null.");
+
+		if (maxLength < 0) {
+			throw new IllegalArgumentException("maxLength must be >= 0.");
+		}
+
+		this.factory = factory;
+		this.pool = pool;
+		this.maxLength = maxLength;
+		this.rawObjects = rawObjects;
+	}
+
+	/**
+	 * Consumes bytes from the given buffer until a complete message is decoded
+	 * or the buffer is empty. Call this method again as long as it returns a
+	 * message and the buffer has remaining bytes.
+	 * 
+	 * The returned message may not reference the given buffer, so the buffer
+	 * can be reused after this method returned.
+	 * 
+	 * @param in
+	 *            The received bytes.
+	 * @return The decoded message or null if all bytes were consumed without
+	 *         completing a message.
+	 * @throws IOException
+	 *             If the header is invalid. The stream cannot be synchronized
+	 *             again after that, so the connection should be closed.
+	 * @throws ParsingException
+	 *             If the payload of a message is invalid. The message was
+	 *             skipped, so decoding can continue.
+	 */
+	public BaseMessage decode(ByteBuffer in) throws IOException, ParsingException {
+		if (length < 0) {
+			int n = Math.min(in.remaining(), header.length - headerPosition);
+			in.get(header, headerPosition, n);
+			headerPosition += n;
+
+			if (headerPosition < header.length) {
+				return null;
+			}
+
+			try {
+				length = BaseMessage.checkHeader(header, maxLength);
+			} catch (ParsingException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+
+		ByteBuffer frame;
+
+		if (payload == null && in.remaining() >= length) {
+			frame = in.slice();
+			frame.limit(length);
+			in.position(in.position() + length);
+		} else {
+			if (payload == null) {
+				payload = pool.acquire(length);
+			}
+
+			int n = Math.min(in.remaining(), payload.remaining());
+			ByteBuffer part = in.duplicate();
+			part.limit(part.position() + n);
+			payload.put(part);
+			in.position(in.position() + n);
+
+			if (payload.hasRemaining()) {
+				return null;
+			}
+
+			payload.flip();
+			frame = payload;
+		}
+
+		try {
+			return parse(frame);
+		} finally {
+			reset();
+		}
+	}
+
+	/**
+	 * Checks the checksum of the given payload and parses it. Objects get the
+	 * sha512 sum of the payload, so their hash is derived from it.
+	 * 
+	 * @param frame
+	 *            The payload.
+	 * @return The message.
+	 * @throws ParsingException
+	 *             If the checksum is wrong or the payload is invalid.
+	 */
+	private BaseMessage parse(ByteBuffer frame) throws ParsingException {
+		String command = BaseMessage.getCommand(header);
+
+		if (rawObjects && factory.isObject(command)) {
+			byte[] bytes = new byte[frame.remaining()];
+			frame.get(bytes);
+
+			return new BaseMessage(header, new RawObject(command, Arrays.copyOfRange(header, 20, 24), bytes, factory),
+					factory);
+		}
+
+		DigestContext.get().sha512(frame, digest, 0);
+
+		for (int i = 0; i < 4; i++) {
+			if (digest[i] != header[20 + i]) {
+				throw new ParsingException("Wrong digest for payload!");
+			}
+		}
+
+		P2PMessage p;
+
+		try {
+			p = factory.parseP2PMessage(command, new InputBuffer(frame));
+		} catch (IOException | IndexOutOfBoundsException e) {
+			throw new ParsingException("Payload too short: " + e.getMessage());
+		}
+
+		if (p instanceof POWMessage) {
+			((POWMessage) p).setDigest(digest, 0);
+		}
+
+		return new BaseMessage(header, p, factory);
+	}
+
+	/**
+	 * Prepares the decoder for the next frame.
+	 */
+	private void reset() {
+		headerPosition = 0;
+		length = -1;
+		release();
+	}
+
+	/**
+	 * Returns the buffer of an incomplete payload to the pool. Must be called
+	 * when the connection is closed.
+	 */
+	public void release() {
+		if (payload != null) {
+			pool.release(payload);
+			payload = null;
+		}
+	}
+}
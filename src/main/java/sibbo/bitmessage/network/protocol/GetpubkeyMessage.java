@@ -1,9 +1,8 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -74,31 +73,26 @@ public class GetpubkeyMessage extends POWMessage {
 
 	@Override
 	protected void readPayload(InputBuffer b) throws IOException, ParsingException {
-		VariableLengthIntegerMessage v = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(v.length());
-		addressVersion = v.getLong();
+		addressVersion = b.getVarInt(0);
+		b = b.getSubBuffer(VariableLengthIntegerMessage.getLength(addressVersion));
 
-		v = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(v.length());
-		streamNumber = v.getLong();
+		streamNumber = b.getVarInt(0);
+		b = b.getSubBuffer(VariableLengthIntegerMessage.getLength(streamNumber));
 
 		ripe = b.get(0, 20);
 	}
 
 	@Override
-	protected byte[] getPayloadBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-
-		try {
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(addressVersion).getBytes());
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(streamNumber).getBytes());
-			b.write(ripe);
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
-		}
+	protected int getPayloadLength() {
+		return VariableLengthIntegerMessage.getLength(addressVersion)
+				+ VariableLengthIntegerMessage.getLength(streamNumber) + ripe.length;
+	}
 
-		return b.toByteArray();
+	@Override
+	protected void writePayload(ByteBuffer out) {
+		VariableLengthIntegerMessage.write(addressVersion, out);
+		VariableLengthIntegerMessage.write(streamNumber, out);
+		out.put(ripe);
 	}
 
 	@Override
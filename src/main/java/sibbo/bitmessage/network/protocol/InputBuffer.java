@@ -2,15 +2,17 @@ package sibbo.bitmessage.network.protocol;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.logging.Logger;
 
 /**
- * A data structure that reads from an input stream and buffers all data. The
- * data can't be manipulated, but substructures can be created. All
- * substructures share the underlying buffer.
+ * A data structure that reads from an input stream and buffers all data, or
+ * that wraps a byte buffer that already contains all data. The data can't be
+ * manipulated, but substructures can be created. All substructures share the
+ * underlying buffer, so creating them never copies any data.
  * 
  * @author Sebastian Schmidt
  * @version 1.0
@@ -23,6 +25,9 @@ public class InputBuffer {
 	private int offset = 0;
 	private int length;
 
+	/** The array this buffer was created from if it was taken over, else null. */
+	private byte[] array;
+
 	/**
 	 * Creates a new InputBuffer reading from the given input stream. The buffer
 	 * is limited to maxSize.
@@ -45,14 +50,45 @@ public class InputBuffer {
 
 		Objects.requireNonNull(in, "in must not be null.");
 
-		buffer = new Buffer(in, chunkSize, maxSize);
+		buffer = new StreamBuffer(in, chunkSize, maxSize);
 		length = maxSize;
 	}
 
-	private InputBuffer(Buffer buffer, int offset, int length) {
+	/**
+	 * Creates a new InputBuffer that reads the remaining bytes of the given
+	 * byte buffer. The content of the byte buffer is not copied, so it must
+	 * not be changed as long as this input buffer is used. The position and
+	 * limit of the given byte buffer are not changed.
+	 * 
+	 * @param b
+	 *            The byte buffer to read from.
+	 */
+	public InputBuffer(ByteBuffer b) {
+		Objects.requireNonNull(b, "b must not be null.");
+
+		buffer = new ByteBufferBuffer(b);
+		length = b.remaining();
+	}
+
+	/**
+	 * Creates a new InputBuffer that reads the given array. The array is taken
+	 * over, so messages parsed from this buffer may keep it instead of a copy,
+	 * see {@link #toArray()}. It must not be changed afterwards.
+	 * 
+	 * @param array
+	 *            The array to read from.
+	 */
+	InputBuffer(byte[] array) {
+		this(ByteBuffer.wrap(array));
+
+		this.array = array;
+	}
+
+	private InputBuffer(Buffer buffer, int offset, int length, byte[] array) {
 		this.buffer = buffer;
 		this.offset = offset;
 		this.length = length;
+		this.array = array;
 	}
 
 	/**
@@ -87,7 +123,7 @@ public class InputBuffer {
 	 *             If the bytes in the specified range could not be read.
 	 */
 	public byte[] get(int offset, int length) throws IOException {
-		if (offset < 0 || offset + length > this.offset + this.length) {
+		if (offset < 0 || length < 0 || offset + length > this.length) {
 			throw new IndexOutOfBoundsException("Out of bounds: " + offset + "-" + length + "/" + this.offset + "-"
 					+ this.length);
 		}
@@ -95,6 +131,107 @@ public class InputBuffer {
 		return buffer.get(offset + this.offset, length);
 	}
 
+	/**
+	 * Returns all bytes of this buffer. If this buffer covers exactly the
+	 * array it was created from, the array itself is returned, otherwise a
+	 * copy.
+	 * 
+	 * @return The bytes of this buffer.
+	 * @throws IOException
+	 *             If the bytes could not be read.
+	 * @see #InputBuffer(byte[])
+	 */
+	byte[] toArray() throws IOException {
+		if (array != null && offset == 0 && length == array.length) {
+			return array;
+		}
+
+		return get(0, length);
+	}
+
+	/**
+	 * Returns the big endian short starting at the given index, without
+	 * copying it into an array first.
+	 * 
+	 * @param index
+	 *            The index of the first byte.
+	 * @return The short.
+	 * @throws IOException
+	 *             If the bytes could not be read.
+	 */
+	public short getShort(int index) throws IOException {
+		checkRange(index, 2);
+
+		return buffer.getShort(offset + index);
+	}
+
+	/**
+	 * Returns the big endian int starting at the given index, without copying
+	 * it into an array first.
+	 * 
+	 * @param index
+	 *            The index of the first byte.
+	 * @return The int.
+	 * @throws IOException
+	 *             If the bytes could not be read.
+	 */
+	public int getInt(int index) throws IOException {
+		checkRange(index, 4);
+
+		return buffer.getInt(offset + index);
+	}
+
+	/**
+	 * Returns the big endian long starting at the given index, without copying
+	 * it into an array first.
+	 * 
+	 * @param index
+	 *            The index of the first byte.
+	 * @return The long.
+	 * @throws IOException
+	 *             If the bytes could not be read.
+	 */
+	public long getLong(int index) throws IOException {
+		checkRange(index, 8);
+
+		return buffer.getLong(offset + index);
+	}
+
+	/**
+	 * Returns the variable length integer starting at the given index. Its
+	 * length can be determined with
+	 * {@link VariableLengthIntegerMessage#getLength(long)}.
+	 * 
+	 * @param index
+	 *            The index of the first byte.
+	 * @return The value, to be treated as uint64.
+	 * @throws IOException
+	 *             If the bytes could not be read.
+	 */
+	public long getVarInt(int index) throws IOException {
+		int first = get(index) & 0xFF;
+
+		switch (first) {
+		case 0xfd:
+			return getShort(index + 1) & 0xFFFF;
+
+		case 0xfe:
+			return getInt(index + 1) & 0xFFFF_FFFFL;
+
+		case 0xff:
+			return getLong(index + 1);
+
+		default:
+			return first;
+		}
+	}
+
+	private void checkRange(int index, int length) {
+		if (index < 0 || index + length > this.length) {
+			throw new IndexOutOfBoundsException("Out of bounds: " + index + "-" + length + "/" + this.length);
+		}
+	}
+
 	/**
 	 * Creates a new input buffer that maps it's requests to the given range of
 	 * this buffer.<br />
@@ -114,12 +251,12 @@ public class InputBuffer {
 	 * @return A sub buffer of this one.
 	 */
 	public InputBuffer getSubBuffer(int offset, int length) {
-		if (offset < 0 || offset + length >= this.offset + this.length) {
+		if (offset < 0 || length < 0 || offset + length > this.length) {
 			throw new IndexOutOfBoundsException("Out of bounds: " + offset + "-" + length + "/" + this.offset + "-"
 					+ this.length);
 		}
 
-		return new InputBuffer(buffer, offset + this.offset, length);
+		return new InputBuffer(buffer, offset + this.offset, length, array);
 	}
 
 	/**
@@ -147,7 +284,7 @@ public class InputBuffer {
 			throw new IndexOutOfBoundsException("Out of bounds: " + offset + "/" + length);
 		}
 
-		return new InputBuffer(buffer, offset + this.offset, length - offset);
+		return new InputBuffer(buffer, offset + this.offset, length - offset, array);
 	}
 
 	/**
@@ -170,14 +307,75 @@ public class InputBuffer {
 		return offset;
 	}
 
-	private class Buffer {
+	/**
+	 * The data source shared by an input buffer and all its sub buffers.
+	 */
+	private static abstract class Buffer {
+		/**
+		 * Returns the byte at the given index.
+		 * 
+		 * @param index
+		 *            The index.
+		 * @return The byte at the given index.
+		 * @throws IOException
+		 *             If the byte could not be read.
+		 */
+		public abstract byte get(int index) throws IOException;
+
+		/**
+		 * Returns a copy of the given range.
+		 * 
+		 * @param offset
+		 *            The start of the range.
+		 * @param length
+		 *            The length of the range.
+		 * @return A copy of the given range.
+		 * @throws IOException
+		 *             If the range could not be read.
+		 */
+		public abstract byte[] get(int offset, int length) throws IOException;
+
+		/**
+		 * Returns the big endian short at the given index. Buffers that can
+		 * read it directly override this.
+		 * 
+		 * @param index
+		 *            The index of the first byte.
+		 * @return The short.
+		 * @throws IOException
+		 *             If the bytes could not be read.
+		 */
+		public short getShort(int index) throws IOException {
+			return (short) ((get(index) & 0xFF) << 8 | get(index + 1) & 0xFF);
+		}
+
+		/**
+		 * {@link #getShort(int)}
+		 */
+		public int getInt(int index) throws IOException {
+			return (getShort(index) & 0xFFFF) << 16 | getShort(index + 2) & 0xFFFF;
+		}
+
+		/**
+		 * {@link #getShort(int)}
+		 */
+		public long getLong(int index) throws IOException {
+			return (getInt(index) & 0xFFFF_FFFFL) << 32 | getInt(index + 4) & 0xFFFF_FFFFL;
+		}
+	}
+
+	/**
+	 * A buffer that reads the data from an input stream in chunks as soon as
+	 * they are accessed.
+	 */
+	private static class StreamBuffer extends Buffer {
 		private InputStream in;
 		private int size;
 		private List<byte[]> buffer;
 		private int maxSize;
 		private int chunkSize;
 
-		public Buffer(InputStream in, int chunkSize, int maxSize) {
+		public StreamBuffer(InputStream in, int chunkSize, int maxSize) {
 			Objects.requireNonNull(in, "in must not be null.");
 
 			this.in = in;
@@ -187,6 +385,7 @@ public class InputBuffer {
 			buffer = new ArrayList<>(maxSize / chunkSize + 1);
 		}
 
+		@Override
 		public byte get(int index) throws IOException {
 			if (index < 0 || index >= maxSize) {
 				throw new IndexOutOfBoundsException("Index out of bounds: " + index);
@@ -199,6 +398,7 @@ public class InputBuffer {
 			return buffer.get(index / chunkSize)[index % chunkSize];
 		}
 
+		@Override
 		public byte[] get(int offset, int length) throws IOException {
 			if (offset < 0 || offset + length > maxSize) {
 				throw new IndexOutOfBoundsException("Out of bounds: " + offset + "-" + length + "/" + 0 + "-" + maxSize);
@@ -209,7 +409,7 @@ public class InputBuffer {
 			}
 
 			if (offset + length > size) {
-				read(offset + length);
+				read(offset + length - 1);
 			}
 
 			byte[] b = new byte[length];
@@ -223,7 +423,7 @@ public class InputBuffer {
 					cl = offset + length - chunkOffset;
 				}
 
-				copy(buffer.get(i), b, chunkOffset % chunkSize, index, cl);
+				System.arraycopy(buffer.get(i), chunkOffset % chunkSize, b, index, cl);
 
 				index += cl;
 				chunkOffset += cl;
@@ -232,13 +432,6 @@ public class InputBuffer {
 			return b;
 		}
 
-		private void copy(byte[] source, byte[] target, int sourceOffset, int targetOffset, int length) {
-			int delta = targetOffset - sourceOffset;
-			for (int i = sourceOffset; i < sourceOffset + length; i++) {
-				target[delta + i] = source[i];
-			}
-		}
-
 		private void read(int index) throws IOException {
 			int firstChunk = buffer.size();
 			int lastChunk = index / chunkSize;
@@ -284,4 +477,50 @@ public class InputBuffer {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * A buffer that reads the data from a byte buffer that contains all data.
+	 */
+	private static class ByteBufferBuffer extends Buffer {
+		private final ByteBuffer buffer;
+
+		public ByteBufferBuffer(ByteBuffer buffer) {
+			this.buffer = buffer.slice();
+		}
+
+		@Override
+		public byte get(int index) {
+			return buffer.get(index);
+		}
+
+		@Override
+		public short getShort(int index) {
+			return buffer.getShort(index);
+		}
+
+		@Override
+		public int getInt(int index) {
+			return buffer.getInt(index);
+		}
+
+		@Override
+		public long getLong(int index) {
+			return buffer.getLong(index);
+		}
+
+		@Override
+		public byte[] get(int offset, int length) {
+			byte[] b = new byte[length];
+
+			if (buffer.hasArray()) {
+				System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, b, 0, length);
+			} else {
+				ByteBuffer d = buffer.duplicate();
+				d.position(offset);
+				d.get(b);
+			}
+
+			return b;
+		}
+	}
+}
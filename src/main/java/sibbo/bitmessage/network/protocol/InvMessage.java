@@ -1,12 +1,10 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import sibbo.bitmessage.Options;
@@ -23,8 +21,8 @@ public class InvMessage extends P2PMessage {
 	/** The command string for this message type. */
 	public static final String COMMAND = "inv";
 
-	/** The inventory vectors. */
-	private List<InventoryVectorMessage> inv;
+	/** The hashes of the inventory vectors. */
+	private InventoryBatch inv;
 
 	/**
 	 * Creates a new inv message with the given inventory vectors.
@@ -41,7 +39,26 @@ public class InvMessage extends P2PMessage {
 			throw new IllegalArgumentException("Too much inventory vectors: " + inv.size());
 		}
 
-		this.inv = new ArrayList<>(inv);
+		this.inv = new InventoryBatch(inv);
+	}
+
+	/**
+	 * Creates a new inv message with the given hashes. The batch is not
+	 * copied and must not be modified afterwards.
+	 * 
+	 * @param inv
+	 *            The hashes of the inventory vectors.
+	 */
+	public InvMessage(InventoryBatch inv, MessageFactory factory) {
+		super(factory);
+
+		Objects.requireNonNull(inv, "inv must not be null.");
+
+		if (inv.size() > Options.getInstance().getInt("protocol.maxInvLength")) {
+			throw new IllegalArgumentException("Too much inventory vectors: " + inv.size());
+		}
+
+		this.inv = inv;
 	}
 
 	/**
@@ -58,42 +75,38 @@ public class InvMessage extends P2PMessage {
 
 	@Override
 	protected void read(InputBuffer b) throws IOException, ParsingException {
-		VariableLengthIntegerMessage vLength = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(vLength.length());
-		long length = vLength.getLong();
+		long length = b.getVarInt(0);
+		b = b.getSubBuffer(VariableLengthIntegerMessage.getLength(length));
 
 		if (length < 0 || length > Options.getInstance().getInt("protocol.maxInvLength")) {
 			throw new ParsingException("Too much inventory vectors: " + length);
 		}
 
-		inv = new ArrayList<>((int) length);
-
-		for (int i = 0; i < length; i++) {
-			InventoryVectorMessage ivm = getMessageFactory().parseInventoryVectorMessage(b);
-			inv.add(ivm);
-			b = b.getSubBuffer(ivm.length());
-		}
+		inv = InventoryBatch.read(b, (int) length);
 	}
 
 	@Override
-	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-
-		try {
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(inv.size()).getBytes());
-
-			for (InventoryVectorMessage m : inv) {
-				b.write(m.getBytes());
-			}
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
-		}
+	public int getEncodedLength() {
+		return VariableLengthIntegerMessage.getLength(inv.size()) + inv.size() * InventoryBatch.HASH_LENGTH;
+	}
 
-		return b.toByteArray();
+	@Override
+	public void write(ByteBuffer out) {
+		VariableLengthIntegerMessage.write(inv.size(), out);
+		inv.write(out);
 	}
 
 	public List<InventoryVectorMessage> getInventoryVectors() {
-		return new ArrayList<>(inv);
+		return inv.toList(getMessageFactory());
+	}
+
+	/**
+	 * Returns the hashes of the inventory vectors without copying them. The
+	 * returned batch must not be modified.
+	 * 
+	 * @return The hashes of the inventory vectors.
+	 */
+	public InventoryBatch getInventory() {
+		return inv;
 	}
 }
\ No newline at end of file
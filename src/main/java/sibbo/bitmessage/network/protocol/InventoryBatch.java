@@ -0,0 +1,240 @@
+package sibbo.bitmessage.network.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * A list of inventory hashes that are stored one after another in a single
+ * array. Hash i starts at {@code i * HASH_LENGTH}, so a batch of any size
+ * consists of two objects and the hashes can be passed to hash sets and maps
+ * without creating an {@link InventoryVectorMessage} for each of them.<br />
+ * Hashes can only be appended or cleared. Not thread safe.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class InventoryBatch {
+	private static final Logger LOG = Logger.getLogger(InventoryBatch.class.getName());
+
+	/** The length of a hash in bytes. */
+	public static final int HASH_LENGTH = 32;
+
+	/** The hashes, one after another. */
+	private byte[] hashes;
+
+	/** The amount of hashes. */
+	private int size;
+
+	/**
+	 * Creates a new empty batch.
+	 * 
+	 * @param capacity
+	 *            The expected amount of hashes.
+	 */
+	public InventoryBatch(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must be >= 0.");
+		}
+
+		hashes = new byte[capacity * HASH_LENGTH];
+	}
+
+	/**
+	 * Creates a new batch containing the hashes of the given inventory
+	 * vectors.
+	 * 
+	 * @param inv
+	 *            The inventory vectors.
+	 */
+	public InventoryBatch(Collection<? extends InventoryVectorMessage> inv) {
+		this(inv.size());
+
+		for (InventoryVectorMessage m : inv) {
+			add(m.getHash(), 0);
+		}
+	}
+
+	/**
+	 * Reads {@code count} hashes from the start of the given buffer with a
+	 * single copy.
+	 * 
+	 * @param b
+	 *            The input buffer to read from.
+	 * @param count
+	 *            The amount of hashes.
+	 * @return The batch.
+	 * @throws IOException
+	 *             If reading from the buffer fails.
+	 */
+	public static InventoryBatch read(InputBuffer b, int count) throws IOException {
+		InventoryBatch batch = new InventoryBatch(0);
+		batch.hashes = b.get(0, count * HASH_LENGTH);
+		batch.size = count;
+
+		return batch;
+	}
+
+	/**
+	 * Appends the hash that starts at the given offset of the array.
+	 * 
+	 * @param b
+	 *            The array containing the hash.
+	 * @param offset
+	 *            The first byte of the hash.
+	 */
+	public void add(byte[] b, int offset) {
+		if (offset < 0 || offset + HASH_LENGTH > b.length) {
+			throw new IllegalArgumentException("A hash must have a length of " + HASH_LENGTH + ".");
+		}
+
+		if ((size + 1) * HASH_LENGTH > hashes.length) {
+			hashes = Arrays.copyOf(hashes, Math.max(16, size * 2) * HASH_LENGTH);
+		}
+
+		System.arraycopy(b, offset, hashes, size * HASH_LENGTH, HASH_LENGTH);
+		size++;
+	}
+
+	/**
+	 * Appends the hash at the given index of another batch.
+	 * 
+	 * @param batch
+	 *            The other batch.
+	 * @param index
+	 *            The index of the hash in the other batch.
+	 */
+	public void add(InventoryBatch batch, int index) {
+		add(batch.hashes, batch.offset(index));
+	}
+
+	/**
+	 * Returns the amount of hashes.
+	 * 
+	 * @return The amount of hashes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all hashes. Keeps the array.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Returns the array that holds the hashes. It may be longer than
+	 * {@code size() * HASH_LENGTH} and must not be modified.
+	 * 
+	 * @return The array that holds the hashes.
+	 */
+	public byte[] array() {
+		return hashes;
+	}
+
+	/**
+	 * Returns the position of the hash with the given index in
+	 * {@link #array()}.
+	 * 
+	 * @param index
+	 *            The index of the hash.
+	 * @return The position of the first byte of the hash.
+	 */
+	public int offset(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Out of bounds: " + index + "/" + size);
+		}
+
+		return index * HASH_LENGTH;
+	}
+
+	/**
+	 * Returns a copy of the hash with the given index.
+	 * 
+	 * @param index
+	 *            The index of the hash.
+	 * @return The hash.
+	 */
+	public byte[] getHash(int index) {
+		int offset = offset(index);
+
+		return Arrays.copyOfRange(hashes, offset, offset + HASH_LENGTH);
+	}
+
+	/**
+	 * Creates an inventory vector for the hash with the given index.
+	 * 
+	 * @param index
+	 *            The index of the hash.
+	 * @param factory
+	 *            The factory used to create the inventory vector.
+	 * @return The inventory vector.
+	 */
+	public InventoryVectorMessage get(int index, MessageFactory factory) {
+		return factory.createInventoryVectorMessage(getHash(index));
+	}
+
+	/**
+	 * Returns a new batch with the hashes from index {@code from} inclusive to
+	 * {@code to} exclusive.
+	 * 
+	 * @param from
+	 *            The first index.
+	 * @param to
+	 *            The index after the last hash.
+	 * @return The new batch.
+	 */
+	public InventoryBatch subBatch(int from, int to) {
+		if (from < 0 || to > size || from > to) {
+			throw new IndexOutOfBoundsException("Out of bounds: " + from + "-" + to + "/" + size);
+		}
+
+		InventoryBatch batch = new InventoryBatch(0);
+		batch.hashes = Arrays.copyOfRange(hashes, from * HASH_LENGTH, to * HASH_LENGTH);
+		batch.size = to - from;
+
+		return batch;
+	}
+
+	/**
+	 * Creates an inventory vector for every hash. Only meant for code that
+	 * needs the objects, the batch itself should be preferred.
+	 * 
+	 * @param factory
+	 *            The factory used to create the inventory vectors.
+	 * @return A new list with an inventory vector for every hash.
+	 */
+	public List<InventoryVectorMessage> toList(MessageFactory factory) {
+		Objects.requireNonNull(factory, "factory must not be null.");
+
+		List<InventoryVectorMessage> l = new ArrayList<>(size);
+
+		for (int i = 0; i < size; i++) {
+			l.add(get(i, factory));
+		}
+
+		return l;
+	}
+
+	/**
+	 * Writes all hashes to the given buffer.
+	 * 
+	 * @param out
+	 *            The buffer to write to. Must have at least
+	 *            {@code size() * HASH_LENGTH} bytes remaining.
+	 */
+	public void write(ByteBuffer out) {
+		out.put(hashes, 0, size * HASH_LENGTH);
+	}
+}
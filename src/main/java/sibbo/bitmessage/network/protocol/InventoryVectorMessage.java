@@ -1,6 +1,7 @@
 package sibbo.bitmessage.network.protocol;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.logging.Logger;
@@ -56,6 +57,16 @@ public class InventoryVectorMessage extends Message {
 		return hash;
 	}
 
+	@Override
+	public int getEncodedLength() {
+		return length();
+	}
+
+	@Override
+	public void write(ByteBuffer out) {
+		out.put(hash);
+	}
+
 	public int length() {
 		return 32;
 	}
@@ -1,8 +1,8 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,13 +65,12 @@ public class MailMessage extends Message {
 
 	@Override
 	protected void read(InputBuffer b) throws IOException, ParsingException {
-		VariableLengthIntegerMessage i = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(i.length());
-		encoding = MessageEncoding.getEncoding(i.getLong());
+		long constant = b.getVarInt(0);
+		b = b.getSubBuffer(VariableLengthIntegerMessage.getLength(constant));
+		encoding = MessageEncoding.getEncoding(constant);
 
-		i = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(i.length());
-		long length = i.getLong();
+		long length = b.getVarInt(0);
+		b = b.getSubBuffer(VariableLengthIntegerMessage.getLength(length));
 
 		if (length > b.length() || length < 0) {
 			throw new ParsingException("Message too long: " + length);
@@ -100,13 +99,17 @@ public class MailMessage extends Message {
 		}
 	}
 
-	@Override
-	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
+	/**
+	 * Encodes the subject and content into data, if this was not done yet.
+	 * 
+	 * @return The data.
+	 */
+	private byte[] encodeData() {
+		if (data != null) {
+			return data;
+		}
 
 		try {
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(encoding.getConstant()).getBytes());
-
 			switch (encoding) {
 			case IGNORE:
 				break;
@@ -123,22 +126,32 @@ public class MailMessage extends Message {
 				LOG.log(Level.SEVERE, "Unknown encoding: " + encoding);
 				System.exit(1);
 			}
-
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(data.length).getBytes());
-			b.write(data);
 		} catch (UnsupportedEncodingException e) {
 			LOG.log(Level.SEVERE, "UTF-8 not supported!", e);
 			System.exit(1);
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
 		}
 
-		return b.toByteArray();
+		return data;
+	}
+
+	@Override
+	public int getEncodedLength() {
+		return length();
+	}
+
+	@Override
+	public void write(ByteBuffer out) {
+		byte[] data = encodeData();
+
+		VariableLengthIntegerMessage.write(encoding.getConstant(), out);
+		VariableLengthIntegerMessage.write(data.length, out);
+		out.put(data);
 	}
 
 	public int length() {
-		return getMessageFactory().createVariableLengthIntegerMessage(encoding.getConstant()).length()
-				+ getMessageFactory().createVariableLengthIntegerMessage(data.length).length() + data.length;
+		byte[] data = encodeData();
+
+		return VariableLengthIntegerMessage.getLength(encoding.getConstant())
+				+ VariableLengthIntegerMessage.getLength(data.length) + data.length;
 	}
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package sibbo.bitmessage.network.protocol;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public abstract class Message {
@@ -59,7 +60,29 @@ public abstract class Message {
 	 * 
 	 * @return A byte array of containing this message.
 	 */
-	public abstract byte[] getBytes();
+	public byte[] getBytes() {
+		ByteBuffer b = ByteBuffer.allocate(getEncodedLength());
+		write(b);
+
+		return b.array();
+	}
+
+	/**
+	 * Returns the exact amount of bytes written by {@link #write(ByteBuffer)}.
+	 * 
+	 * @return The length of the encoded message.
+	 */
+	public abstract int getEncodedLength();
+
+	/**
+	 * Writes this message to the given buffer, starting at its position. The
+	 * position is advanced by the length of the message.
+	 * 
+	 * @param out
+	 *            The buffer to write to. Must have at least
+	 *            {@link #getEncodedLength()} bytes remaining.
+	 */
+	public abstract void write(ByteBuffer out);
 
 	/**
 	 * Ensures that the given byte array is completely filled with bytes from
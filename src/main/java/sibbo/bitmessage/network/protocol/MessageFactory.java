@@ -33,10 +33,14 @@ public abstract class MessageFactory {
 
 	public abstract GetdataMessage createGetdataMessage(Collection<InventoryVectorMessage> inv);
 
+	public abstract GetdataMessage createGetdataMessage(InventoryBatch inv);
+
 	public abstract InventoryVectorMessage createInventoryVectorMessage(byte[] hash);
 
 	public abstract InvMessage createInvMessage(Collection<InventoryVectorMessage> inv);
 
+	public abstract InvMessage createInvMessage(InventoryBatch inv);
+
 	public abstract NodeServicesMessage createNodeServicesMessage(long services);
 
 	public abstract SimpleNetworkAddressMessage createSimpleNetworkAddressMessage(NodeServicesMessage services,
@@ -54,6 +58,16 @@ public abstract class MessageFactory {
 			SimpleNetworkAddressMessage receiver, SimpleNetworkAddressMessage sender, long nonce, String userAgent,
 			long[] streams);
 
+	/**
+	 * Returns true if messages with the given command are objects, which
+	 * extend {@link POWMessage}.
+	 * 
+	 * @param command
+	 *            The command.
+	 * @return True if the command belongs to an object.
+	 */
+	public abstract boolean isObject(String command);
+
 	public abstract BaseMessage parseBaseMessage(InputStream in, int length) throws IOException, ParsingException;
 
 	public abstract BehaviorMessage parseBehaviorMessage(InputBuffer b) throws IOException, ParsingException;
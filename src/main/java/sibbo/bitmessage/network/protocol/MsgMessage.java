@@ -1,9 +1,8 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -60,26 +59,21 @@ public class MsgMessage extends POWMessage {
 
 	@Override
 	protected void readPayload(InputBuffer b) throws IOException, ParsingException {
-		VariableLengthIntegerMessage v = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(v.length());
-		stream = v.getLong();
+		stream = b.getVarInt(0);
+		b = b.getSubBuffer(VariableLengthIntegerMessage.getLength(stream));
 
 		encrypted = getMessageFactory().parseEncryptedMessage(b);
 	}
 
 	@Override
-	protected byte[] getPayloadBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-
-		try {
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(stream).getBytes());
-			b.write(encrypted.getBytes());
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
-		}
+	protected int getPayloadLength() {
+		return VariableLengthIntegerMessage.getLength(stream) + encrypted.getEncodedLength();
+	}
 
-		return b.toByteArray();
+	@Override
+	protected void writePayload(ByteBuffer out) {
+		VariableLengthIntegerMessage.write(stream, out);
+		encrypted.write(out);
 	}
 
 	@Override
@@ -1,12 +1,11 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -81,17 +80,18 @@ public class NetworkAddressMessage extends Message {
 
 	@Override
 	protected void read(InputBuffer b) throws IOException, ParsingException {
-		time = Util.getInt(b.get(0, 4));
-		stream = Util.getInt(b.get(4, 4));
+		time = b.getInt(0);
+		stream = b.getInt(4);
 		b = b.getSubBuffer(8);
 
 		services = getMessageFactory().parseNodeServicesMessage(b);
 		b = b.getSubBuffer(services.length());
 
 		byte[] ipBytes = b.get(0, 16);
+		boolean ipv4 = isIpv4(ipBytes);
 
 		try {
-			if (isIpv4(ipBytes)) {
+			if (ipv4) {
 				ip = InetAddress.getByAddress(Arrays.copyOfRange(ipBytes, 12, 16));
 			} else {
 				ip = InetAddress.getByAddress(ipBytes);
@@ -100,8 +100,7 @@ public class NetworkAddressMessage extends Message {
 			throw new ParsingException("Not an IP: " + Arrays.toString(ipBytes));
 		}
 
-		byte[] portBytes = b.get(16, 2);
-		port = Util.getInt(new byte[] { 0, 0, portBytes[0], portBytes[1] });
+		port = b.getShort(16) & 0xFFFF;
 
 		if (ip.isAnyLocalAddress() || ip.isMulticastAddress()) {
 			throw new ParsingException("IP is local or multicast!");
@@ -109,8 +108,8 @@ public class NetworkAddressMessage extends Message {
 
 		boolean isNull = true;
 
-		for (byte a : ip.getAddress()) {
-			if (a != 0) {
+		for (int i = ipv4 ? 12 : 0; i < ipBytes.length; i++) {
+			if (ipBytes[i] != 0) {
 				isNull = false;
 			}
 		}
@@ -121,37 +120,27 @@ public class NetworkAddressMessage extends Message {
 	}
 
 	@Override
-	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream(34);
-
-		try {
-			b.write(Util.getBytes(time));
-			b.write(Util.getBytes(stream));
-			b.write(services.getBytes());
-
-			byte[] ip = this.ip.getAddress();
-			if (ip.length == 4) {
-				byte[] tmpip = new byte[16];
-
-				tmpip[10] = tmpip[11] = -1;
-				tmpip[12] = ip[0];
-				tmpip[13] = ip[1];
-				tmpip[14] = ip[2];
-				tmpip[15] = ip[3];
-
-				ip = tmpip;
-			}
-
-			b.write(ip);
+	public int getEncodedLength() {
+		return length();
+	}
 
-			byte[] port = Util.getBytes(this.port);
-			b.write(new byte[] { port[2], port[3] });
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
+	@Override
+	public void write(ByteBuffer out) {
+		out.putInt(time);
+		out.putInt(stream);
+		services.write(out);
+
+		byte[] ip = this.ip.getAddress();
+
+		if (ip.length == 4) {
+			// IPv6 mapped IPv4 address.
+			out.putLong(0);
+			out.putShort((short) 0);
+			out.putShort((short) -1);
 		}
 
-		return b.toByteArray();
+		out.put(ip);
+		out.putShort((short) port);
 	}
 
 	public int getTime() {
@@ -184,10 +173,13 @@ public class NetworkAddressMessage extends Message {
 			throw new IllegalArgumentException("ip must have a length of 16.");
 		}
 
-		byte[] prefix = new byte[12];
-		prefix[10] = prefix[11] = -1;
+		for (int i = 0; i < 10; i++) {
+			if (ip[i] != 0) {
+				return false;
+			}
+		}
 
-		return Arrays.equals(Arrays.copyOf(ip, 12), prefix);
+		return ip[10] == -1 && ip[11] == -1;
 	}
 
 	public int getPort() {
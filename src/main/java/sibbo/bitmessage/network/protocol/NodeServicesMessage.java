@@ -1,6 +1,7 @@
 package sibbo.bitmessage.network.protocol;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.logging.Logger;
 
@@ -44,12 +45,17 @@ public class NodeServicesMessage extends Message {
 
 	@Override
 	protected void read(InputBuffer b) throws IOException, ParsingException {
-		bitfield = Util.getLong(b.get(0, 8));
+		bitfield = b.getLong(0);
 	}
 
 	@Override
-	public byte[] getBytes() {
-		return Util.getBytes(bitfield);
+	public int getEncodedLength() {
+		return length();
+	}
+
+	@Override
+	public void write(ByteBuffer out) {
+		out.putLong(bitfield);
 	}
 
 	/**
@@ -1,12 +1,11 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.logging.Level;
+import java.nio.ByteBuffer;
 import java.util.logging.Logger;
 
 import sibbo.bitmessage.crypt.CryptManager;
-import sibbo.bitmessage.crypt.Digest;
+import sibbo.bitmessage.crypt.DigestContext;
 
 /**
  * A message supertype for messages that need POW with timestamp.
@@ -23,8 +22,17 @@ public abstract class POWMessage extends P2PMessage {
 	/** The time this message was sent. */
 	private int time;
 
-	/** Caches the byte representation of the payload. */
-	private byte[] payloadBytes;
+	/**
+	 * The encoding of this object including the POW. Received objects keep the
+	 * bytes they were parsed from, own objects create them once after the POW.
+	 */
+	private volatile byte[] bytes;
+
+	/** The hash of this object or null if it was not calculated yet. */
+	private volatile byte[] hash;
+
+	/** The inventory vector of this object or null if it was not created yet. */
+	private volatile InventoryVectorMessage inventoryVector;
 
 	/**
 	 * {@link Message#Message(MessageFactory)}
@@ -42,16 +50,23 @@ public abstract class POWMessage extends P2PMessage {
 
 	@Override
 	protected final void read(InputBuffer b) throws IOException, ParsingException {
+		bytes = b.toArray();
 		nonce = b.get(0, 8);
-		time = Util.getInt(b.get(8, 4));
-
-		if (!CryptManager.getInstance().checkPOW(b.get(8, b.length() - 8), nonce)) {
-			throw new ParsingException("POW insufficient!");
-		}
-
+		time = b.getInt(8);
 		readPayload(b.getSubBuffer(12));
 	}
 
+	/**
+	 * Checks if the POW of this message is sufficient. Parsing a message does
+	 * not check its POW, so this must be done before a received message is
+	 * used.
+	 * 
+	 * @return True if the POW is sufficient.
+	 */
+	public boolean checkPOW() {
+		return CryptManager.getInstance().checkPOW(getBytes());
+	}
+
 	/**
 	 * Initializes the message reading the data from the input buffer.
 	 * 
@@ -64,31 +79,47 @@ public abstract class POWMessage extends P2PMessage {
 	 */
 	protected abstract void readPayload(InputBuffer b) throws IOException, ParsingException;
 
+	/**
+	 * Returns the encoding of this object. Received objects return the bytes
+	 * they were parsed from, so storing and relaying them does not serialize
+	 * them again. The returned array is shared and must not be modified.
+	 * 
+	 * @return The encoding of this object.
+	 */
 	@Override
 	public final byte[] getBytes() {
+		byte[] bytes = this.bytes;
+
+		if (bytes != null) {
+			return bytes;
+		}
+
 		if (nonce == null) {
 			throw new IllegalStateException("POW has not been done!");
 		}
 
-		cachePayload();
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		ByteBuffer b = ByteBuffer.allocate(12 + getPayloadLength());
+		b.put(nonce);
+		b.putInt(time);
+		writePayload(b);
 
-		try {
-			b.write(nonce);
-			b.write(Util.getBytes(time));
-			b.write(payloadBytes);
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
-		}
+		bytes = b.array();
+		this.bytes = bytes;
 
-		return b.toByteArray();
+		return bytes;
 	}
 
-	private void cachePayload() {
-		if (payloadBytes == null) {
-			payloadBytes = getPayloadBytes();
-		}
+	@Override
+	public int getEncodedLength() {
+		return getBytes().length;
+	}
+
+	/**
+	 * Writes the cached encoding of this object.
+	 */
+	@Override
+	public void write(ByteBuffer out) {
+		out.put(getBytes());
 	}
 
 	/**
@@ -96,41 +127,86 @@ public abstract class POWMessage extends P2PMessage {
 	 * <b>WARNING: Takes a long time!!!</b>
 	 */
 	public void doPOW() {
-		cachePayload();
+		ByteBuffer b = ByteBuffer.allocate(4 + getPayloadLength());
+		b.putInt(time);
+		writePayload(b);
+
+		nonce = CryptManager.getInstance().doPOW(b.array());
+		bytes = null;
+		hash = null;
+		inventoryVector = null;
+	}
 
-		byte[] b = new byte[payloadBytes.length + 4];
-		byte[] time = Util.getBytes(this.time);
+	/**
+	 * Returns the exact length of the payload written by
+	 * {@link #writePayload(ByteBuffer)}.
+	 * 
+	 * @return The length of the payload.
+	 */
+	protected abstract int getPayloadLength();
 
-		for (int i = 0; i < 4; i++) {
-			b[i] = time[i];
-		}
+	/**
+	 * Writes this message without nonce and time to the given buffer.
+	 * 
+	 * @param out
+	 *            The buffer to write to. Must have at least
+	 *            {@link #getPayloadLength()} bytes remaining.
+	 */
+	protected abstract void writePayload(ByteBuffer out);
 
-		for (int i = 0; i < payloadBytes.length; i++) {
-			b[i + 4] = payloadBytes[i];
-		}
+	public int getTime() {
+		return time;
+	}
 
-		nonce = CryptManager.getInstance().doPOW(b);
+	/**
+	 * Sets the sha512 sum of this object as it was received. The hash of the
+	 * object is derived from it, so the object does not have to be serialized
+	 * and hashed again.
+	 * 
+	 * @param digest
+	 *            Contains the sha512 sum of the received object.
+	 * @param offset
+	 *            The position of the sum in digest.
+	 */
+	void setDigest(byte[] digest, int offset) {
+		byte[] hash = new byte[32];
+		DigestContext.get().sha512(digest, offset, DigestContext.SHA512_LENGTH, hash, 0, hash.length);
+		this.hash = hash;
 	}
 
 	/**
-	 * Creates a byte array of containing this message without POW.
+	 * Sets the hash of this object if it is already known, for example
+	 * because it was stored with the object. The hash is not checked.
 	 * 
-	 * @return A byte array of containing this message without POW.
+	 * @param hash
+	 *            The first 32 bytes of a 2-rounds sha512 hash of the object.
 	 */
-	protected abstract byte[] getPayloadBytes();
+	public void setHash(byte[] hash) {
+		if (hash.length != 32) {
+			throw new IllegalArgumentException("hash must have a length of 32.");
+		}
 
-	public int getTime() {
-		return time;
+		this.hash = hash;
 	}
 
 	/**
-	 * Calculates the hash of this object. This method uses two rounds of sha512
-	 * and returns the first 32 bytes of the sum.
+	 * Returns the hash of this object. This method uses two rounds of sha512
+	 * and returns the first 32 bytes of the sum. The hash is calculated once,
+	 * received objects get it from the decoder.
 	 * 
 	 * @return The first 32 bytes of a 2-rounds sha512 hash of the object.
 	 */
 	public byte[] getHash() {
-		return Digest.sha512(Digest.sha512(getBytes()), 32);
+		byte[] hash = this.hash;
+
+		if (hash == null) {
+			byte[] bytes = getBytes();
+			hash = new byte[32];
+			DigestContext.get().doubleSha512(bytes, 0, bytes.length, hash, 0, hash.length);
+			this.hash = hash;
+		}
+
+		return hash;
 	}
 
 	/**
@@ -139,6 +215,13 @@ public abstract class POWMessage extends P2PMessage {
 	 * @return The inventory vector describing this message.
 	 */
 	public InventoryVectorMessage getInventoryVector() {
-		return getMessageFactory().createInventoryVectorMessage(getHash());
+		InventoryVectorMessage inventoryVector = this.inventoryVector;
+
+		if (inventoryVector == null) {
+			inventoryVector = getMessageFactory().createInventoryVectorMessage(getHash());
+			this.inventoryVector = inventoryVector;
+		}
+
+		return inventoryVector;
 	}
 }
\ No newline at end of file
@@ -1,9 +1,8 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -95,13 +94,11 @@ public class PubkeyMessage extends POWMessage {
 
 	@Override
 	protected void readPayload(InputBuffer b) throws IOException, ParsingException {
-		VariableLengthIntegerMessage v = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(v.length());
-		addressVersion = v.getLong();
+		addressVersion = b.getVarInt(0);
+		b = b.getSubBuffer(VariableLengthIntegerMessage.getLength(addressVersion));
 
-		v = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(v.length());
-		stream = v.getLong();
+		stream = b.getVarInt(0);
+		b = b.getSubBuffer(VariableLengthIntegerMessage.getLength(stream));
 
 		behavior = getMessageFactory().parseBehaviorMessage(b);
 		b = b.getSubBuffer(behavior.length());
@@ -111,21 +108,18 @@ public class PubkeyMessage extends POWMessage {
 	}
 
 	@Override
-	protected byte[] getPayloadBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-
-		try {
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(addressVersion).getBytes());
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(stream).getBytes());
-			b.write(behavior.getBytes());
-			b.write(publicSigningKey);
-			b.write(publicEncryptionKey);
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
-		}
+	protected int getPayloadLength() {
+		return VariableLengthIntegerMessage.getLength(addressVersion) + VariableLengthIntegerMessage.getLength(stream)
+				+ behavior.length() + publicSigningKey.length + publicEncryptionKey.length;
+	}
 
-		return b.toByteArray();
+	@Override
+	protected void writePayload(ByteBuffer out) {
+		VariableLengthIntegerMessage.write(addressVersion, out);
+		VariableLengthIntegerMessage.write(stream, out);
+		behavior.write(out);
+		out.put(publicSigningKey);
+		out.put(publicEncryptionKey);
 	}
 
 	@Override
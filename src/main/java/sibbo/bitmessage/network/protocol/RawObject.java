@@ -0,0 +1,147 @@
+package sibbo.bitmessage.network.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+import sibbo.bitmessage.crypt.CryptManager;
+import sibbo.bitmessage.crypt.DigestContext;
+
+/**
+ * An object as it was received, with its payload not yet checked or parsed.
+ * The {@link FrameDecoder} creates raw objects on the event loop, so the loop
+ * only copies the bytes. Checking the checksum and the POW and parsing the
+ * payload, which includes building the public keys of encrypted objects, is
+ * done by the verifier threads with {@link #checkPOW()} and {@link #parse()}.<br />
+ * A raw object is not a {@link P2PMessage}, it is carried beside the
+ * {@link BaseMessage} it was received with, see
+ * {@link BaseMessage#getObject()}.
+ * 
+ * @author Sebastian Schmidt
+ * @version 1.0
+ */
+public class RawObject {
+	private static final Logger LOG = Logger.getLogger(RawObject.class.getName());
+
+	/** The command of the object. */
+	private final String command;
+
+	/** The first 4 bytes of the sha512 checksum from the header. */
+	private final byte[] checksum;
+
+	/** The payload: nonce, time and the object. */
+	private final byte[] bytes;
+
+	/** The factory used to parse the object. */
+	private final MessageFactory factory;
+
+	/**
+	 * Creates a new raw object.
+	 * 
+	 * @param command
+	 *            The command of the object.
+	 * @param checksum
+	 *            The first 4 bytes of the sha512 checksum from the header.
+	 * @param bytes
+	 *            The payload. The array is taken over.
+	 * @param factory
+	 *            The factory used to parse the object.
+	 */
+	RawObject(String command, byte[] checksum, byte[] bytes, MessageFactory factory) {
+		this.command = Objects.requireNonNull(command, "command must not be null.");
+		this.checksum = Objects.requireNonNull(checksum, "checksum must not be null.");
+		this.bytes = Objects.requireNonNull(bytes, "bytes must not be null.");
+		this.factory = Objects.requireNonNull(factory, "factory must not be null.");
+	}
+
+	/**
+	 * Returns the command of the object.
+	 * 
+	 * @return The command.
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 * Returns the POW nonce.
+	 * 
+	 * @return The nonce or null if the payload is too short.
+	 */
+	public byte[] getNonce() {
+		return bytes.length < 8 ? null : Arrays.copyOf(bytes, 8);
+	}
+
+	/**
+	 * Returns the time the object was sent.
+	 * 
+	 * @return The time in seconds or 0 if the payload is too short.
+	 */
+	public int getTime() {
+		return bytes.length < 12 ? 0 : Util.getInt(bytes, 8);
+	}
+
+	/**
+	 * Returns the payload. The returned array is shared and must not be
+	 * modified.
+	 * 
+	 * @return The payload.
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the length of the payload.
+	 * 
+	 * @return The length in bytes.
+	 */
+	public int getLength() {
+		return bytes.length;
+	}
+
+	/**
+	 * Checks if the POW of this object is sufficient. Does not need the
+	 * parsed object, so objects with insufficient POW are never parsed.
+	 * 
+	 * @return True if the POW is sufficient.
+	 * @see POWMessage#checkPOW()
+	 */
+	public boolean checkPOW() {
+		return CryptManager.getInstance().checkPOW(bytes);
+	}
+
+	/**
+	 * Checks the checksum of the payload and parses it. The parsed object gets
+	 * the sha512 sum of the payload, so its hash is derived from it.
+	 * 
+	 * @return The parsed object.
+	 * @throws ParsingException
+	 *             If the checksum is wrong or the payload is invalid.
+	 */
+	public POWMessage parse() throws ParsingException {
+		byte[] digest = new byte[DigestContext.SHA512_LENGTH];
+		DigestContext.get().sha512(ByteBuffer.wrap(bytes), digest, 0);
+
+		for (int i = 0; i < checksum.length; i++) {
+			if (digest[i] != checksum[i]) {
+				throw new ParsingException("Wrong digest for payload!");
+			}
+		}
+
+		POWMessage m;
+
+		try {
+			// The parsed object keeps the payload array instead of a copy.
+			m = (POWMessage) factory.parseP2PMessage(command, new InputBuffer(bytes));
+		} catch (IOException | IndexOutOfBoundsException e) {
+			throw new ParsingException("Payload too short: " + e.getMessage());
+		}
+
+		m.setDigest(digest, 0);
+
+		return m;
+	}
+}
@@ -1,12 +1,11 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -68,23 +67,23 @@ public class SimpleNetworkAddressMessage extends Message {
 		b = b.getSubBuffer(services.length());
 
 		byte[] ipBytes = b.get(0, 16);
+		boolean ipv4 = isIpv4(ipBytes);
 
 		try {
-			if (isIpv4(ipBytes)) {
+			if (ipv4) {
 				ip = InetAddress.getByAddress(Arrays.copyOfRange(ipBytes, 12, 16));
 			} else {
 				ip = InetAddress.getByAddress(ipBytes);
 			}
 		} catch (UnknownHostException e) {
-			if (isIpv4(ipBytes)) {
+			if (ipv4) {
 				throw new ParsingException("Not an IP: " + Arrays.toString(Arrays.copyOfRange(ipBytes, 12, 16)));
 			} else {
 				throw new ParsingException("Not an IP: " + Arrays.toString(ipBytes));
 			}
 		}
 
-		byte[] portBytes = b.get(16, 2);
-		port = Util.getInt(new byte[] { 0, 0, portBytes[0], portBytes[1] });
+		port = b.getShort(16) & 0xFFFF;
 
 		if (ip.isAnyLocalAddress() || ip.isMulticastAddress()) {
 			throw new ParsingException("IP is local or multicast!");
@@ -92,8 +91,8 @@ public class SimpleNetworkAddressMessage extends Message {
 
 		boolean isNull = true;
 
-		for (byte a : ip.getAddress()) {
-			if (a != 0) {
+		for (int i = ipv4 ? 12 : 0; i < ipBytes.length; i++) {
+			if (ipBytes[i] != 0) {
 				isNull = false;
 			}
 		}
@@ -104,35 +103,25 @@ public class SimpleNetworkAddressMessage extends Message {
 	}
 
 	@Override
-	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream(34);
-
-		try {
-			b.write(services.getBytes());
-
-			byte[] ip = this.ip.getAddress();
-			if (ip.length == 4) {
-				byte[] tmpip = new byte[16];
-
-				tmpip[10] = tmpip[11] = -1;
-				tmpip[12] = ip[0];
-				tmpip[13] = ip[1];
-				tmpip[14] = ip[2];
-				tmpip[15] = ip[3];
+	public int getEncodedLength() {
+		return length();
+	}
 
-				ip = tmpip;
-			}
+	@Override
+	public void write(ByteBuffer out) {
+		services.write(out);
 
-			b.write(ip);
+		byte[] ip = this.ip.getAddress();
 
-			byte[] port = Util.getBytes(this.port);
-			b.write(new byte[] { port[2], port[3] });
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
+		if (ip.length == 4) {
+			// IPv6 mapped IPv4 address.
+			out.putLong(0);
+			out.putShort((short) 0);
+			out.putShort((short) -1);
 		}
 
-		return b.toByteArray();
+		out.put(ip);
+		out.putShort((short) port);
 	}
 
 	public NodeServicesMessage getServices() {
@@ -157,10 +146,13 @@ public class SimpleNetworkAddressMessage extends Message {
 			throw new IllegalArgumentException("ip must have a length of 16.");
 		}
 
-		byte[] prefix = new byte[12];
-		prefix[10] = prefix[11] = -1;
+		for (int i = 0; i < 10; i++) {
+			if (ip[i] != 0) {
+				return false;
+			}
+		}
 
-		return Arrays.equals(Arrays.copyOf(ip, 12), prefix);
+		return ip[10] == -1 && ip[11] == -1;
 	}
 
 	public int getPort() {
@@ -1,10 +1,9 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.bouncycastle.jce.interfaces.ECPublicKey;
@@ -93,26 +92,25 @@ public class UnencryptedBroadcastMessage extends POWMessage {
 	}
 
 	@Override
-	protected byte[] getPayloadBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-
-		try {
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(BROADCAST_VERSION).getBytes());
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(addressVersion).getBytes());
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(stream).getBytes());
-			b.write(behavior.getBytes());
-			b.write(Util.getBytes(publicSigningKey));
-			b.write(Util.getBytes(publicEncryptionKey));
-			b.write(ripe);
-			b.write(message.getBytes());
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(signature.length).getBytes());
-			b.write(signature);
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
-		}
+	protected int getPayloadLength() {
+		return VariableLengthIntegerMessage.getLength(BROADCAST_VERSION)
+				+ VariableLengthIntegerMessage.getLength(addressVersion) + VariableLengthIntegerMessage.getLength(stream)
+				+ behavior.length() + 64 + 64 + ripe.length + message.length()
+				+ VariableLengthIntegerMessage.getLength(signature.length) + signature.length;
+	}
 
-		return b.toByteArray();
+	@Override
+	protected void writePayload(ByteBuffer out) {
+		VariableLengthIntegerMessage.write(BROADCAST_VERSION, out);
+		VariableLengthIntegerMessage.write(addressVersion, out);
+		VariableLengthIntegerMessage.write(stream, out);
+		behavior.write(out);
+		out.put(Util.getBytes(publicSigningKey));
+		out.put(Util.getBytes(publicEncryptionKey));
+		out.put(ripe);
+		message.write(out);
+		VariableLengthIntegerMessage.write(signature.length, out);
+		out.put(signature);
 	}
 
 	public ECPublicKey getPublicEncryptionKey() {
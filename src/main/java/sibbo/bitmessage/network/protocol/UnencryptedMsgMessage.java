@@ -1,8 +1,7 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.logging.Level;
+import java.nio.ByteBuffer;
 import java.util.logging.Logger;
 
 import org.bouncycastle.jce.interfaces.ECPublicKey;
@@ -105,43 +104,30 @@ public class UnencryptedMsgMessage extends Message {
 	}
 
 	@Override
-	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-
-		try {
-			b.write(getBytesWithoutSignature());
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(signature.length).getBytes());
-			b.write(signature);
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
-		}
-
-		return b.toByteArray();
+	public int getEncodedLength() {
+		int ackLength = acknowledgment.getEncodedLength();
+
+		return VariableLengthIntegerMessage.getLength(MESSAGE_VERSION)
+				+ VariableLengthIntegerMessage.getLength(addressVersion) + VariableLengthIntegerMessage.getLength(stream)
+				+ behavior.length() + 64 + 64 + destinationRipe.length + message.length()
+				+ VariableLengthIntegerMessage.getLength(ackLength) + ackLength
+				+ VariableLengthIntegerMessage.getLength(signature.length) + signature.length;
 	}
 
-	private byte[] getBytesWithoutSignature() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-
-		try {
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(MESSAGE_VERSION).getBytes());
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(addressVersion).getBytes());
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(stream).getBytes());
-			b.write(behavior.getBytes());
-			b.write(Util.getBytes(publicSigningKey));
-			b.write(Util.getBytes(publicEncryptionKey));
-			b.write(destinationRipe);
-			b.write(message.getBytes());
-
-			byte[] ack = acknowledgment.getBytes();
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(ack.length).getBytes());
-			b.write(ack);
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
-		}
-
-		return b.toByteArray();
+	@Override
+	public void write(ByteBuffer out) {
+		VariableLengthIntegerMessage.write(MESSAGE_VERSION, out);
+		VariableLengthIntegerMessage.write(addressVersion, out);
+		VariableLengthIntegerMessage.write(stream, out);
+		behavior.write(out);
+		out.put(Util.getBytes(publicSigningKey));
+		out.put(Util.getBytes(publicEncryptionKey));
+		out.put(destinationRipe);
+		message.write(out);
+		VariableLengthIntegerMessage.write(acknowledgment.getEncodedLength(), out);
+		acknowledgment.write(out);
+		VariableLengthIntegerMessage.write(signature.length, out);
+		out.put(signature);
 	}
 
 	public byte[] getDestinationRipe() {
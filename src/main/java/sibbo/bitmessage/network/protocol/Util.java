@@ -38,7 +38,10 @@ public final class Util {
 	 *         endian order.
 	 */
 	public static byte[] getBytes(int i) {
-		return new byte[] { (byte) (i >> 24), (byte) (i >> 16 & 0xFF), (byte) (i >> 8 & 0xFF), (byte) (i & 0xFF) };
+		byte[] b = new byte[4];
+		putInt(i, b, 0);
+
+		return b;
 	}
 
 	/**
@@ -51,8 +54,10 @@ public final class Util {
 	 *         endian order.
 	 */
 	public static byte[] getBytes(long l) {
-		return new byte[] { (byte) (l >> 56), (byte) (l >> 48), (byte) (l >> 40), (byte) (l >> 32), (byte) (l >> 24),
-				(byte) (l >> 16 & 0xFF), (byte) (l >> 8 & 0xFF), (byte) (l & 0xFF) };
+		byte[] b = new byte[8];
+		putLong(l, b, 0);
+
+		return b;
 	}
 
 	/**
@@ -65,7 +70,10 @@ public final class Util {
 	 *         endian order.
 	 */
 	public static byte[] getBytes(short i) {
-		return new byte[] { (byte) (i >> 8), (byte) (i & 0xFF) };
+		byte[] b = new byte[2];
+		putShort(i, b, 0);
+
+		return b;
 	}
 
 	/**
@@ -76,12 +84,25 @@ public final class Util {
 	 * @return An integer created from the given bytes.
 	 */
 	public static int getInt(byte[] b) {
+		return getInt(b, 0);
+	}
+
+	/**
+	 * Creates an integer created from the given bytes.
+	 * 
+	 * @param b
+	 *            The byte data in big endian order.
+	 * @param offset
+	 *            The first byte of the number.
+	 * @return An integer created from the given bytes.
+	 */
+	public static int getInt(byte[] b, int offset) {
 		int i = 0;
 
-		i |= (b[0] & 0xFF) << 24;
-		i |= (b[1] & 0xFF) << 16;
-		i |= (b[2] & 0xFF) << 8;
-		i |= (b[3] & 0xFF);
+		i |= (b[offset] & 0xFF) << 24;
+		i |= (b[offset + 1] & 0xFF) << 16;
+		i |= (b[offset + 2] & 0xFF) << 8;
+		i |= (b[offset + 3] & 0xFF);
 
 		return i;
 	}
@@ -94,20 +115,82 @@ public final class Util {
 	 * @return A long created from the given bytes.
 	 */
 	public static long getLong(byte[] b) {
+		return getLong(b, 0);
+	}
+
+	/**
+	 * Returns a long created from the given bytes.
+	 * 
+	 * @param b
+	 *            The byte data in big endian order.
+	 * @param offset
+	 *            The first byte of the number.
+	 * @return A long created from the given bytes.
+	 */
+	public static long getLong(byte[] b, int offset) {
 		long l = 0;
 
-		l |= (b[0] & 0xFFL) << 56;
-		l |= (b[1] & 0xFFL) << 48;
-		l |= (b[2] & 0xFFL) << 40;
-		l |= (b[3] & 0xFFL) << 32;
-		l |= (b[4] & 0xFFL) << 24;
-		l |= (b[5] & 0xFFL) << 16;
-		l |= (b[6] & 0xFFL) << 8;
-		l |= (b[7] & 0xFFL);
+		l |= (b[offset] & 0xFFL) << 56;
+		l |= (b[offset + 1] & 0xFFL) << 48;
+		l |= (b[offset + 2] & 0xFFL) << 40;
+		l |= (b[offset + 3] & 0xFFL) << 32;
+		l |= (b[offset + 4] & 0xFFL) << 24;
+		l |= (b[offset + 5] & 0xFFL) << 16;
+		l |= (b[offset + 6] & 0xFFL) << 8;
+		l |= (b[offset + 7] & 0xFFL);
 
 		return l;
 	}
 
+	/**
+	 * Writes the given long into the given array in big endian order.
+	 * 
+	 * @param l
+	 *            The long to write.
+	 * @param b
+	 *            The array to write to.
+	 * @param offset
+	 *            The position of the first byte.
+	 */
+	public static void putLong(long l, byte[] b, int offset) {
+		for (int i = 7; i >= 0; i--) {
+			b[offset + i] = (byte) l;
+			l >>>= 8;
+		}
+	}
+
+	/**
+	 * Writes the given integer into the given array in big endian order.
+	 * 
+	 * @param i
+	 *            The integer to write.
+	 * @param b
+	 *            The array to write to.
+	 * @param offset
+	 *            The position of the first byte.
+	 */
+	public static void putInt(int i, byte[] b, int offset) {
+		b[offset] = (byte) (i >> 24);
+		b[offset + 1] = (byte) (i >> 16);
+		b[offset + 2] = (byte) (i >> 8);
+		b[offset + 3] = (byte) i;
+	}
+
+	/**
+	 * Writes the given short into the given array in big endian order.
+	 * 
+	 * @param s
+	 *            The short to write.
+	 * @param b
+	 *            The array to write to.
+	 * @param offset
+	 *            The position of the first byte.
+	 */
+	public static void putShort(short s, byte[] b, int offset) {
+		b[offset] = (byte) (s >> 8);
+		b[offset + 1] = (byte) s;
+	}
+
 	public static ECPublicKey getPublicKey(byte[] b) {
 		if (b.length != 64) {
 			throw new IllegalArgumentException("Need exactly 64 bytes, but have " + b.length + ".");
@@ -32,6 +32,11 @@ public class V1MessageFactory extends MessageFactory {
 		return new GetdataMessage(inv, this);
 	}
 
+	@Override
+	public GetdataMessage createGetdataMessage(InventoryBatch inv) {
+		return new GetdataMessage(inv, this);
+	}
+
 	@Override
 	public InventoryVectorMessage createInventoryVectorMessage(byte[] hash) {
 		return new InventoryVectorMessage(hash, this);
@@ -42,6 +47,11 @@ public class V1MessageFactory extends MessageFactory {
 		return new InvMessage(inv, this);
 	}
 
+	@Override
+	public InvMessage createInvMessage(InventoryBatch inv) {
+		return new InvMessage(inv, this);
+	}
+
 	@Override
 	public NodeServicesMessage createNodeServicesMessage(long services) {
 		return new NodeServicesMessage(this, services);
@@ -123,6 +133,19 @@ public class V1MessageFactory extends MessageFactory {
 		return new MailMessage(MessageEncoding.TRIVIAL, null, null, content, this);
 	}
 
+	@Override
+	public boolean isObject(String command) {
+		switch (command) {
+		case GetpubkeyMessage.COMMAND:
+		case PubkeyMessage.COMMAND:
+		case MsgMessage.COMMAND:
+		case UnencryptedBroadcastMessage.COMMAND:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	@Override
 	public BaseMessage parseBaseMessage(InputStream in, int length) throws IOException, ParsingException {
 		return new BaseMessage(in, length, this);
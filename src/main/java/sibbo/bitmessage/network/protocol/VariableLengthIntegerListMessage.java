@@ -1,9 +1,8 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -48,9 +47,8 @@ public class VariableLengthIntegerListMessage extends Message {
 
 	@Override
 	protected void read(InputBuffer b) throws IOException, ParsingException {
-		VariableLengthIntegerMessage length = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(length.length());
-		long l = length.getLong();
+		long l = b.getVarInt(0);
+		int offset = VariableLengthIntegerMessage.getLength(l);
 
 		if (l > MAX_LENGTH || l < 0) {
 			throw new ParsingException("List is to long. Maximum is 50,000");
@@ -59,36 +57,29 @@ public class VariableLengthIntegerListMessage extends Message {
 		ints = new long[(int) l];
 
 		for (int i = 0; i < l; i++) {
-			VariableLengthIntegerMessage v = getMessageFactory().parseVariableLengthIntegerMessage(b);
-			b = b.getSubBuffer(v.length());
-			ints[i] = v.getLong();
+			ints[i] = b.getVarInt(offset);
+			offset += VariableLengthIntegerMessage.getLength(ints[i]);
 		}
 	}
 
 	@Override
-	public byte[] getBytes() {
-		VariableLengthIntegerMessage length = getMessageFactory().createVariableLengthIntegerMessage(ints.length);
+	public int getEncodedLength() {
+		int length = VariableLengthIntegerMessage.getLength(ints.length);
 
-		VariableLengthIntegerMessage[] varInts = new VariableLengthIntegerMessage[ints.length];
-
-		for (int i = 0; i < ints.length; i++) {
-			varInts[i] = getMessageFactory().createVariableLengthIntegerMessage(ints[i]);
+		for (long l : ints) {
+			length += VariableLengthIntegerMessage.getLength(l);
 		}
 
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		return length;
+	}
 
-		try {
-			b.write(length.getBytes());
+	@Override
+	public void write(ByteBuffer out) {
+		VariableLengthIntegerMessage.write(ints.length, out);
 
-			for (VariableLengthIntegerMessage l : varInts) {
-				b.write(l.getBytes());
-			}
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
+		for (long l : ints) {
+			VariableLengthIntegerMessage.write(l, out);
 		}
-
-		return b.toByteArray();
 	}
 
 	/**
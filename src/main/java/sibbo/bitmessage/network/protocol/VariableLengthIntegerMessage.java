@@ -1,6 +1,7 @@
 package sibbo.bitmessage.network.protocol;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.logging.Logger;
 
 /**
@@ -39,45 +40,17 @@ public class VariableLengthIntegerMessage extends Message {
 
 	@Override
 	protected void read(InputBuffer b) throws IOException, ParsingException {
-		int first = b.get(0) & 0xFF;
-		byte[] varInt;
-
-		if (first < 0xfd) {
-			varInt = new byte[] { (byte) first };
-		} else {
-			varInt = b.get(1, 1 << first - 0xfc);
-		}
-
-		// Add a zero prefix to get a length of 8.
-		byte[] tmp = new byte[8];
-
-		for (int i = 0; i < tmp.length; i++) {
-			int index = i + varInt.length - tmp.length;
-
-			if (index >= 0) {
-				tmp[i] = varInt[index];
-			}
-		}
-
-		n = Util.getLong(tmp);
+		n = b.getVarInt(0);
 	}
 
 	@Override
-	public byte[] getBytes() {
-		byte[] b = Util.getBytes(n);
-		byte[] varInt;
-
-		if (n < 0xfd && n >= 0) {
-			varInt = new byte[] { b[7] };
-		} else if (n < 0xffff && n >= 0) {
-			varInt = new byte[] { (byte) 0xfd, b[6], b[7] };
-		} else if (n < 0xffff_ffffL && n >= 0) {
-			varInt = new byte[] { (byte) 0xfe, b[4], b[5], b[6], b[7] };
-		} else {
-			varInt = new byte[] { (byte) 0xff, b[0], b[1], b[2], b[3], b[4], b[5], b[6], b[7] };
-		}
+	public int getEncodedLength() {
+		return length();
+	}
 
-		return varInt;
+	@Override
+	public void write(ByteBuffer out) {
+		write(n, out);
 	}
 
 	public long getLong() {
@@ -85,6 +58,18 @@ public class VariableLengthIntegerMessage extends Message {
 	}
 
 	public int length() {
+		return getLength(n);
+	}
+
+	/**
+	 * Returns the length of the encoding of the given value, without creating
+	 * a message for it.
+	 * 
+	 * @param n
+	 *            The value, treated as uint64.
+	 * @return The length of the encoding in bytes.
+	 */
+	public static int getLength(long n) {
 		if (n >= 0xFFFF_FFFFL || n < 0) {
 			return 9;
 		} else if (n >= 0xFFFF) {
@@ -95,4 +80,61 @@ public class VariableLengthIntegerMessage extends Message {
 			return 1;
 		}
 	}
+
+	/**
+	 * Reads a value from in, without creating a message for it. The position
+	 * is advanced by the length of the encoding.
+	 * 
+	 * @param in
+	 *            The buffer to read from.
+	 * @return The value, to be treated as uint64.
+	 */
+	public static long read(ByteBuffer in) {
+		int first = in.get() & 0xFF;
+
+		switch (first) {
+		case 0xfd:
+			return in.getShort() & 0xFFFF;
+
+		case 0xfe:
+			return in.getInt() & 0xFFFF_FFFFL;
+
+		case 0xff:
+			return in.getLong();
+
+		default:
+			return first;
+		}
+	}
+
+	/**
+	 * Writes the encoding of the given value to out, without creating a
+	 * message for it.
+	 * 
+	 * @param n
+	 *            The value, treated as uint64.
+	 * @param out
+	 *            The buffer to write to.
+	 */
+	public static void write(long n, ByteBuffer out) {
+		switch (getLength(n)) {
+		case 1:
+			out.put((byte) n);
+			break;
+
+		case 3:
+			out.put((byte) 0xfd);
+			out.putShort((short) n);
+			break;
+
+		case 5:
+			out.put((byte) 0xfe);
+			out.putInt((int) n);
+			break;
+
+		default:
+			out.put((byte) 0xff);
+			out.putLong(n);
+		}
+	}
 }
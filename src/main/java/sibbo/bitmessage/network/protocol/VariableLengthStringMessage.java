@@ -1,8 +1,8 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,6 +22,9 @@ public class VariableLengthStringMessage extends Message {
 	/** The string. */
 	private String message;
 
+	/** The UTF-8 encoding of the string or null if it was not created yet. */
+	private byte[] bytes;
+
 	/**
 	 * Creates a new variable length string message with the given string.
 	 * 
@@ -33,16 +36,11 @@ public class VariableLengthStringMessage extends Message {
 
 		Objects.requireNonNull(message, "message must not be null.");
 
-		try {
-			if (message.getBytes("UTF-8").length > MAX_LENGTH) {
-				throw new IllegalArgumentException("String is too long. Maximum length is " + MAX_LENGTH);
-			}
-		} catch (UnsupportedEncodingException e) {
-			LOG.log(Level.SEVERE, "UTF-8 not supported!", e);
-			System.exit(1);
-		}
-
 		this.message = message;
+
+		if (getUTF8().length > MAX_LENGTH) {
+			throw new IllegalArgumentException("String is too long. Maximum length is " + MAX_LENGTH);
+		}
 	}
 
 	/**
@@ -54,15 +52,14 @@ public class VariableLengthStringMessage extends Message {
 
 	@Override
 	protected void read(InputBuffer b) throws IOException, ParsingException {
-		VariableLengthIntegerMessage vLength = getMessageFactory().parseVariableLengthIntegerMessage(b);
-		b = b.getSubBuffer(vLength.length());
-		long length = vLength.getLong();
+		long length = b.getVarInt(0);
+		b = b.getSubBuffer(VariableLengthIntegerMessage.getLength(length));
 
 		if (length > MAX_LENGTH || length < 0) {
 			throw new ParsingException("String is too long. Maximum length is " + MAX_LENGTH);
 		}
 
-		byte[] bytes = b.get(0, (int) length);
+		bytes = b.get(0, (int) length);
 
 		try {
 			message = new String(bytes, "UTF-8");
@@ -72,24 +69,35 @@ public class VariableLengthStringMessage extends Message {
 		}
 	}
 
-	@Override
-	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
+	/**
+	 * Returns the UTF-8 encoding of the string. It is created once.
+	 * 
+	 * @return The UTF-8 encoding of the string.
+	 */
+	private byte[] getUTF8() {
+		if (bytes == null) {
+			try {
+				bytes = message.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				LOG.log(Level.SEVERE, "UTF-8 not supported!", e);
+				System.exit(1);
+			}
+		}
 
-		try {
-			byte[] bytes = message.getBytes("UTF-8");
+		return bytes;
+	}
 
-			b.write(getMessageFactory().createVariableLengthIntegerMessage(bytes.length).getBytes());
-			b.write(bytes);
-		} catch (UnsupportedEncodingException e) {
-			LOG.log(Level.SEVERE, "UTF-8 not supported!", e);
-			System.exit(1);
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
-		}
+	@Override
+	public int getEncodedLength() {
+		return length();
+	}
+
+	@Override
+	public void write(ByteBuffer out) {
+		byte[] bytes = getUTF8();
 
-		return b.toByteArray();
+		VariableLengthIntegerMessage.write(bytes.length, out);
+		out.put(bytes);
 	}
 
 	public String getMessage() {
@@ -97,14 +105,8 @@ public class VariableLengthStringMessage extends Message {
 	}
 
 	public int length() {
-		try {
-			byte[] bytes = message.getBytes("UTF-8");
+		byte[] bytes = getUTF8();
 
-			return getMessageFactory().createVariableLengthIntegerMessage(bytes.length).length() + bytes.length;
-		} catch (UnsupportedEncodingException e) {
-			LOG.log(Level.SEVERE, "UTF-8 not supported!", e);
-			System.exit(1);
-			return 0;
-		}
+		return VariableLengthIntegerMessage.getLength(bytes.length) + bytes.length;
 	}
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package sibbo.bitmessage.network.protocol;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.logging.Logger;
 
 /**
@@ -35,8 +36,12 @@ public class VerackMessage extends P2PMessage {
 	}
 
 	@Override
-	public byte[] getBytes() {
-		return new byte[0];
+	public int getEncodedLength() {
+		return length();
+	}
+
+	@Override
+	public void write(ByteBuffer out) {
 	}
 
 	public int length() {
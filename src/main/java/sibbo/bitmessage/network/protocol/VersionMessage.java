@@ -1,8 +1,7 @@
 package sibbo.bitmessage.network.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.logging.Level;
+import java.nio.ByteBuffer;
 import java.util.logging.Logger;
 
 /**
@@ -44,6 +43,12 @@ public class VersionMessage extends P2PMessage {
 	/** The streams the sender is interested in. */
 	private long[] streams;
 
+	/** The encodable user agent or null if it was not created yet. */
+	private VariableLengthStringMessage vUserAgent;
+
+	/** The encodable stream list or null if it was not created yet. */
+	private VariableLengthIntegerListMessage vStreams;
+
 	/**
 	 * Creates a new version message with the given parameters.
 	 * 
@@ -112,7 +117,7 @@ public class VersionMessage extends P2PMessage {
 
 	@Override
 	protected void read(InputBuffer b) throws IOException, ParsingException {
-		int version = Util.getInt(b.get(0, 4));
+		int version = b.getInt(0);
 		b = b.getSubBuffer(4);
 
 		if (version != PROTOCOL_VERSION) {
@@ -122,7 +127,7 @@ public class VersionMessage extends P2PMessage {
 		services = getMessageFactory().parseNodeServicesMessage(b);
 		b = b.getSubBuffer(services.length());
 
-		timestamp = Util.getLong(b.get(0, 8));
+		timestamp = b.getLong(0);
 		b = b.getSubBuffer(8);
 
 		receiver = getMessageFactory().parseSimpleNetworkAddressMessage(b);
@@ -131,35 +136,49 @@ public class VersionMessage extends P2PMessage {
 		sender = getMessageFactory().parseSimpleNetworkAddressMessage(b);
 		b = b.getSubBuffer(sender.length());
 
-		nonce = Util.getLong(b.get(0, 8));
+		nonce = b.getLong(0);
 		b = b.getSubBuffer(8);
 
-		VariableLengthStringMessage vUserAgent = getMessageFactory().parseVariableLengthStringMessage(b);
+		vUserAgent = getMessageFactory().parseVariableLengthStringMessage(b);
 		b = b.getSubBuffer(vUserAgent.length());
 		userAgent = vUserAgent.getMessage();
 
-		streams = getMessageFactory().parseVariableLengthIntegerListMessage(b).getContent();
+		vStreams = getMessageFactory().parseVariableLengthIntegerListMessage(b);
+		streams = vStreams.getContent();
 	}
 
-	@Override
-	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-
-		try {
-			b.write(Util.getBytes(PROTOCOL_VERSION));
-			b.write(services.getBytes());
-			b.write(Util.getBytes(timestamp));
-			b.write(receiver.getBytes());
-			b.write(sender.getBytes());
-			b.write(Util.getBytes(nonce));
-			b.write(getMessageFactory().createVariableLengthStringMessage(userAgent).getBytes());
-			b.write(getMessageFactory().createVariableLengthIntegerListMessage(streams).getBytes());
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not write bytes!", e);
-			System.exit(1);
+	private VariableLengthStringMessage getVUserAgent() {
+		if (vUserAgent == null) {
+			vUserAgent = getMessageFactory().createVariableLengthStringMessage(userAgent);
+		}
+
+		return vUserAgent;
+	}
+
+	private VariableLengthIntegerListMessage getVStreams() {
+		if (vStreams == null) {
+			vStreams = getMessageFactory().createVariableLengthIntegerListMessage(streams);
 		}
 
-		return b.toByteArray();
+		return vStreams;
+	}
+
+	@Override
+	public int getEncodedLength() {
+		return 4 + services.length() + 8 + receiver.length() + sender.length() + 8 + getVUserAgent().length()
+				+ getVStreams().getEncodedLength();
+	}
+
+	@Override
+	public void write(ByteBuffer out) {
+		out.putInt(PROTOCOL_VERSION);
+		services.write(out);
+		out.putLong(timestamp);
+		receiver.write(out);
+		sender.write(out);
+		out.putLong(nonce);
+		getVUserAgent().write(out);
+		getVStreams().write(out);
 	}
 
 	@Override
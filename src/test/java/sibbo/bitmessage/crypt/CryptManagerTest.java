@@ -1,18 +1,30 @@
 package sibbo.bitmessage.crypt;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.logging.Logger;
 
 import org.bouncycastle.jce.provider.JCEECPrivateKey;
 import org.bouncycastle.jce.provider.JCEECPublicKey;
+import org.junit.Ignore;
 import org.junit.Test;
 
+import sibbo.bitmessage.Options;
 import sibbo.bitmessage.network.protocol.EncryptedMessage;
 import sibbo.bitmessage.network.protocol.V1MessageFactory;
 
@@ -59,4 +71,112 @@ public class CryptManagerTest {
 
 		assertTrue(CryptManager.getInstance().verifySignature(data, signature, (JCEECPublicKey) key.getPublic()));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testPOWTarget() {
+		for (int length : new int[] { 0, 1, 700, 14_000, 256 * 1024, Integer.MAX_VALUE - 100_000 }) {
+			BigInteger divisor = BigInteger.valueOf((length + 14_000L + 8) * 320);
+			long expected = BigInteger.valueOf(2).pow(64).divide(divisor).longValue();
+
+			assertEquals(expected, CryptManager.getInstance().getPOWTarget(length));
+		}
+	}
+
+	@Test
+	public void testCheckPOW() {
+		// Needs about 14,000 trials.
+		String trialsPerByte = Options.getInstance().getProperty("pow.averageNonceTrialsPerByte");
+		Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", 1);
+
+		try {
+			byte[] object = new byte[100];
+			new Random(1).nextBytes(object);
+			byte[] nonce = CryptManager.getInstance().doPOW(Arrays.copyOfRange(object, 8, object.length));
+			System.arraycopy(nonce, 0, object, 0, 8);
+
+			assertTrue(CryptManager.getInstance().checkPOW(object));
+
+			object[99]++;
+			assertFalse(CryptManager.getInstance().checkPOW(object));
+			assertFalse(CryptManager.getInstance().checkPOW(new byte[7]));
+		} finally {
+			Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", trialsPerByte);
+		}
+	}
+
+	@Test
+	public void testTryDecrypt() throws UnsupportedEncodingException {
+		List<BMAddress> identities = createIdentities(5);
+		byte[] plain = "fused trial decryption".getBytes("UTF-8");
+		EncryptedMessage encrypted = CryptManager.getInstance().encrypt(plain,
+				identities.get(3).getPublicEncryptionKey(), new V1MessageFactory());
+
+		AddressDataPair result = CryptManager.getInstance().tryDecrypt(encrypted, identities);
+		assertSame(identities.get(3), result.getAddress());
+		assertArrayEquals(plain, result.getData());
+
+		assertNull(CryptManager.getInstance().tryDecrypt(encrypted, identities.subList(0, 3)));
+	}
+
+	/*
+	 * Results: (10 identities, 20 objects, one hit per object, single core)
+	 * checkMac and decrypt: 11.7ms per object and identity, tryDecrypt: 10.1ms
+	 * per object and identity. The point multiplication dominates, every hit
+	 * saves one of them.
+	 */
+	@Ignore
+	@Test
+	public void testTrialDecryptDuration() throws UnsupportedEncodingException {
+		List<BMAddress> identities = createIdentities(10);
+		EncryptedMessage[] objects = new EncryptedMessage[20];
+		byte[] plain = new byte[500];
+
+		// Every object is encrypted for the last identity.
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = CryptManager.getInstance().encrypt(plain,
+					identities.get(identities.size() - 1).getPublicEncryptionKey(), new V1MessageFactory());
+		}
+
+		for (EncryptedMessage m : objects) {
+			CryptManager.getInstance().tryDecrypt(m, identities);
+		}
+
+		long start = System.nanoTime();
+
+		for (EncryptedMessage m : objects) {
+			for (BMAddress a : identities) {
+				if (CryptManager.getInstance().checkMac(m, a.getPrivateEncryptionKey())) {
+					CryptManager.getInstance().decrypt(m, a.getPrivateEncryptionKey());
+					break;
+				}
+			}
+		}
+
+		long old = System.nanoTime() - start;
+		start = System.nanoTime();
+
+		for (EncryptedMessage m : objects) {
+			assertNotNull(CryptManager.getInstance().tryDecrypt(m, identities));
+		}
+
+		long current = System.nanoTime() - start;
+		long trials = objects.length * identities.size();
+
+		Logger.getLogger(getClass().getName()).info(
+				"Trial decryption per object and identity: checkMac and decrypt " + (old / trials / 1000)
+						+ "us, tryDecrypt " + (current / trials / 1000) + "us");
+	}
+
+	private static List<BMAddress> createIdentities(int count) {
+		List<BMAddress> identities = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			KeyPair signing = CryptManager.getInstance().generateSigningKeyPair();
+			KeyPair encryption = CryptManager.getInstance().generateEncryptionKeyPair();
+			identities.add(new BMAddress((JCEECPublicKey) signing.getPublic(), (JCEECPublicKey) encryption
+					.getPublic(), (JCEECPrivateKey) signing.getPrivate(), (JCEECPrivateKey) encryption.getPrivate()));
+		}
+
+		return identities;
+	}
+}
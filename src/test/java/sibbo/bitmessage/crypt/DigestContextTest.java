@@ -0,0 +1,158 @@
+package sibbo.bitmessage.crypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import sibbo.bitmessage.network.protocol.Util;
+
+public class DigestContextTest {
+	@BeforeClass
+	public static void setUpClass() {
+		// Registers BouncyCastle.
+		CryptManager.getInstance();
+	}
+
+	@Test
+	public void testSha512() throws NoSuchAlgorithmException {
+		Random r = new Random(1);
+		byte[] data = new byte[1000];
+		r.nextBytes(data);
+		MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
+		DigestContext c = DigestContext.get();
+
+		byte[] expected = sha512.digest(Arrays.copyOfRange(data, 10, 510));
+		byte[] out = new byte[70];
+		c.sha512(data, 10, 500, out, 3);
+		assertArrayEquals(expected, Arrays.copyOfRange(out, 3, 67));
+		assertArrayEquals(expected, Digest.sha512(data, 10, 500));
+		assertArrayEquals(Arrays.copyOf(expected, 4), Arrays.copyOf(Digest.sha512(Arrays.copyOfRange(data, 10, 510), 4), 4));
+		assertEquals(Util.getInt(expected), c.checksum(data, 10, 500));
+
+		ByteBuffer buffer = ByteBuffer.wrap(data, 10, 500);
+		c.sha512(buffer, out, 0);
+		assertArrayEquals(expected, Arrays.copyOf(out, 64));
+		assertEquals(10, buffer.position());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(500);
+		direct.put(data, 10, 500).flip();
+		c.sha512(direct, out, 0);
+		assertArrayEquals(expected, Arrays.copyOf(out, 64));
+
+		byte[] hash = new byte[32];
+		c.doubleSha512(data, 10, 500, hash, 0, 32);
+		assertArrayEquals(Arrays.copyOf(sha512.digest(expected), 32), hash);
+
+		assertArrayEquals(sha512.digest(data), Digest.sha512(Arrays.copyOf(data, 600), Arrays.copyOfRange(data, 600,
+				1000)));
+	}
+
+	@Test
+	public void testRipemd160() throws NoSuchAlgorithmException {
+		byte[] data = new byte[100];
+		new Random(2).nextBytes(data);
+		MessageDigest ripemd160 = MessageDigest.getInstance("ripemd160");
+		byte[] expected = ripemd160.digest(Arrays.copyOfRange(data, 5, 55));
+
+		byte[] out = new byte[DigestContext.RIPEMD160_LENGTH];
+		DigestContext.get().ripemd160(data, 5, 50, out, 0);
+		assertArrayEquals(expected, out);
+		assertArrayEquals(expected, Digest.ripemd160(Arrays.copyOfRange(data, 5, 55)));
+	}
+
+	@Test
+	public void testHmacSHA256() throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException {
+		Random r = new Random(3);
+		byte[] data = new byte[300];
+		byte[] key = new byte[32];
+		r.nextBytes(data);
+		r.nextBytes(key);
+		Mac mac = Mac.getInstance("HmacSHA256", "BC");
+		mac.init(new SecretKeySpec(key, "HmacSHA256"));
+		byte[] expected = mac.doFinal(Arrays.copyOfRange(data, 20, 220));
+
+		byte[] out = new byte[40];
+		DigestContext.get().hmacSHA256(data, 20, 200, key, out, 8);
+		assertArrayEquals(expected, Arrays.copyOfRange(out, 8, 40));
+		assertArrayEquals(expected, Digest.hmacSHA256(Arrays.copyOfRange(data, 20, 220), key));
+
+		// The context must not remember the key.
+		key[0]++;
+		mac.init(new SecretKeySpec(key, "HmacSHA256"));
+		assertArrayEquals(mac.doFinal(Arrays.copyOfRange(data, 20, 220)), Digest.hmacSHA256(Arrays.copyOfRange(
+				data, 20, 220), Arrays.copyOf(key, key.length)));
+	}
+
+	/*
+	 * Results: (single core, 200000 calls, 300 byte input, after warm up)
+	 * sha512 checksum: getInstance 1.4us, context 1.4us, the lookup is cached
+	 * by the JDK, so only the garbage is saved. HmacSHA256: BouncyCastle
+	 * getInstance 7.4us, context 0.9us.
+	 */
+	@Ignore
+	@Test
+	public void testDuration() throws Exception {
+		byte[] data = new byte[300];
+		byte[] key = new byte[32];
+		new Random(4).nextBytes(data);
+		int calls = 200_000;
+		int sink = 0;
+		Logger log = Logger.getLogger(getClass().getName());
+
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+
+			for (int i = 0; i < calls; i++) {
+				// The way Digest worked before it used the context.
+				sink += Arrays.copyOf(MessageDigest.getInstance("SHA-512").digest(data), 4)[0];
+			}
+
+			long old = System.nanoTime() - start;
+			start = System.nanoTime();
+			DigestContext c = DigestContext.get();
+
+			for (int i = 0; i < calls; i++) {
+				sink += c.checksum(data, 0, data.length);
+			}
+
+			long current = System.nanoTime() - start;
+			start = System.nanoTime();
+
+			for (int i = 0; i < calls; i++) {
+				Mac mac = Mac.getInstance("HmacSHA256", "BC");
+				mac.init(new SecretKeySpec(key, "HmacSHA256"));
+				sink += mac.doFinal(data)[0];
+			}
+
+			long oldMac = System.nanoTime() - start;
+			start = System.nanoTime();
+			byte[] out = new byte[DigestContext.HMAC_SHA256_LENGTH];
+
+			for (int i = 0; i < calls; i++) {
+				c.hmacSHA256(data, 0, data.length, key, out, 0);
+				sink += out[0];
+			}
+
+			long currentMac = System.nanoTime() - start;
+
+			log.info("sha512 checksum: getInstance " + (old / calls) + "ns, context " + (current / calls)
+					+ "ns. HmacSHA256: getInstance " + (oldMac / calls) + "ns, context " + (currentMac / calls)
+					+ "ns. (" + sink + ")");
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package sibbo.bitmessage.crypt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class FixedBaseTableTest {
+	private static final ECNamedCurveParameterSpec CURVE = ECNamedCurveTable.getParameterSpec("secp256k1");
+
+	@Test
+	public void testMultiplyX() {
+		Random r = new Random(1);
+
+		for (int i = 0; i < 5; i++) {
+			ECPoint point = CURVE.getG().multiply(new BigInteger(256, r));
+			FixedBaseTable table = new FixedBaseTable(point);
+
+			for (int j = 0; j < 10; j++) {
+				BigInteger k = new BigInteger(256, r).mod(CURVE.getN());
+
+				assertEquals(point.multiply(k).getX().toBigInteger(), table.multiplyX(k));
+			}
+
+			assertEquals(point.getX().toBigInteger(), table.multiplyX(BigInteger.ONE));
+			assertEquals(point.getX().toBigInteger(), table.multiplyX(CURVE.getN().subtract(BigInteger.ONE)));
+			assertEquals(point.multiply(BigInteger.valueOf(17)).getX().toBigInteger(),
+					table.multiplyX(BigInteger.valueOf(17)));
+			assertNull(table.multiplyX(BigInteger.ZERO));
+			assertNull(table.multiplyX(CURVE.getN()));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInfinity() {
+		new FixedBaseTable(CURVE.getCurve().getInfinity());
+	}
+
+	/*
+	 * Results: (100 scalars, single core) ECPoint.multiply: 9.5ms per scalar,
+	 * table: 36ms to build and 0.55ms per scalar.
+	 */
+	@Ignore
+	@Test
+	public void testMultiplyDuration() {
+		Random r = new Random(1);
+		ECPoint point = CURVE.getG().multiply(new BigInteger(256, r));
+		BigInteger[] scalars = new BigInteger[100];
+
+		for (int i = 0; i < scalars.length; i++) {
+			scalars[i] = new BigInteger(256, r).mod(CURVE.getN());
+		}
+
+		for (int i = 0; i < 5; i++) {
+			FixedBaseTable table = new FixedBaseTable(point);
+
+			for (BigInteger k : scalars) {
+				point.multiply(k);
+				table.multiplyX(k);
+			}
+		}
+
+		long start = System.nanoTime();
+
+		for (BigInteger k : scalars) {
+			point.multiply(k);
+		}
+
+		long old = System.nanoTime() - start;
+		start = System.nanoTime();
+		FixedBaseTable table = new FixedBaseTable(point);
+		long build = System.nanoTime() - start;
+		start = System.nanoTime();
+
+		for (BigInteger k : scalars) {
+			table.multiplyX(k);
+		}
+
+		long current = System.nanoTime() - start;
+
+		Logger.getLogger(getClass().getName()).info(
+				"ECPoint.multiply: " + (old / scalars.length / 1000) + "us per scalar, table: " + (build / 1000)
+						+ "us to build and " + (current / scalars.length / 1000) + "us per scalar");
+	}
+}
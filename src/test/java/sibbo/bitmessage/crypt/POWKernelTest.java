@@ -0,0 +1,94 @@
+package sibbo.bitmessage.crypt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import sibbo.bitmessage.network.protocol.Util;
+
+public class POWKernelTest {
+	private static final int TRIALS = 2_000_000;
+
+	@Test
+	public void testTrialValue() {
+		Random r = new Random(1);
+
+		for (int i = 0; i < 1000; i++) {
+			byte[] initialHash = new byte[64];
+			r.nextBytes(initialHash);
+			long nonce = i < 10 ? i : r.nextLong();
+
+			POWKernel kernel = new POWKernel(initialHash);
+			long expected = Util.getLong(Digest.sha512(Digest.sha512(Util.getBytes(nonce), initialHash)));
+
+			assertEquals(expected, kernel.trialValue(nonce));
+		}
+	}
+
+	@Test
+	public void testSetInitialHash() {
+		Random r = new Random(2);
+		byte[] initialHash = new byte[64];
+		r.nextBytes(initialHash);
+		POWKernel kernel = new POWKernel(new byte[64]);
+		kernel.trialValue(1);
+
+		kernel.setInitialHash(initialHash);
+		assertEquals(new POWKernel(initialHash).trialValue(1), kernel.trialValue(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongLength() {
+		new POWKernel(new byte[32]);
+	}
+
+	/*
+	 * Results: (2,000,000 trials, single core, JDK 17 with sha512 intrinsics)
+	 * Digest.sha512: 1.5M trials/s and 912 bytes/trial, POWKernel: 1.5M
+	 * trials/s and 0 bytes/trial.
+	 */
+	@Ignore
+	@Test
+	public void testTrialsPerSecond() {
+		byte[] initialHash = new byte[64];
+		new Random(1).nextBytes(initialHash);
+		POWKernel kernel = new POWKernel(initialHash);
+		long sum = 0;
+
+		for (int i = 0; i < TRIALS / 10; i++) {
+			sum += Util.getLong(Digest.sha512(Digest.sha512(Util.getBytes((long) i), initialHash)));
+			sum += kernel.trialValue(i);
+		}
+
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		long allocated = mx.getThreadAllocatedBytes(id);
+		long start = System.nanoTime();
+
+		for (int i = 0; i < TRIALS; i++) {
+			sum += Util.getLong(Digest.sha512(Digest.sha512(Util.getBytes((long) i), initialHash)));
+		}
+
+		long old = System.nanoTime() - start;
+		long oldAllocated = mx.getThreadAllocatedBytes(id) - allocated;
+		allocated = mx.getThreadAllocatedBytes(id);
+		start = System.nanoTime();
+
+		for (int i = 0; i < TRIALS; i++) {
+			sum += kernel.trialValue(i);
+		}
+
+		long current = System.nanoTime() - start;
+		long currentAllocated = mx.getThreadAllocatedBytes(id) - allocated;
+
+		Logger.getLogger(getClass().getName()).info(
+				"Trials per second: Digest.sha512 " + (long) (TRIALS / (old / 1e9)) + " (" + oldAllocated / TRIALS
+						+ " bytes/trial), POWKernel " + (long) (TRIALS / (current / 1e9)) + " (" + currentAllocated
+						/ TRIALS + " bytes/trial) " + sum);
+	}
+}
@@ -0,0 +1,127 @@
+package sibbo.bitmessage.crypt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sibbo.bitmessage.network.protocol.Util;
+
+public class POWServiceTest {
+	/** A target that is reached after about 4096 trials. */
+	private static final long EASY_TARGET = Long.MAX_VALUE >> 12;
+
+	/** A target that is never reached. */
+	private static final long IMPOSSIBLE_TARGET = -1;
+
+	private POWService service;
+
+	@Before
+	public void setUp() {
+		service = new POWService(2);
+	}
+
+	@After
+	public void tearDown() {
+		service.stop();
+	}
+
+	@Test
+	public void testResults() throws InterruptedException {
+		Random r = new Random(1);
+		byte[][] hashes = new byte[20][64];
+		POWJob[] jobs = new POWJob[hashes.length];
+
+		for (int i = 0; i < jobs.length; i++) {
+			r.nextBytes(hashes[i]);
+			jobs[i] = service.submit(hashes[i], EASY_TARGET, POWService.Priority.values()[i % 3]);
+		}
+
+		for (int i = 0; i < jobs.length; i++) {
+			long value = new POWKernel(hashes[i]).trialValue(Util.getLong(jobs[i].get()));
+
+			assertTrue(value >= 0 && value <= EASY_TARGET);
+			assertTrue(jobs[i].isDone());
+			assertFalse(jobs[i].isCancelled());
+		}
+
+		assertEquals(0, service.getQueueSize());
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		POWJob job = service.submit(new byte[64], IMPOSSIBLE_TARGET, POWService.Priority.NORMAL);
+
+		assertTrue(job.cancel(false));
+		assertFalse(job.cancel(false));
+		assertTrue(job.isCancelled());
+		assertEquals(0, service.getQueueSize());
+
+		try {
+			job.get();
+			fail("A cancelled job must not have a result.");
+		} catch (CancellationException e) {
+		}
+	}
+
+	@Test(expected = TimeoutException.class)
+	public void testTimeout() throws InterruptedException, TimeoutException {
+		service.submit(new byte[64], IMPOSSIBLE_TARGET, POWService.Priority.NORMAL).get(50, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testSharing() throws InterruptedException, TimeoutException {
+		// A job that never finishes must not block the jobs of the same
+		// priority that are queued after it.
+		POWJob blocker = service.submit(new byte[64], IMPOSSIBLE_TARGET, POWService.Priority.HIGH);
+		POWJob job = service.submit(new byte[64], EASY_TARGET, POWService.Priority.HIGH);
+
+		job.get(10, TimeUnit.SECONDS);
+		assertFalse(blocker.isDone());
+		assertEquals(1, service.getQueueSize());
+	}
+
+	@Test
+	public void testPriority() throws InterruptedException, TimeoutException {
+		// Lower priorities only get chunks while no job with a higher
+		// priority is queued.
+		POWJob high = service.submit(new byte[64], IMPOSSIBLE_TARGET, POWService.Priority.HIGH);
+		POWJob normal = service.submit(new byte[64], EASY_TARGET, POWService.Priority.NORMAL);
+		POWJob low = service.submit(new byte[64], EASY_TARGET, POWService.Priority.LOW);
+
+		try {
+			normal.get(200, TimeUnit.MILLISECONDS);
+			fail("A normal job got a chunk while a high job was queued.");
+		} catch (TimeoutException e) {
+		}
+
+		assertFalse(low.isDone());
+
+		high.cancel(false);
+		normal.get(10, TimeUnit.SECONDS);
+		low.get(10, TimeUnit.SECONDS);
+		assertEquals(0, service.getQueueSize());
+	}
+
+	@Test
+	public void testStop() {
+		POWJob job = service.submit(new byte[64], IMPOSSIBLE_TARGET, POWService.Priority.LOW);
+		service.stop();
+
+		assertTrue(job.isCancelled());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongLength() {
+		service.submit(new byte[32], EASY_TARGET, POWService.Priority.NORMAL);
+	}
+}
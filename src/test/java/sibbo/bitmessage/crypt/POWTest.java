@@ -1,6 +1,5 @@
 package sibbo.bitmessage.crypt;
 
-import java.text.DecimalFormat;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -13,15 +12,12 @@ import sibbo.bitmessage.network.protocol.Util;
 public class POWTest {
 	private static final int CALCULATIONS = 100;
 
-	/** Amount of different system load samples to test. */
-	private static final int SYSTEM_LOAD_GRANULARITY = 25;
-
 	@BeforeClass
-	public static void setUpBeforeClass() {
+	public static void setUpBeforeClass() throws InterruptedException {
 		// Do some POW calculations to hopefully make the POW classes compile.
-		POWCalculator pow = new POWCalculator(0x00000FFFFFFFFFFFL, new byte[64], 1);
+		POWJob pow = POWService.getInstance().submit(new byte[64], 0x00000FFFFFFFFFFFL, POWService.Priority.NORMAL);
 		Logger.getLogger(POWTest.class.getName()).info(
-				"Precalculations to hopefully make the POW classes compile: " + Util.getLong(pow.execute()));
+				"Precalculations to hopefully make the POW classes compile: " + Util.getLong(pow.get()));
 	}
 
 	/*
@@ -29,7 +25,7 @@ public class POWTest {
 	 */
 	@Ignore
 	@Test
-	public void testPOWDuration() {
+	public void testPOWDuration() throws InterruptedException {
 		long start = System.currentTimeMillis();
 
 		for (int i = 0; i < CALCULATIONS; i++) {
@@ -37,8 +33,7 @@ public class POWTest {
 			byte[] hash = new byte[64];
 			r.nextBytes(hash);
 
-			POWCalculator pow = new POWCalculator(0x00000FFFFFFFFFFFL, hash, 1);
-			pow.execute();
+			POWService.getInstance().submit(hash, 0x00000FFFFFFFFFFFL, POWService.Priority.NORMAL).get();
 		}
 
 		long end = System.currentTimeMillis();
@@ -49,7 +44,7 @@ public class POWTest {
 
 	@Ignore
 	@Test
-	public void testShortMessageDuration() {
+	public void testShortMessageDuration() throws InterruptedException {
 		long start = System.currentTimeMillis();
 
 		for (int i = 0; i < CALCULATIONS; i++) {
@@ -57,8 +52,8 @@ public class POWTest {
 			byte[] hash = new byte[64];
 			r.nextBytes(hash);
 
-			POWCalculator pow = new POWCalculator(CryptManager.getInstance().getPOWTarget(700), hash, 1);
-			pow.execute();
+			POWService.getInstance().submit(hash, CryptManager.getInstance().getPOWTarget(700),
+					POWService.Priority.NORMAL).get();
 		}
 
 		long end = System.currentTimeMillis();
@@ -66,36 +61,4 @@ public class POWTest {
 		Logger.getLogger(getClass().getName()).info(
 				"The calculation of " + CALCULATIONS + " POWs took " + (end - start) / CALCULATIONS + "ms on average.");
 	}
-
-	@Ignore
-	@Test
-	public void testSystemLoad() {
-		byte[] hash = new byte[64];
-		long[] calculationTimes = new long[100];
-
-		for (int i = 0; i < calculationTimes.length; i++) {
-			long start = System.currentTimeMillis();
-
-			POWCalculator pow = new POWCalculator(0x00000FFFFFFFFFFFL, hash, (i + 1f + calculationTimes.length / 5)
-					/ (calculationTimes.length * 1.2f));
-			pow.execute();
-
-			long end = System.currentTimeMillis();
-
-			calculationTimes[i] = end - start;
-		}
-
-		StringBuilder str = new StringBuilder();
-		str.append("System load results:\n");
-
-		for (int i = 0; i < calculationTimes.length; i++) {
-			str.append(new DecimalFormat("0.000").format((i + 1f + calculationTimes.length / 5)
-					/ (calculationTimes.length * 1.2f)));
-			str.append(": ");
-			str.append(calculationTimes[i]);
-			str.append("ms\n");
-		}
-
-		Logger.getLogger(getClass().getName()).info(str.toString());
-	}
-}
\ No newline at end of file
+}
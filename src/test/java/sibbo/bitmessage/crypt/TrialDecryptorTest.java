@@ -0,0 +1,69 @@
+package sibbo.bitmessage.crypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.UnsupportedEncodingException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bouncycastle.jce.provider.JCEECPrivateKey;
+import org.bouncycastle.jce.provider.JCEECPublicKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sibbo.bitmessage.network.protocol.EncryptedMessage;
+import sibbo.bitmessage.network.protocol.V1MessageFactory;
+
+public class TrialDecryptorTest {
+	private TrialDecryptor decryptor;
+
+	@Before
+	public void setUp() {
+		decryptor = new TrialDecryptor(3);
+	}
+
+	@After
+	public void tearDown() {
+		decryptor.stop();
+	}
+
+	@Test
+	public void testTryDecrypt() throws UnsupportedEncodingException {
+		// Enough identities for three partitions.
+		List<BMAddress> identities = createIdentities(150);
+		byte[] plain = "trial decryption".getBytes("UTF-8");
+
+		for (int i : new int[] { 0, 70, 149 }) {
+			EncryptedMessage encrypted = CryptManager.getInstance().encrypt(plain,
+					identities.get(i).getPublicEncryptionKey(), new V1MessageFactory());
+
+			AddressDataPair result = decryptor.tryDecrypt(encrypted, identities);
+			assertSame(identities.get(i), result.getAddress());
+			assertArrayEquals(plain, result.getData());
+
+			// Without table.
+			assertSame(identities.get(i), decryptor.tryDecrypt(encrypted, identities.subList(i, i + 1)).getAddress());
+		}
+
+		EncryptedMessage encrypted = CryptManager.getInstance().encrypt(plain,
+				createIdentities(1).get(0).getPublicEncryptionKey(), new V1MessageFactory());
+		assertNull(decryptor.tryDecrypt(encrypted, identities));
+	}
+
+	private static List<BMAddress> createIdentities(int count) {
+		List<BMAddress> identities = new ArrayList<>(count);
+		KeyPair signing = CryptManager.getInstance().generateSigningKeyPair();
+
+		for (int i = 0; i < count; i++) {
+			KeyPair encryption = CryptManager.getInstance().generateEncryptionKeyPair();
+			identities.add(new BMAddress((JCEECPublicKey) signing.getPublic(), (JCEECPublicKey) encryption
+					.getPublic(), (JCEECPrivateKey) signing.getPrivate(), (JCEECPrivateKey) encryption.getPrivate()));
+		}
+
+		return identities;
+	}
+}
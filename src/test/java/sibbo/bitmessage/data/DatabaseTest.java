@@ -0,0 +1,207 @@
+package sibbo.bitmessage.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sibbo.bitmessage.Options;
+import sibbo.bitmessage.crypt.CryptManager;
+import sibbo.bitmessage.network.protocol.GetpubkeyMessage;
+import sibbo.bitmessage.network.protocol.InputBuffer;
+import sibbo.bitmessage.network.protocol.POWMessage;
+import sibbo.bitmessage.network.protocol.ParsingException;
+import sibbo.bitmessage.network.protocol.Util;
+import sibbo.bitmessage.network.protocol.V1MessageFactory;
+
+public class DatabaseTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final V1MessageFactory factory = new V1MessageFactory();
+
+	private String trialsPerByte;
+	private String extraBytes;
+
+	@Before
+	public void setUp() {
+		// Make the POW of the test objects cheap.
+		trialsPerByte = Options.getInstance().getProperty("pow.averageNonceTrialsPerByte");
+		extraBytes = Options.getInstance().getProperty("pow.payloadLengthExtraBytes");
+		Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", 1);
+		Options.getInstance().setProperty("pow.payloadLengthExtraBytes", 0);
+	}
+
+	@After
+	public void tearDown() {
+		Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", trialsPerByte);
+		Options.getInstance().setProperty("pow.payloadLengthExtraBytes", extraBytes);
+	}
+
+	@Test
+	public void testPutAndGet() throws IOException, ParsingException {
+		Database d = new Database(folder.getRoot().getPath());
+		POWMessage m = createObject(1);
+
+		assertTrue(d.put(m));
+		assertFalse(d.put(m));
+		assertTrue(d.contains(m.getInventoryVector()));
+		assertArrayEquals(m.getBytes(), d.getObject(m.getInventoryVector()).getBytes());
+		assertArrayEquals(m.getHash(), d.getObject(m.getInventoryVector()).getHash());
+		assertNull(d.getObject(createObject(2).getInventoryVector()));
+
+		d.close();
+	}
+
+	@Test
+	public void testReopenWithIndex() throws IOException, ParsingException {
+		List<POWMessage> objects = createObjects(100);
+		Database d = new Database(folder.getRoot().getPath());
+
+		for (POWMessage m : objects) {
+			d.put(m);
+		}
+
+		d.close();
+
+		d = new Database(folder.getRoot().getPath());
+		assertEquals(objects.size(), d.size());
+		assertObjects(d, objects);
+		d.close();
+	}
+
+	@Test
+	public void testReopenWithoutIndex() throws IOException, ParsingException {
+		List<POWMessage> objects = createObjects(20);
+		Database d = new Database(folder.getRoot().getPath());
+
+		for (POWMessage m : objects.subList(0, 10)) {
+			d.put(m);
+		}
+
+		d.close();
+		d = new Database(folder.getRoot().getPath());
+
+		// Objects that were added after the index was written are scanned.
+		for (POWMessage m : objects.subList(10, 20)) {
+			d.put(m);
+		}
+
+		d.close();
+		assertTrue(new File(folder.getRoot(), "objects.idx").delete());
+
+		d = new Database(folder.getRoot().getPath());
+		assertEquals(objects.size(), d.size());
+		assertObjects(d, objects);
+		d.close();
+	}
+
+	@Test
+	public void testDamagedLength() throws IOException, ParsingException {
+		List<POWMessage> objects = createObjects(2);
+		Database d = new Database(folder.getRoot().getPath());
+
+		for (POWMessage m : objects) {
+			d.put(m);
+		}
+
+		d.close();
+
+		// The index is intact, so the damaged length is only seen on reading.
+		try (RandomAccessFile f = new RandomAccessFile(new File(folder.getRoot(), "objects.log"), "rw")) {
+			f.writeInt(Integer.MAX_VALUE);
+		}
+
+		d = new Database(folder.getRoot().getPath());
+		assertNull(d.getObject(objects.get(0).getInventoryVector()));
+		assertNotNull(d.getObject(objects.get(1).getInventoryVector()));
+		d.close();
+	}
+
+	@Test
+	public void testDamagedEnd() throws IOException, ParsingException {
+		List<POWMessage> objects = createObjects(5);
+		Database d = new Database(folder.getRoot().getPath());
+
+		for (POWMessage m : objects) {
+			d.put(m);
+		}
+
+		d.close();
+		assertTrue(new File(folder.getRoot(), "objects.idx").delete());
+
+		File log = new File(folder.getRoot(), "objects.log");
+
+		try (RandomAccessFile f = new RandomAccessFile(log, "rw")) {
+			f.setLength(f.length() - 3);
+		}
+
+		d = new Database(folder.getRoot().getPath());
+		assertEquals(objects.size() - 1, d.size());
+		assertObjects(d, objects.subList(0, objects.size() - 1));
+
+		POWMessage m = createObject(1000);
+		assertTrue(d.put(m));
+		assertNotNull(d.getObject(m.getInventoryVector()));
+		d.close();
+	}
+
+	private void assertObjects(Database d, List<POWMessage> objects) {
+		for (POWMessage m : objects) {
+			assertArrayEquals(m.getBytes(), d.getObject(m.getInventoryVector()).getBytes());
+		}
+	}
+
+	private List<POWMessage> createObjects(int count) throws IOException, ParsingException {
+		List<POWMessage> objects = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			objects.add(createObject(i));
+		}
+
+		return objects;
+	}
+
+	/**
+	 * Creates a getpubkey object with a valid POW.
+	 */
+	private POWMessage createObject(int seed) throws IOException, ParsingException {
+		byte[] ripe = new byte[20];
+		new Random(seed).nextBytes(ripe);
+
+		ByteBuffer b = ByteBuffer.allocate(8 + 4 + 2 + ripe.length);
+		b.position(8);
+		b.putInt(seed);
+		b.put((byte) 2).put((byte) 1).put(ripe);
+
+		byte[] data = new byte[b.capacity() - 8];
+		System.arraycopy(b.array(), 8, data, 0, data.length);
+
+		for (long nonce = 0;; nonce++) {
+			if (CryptManager.getInstance().checkPOW(data, Util.getBytes(nonce))) {
+				b.putLong(0, nonce);
+				break;
+			}
+		}
+
+		b.clear();
+
+		return new GetpubkeyMessage(new InputBuffer(b), factory);
+	}
+}
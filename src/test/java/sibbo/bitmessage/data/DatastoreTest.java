@@ -0,0 +1,332 @@
+package sibbo.bitmessage.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sibbo.bitmessage.Options;
+import sibbo.bitmessage.network.protocol.GetpubkeyMessage;
+import sibbo.bitmessage.network.protocol.InventoryBatch;
+import sibbo.bitmessage.network.protocol.InventoryVectorMessage;
+import sibbo.bitmessage.network.protocol.NetworkAddressMessage;
+import sibbo.bitmessage.network.protocol.POWMessage;
+import sibbo.bitmessage.network.protocol.V1MessageFactory;
+
+public class DatastoreTest {
+	/** The size of the inventory used by the benchmark. */
+	private static final int INVENTORY_SIZE = 2_000_000;
+
+	/** The size of an inv message used by the benchmark. */
+	private static final int INV_SIZE = 50_000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final V1MessageFactory factory = new V1MessageFactory();
+
+	private Datastore datastore;
+
+	@Before
+	public void setUp() throws IOException {
+		datastore = new Datastore(folder.newFolder("datastore").getPath());
+	}
+
+	@After
+	public void tearDown() {
+		datastore.stop();
+	}
+
+	@Test
+	public void testFilterObjectBatch() throws IOException {
+		// Make the POW of the test objects cheap.
+		String trialsPerByte = Options.getInstance().getProperty("pow.averageNonceTrialsPerByte");
+		String extraBytes = Options.getInstance().getProperty("pow.payloadLengthExtraBytes");
+		Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", 1);
+		Options.getInstance().setProperty("pow.payloadLengthExtraBytes", 0);
+
+		try {
+			Random r = new Random(1);
+			InventoryBatch inv = new InventoryBatch(0);
+			InventoryBatch unknown = new InventoryBatch(0);
+			List<POWMessage> objects = new ArrayList<>();
+
+			for (int i = 0; i < 10; i++) {
+				byte[] hash = new byte[32];
+				r.nextBytes(hash);
+
+				if (i % 3 == 0) {
+					GetpubkeyMessage m = new GetpubkeyMessage(2, 1, Arrays.copyOf(hash, 20), factory);
+					m.doPOW();
+					datastore.put(m);
+					objects.add(m);
+					hash = m.getInventoryVector().getHash();
+				} else {
+					unknown.add(hash, 0);
+				}
+
+				inv.add(hash, 0);
+			}
+
+			InventoryBatch filtered = datastore.filterObjectsThatWeAlreadyHave(inv);
+			assertEquals(unknown.size(), filtered.size());
+
+			for (int i = 0; i < unknown.size(); i++) {
+				assertArrayEquals(unknown.getHash(i), filtered.getHash(i));
+			}
+
+			assertSame(unknown, datastore.filterObjectsThatWeAlreadyHave(unknown));
+			assertEquals(objects, datastore.getObjects(inv));
+			assertTrue(datastore.getObjects(unknown).isEmpty());
+		} finally {
+			Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", trialsPerByte);
+			Options.getInstance().setProperty("pow.payloadLengthExtraBytes", extraBytes);
+		}
+	}
+
+	@Test
+	public void testFilterNodes() throws UnknownHostException {
+		List<NetworkAddressMessage> known = new ArrayList<>();
+		List<NetworkAddressMessage> offered = new ArrayList<>();
+
+		for (int i = 0; i < 100; i++) {
+			NetworkAddressMessage m = createNode(i, 1 + i % 2);
+
+			if (i % 3 == 0) {
+				known.add(m);
+			}
+
+			offered.add(m);
+		}
+
+		assertEquals(known.size(), datastore.putAll(known).size());
+		assertEquals(0, datastore.putAll(known).size());
+
+		List<NetworkAddressMessage> filtered = datastore.filterNodesThatWeAlreadyHave(offered);
+		List<NetworkAddressMessage> expected = new ArrayList<>(offered);
+		expected.removeAll(known);
+		assertEquals(expected, filtered);
+	}
+
+	/*
+	 * Results: (2,000,000 objects, 50,000 vectors per inv, single core) HashSet
+	 * and removeAll: 14-26ms per inv, ObjectIndex: 14-20ms per inv. Both are
+	 * bound by cache misses, but the ObjectIndex needs half of the memory and
+	 * no lock, and it is the index of the database anyway.
+	 */
+	@Ignore
+	@Test
+	public void testFilterObjectsDuration() {
+		Random r = new Random(1);
+		ObjectIndex inventory = new ObjectIndex(INVENTORY_SIZE);
+		Set<InventoryVectorMessage> oldInventory = Collections.synchronizedSet(new HashSet<InventoryVectorMessage>());
+		List<InventoryVectorMessage> inv = new ArrayList<>(INV_SIZE);
+
+		for (int i = 0; i < INVENTORY_SIZE; i++) {
+			byte[] hash = new byte[32];
+			r.nextBytes(hash);
+			inventory.put(hash, i);
+			oldInventory.add(factory.createInventoryVectorMessage(hash));
+
+			// Half of the advertised objects are known.
+			if (i % (2 * INVENTORY_SIZE / INV_SIZE) == 0) {
+				inv.add(factory.createInventoryVectorMessage(hash));
+			}
+		}
+
+		while (inv.size() < INV_SIZE) {
+			byte[] hash = new byte[32];
+			r.nextBytes(hash);
+			inv.add(factory.createInventoryVectorMessage(hash));
+		}
+
+		Collections.shuffle(inv, r);
+
+		int rounds = 200;
+		int missing = 0;
+		byte[] hashes = new byte[INV_SIZE * 32];
+		boolean[] contained = new boolean[INV_SIZE];
+
+		for (int i = 0; i < rounds; i++) {
+			new ArrayList<>(inv).removeAll(oldInventory);
+			inventory.containsAll(hashes, INV_SIZE, contained);
+		}
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < rounds; i++) {
+			List<InventoryVectorMessage> l = new ArrayList<>(inv);
+			l.removeAll(oldInventory);
+			missing += l.size();
+		}
+
+		long old = System.nanoTime() - start;
+		start = System.nanoTime();
+
+		for (int i = 0; i < rounds; i++) {
+			int j = 0;
+
+			for (InventoryVectorMessage m : inv) {
+				System.arraycopy(m.getHash(), 0, hashes, j++ * 32, 32);
+			}
+
+			missing -= inventory.containsAll(hashes, INV_SIZE, contained);
+		}
+
+		long current = System.nanoTime() - start;
+
+		assertEquals(0, missing);
+		Logger.getLogger(getClass().getName()).info(
+				"Filtering an inv of " + INV_SIZE + " against " + INVENTORY_SIZE + " objects took "
+						+ (old / rounds / 1000) + "us with a HashSet and " + (current / rounds / 1000)
+						+ "us with the ObjectIndex");
+	}
+
+	/*
+	 * Results: (10,000 known nodes, 1,000 offered nodes) removeAll: 21.6ms,
+	 * hash lookups: 0.4ms.
+	 */
+	@Ignore
+	@Test
+	public void testFilterNodesDuration() throws UnknownHostException {
+		List<NetworkAddressMessage> known = new ArrayList<>();
+		List<NetworkAddressMessage> offered = new ArrayList<>();
+
+		for (int i = 0; i < 10_000; i++) {
+			known.add(createNode(i, 1));
+		}
+
+		for (int i = 0; i < 1_000; i++) {
+			offered.add(createNode(i * 20, 1));
+		}
+
+		datastore.putAll(known);
+
+		int rounds = 100;
+		long start = System.nanoTime();
+
+		for (int i = 0; i < rounds; i++) {
+			List<NetworkAddressMessage> l = new ArrayList<>(offered);
+			l.removeAll(known);
+		}
+
+		long old = System.nanoTime() - start;
+		start = System.nanoTime();
+
+		for (int i = 0; i < rounds; i++) {
+			datastore.filterNodesThatWeAlreadyHave(offered);
+		}
+
+		long current = System.nanoTime() - start;
+
+		Logger.getLogger(getClass().getName()).info(
+				"Filtering " + offered.size() + " nodes against " + known.size() + " nodes took "
+						+ (old / rounds / 1000) + "us with removeAll and " + (current / rounds / 1000)
+						+ "us with hash lookups");
+	}
+
+	@Test
+	public void testRandomNodes() throws UnknownHostException {
+		List<NetworkAddressMessage> nodes = new ArrayList<>();
+
+		for (int i = 0; i < 100; i++) {
+			nodes.add(createNode(i, 1));
+		}
+
+		datastore.putAll(nodes);
+
+		assertNull(datastore.getRandomNode(2));
+		assertEquals(0, datastore.getRandomNodes(2, 10, true).size());
+		assertTrue(nodes.contains(datastore.getRandomNode(1)));
+
+		List<NetworkAddressMessage> l = datastore.getRandomNodes(1, 50, true);
+		assertEquals(50, l.size());
+		assertEquals(50, new HashSet<>(l).size());
+		assertEquals(100, datastore.getRandomNodes(1, 1_000, false).size());
+
+		// The nodes were last seen in 1970.
+		NetworkAddressMessage m = nodes.get(0);
+		assertTrue(datastore.removeNodeIfOld(m.getIp(), m.getPort()));
+		assertFalse(datastore.removeNodeIfOld(m.getIp(), m.getPort()));
+		assertEquals(99, datastore.getNodes(new long[] { 1 }).size());
+		assertTrue(datastore.setNodeWeight(1, nodes.get(1).getIp(), nodes.get(1).getPort(), 2));
+		assertFalse(datastore.setNodeWeight(1, m.getIp(), m.getPort(), 2));
+	}
+
+	/*
+	 * Results: (10,000 known nodes) copying the key set: 95-150us per node,
+	 * node table: 0.12-0.14us uniform, 0.5us weighted through getRandomNodes.
+	 */
+	@Ignore
+	@Test
+	public void testRandomNodeDuration() throws UnknownHostException {
+		List<NetworkAddressMessage> known = new ArrayList<>();
+		Map<NetworkAddressMessage, NetworkAddressMessage> map = new Hashtable<>();
+
+		for (int i = 0; i < 10_000; i++) {
+			NetworkAddressMessage m = createNode(i, 1);
+			known.add(m);
+			map.put(m, m);
+		}
+
+		datastore.putAll(known);
+
+		int rounds = 10_000;
+		long start = System.nanoTime();
+
+		for (int i = 0; i < rounds; i++) {
+			List<NetworkAddressMessage> nodes = new ArrayList<>(map.keySet());
+			nodes.get((int) (Math.random() * nodes.size()));
+		}
+
+		long old = System.nanoTime() - start;
+		start = System.nanoTime();
+
+		for (int i = 0; i < rounds * 100; i++) {
+			datastore.getRandomNode(1);
+		}
+
+		long uniform = System.nanoTime() - start;
+		start = System.nanoTime();
+
+		for (int i = 0; i < rounds * 100; i++) {
+			datastore.getRandomNodes(1, 1, true);
+		}
+
+		long weighted = System.nanoTime() - start;
+
+		Logger.getLogger(getClass().getName()).info(
+				"Drawing a random node out of " + known.size() + " took " + (old / rounds) + "ns by copying and "
+						+ (uniform / rounds / 100) + "ns uniform and " + (weighted / rounds / 100)
+						+ "ns weighted with the node table");
+	}
+
+	private NetworkAddressMessage createNode(int i, int stream) throws UnknownHostException {
+		InetAddress ip = InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i });
+
+		return new NetworkAddressMessage(0, stream, factory.createNodeServicesMessage(1), ip, 8444, factory);
+	}
+}
@@ -0,0 +1,114 @@
+package sibbo.bitmessage.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class InventoryHashMapTest {
+	@Test
+	public void testPutAndGet() {
+		InventoryHashMap<Integer> m = new InventoryHashMap<>(0);
+		byte[][] hashes = createHashes(10_000, 1);
+
+		for (int i = 0; i < hashes.length; i++) {
+			assertNull(m.put(hashes[i], 0, i));
+		}
+
+		for (int i = 0; i < hashes.length; i++) {
+			assertEquals(Integer.valueOf(i), m.putIfAbsent(hashes[i], 0, -1));
+			assertEquals(Integer.valueOf(i), m.put(hashes[i], 0, i + 1));
+			assertEquals(Integer.valueOf(i + 1), m.get(hashes[i], 0));
+		}
+
+		for (byte[] hash : createHashes(10_000, 2)) {
+			assertNull(m.get(hash, 0));
+			assertFalse(m.containsKey(hash, 0));
+		}
+
+		assertEquals(hashes.length, m.size());
+	}
+
+	@Test
+	public void testOffsetAndZeroPrefix() {
+		InventoryHashMap<String> m = new InventoryHashMap<>(0);
+		byte[] zero = new byte[32];
+		byte[] b = new byte[40];
+		b[5] = 1;
+
+		assertNull(m.putIfAbsent(zero, 0, "zero"));
+		assertNull(m.putIfAbsent(b, 5, "one"));
+		assertEquals("zero", m.get(zero, 0));
+		assertEquals("one", m.get(b, 5));
+		assertNull(m.get(b, 4));
+		assertEquals("zero", m.remove(zero, 0));
+		assertFalse(m.containsKey(zero, 0));
+		assertEquals(1, m.size());
+	}
+
+	@Test
+	public void testRemove() {
+		InventoryHashMap<Integer> m = new InventoryHashMap<>(0);
+		Map<ByteBuffer, Integer> expected = new HashMap<>();
+		byte[][] hashes = createHashes(2_000, 3);
+		Random r = new Random(3);
+
+		// Random operations on few keys create long probe sequences.
+		for (int i = 0; i < 100_000; i++) {
+			byte[] hash = hashes[r.nextInt(hashes.length)];
+
+			if (r.nextBoolean()) {
+				assertEquals(expected.put(ByteBuffer.wrap(hash), i), m.put(hash, 0, i));
+			} else {
+				assertEquals(expected.remove(ByteBuffer.wrap(hash)), m.remove(hash, 0));
+			}
+		}
+
+		assertEquals(expected.size(), m.size());
+
+		for (byte[] hash : hashes) {
+			assertEquals(expected.get(ByteBuffer.wrap(hash)), m.get(hash, 0));
+		}
+	}
+
+	@Test
+	public void testRemoveValue() {
+		InventoryHashMap<String> m = new InventoryHashMap<>(0);
+		byte[][] hashes = createHashes(30_000, 4);
+		String[] owners = { "a", "b", "c" };
+
+		for (int i = 0; i < hashes.length; i++) {
+			m.put(hashes[i], 0, owners[i % owners.length]);
+		}
+
+		assertEquals(10_000, m.removeValue("b"));
+		assertEquals(0, m.removeValue("b"));
+		assertEquals(20_000, m.size());
+
+		for (int i = 0; i < hashes.length; i++) {
+			assertEquals(i % 3 == 1 ? null : owners[i % 3], m.get(hashes[i], 0));
+		}
+
+		m.clear();
+		assertTrue(m.isEmpty());
+		assertNull(m.get(hashes[0], 0));
+	}
+
+	private static byte[][] createHashes(int count, long seed) {
+		Random r = new Random(seed);
+		byte[][] hashes = new byte[count][32];
+
+		for (byte[] hash : hashes) {
+			r.nextBytes(hash);
+		}
+
+		return hashes;
+	}
+}
@@ -0,0 +1,171 @@
+package sibbo.bitmessage.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import sibbo.bitmessage.network.protocol.NetworkAddressMessage;
+import sibbo.bitmessage.network.protocol.V1MessageFactory;
+
+public class NodeTableTest {
+	private final V1MessageFactory factory = new V1MessageFactory();
+
+	@Test
+	public void testPutRemove() throws UnknownHostException {
+		NodeTable t = new NodeTable(new Random(1));
+		NetworkAddressMessage a = createNode(1, 0);
+		NetworkAddressMessage b = createNode(2, 0);
+
+		assertNull(t.sample());
+		assertNull(t.sampleWeighted());
+		assertTrue(t.put(a));
+		assertTrue(t.put(b));
+
+		// A node with the same ip and port replaces the old one.
+		NetworkAddressMessage newer = createNode(1, 100);
+		assertFalse(t.put(newer));
+		assertEquals(2, t.size());
+		assertSame(newer, t.get(a.getIp(), a.getPort()));
+		assertTrue(t.contains(a));
+
+		assertSame(newer, t.remove(a.getIp(), a.getPort()));
+		assertNull(t.remove(a.getIp(), a.getPort()));
+		assertFalse(t.contains(a));
+		assertEquals(1, t.size());
+		assertSame(b, t.sample());
+		assertSame(b, t.sampleWeighted());
+	}
+
+	@Test
+	public void testUniform() throws UnknownHostException {
+		NodeTable t = new NodeTable(new Random(2));
+		List<NetworkAddressMessage> nodes = createNodes(t, 10);
+		Map<NetworkAddressMessage, Integer> counts = count(t, 100_000, false);
+
+		for (NetworkAddressMessage m : nodes) {
+			assertEquals(10_000, counts.get(m), 500);
+		}
+	}
+
+	@Test
+	public void testWeighted() throws UnknownHostException {
+		NodeTable t = new NodeTable(new Random(3));
+		List<NetworkAddressMessage> nodes = createNodes(t, 4);
+		double[] weights = { 1, 3, 0.5, 5.5 };
+
+		for (int i = 0; i < nodes.size(); i++) {
+			t.setWeight(nodes.get(i).getIp(), nodes.get(i).getPort(), weights[i]);
+		}
+
+		Map<NetworkAddressMessage, Integer> counts = count(t, 100_000, true);
+
+		for (int i = 0; i < nodes.size(); i++) {
+			assertEquals(100_000 * weights[i] / 10, counts.get(nodes.get(i)), 1_000);
+		}
+
+		// Weights are clamped.
+		t.setWeight(nodes.get(0).getIp(), nodes.get(0).getPort(), 1e-300);
+		assertTrue(t.getWeight(nodes.get(0).getIp(), nodes.get(0).getPort()) > 0);
+		t.setWeight(nodes.get(1).getIp(), nodes.get(1).getPort(), 1e300);
+		assertSame(nodes.get(1), t.sampleWeighted());
+		assertEquals(0, t.getWeight(InetAddress.getByName("127.0.0.1"), 1), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testZeroWeight() throws UnknownHostException {
+		NodeTable t = new NodeTable();
+		NetworkAddressMessage m = createNode(1, 0);
+		t.put(m);
+		t.setWeight(m.getIp(), m.getPort(), 0);
+	}
+
+	@Test
+	public void testDistinct() throws UnknownHostException {
+		NodeTable t = new NodeTable(new Random(4));
+		List<NetworkAddressMessage> nodes = createNodes(t, 20);
+
+		for (boolean weighted : new boolean[] { false, true }) {
+			assertEquals(0, t.sample(0, weighted).size());
+			assertEquals(10, new HashSet<>(t.sample(10, weighted)).size());
+			assertEquals(new HashSet<>(nodes), new HashSet<>(t.sample(100, weighted)));
+			assertEquals(20, t.size());
+		}
+	}
+
+	@Test
+	public void testRandomOperations() throws UnknownHostException {
+		NodeTable t = new NodeTable(new Random(5));
+		Set<NetworkAddressMessage> expected = new HashSet<>();
+		Random r = new Random(6);
+
+		for (int i = 0; i < 20_000; i++) {
+			NetworkAddressMessage m = createNode(r.nextInt(200), 0);
+
+			switch (r.nextInt(4)) {
+			case 0:
+				assertEquals(expected.add(m), t.put(m));
+				break;
+			case 1:
+				assertEquals(expected.remove(m), t.remove(m.getIp(), m.getPort()) != null);
+				break;
+			case 2:
+				assertEquals(expected.contains(m), t.setWeight(m.getIp(), m.getPort(), r.nextDouble() * 100 + 0.01));
+				break;
+			default:
+				List<NetworkAddressMessage> l = t.sample(r.nextInt(10), r.nextBoolean());
+				assertEquals(l.size(), new HashSet<>(l).size());
+				assertTrue(expected.containsAll(l));
+			}
+
+			assertEquals(expected.size(), t.size());
+		}
+
+		List<NetworkAddressMessage> all = new ArrayList<>();
+		t.addTo(all);
+		assertEquals(expected, new HashSet<>(all));
+	}
+
+	private Map<NetworkAddressMessage, Integer> count(NodeTable t, int rounds, boolean weighted) {
+		Map<NetworkAddressMessage, Integer> counts = new HashMap<>();
+
+		for (int i = 0; i < rounds; i++) {
+			NetworkAddressMessage m = weighted ? t.sampleWeighted() : t.sample();
+			Integer c = counts.get(m);
+			counts.put(m, c == null ? 1 : c + 1);
+		}
+
+		return counts;
+	}
+
+	private List<NetworkAddressMessage> createNodes(NodeTable t, int count) throws UnknownHostException {
+		List<NetworkAddressMessage> nodes = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			NetworkAddressMessage m = createNode(i, 0);
+			nodes.add(m);
+			t.put(m);
+		}
+
+		return nodes;
+	}
+
+	private NetworkAddressMessage createNode(int i, int time) throws UnknownHostException {
+		InetAddress ip = InetAddress.getByAddress(new byte[] { 10, 0, (byte) (i >> 8), (byte) i });
+
+		return new NetworkAddressMessage(time, 1, factory.createNodeServicesMessage(1), ip, 8444, factory);
+	}
+}
@@ -0,0 +1,124 @@
+package sibbo.bitmessage.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import sibbo.bitmessage.network.protocol.GetpubkeyMessage;
+import sibbo.bitmessage.network.protocol.InventoryVectorMessage;
+import sibbo.bitmessage.network.protocol.POWMessage;
+import sibbo.bitmessage.network.protocol.V1MessageFactory;
+
+public class ObjectCacheTest {
+	private final V1MessageFactory factory = new V1MessageFactory();
+	private final POWMessage object = new GetpubkeyMessage(2, 1, new byte[20], factory);
+
+	@Test
+	public void testLRU() {
+		ObjectCache c = new ObjectCache(300, ObjectCache.Policy.LRU);
+
+		c.put(key(0), object, 100);
+		c.put(key(1), object, 100);
+		c.put(key(2), object, 100);
+		assertSame(object, c.get(key(0)));
+
+		c.put(key(3), object, 100);
+		assertNull(c.get(key(1)));
+		assertNotNull(c.get(key(0)));
+		assertNotNull(c.get(key(2)));
+		assertNotNull(c.get(key(3)));
+
+		assertEquals(300, c.getSize());
+		assertEquals(4, c.getHits());
+		assertEquals(1, c.getMisses());
+		assertEquals(1, c.getEvictions());
+	}
+
+	@Test
+	public void testTooLarge() {
+		ObjectCache c = new ObjectCache(300, ObjectCache.Policy.TINY_LFU);
+
+		c.put(key(0), object, 301);
+		assertEquals(0, c.size());
+	}
+
+	@Test
+	public void testSizeBound() {
+		for (ObjectCache.Policy p : ObjectCache.Policy.values()) {
+			ObjectCache c = new ObjectCache(10_000, p);
+
+			for (int i = 0; i < 1000; i++) {
+				c.put(key(i), object, 10 + i % 90);
+				c.get(key(i / 2));
+				assertTrue(c.getSize() <= 10_000);
+			}
+
+			assertEquals(1000, c.getHits() + c.getMisses());
+		}
+	}
+
+	@Test
+	public void testSegments() {
+		ObjectCache c = new ObjectCache(10_000, ObjectCache.Policy.LRU, 4);
+
+		for (int i = 0; i < 40; i++) {
+			c.put(key(i), object, 100);
+		}
+
+		for (int i = 0; i < 40; i++) {
+			assertSame(object, c.get(key(i)));
+		}
+
+		// Every segment holds a quarter of the size.
+		c.put(key(40), object, 2501);
+		assertNull(c.get(key(40)));
+
+		for (int i = 41; i < 1000; i++) {
+			c.put(key(i), object, 100);
+			assertTrue(c.getSize() <= 10_000);
+		}
+
+		assertEquals(41, c.getHits() + c.getMisses());
+	}
+
+	@Test
+	public void testTinyLFUResistsScans() {
+		ObjectCache c = new ObjectCache(100 * 100, ObjectCache.Policy.TINY_LFU);
+
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 50; i++) {
+				if (c.get(key(i)) == null) {
+					c.put(key(i), object, 100);
+				}
+			}
+		}
+
+		// A scan over objects that are used only once.
+		for (int i = 1000; i < 3000; i++) {
+			c.put(key(i), object, 100);
+		}
+
+		int hits = 0;
+
+		for (int i = 0; i < 50; i++) {
+			if (c.get(key(i)) != null) {
+				hits++;
+			}
+		}
+
+		assertTrue("Only " + hits + " of 50 frequently used objects survived.", hits >= 45);
+	}
+
+	private InventoryVectorMessage key(int i) {
+		byte[] hash = new byte[32];
+		hash[0] = (byte) i;
+		hash[1] = (byte) (i >> 8);
+		hash[31] = (byte) (i * 31);
+
+		return factory.createInventoryVectorMessage(hash);
+	}
+}
@@ -0,0 +1,142 @@
+package sibbo.bitmessage.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ObjectIndexTest {
+	@Test
+	public void testPutAndGet() {
+		ObjectIndex index = new ObjectIndex(0);
+		byte[][] hashes = createHashes(10_000, 1);
+
+		for (int i = 0; i < hashes.length; i++) {
+			assertTrue(index.put(hashes[i], i));
+		}
+
+		for (int i = 0; i < hashes.length; i++) {
+			assertFalse(index.put(hashes[i], 0));
+			assertTrue(index.contains(hashes[i]));
+			assertEquals(i, index.get(hashes[i]));
+		}
+
+		for (byte[] hash : createHashes(10_000, 2)) {
+			assertFalse(index.contains(hash));
+			assertEquals(-1, index.get(hash));
+		}
+
+		assertEquals(hashes.length, index.size());
+	}
+
+	@Test
+	public void testContainsAll() {
+		ObjectIndex index = new ObjectIndex(0);
+		byte[][] hashes = createHashes(10, 1);
+		byte[] b = new byte[hashes.length * ObjectIndex.KEY_LENGTH];
+
+		for (int i = 0; i < hashes.length; i++) {
+			System.arraycopy(hashes[i], 0, b, i * ObjectIndex.KEY_LENGTH, ObjectIndex.KEY_LENGTH);
+
+			if (i % 2 == 0) {
+				index.put(hashes[i], i);
+			}
+		}
+
+		boolean[] contained = new boolean[hashes.length];
+		assertEquals(5, index.containsAll(b, hashes.length, contained));
+
+		for (int i = 0; i < hashes.length; i++) {
+			assertEquals(i % 2 == 0, contained[i]);
+		}
+	}
+
+	@Test
+	public void testZeroHash() {
+		ObjectIndex index = new ObjectIndex(0);
+		byte[] zero = new byte[32];
+		byte[] other = new byte[32];
+		other[31] = 1;
+
+		assertFalse(index.contains(zero));
+		assertTrue(index.put(zero, 0));
+		assertFalse(index.put(zero, 1));
+		assertEquals(0, index.get(zero));
+		assertFalse(index.contains(other));
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void testKeys() {
+		ObjectIndex index = new ObjectIndex(0);
+		byte[] hash = createHashes(1, 1)[0];
+		byte[] key = new byte[32];
+		index.put(hash, 7);
+
+		for (int i = 0; i < index.capacity(); i++) {
+			if (index.getPosition(i) >= 0) {
+				index.getKey(i, key, 0);
+			}
+		}
+
+		assertArrayEquals(hash, key);
+	}
+
+	@Test
+	public void testConcurrentReads() throws InterruptedException {
+		final ObjectIndex index = new ObjectIndex(0);
+		final byte[][] hashes = createHashes(200_000, 3);
+		final AtomicInteger added = new AtomicInteger();
+		final AtomicBoolean failed = new AtomicBoolean();
+		Thread[] readers = new Thread[4];
+
+		for (int i = 0; i < readers.length; i++) {
+			final Random r = new Random(i);
+			readers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (added.get() < hashes.length) {
+						int n = added.get();
+
+						if (n > 0) {
+							int j = r.nextInt(n);
+
+							if (index.get(hashes[j]) != j) {
+								failed.set(true);
+							}
+						}
+					}
+				}
+			});
+			readers[i].start();
+		}
+
+		for (int i = 0; i < hashes.length; i++) {
+			index.put(hashes[i], i);
+			added.incrementAndGet();
+		}
+
+		for (Thread t : readers) {
+			t.join();
+		}
+
+		assertFalse("A reader missed an added hash.", failed.get());
+	}
+
+	private static byte[][] createHashes(int count, long seed) {
+		Random r = new Random(seed);
+		byte[][] hashes = new byte[count][32];
+
+		for (byte[] hash : hashes) {
+			r.nextBytes(hash);
+		}
+
+		return hashes;
+	}
+}
@@ -0,0 +1,299 @@
+package sibbo.bitmessage.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sibbo.bitmessage.Options;
+import sibbo.bitmessage.crypt.CryptManager;
+import sibbo.bitmessage.data.Datastore;
+import sibbo.bitmessage.network.protocol.BaseMessage;
+import sibbo.bitmessage.network.protocol.GetpubkeyMessage;
+import sibbo.bitmessage.network.protocol.InventoryBatch;
+import sibbo.bitmessage.network.protocol.InventoryVectorMessage;
+import sibbo.bitmessage.network.protocol.MsgMessage;
+import sibbo.bitmessage.network.protocol.NetworkAddressMessage;
+import sibbo.bitmessage.network.protocol.NodeServicesMessage;
+import sibbo.bitmessage.network.protocol.POWMessage;
+import sibbo.bitmessage.network.protocol.SimpleNetworkAddressMessage;
+import sibbo.bitmessage.network.protocol.V1MessageFactory;
+
+public class ConnectionTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private NetworkEngine engine;
+	private ServerSocketChannel server;
+	private Datastore datastore;
+
+	@Before
+	public void setUp() throws IOException {
+		engine = new NetworkEngine(2, 2);
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+		datastore = new Datastore(folder.newFolder("connection-test").getPath());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		engine.stop();
+		server.close();
+		datastore.stop();
+	}
+
+	@Test
+	public void testAdvertiseAfterHandshake() throws IOException, InterruptedException {
+		RecordingListener clientListener = new RecordingListener();
+		RecordingListener serverListener = new RecordingListener();
+
+		Connection client = new Connection(InetAddress.getByName("127.0.0.1"), server.socket().getLocalPort(), 1,
+				clientListener, 1, engine, datastore);
+		SocketChannel accepted = server.accept();
+		new Connection(accepted, 1, serverListener, 2, engine, datastore);
+
+		byte[] hash = new byte[32];
+		hash[0] = 42;
+		client.advertiseObject(new InventoryVectorMessage(hash, new V1MessageFactory()));
+
+		// Sending is triggered by advertising, not by a timeout.
+		assertTrue("The inv message did not arrive.", serverListener.advertised.await(1, TimeUnit.SECONDS));
+		assertEquals(1, serverListener.received.size());
+		assertArrayEquals(hash, serverListener.received.getHash(0));
+
+		client.stop();
+		assertTrue("The server did not notice the closed connection.",
+				serverListener.aborted.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testReceiveObject() throws IOException, InterruptedException {
+		// Make the POW of the test object cheap.
+		String trialsPerByte = Options.getInstance().getProperty("pow.averageNonceTrialsPerByte");
+		String extraBytes = Options.getInstance().getProperty("pow.payloadLengthExtraBytes");
+		Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", 1);
+		Options.getInstance().setProperty("pow.payloadLengthExtraBytes", 0);
+
+		try {
+			RecordingListener clientListener = new RecordingListener();
+			RecordingListener serverListener = new RecordingListener();
+
+			Connection client = new Connection(InetAddress.getByName("127.0.0.1"), server.socket().getLocalPort(),
+					1, clientListener, 1, engine, datastore);
+			new Connection(server.accept(), 1, serverListener, 2, engine, datastore);
+
+			GetpubkeyMessage m = new GetpubkeyMessage(2, 1, new byte[20], new V1MessageFactory());
+			m.doPOW();
+			datastore.put(m);
+			client.advertiseObject(m.getInventoryVector());
+
+			// The server requests the object and verifies it before it is
+			// reported.
+			assertTrue("The object did not arrive.", serverListener.objects.await(5, TimeUnit.SECONDS));
+			assertArrayEquals(m.getBytes(), serverListener.object.getBytes());
+		} finally {
+			Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", trialsPerByte);
+			Options.getInstance().setProperty("pow.payloadLengthExtraBytes", extraBytes);
+		}
+	}
+
+	@Test
+	public void testResumeAfterPendingBytes() throws IOException, InterruptedException {
+		// Every object exceeds the pending bytes, so reading is suspended
+		// until it is verified.
+		String maxPendingBytes = Options.getInstance().getProperty("network.maxPendingBytes");
+		String trialsPerByte = Options.getInstance().getProperty("pow.averageNonceTrialsPerByte");
+		String extraBytes = Options.getInstance().getProperty("pow.payloadLengthExtraBytes");
+		Options.getInstance().setProperty("network.maxPendingBytes", 1);
+		Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", 1);
+		Options.getInstance().setProperty("pow.payloadLengthExtraBytes", 0);
+
+		try {
+			RecordingListener clientListener = new RecordingListener();
+			RecordingListener serverListener = new RecordingListener();
+
+			Connection client = new Connection(InetAddress.getByName("127.0.0.1"), server.socket().getLocalPort(),
+					1, clientListener, 1, engine, datastore);
+			new Connection(server.accept(), 1, serverListener, 2, engine, datastore);
+
+			for (int i = 0; i < 2; i++) {
+				byte[] ripe = new byte[20];
+				ripe[0] = (byte) i;
+				GetpubkeyMessage m = new GetpubkeyMessage(2, 1, ripe, new V1MessageFactory());
+				m.doPOW();
+				datastore.put(m);
+				client.advertiseObject(m.getInventoryVector());
+			}
+
+			assertTrue("Reading was not resumed.", serverListener.allObjects.await(5, TimeUnit.SECONDS));
+		} finally {
+			Options.getInstance().setProperty("network.maxPendingBytes", maxPendingBytes);
+			Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", trialsPerByte);
+			Options.getInstance().setProperty("pow.payloadLengthExtraBytes", extraBytes);
+		}
+	}
+
+	@Test
+	public void testWriteBackpressure() throws IOException, InterruptedException {
+		String maxQueuedBytes = Options.getInstance().getProperty("network.maxQueuedBytes");
+		String trialsPerByte = Options.getInstance().getProperty("pow.averageNonceTrialsPerByte");
+		String extraBytes = Options.getInstance().getProperty("pow.payloadLengthExtraBytes");
+		Options.getInstance().setProperty("network.maxQueuedBytes", 64 * 1024);
+		Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", 1);
+		Options.getInstance().setProperty("pow.payloadLengthExtraBytes", 0);
+
+		try {
+			V1MessageFactory factory = new V1MessageFactory();
+			Random r = new Random(1);
+			ECPoint p = ECNamedCurveTable.getParameterSpec("secp256k1").getG().multiply(new BigInteger(256, r));
+			ECPublicKey key = CryptManager.getInstance().createPublicEncryptionKey(p.getX().toBigInteger(),
+					p.getY().toBigInteger());
+			byte[] payload = new byte[64 * 1024];
+			r.nextBytes(payload);
+			MsgMessage m = new MsgMessage(1, factory.createEncryptedMessage(new byte[16], key, payload, new byte[32]),
+					factory);
+			m.doPOW();
+			datastore.put(m);
+
+			// 32MiB, far more than fits into the socket buffers.
+			InventoryBatch inv = new InventoryBatch(512);
+
+			for (int i = 0; i < 512; i++) {
+				inv.add(m.getInventoryVector().getHash(), 0);
+			}
+
+			long total = 512L * m.getBytes().length;
+
+			server.socket().setReceiveBufferSize(16 * 1024);
+			Connection client = new Connection(InetAddress.getByName("127.0.0.1"), server.socket().getLocalPort(),
+					1, new RecordingListener(), 1, engine, datastore);
+			SocketChannel peer = server.accept();
+
+			// A node that requests everything and never reads.
+			NodeServicesMessage services = factory.createNodeServicesMessage(1);
+			SimpleNetworkAddressMessage a = factory.createSimpleNetworkAddressMessage(services,
+					InetAddress.getByName("127.0.0.1"), 8444);
+			write(peer, factory.createBaseMessage(factory.createVersionMessage(services,
+					System.currentTimeMillis() / 1000, a, a, 2, "/test:1.0/", new long[] { 1 })));
+			write(peer, factory.createBaseMessage(factory.createVerackMessage()));
+			write(peer, factory.createBaseMessage(factory.createGetdataMessage(inv)));
+
+			long max = 0;
+
+			for (int i = 0; i < 100; i++) {
+				Thread.sleep(10);
+				max = Math.max(max, client.getQueuedBytes());
+			}
+
+			assertTrue("Nothing was queued.", max > 0);
+			// The limit plus at most one lookup chunk of 32 objects.
+			assertTrue("Queued " + max + " bytes.", max < 64 * 1024 + 33 * m.getBytes().length);
+
+			// Everything arrives as soon as the node reads.
+			ByteBuffer b = ByteBuffer.allocate(64 * 1024);
+			long received = 0;
+			long end = System.currentTimeMillis() + 10_000;
+			peer.configureBlocking(false);
+
+			while (received < total) {
+				assertTrue("Received only " + received + " of " + total + " bytes.",
+						System.currentTimeMillis() < end);
+				b.clear();
+				int read = peer.read(b);
+
+				if (read == 0) {
+					Thread.sleep(1);
+				}
+
+				received += Math.max(0, read);
+			}
+
+			peer.close();
+		} finally {
+			Options.getInstance().setProperty("network.maxQueuedBytes", maxQueuedBytes);
+			Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", trialsPerByte);
+			Options.getInstance().setProperty("pow.payloadLengthExtraBytes", extraBytes);
+		}
+	}
+
+	@Test
+	public void testCouldNotConnect() throws IOException, InterruptedException {
+		RecordingListener listener = new RecordingListener();
+		int port = server.socket().getLocalPort();
+		server.close();
+
+		new Connection(InetAddress.getByName("127.0.0.1"), port, 1, listener, 1, engine, datastore);
+
+		assertTrue("The failed connect was not reported.", listener.couldNotConnect.await(10, TimeUnit.SECONDS));
+	}
+
+	private static void write(SocketChannel c, BaseMessage m) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(m.getBytes());
+
+		while (b.hasRemaining()) {
+			c.write(b);
+		}
+	}
+
+	private static class RecordingListener implements ConnectionListener {
+		private final CountDownLatch advertised = new CountDownLatch(1);
+		private final CountDownLatch aborted = new CountDownLatch(1);
+		private final CountDownLatch couldNotConnect = new CountDownLatch(1);
+		private final CountDownLatch objects = new CountDownLatch(1);
+		private final CountDownLatch allObjects = new CountDownLatch(2);
+		private volatile InventoryBatch received;
+		private volatile POWMessage object;
+
+		@Override
+		public void couldNotConnect(Connection c) {
+			couldNotConnect.countDown();
+		}
+
+		@Override
+		public void connected(Connection c) {
+		}
+
+		@Override
+		public void connectionAborted(Connection c) {
+			aborted.countDown();
+		}
+
+		@Override
+		public void receivedObject(POWMessage m, Connection c) {
+			object = m;
+			objects.countDown();
+			allObjects.countDown();
+		}
+
+		@Override
+		public void receivedNodes(List<NetworkAddressMessage> list, Connection c) {
+		}
+
+		@Override
+		public void advertisedObjects(InventoryBatch inv, Connection c) {
+			received = inv;
+			advertised.countDown();
+			c.requestObjects(inv);
+		}
+	}
+}
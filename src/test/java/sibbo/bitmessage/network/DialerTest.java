@@ -0,0 +1,179 @@
+package sibbo.bitmessage.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sibbo.bitmessage.data.Datastore;
+import sibbo.bitmessage.network.protocol.InventoryBatch;
+import sibbo.bitmessage.network.protocol.NetworkAddressMessage;
+import sibbo.bitmessage.network.protocol.POWMessage;
+import sibbo.bitmessage.network.protocol.V1MessageFactory;
+
+public class DialerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final V1MessageFactory factory = new V1MessageFactory();
+
+	private NetworkEngine engine;
+	private Datastore datastore;
+	private final List<ServerSocketChannel> servers = new ArrayList<>();
+
+	@Before
+	public void setUp() throws IOException {
+		engine = new NetworkEngine(2, 1);
+		datastore = new Datastore(folder.newFolder("dialer-test").getPath());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		engine.stop();
+		datastore.stop();
+
+		for (ServerSocketChannel s : servers) {
+			s.close();
+		}
+	}
+
+	@Test
+	public void testKeepFirstSuccesses() throws IOException, InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			addNode(openServer());
+		}
+
+		ForwardingListener listener = new ForwardingListener();
+		Dialer dialer = new Dialer(1, listener, 1, engine, datastore);
+		listener.dialer = dialer;
+
+		assertTrue("The attempts did not run in parallel.", dialer.dial(2) >= 2);
+		waitUntilSettled(dialer);
+
+		assertEquals(2, dialer.getEstablishedCount());
+		assertEquals(0, dialer.dial(2));
+	}
+
+	@Test
+	public void testKeepBest() throws IOException, InterruptedException {
+		int bad = openServer();
+		int good = openServer();
+		addNode(bad);
+		addNode(good);
+
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		engine.getPeers().get(localhost, bad).invalidObject();
+		engine.getPeers().get(localhost, bad).invalidObject();
+		engine.getPeers().get(localhost, good).objectReceived(10);
+
+		ForwardingListener listener = new ForwardingListener();
+		Dialer dialer = new Dialer(1, listener, 1, engine, datastore);
+		listener.dialer = dialer;
+
+		dialer.dial(1);
+		waitUntilSettled(dialer);
+
+		// Whatever connected first, the good node is kept.
+		assertEquals(1, dialer.getEstablishedCount());
+		assertEquals(good, listener.kept.get(listener.kept.size() - 1).getPort());
+	}
+
+	@Test
+	public void testBackoff() throws IOException, InterruptedException {
+		// A port nobody listens on.
+		int port = openServer();
+		servers.remove(servers.size() - 1).close();
+		addNode(port);
+
+		ForwardingListener listener = new ForwardingListener();
+		Dialer dialer = new Dialer(1, listener, 1, engine, datastore);
+		listener.dialer = dialer;
+
+		assertEquals(1, dialer.dial(1));
+		waitUntilSettled(dialer);
+
+		assertEquals(0, dialer.getEstablishedCount());
+		assertEquals("The dead address was dialed again.", 0, dialer.dial(1));
+	}
+
+	@Test
+	public void testBackoffDuration() {
+		Dialer dialer = new Dialer(1, new ForwardingListener(), 1, engine, datastore);
+		long backoff = dialer.getBackoff(1);
+
+		assertEquals(2 * backoff, dialer.getBackoff(2));
+		assertEquals(4 * backoff, dialer.getBackoff(3));
+		assertEquals(dialer.getBackoff(100), dialer.getBackoff(1_000));
+		assertTrue(dialer.getBackoff(100) >= dialer.getBackoff(3));
+	}
+
+	private void waitUntilSettled(Dialer dialer) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10_000;
+
+		while (dialer.getPendingCount() > 0) {
+			assertTrue("The connect attempts did not finish.", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+
+	private int openServer() throws IOException {
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+		servers.add(server);
+
+		return server.socket().getLocalPort();
+	}
+
+	private void addNode(int port) throws IOException {
+		List<NetworkAddressMessage> l = new ArrayList<>();
+		l.add(new NetworkAddressMessage(0, 1, factory.createNodeServicesMessage(1), InetAddress
+				.getByName("127.0.0.1"), port, factory));
+		datastore.putAll(l);
+	}
+
+	private static class ForwardingListener implements ConnectionListener {
+		private volatile Dialer dialer;
+		private final List<Connection> kept = new Vector<>();
+
+		@Override
+		public void couldNotConnect(Connection c) {
+			dialer.couldNotConnect(c);
+		}
+
+		@Override
+		public void connected(Connection c) {
+			if (dialer.connected(c)) {
+				kept.add(c);
+			}
+		}
+
+		@Override
+		public void connectionAborted(Connection c) {
+			dialer.closed(c);
+		}
+
+		@Override
+		public void receivedObject(POWMessage m, Connection c) {
+		}
+
+		@Override
+		public void receivedNodes(List<NetworkAddressMessage> list, Connection c) {
+		}
+
+		@Override
+		public void advertisedObjects(InventoryBatch inv, Connection c) {
+		}
+	}
+}
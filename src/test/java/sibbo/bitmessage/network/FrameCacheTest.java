@@ -0,0 +1,98 @@
+package sibbo.bitmessage.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import sibbo.bitmessage.network.protocol.BaseMessage;
+import sibbo.bitmessage.network.protocol.BufferPool;
+import sibbo.bitmessage.network.protocol.Frame;
+import sibbo.bitmessage.network.protocol.InputBuffer;
+import sibbo.bitmessage.network.protocol.MessageFactory;
+import sibbo.bitmessage.network.protocol.POWMessage;
+import sibbo.bitmessage.network.protocol.ParsingException;
+import sibbo.bitmessage.network.protocol.V1MessageFactory;
+
+public class FrameCacheTest {
+	private final MessageFactory factory = new V1MessageFactory();
+
+	@Test
+	public void testGet() throws IOException, ParsingException {
+		FrameCache cache = new FrameCache(1024, new BufferPool());
+		POWMessage object = createObject(1);
+
+		Frame a = cache.get(object);
+		Frame b = cache.get(object);
+		assertSame(a, b);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 0);
+
+		byte[] expected = new BaseMessage(object, factory).getBytes();
+		assertEquals(expected.length, cache.getSize());
+
+		// Every writer gets its own view.
+		ByteBuffer view = a.getBuffer();
+		byte[] bytes = new byte[view.remaining()];
+		view.get(bytes);
+		assertArrayEquals(expected, bytes);
+		assertEquals(expected.length, b.getBuffer().remaining());
+		assertTrue(b.getBuffer().isReadOnly());
+
+		a.release();
+		b.release();
+		cache.clear();
+		assertFalse(a.retain());
+	}
+
+	@Test
+	public void testEviction() throws IOException, ParsingException {
+		POWMessage first = createObject(1);
+		int length = new BaseMessage(first, factory).getBytes().length;
+		FrameCache cache = new FrameCache(2 * length, new BufferPool());
+
+		Frame f = cache.get(first);
+		cache.get(createObject(2)).release();
+		cache.get(createObject(3)).release();
+		assertEquals(2, cache.size());
+		assertEquals(2 * length, cache.getSize());
+
+		// Evicted, but still referenced by the writer.
+		assertTrue(f.getBuffer().hasRemaining());
+		f.release();
+		assertFalse(f.retain());
+
+		Frame again = cache.get(first);
+		assertNotSame(f, again);
+		assertEquals(0, cache.getHits());
+		again.release();
+	}
+
+	@Test
+	public void testTooLarge() throws IOException, ParsingException {
+		FrameCache cache = new FrameCache(10, new BufferPool());
+		Frame f = cache.get(createObject(1));
+
+		assertEquals(0, cache.size());
+		f.release();
+		assertFalse(f.retain());
+	}
+
+	private POWMessage createObject(int seed) throws IOException, ParsingException {
+		byte[] payload = new byte[34];
+		new Random(seed).nextBytes(payload);
+		payload[12] = 2;
+		payload[13] = 1;
+
+		return (POWMessage) factory.parseP2PMessage("getpubkey", new InputBuffer(ByteBuffer.wrap(payload)));
+	}
+}
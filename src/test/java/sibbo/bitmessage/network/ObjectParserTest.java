@@ -0,0 +1,126 @@
+package sibbo.bitmessage.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sibbo.bitmessage.crypt.BMAddress;
+import sibbo.bitmessage.crypt.CryptManager;
+import sibbo.bitmessage.network.protocol.EncryptedMessage;
+import sibbo.bitmessage.network.protocol.MsgMessage;
+import sibbo.bitmessage.network.protocol.V1MessageFactory;
+
+public class ObjectParserTest {
+	private final V1MessageFactory factory = new V1MessageFactory();
+
+	private EncryptedMessage encrypted;
+
+	private ObjectParser parser;
+
+	@Before
+	public void setUp() {
+		Random r = new Random(1);
+		ECPoint p = ECNamedCurveTable.getParameterSpec("secp256k1").getG().multiply(new BigInteger(256, r));
+		ECPublicKey key = CryptManager.getInstance().createPublicEncryptionKey(p.getX().toBigInteger(),
+				p.getY().toBigInteger());
+		encrypted = factory.createEncryptedMessage(new byte[16], key, new byte[64], new byte[32]);
+	}
+
+	@After
+	public void tearDown() {
+		parser.stop();
+	}
+
+	@Test
+	public void testWorkerSurvivesException() throws InterruptedException {
+		parser = new ObjectParser(new ArrayList<BMAddress>(), 1, 4);
+		CountDownLatch reached = new CountDownLatch(1);
+
+		parser.parse(new TestMessage(null, null), factory);
+		parser.parse(new TestMessage(reached, null), factory);
+
+		assertTrue("The worker died.", reached.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testParseWaitsWhenFull() throws InterruptedException {
+		parser = new ObjectParser(new ArrayList<BMAddress>(), 1, 1);
+		CountDownLatch reached = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch last = new CountDownLatch(1);
+
+		parser.parse(new TestMessage(reached, release), factory);
+		assertTrue(reached.await(10, TimeUnit.SECONDS));
+
+		// The worker is busy and the queue has room for one message.
+		parser.parse(new TestMessage(null, null), factory);
+		final CountDownLatch queued = new CountDownLatch(1);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					parser.parse(new TestMessage(last, null), factory);
+					queued.countDown();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		t.start();
+
+		assertFalse("A message was queued into a full queue.", queued.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(1, parser.getQueueSize());
+
+		// No message is lost once the worker goes on.
+		release.countDown();
+		assertTrue(queued.await(10, TimeUnit.SECONDS));
+		assertTrue("The last message was not decrypted.", last.await(10, TimeUnit.SECONDS));
+		t.join();
+	}
+
+	/**
+	 * A msg whose decryption signals {@code reached}, then waits for
+	 * {@code release}, then fails.
+	 */
+	private class TestMessage extends MsgMessage {
+		private final CountDownLatch reached;
+		private final CountDownLatch release;
+
+		public TestMessage(CountDownLatch reached, CountDownLatch release) {
+			super(1, encrypted, factory);
+
+			this.reached = reached;
+			this.release = release;
+		}
+
+		@Override
+		public EncryptedMessage getEncrypted() {
+			if (reached != null) {
+				reached.countDown();
+			}
+
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			throw new IllegalStateException("Crafted message.");
+		}
+	}
+}
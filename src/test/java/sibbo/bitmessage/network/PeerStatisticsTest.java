@@ -0,0 +1,79 @@
+package sibbo.bitmessage.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PeerStatisticsTest {
+	@Test
+	public void testUnknownNode() {
+		PeerStatistics s = new PeerStatistics();
+
+		assertEquals(0.25, s.getScore(0), 1e-9);
+		assertEquals(-1, s.getHandshakeLatency());
+		assertEquals(-1, s.getResponseTime());
+		assertEquals(0, s.getBytesPerSecond(0));
+	}
+
+	@Test
+	public void testLatencies() {
+		PeerStatistics fast = new PeerStatistics();
+		PeerStatistics slow = new PeerStatistics();
+
+		fast.handshakeCompleted(50);
+		slow.handshakeCompleted(5_000);
+		assertTrue(fast.getScore(0) > new PeerStatistics().getScore(0));
+		assertTrue(slow.getScore(0) < new PeerStatistics().getScore(0));
+
+		fast.objectReceived(100);
+		slow.objectReceived(30_000);
+		assertTrue(fast.getScore(0) > 10 * slow.getScore(0));
+
+		// The average moves towards new samples.
+		for (int i = 0; i < 100; i++) {
+			slow.objectReceived(100);
+		}
+
+		assertTrue(slow.getResponseTime() < 200);
+	}
+
+	@Test
+	public void testRateAndUptime() {
+		PeerStatistics s = new PeerStatistics();
+		s.connected(1_000);
+		s.bytesReceived(10_240);
+
+		assertEquals(10, s.getUptime(1_010));
+		assertEquals(1_024_000, s.getBytesPerSecond(1_010));
+		assertEquals(10_240, s.getBytesPerSecond(2_000));
+
+		s.disconnected(2_000);
+		assertEquals(1_000, s.getUptime(10_000));
+
+		// The uptime of all connections counts.
+		double before = s.getScore(10_000);
+		s.connected(10_000);
+		s.bytesReceived(6_144_000);
+		s.disconnected(610_000);
+		assertEquals(601_000, s.getUptime(700_000));
+		assertTrue(s.getScore(700_000) > before);
+	}
+
+	@Test
+	public void testInvalidObjects() {
+		PeerStatistics s = new PeerStatistics();
+		double score = s.getScore(0);
+
+		s.invalidObject();
+		s.invalidObject();
+		assertEquals(2, s.getInvalidObjects());
+		assertEquals(score / 4, s.getScore(0), 1e-9);
+
+		for (int i = 0; i < 1_000; i++) {
+			s.invalidObject();
+		}
+
+		assertTrue(s.getScore(0) > 0);
+	}
+}
@@ -0,0 +1,30 @@
+package sibbo.bitmessage.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class PeerTableTest {
+	@Test
+	public void testGetAndRemove() throws UnknownHostException {
+		PeerTable t = new PeerTable();
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+
+		PeerStatistics s = t.get(localhost, 8444);
+		assertSame(s, t.get(localhost, 8444));
+		assertNotSame(s, t.get(localhost, 8445));
+		assertEquals(2, t.size());
+
+		assertTrue(t.remove(localhost, 8444));
+		assertFalse(t.remove(localhost, 8444));
+		assertEquals(1, t.size());
+		assertNotSame(s, t.get(localhost, 8444));
+	}
+}
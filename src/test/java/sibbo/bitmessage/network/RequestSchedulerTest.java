@@ -0,0 +1,344 @@
+package sibbo.bitmessage.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import sibbo.bitmessage.network.protocol.InventoryBatch;
+
+public class RequestSchedulerTest {
+	private static final long TIMEOUT = 1_000_000;
+
+	@Test
+	public void testRequestOnce() {
+		RequestScheduler s = new RequestScheduler(TIMEOUT, 100);
+		RecordingSource a = new RecordingSource();
+		RecordingSource b = new RecordingSource();
+		InventoryBatch inv = createBatch(10, 1);
+
+		s.advertised(inv, a);
+		s.advertised(inv, b);
+		s.advertised(inv, a);
+
+		assertEquals(10, a.requested.size());
+		assertEquals(0, b.requested.size());
+		assertEquals(10, s.size());
+
+		for (int i = 0; i < inv.size(); i++) {
+			s.received(inv.array(), inv.offset(i));
+		}
+
+		assertEquals(0, s.size());
+		assertEquals(0, s.getLoad(a));
+
+		// A received object can be requested again if it is advertised again.
+		s.advertised(inv.subBatch(0, 1), b);
+		assertEquals(1, b.requested.size());
+	}
+
+	@Test
+	public void testSpreadAcrossSources() {
+		RequestScheduler s = new RequestScheduler(TIMEOUT, 10);
+		RecordingSource a = new RecordingSource();
+		RecordingSource b = new RecordingSource();
+		RecordingSource c = new RecordingSource();
+		InventoryBatch inv = createBatch(100, 2);
+
+		s.advertised(inv, a);
+		s.advertised(inv, b);
+		s.advertised(inv, c);
+
+		assertEquals(10, a.requested.size());
+		assertEquals(10, b.requested.size());
+		assertEquals(10, c.requested.size());
+
+		Set<ByteBuffer> requested = new HashSet<>();
+
+		for (RecordingSource source : new RecordingSource[] { a, b, c }) {
+			for (int i = 0; i < source.requested.size(); i++) {
+				assertTrue("Different sources were asked for the same object.",
+						requested.add(ByteBuffer.wrap(source.requested.getHash(i))));
+			}
+		}
+
+		// Answering frees capacity for the waiting hashes.
+		for (int i = 0; i < 5; i++) {
+			s.received(b.requested.array(), b.requested.offset(i));
+		}
+
+		assertEquals(15, b.requested.size());
+		assertEquals(10, s.getLoad(b));
+	}
+
+	@Test
+	public void testTimeout() {
+		RequestScheduler s = new RequestScheduler(1_000, 100);
+		RecordingSource a = new RecordingSource();
+		RecordingSource b = new RecordingSource();
+		InventoryBatch inv = createBatch(10, 3);
+
+		s.advertised(inv, a);
+		s.advertised(inv, b);
+		assertEquals(0, s.checkTimeouts(System.currentTimeMillis()));
+
+		long later = System.currentTimeMillis() + 1_000;
+		assertEquals(10, s.checkTimeouts(later));
+		assertEquals(10, b.requested.size());
+		assertEquals(0, s.getLoad(a));
+
+		// Nobody else advertised the objects, so they are forgotten.
+		assertEquals(10, s.checkTimeouts(later + 1_000));
+		assertEquals(0, s.size());
+
+		// A node that never answers does not block the objects forever.
+		s.advertised(inv, a);
+		assertEquals(20, a.requested.size());
+	}
+
+	@Test
+	public void testTimedOutSourceThrottled() {
+		RequestScheduler s = new RequestScheduler(1_000, 4);
+		RecordingSource a = new RecordingSource();
+		RecordingSource b = new RecordingSource();
+		InventoryBatch inv = createBatch(10, 8);
+
+		s.advertised(inv, a);
+		s.advertised(inv.subBatch(0, 4), b);
+		assertEquals(4, a.requested.size());
+
+		// The timed out objects go to b. The idle node a gets half its
+		// capacity for the objects only it advertised.
+		long later = System.currentTimeMillis() + 1_000;
+		assertEquals(4, s.checkTimeouts(later));
+		assertEquals(4, b.requested.size());
+		assertEquals(2, s.getLoad(a));
+		assertEquals(6, a.requested.size());
+
+		// Received objects restore the capacity one by one.
+		s.received(a.requested.array(), a.requested.offset(4));
+		assertEquals(3, s.getLoad(a));
+		assertEquals(8, a.requested.size());
+	}
+
+	@Test
+	public void testSourceClosed() {
+		RequestScheduler s = new RequestScheduler(TIMEOUT, 10);
+		RecordingSource a = new RecordingSource();
+		RecordingSource b = new RecordingSource();
+		RecordingSource c = new RecordingSource();
+		InventoryBatch inv = createBatch(15, 4);
+
+		s.advertised(inv, a);
+		s.advertised(inv, b);
+		assertEquals(10, a.requested.size());
+		assertEquals(5, b.requested.size());
+
+		s.sourceClosed(a);
+		assertEquals(10, b.requested.size());
+		assertEquals(10, s.getLoad(b));
+		assertEquals(15, s.size());
+
+		s.advertised(inv, c);
+		s.sourceClosed(b);
+		assertEquals(10, c.requested.size());
+
+		for (int i = 0; i < 5; i++) {
+			s.received(c.requested.array(), c.requested.offset(i));
+		}
+
+		assertEquals(15, c.requested.size());
+		assertEquals(10, s.getLoad(c));
+
+		s.sourceClosed(c);
+		assertEquals(0, s.size());
+	}
+
+	@Test
+	public void testPreferBetterSource() {
+		RequestScheduler s = new RequestScheduler(TIMEOUT, 100);
+		RecordingSource a = new RecordingSource();
+		RecordingSource fast = new RecordingSource();
+		RecordingSource slow = new RecordingSource();
+		InventoryBatch inv = createBatch(5, 8);
+
+		fast.statistics.objectReceived(100);
+		slow.statistics.objectReceived(20_000);
+
+		s.advertised(inv, a);
+		s.advertised(inv, slow);
+		s.advertised(inv, fast);
+		s.sourceClosed(a);
+
+		assertEquals(5, fast.requested.size());
+		assertEquals(0, slow.requested.size());
+
+		// The response times are fed back into the statistics.
+		s.received(fast.requested.array(), fast.requested.offset(0));
+		assertTrue(fast.statistics.getResponseTime() < 100);
+
+		RequestScheduler s2 = new RequestScheduler(1_000, 100);
+		RecordingSource c = new RecordingSource();
+		s2.advertised(inv, c);
+		s2.checkTimeouts(System.currentTimeMillis() + 1_000);
+		assertEquals(1_000, c.statistics.getResponseTime());
+	}
+
+	@Test
+	public void testSkipBusySource() {
+		RequestScheduler s = new RequestScheduler(TIMEOUT, 10);
+		RecordingSource a = new RecordingSource();
+		RecordingSource fast = new RecordingSource();
+		RecordingSource slow = new RecordingSource();
+		InventoryBatch inv = createBatch(5, 9);
+
+		fast.statistics.objectReceived(100);
+		slow.statistics.objectReceived(40_000);
+
+		s.advertised(inv, a);
+		s.advertised(inv, slow);
+		s.advertised(inv, fast);
+		s.advertised(createBatch(10, 10), fast);
+		assertEquals(10, s.getLoad(fast));
+
+		// The better node is busy, so the objects don't wait for it.
+		s.sourceClosed(a);
+		assertEquals(5, slow.requested.size());
+		assertEquals(10, fast.requested.size());
+	}
+
+	@Test
+	public void testRandomOperations() {
+		RequestScheduler s = new RequestScheduler(1_000, 20);
+		RecordingSource[] sources = new RecordingSource[20];
+		Random r = new Random(5);
+		InventoryBatch inv = createBatch(500, 5);
+		long now = System.currentTimeMillis();
+
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = new RecordingSource();
+		}
+
+		for (int i = 0; i < 20_000; i++) {
+			int from = r.nextInt(inv.size());
+			RecordingSource source = sources[r.nextInt(sources.length)];
+
+			switch (r.nextInt(4)) {
+			case 0:
+				s.advertised(inv.subBatch(from, Math.min(from + 50, inv.size())), source);
+				break;
+			case 1:
+				s.received(inv.array(), inv.offset(from));
+				break;
+			case 2:
+				s.sourceClosed(source);
+				break;
+			default:
+				now += 100;
+				s.checkTimeouts(now);
+			}
+
+			for (RecordingSource source2 : sources) {
+				assertTrue(s.getLoad(source2) <= 20);
+			}
+
+			assertTrue(s.size() <= inv.size());
+		}
+
+		for (RecordingSource source : sources) {
+			s.sourceClosed(source);
+		}
+
+		assertEquals(0, s.size());
+	}
+
+	/*
+	 * Results: (200,000 requests in flight, 5,000 connections that advertise
+	 * 20 hashes each and disconnect) 430-500ms for all of them including the
+	 * advertising, below 100us per connection. Copying and scanning the old
+	 * Hashtable with 200,000 entries took about 125ms per disconnect.
+	 */
+	@Test
+	public void testConnectionChurn() {
+		RequestScheduler s = new RequestScheduler(TIMEOUT, 1_000);
+		RecordingSource[] stable = new RecordingSource[200];
+		InventoryBatch inv = createBatch(stable.length * 1_000, 6);
+		int churned = 5_000;
+		InventoryBatch fresh = createBatch(churned * 10, 7);
+		Random r = new Random(6);
+
+		for (int i = 0; i < stable.length; i++) {
+			stable[i] = new RecordingSource();
+			s.advertised(inv.subBatch(i * 1_000, (i + 1) * 1_000), stable[i]);
+		}
+
+		assertEquals(inv.size(), s.size());
+		long start = System.nanoTime();
+
+		for (int i = 0; i < churned; i++) {
+			RecordingSource c = new RecordingSource();
+			InventoryBatch advertised = fresh.subBatch(i * 10, (i + 1) * 10);
+
+			for (int j = 0; j < 10; j++) {
+				advertised.add(inv, r.nextInt(inv.size()));
+			}
+
+			s.advertised(advertised, c);
+			assertEquals(10, c.requested.size());
+			s.sourceClosed(c);
+			assertEquals(0, s.getLoad(c));
+		}
+
+		long time = System.nanoTime() - start;
+		Logger.getLogger(getClass().getName()).info(
+				churned + " connections against " + inv.size() + " requests took " + (time / 1_000_000) + "ms");
+
+		// Only the hashes of the closed connections were forgotten.
+		assertEquals(inv.size(), s.size());
+
+		for (RecordingSource source : stable) {
+			assertEquals(1_000, s.getLoad(source));
+			assertEquals(1_000, source.requested.size());
+		}
+
+		// The closed connections are no fallback for the stable ones.
+		s.sourceClosed(stable[0]);
+		assertEquals(inv.size() - 1_000, s.size());
+	}
+
+	private static InventoryBatch createBatch(int count, long seed) {
+		Random r = new Random(seed);
+		InventoryBatch b = new InventoryBatch(count);
+		byte[] hash = new byte[InventoryBatch.HASH_LENGTH];
+
+		for (int i = 0; i < count; i++) {
+			r.nextBytes(hash);
+			b.add(hash, 0);
+		}
+
+		return b;
+	}
+
+	private static class RecordingSource implements ObjectSource {
+		private final InventoryBatch requested = new InventoryBatch(0);
+		private final PeerStatistics statistics = new PeerStatistics();
+
+		@Override
+		public void requestObjects(InventoryBatch inv) {
+			for (int i = 0; i < inv.size(); i++) {
+				requested.add(inv, i);
+			}
+		}
+
+		@Override
+		public PeerStatistics getStatistics() {
+			return statistics;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package sibbo.bitmessage.network.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class FrameDecoderTest {
+	private static final int MAX_LENGTH = 1 << 24;
+
+	private final MessageFactory factory = new V1MessageFactory();
+
+	@Test
+	public void testSplitAtEveryPosition() throws IOException, ParsingException {
+		byte[] frame = createInvFrame(3);
+
+		for (int split = 0; split <= frame.length; split++) {
+			FrameDecoder decoder = new FrameDecoder(factory, new BufferPool(), MAX_LENGTH);
+
+			ByteBuffer first = ByteBuffer.wrap(frame, 0, split);
+			BaseMessage m = decoder.decode(first);
+
+			if (m == null) {
+				m = decoder.decode(ByteBuffer.wrap(frame, split, frame.length - split));
+			}
+
+			assertInv(m, 3);
+		}
+	}
+
+	@Test
+	public void testSingleBytes() throws IOException, ParsingException {
+		byte[] frame = createInvFrame(5);
+		FrameDecoder decoder = new FrameDecoder(factory, new BufferPool(), MAX_LENGTH);
+		BaseMessage m = null;
+
+		for (int i = 0; i < frame.length; i++) {
+			assertNull(m);
+			m = decoder.decode(ByteBuffer.wrap(frame, i, 1));
+		}
+
+		assertInv(m, 5);
+	}
+
+	@Test
+	public void testSeveralFramesInOneBuffer() throws IOException, ParsingException {
+		byte[] a = createInvFrame(1);
+		byte[] b = createInvFrame(2);
+		ByteBuffer in = ByteBuffer.allocate(a.length + b.length);
+		in.put(a).put(b).flip();
+
+		FrameDecoder decoder = new FrameDecoder(factory, new BufferPool(), MAX_LENGTH);
+		assertInv(decoder.decode(in), 1);
+		assertInv(decoder.decode(in), 2);
+		assertEquals(0, in.remaining());
+	}
+
+	@Test
+	public void testWrongChecksumIsSkipped() throws IOException, ParsingException {
+		byte[] a = createInvFrame(1);
+		byte[] b = createInvFrame(2);
+		a[20] ^= 1;
+		ByteBuffer in = ByteBuffer.allocate(a.length + b.length);
+		in.put(a).put(b).flip();
+
+		FrameDecoder decoder = new FrameDecoder(factory, new BufferPool(), MAX_LENGTH);
+
+		try {
+			decoder.decode(in);
+			fail("The wrong checksum was not detected.");
+		} catch (ParsingException e) {
+			// Expected.
+		}
+
+		assertInv(decoder.decode(in), 2);
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongMagic() throws IOException, ParsingException {
+		byte[] frame = createInvFrame(1);
+		frame[0] = 0;
+
+		new FrameDecoder(factory, new BufferPool(), MAX_LENGTH).decode(ByteBuffer.wrap(frame));
+	}
+
+	@Test(expected = IOException.class)
+	public void testTooLong() throws IOException, ParsingException {
+		byte[] frame = createInvFrame(10);
+
+		new FrameDecoder(factory, new BufferPool(), 100).decode(ByteBuffer.wrap(frame));
+	}
+
+	@Test
+	public void testObjectHash() throws IOException, ParsingException, NoSuchAlgorithmException {
+		byte[] payload = new byte[34];
+		new Random(1).nextBytes(payload);
+		payload[12] = 2;
+		payload[13] = 1;
+
+		MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
+		byte[] hash = Arrays.copyOf(sha512.digest(sha512.digest(payload)), 32);
+		byte[] frame = createFrame("getpubkey", payload);
+
+		POWMessage m = (POWMessage) new FrameDecoder(factory, new BufferPool(), MAX_LENGTH).decode(
+				ByteBuffer.wrap(frame)).getPayload();
+		assertArrayEquals(hash, m.getHash());
+		assertSame(m.getInventoryVector(), m.getInventoryVector());
+		assertArrayEquals(hash, m.getInventoryVector().getHash());
+
+		m = (POWMessage) factory.parseBaseMessage(new ByteArrayInputStream(frame), MAX_LENGTH).getPayload();
+		assertArrayEquals(hash, m.getHash());
+	}
+
+	@Test
+	public void testObjectBytes() throws IOException, ParsingException, NoSuchAlgorithmException {
+		byte[] payload = new byte[34];
+		new Random(2).nextBytes(payload);
+		payload[12] = 2;
+		payload[13] = 1;
+		ByteBuffer in = ByteBuffer.wrap(createFrame("getpubkey", payload));
+
+		POWMessage m = (POWMessage) new FrameDecoder(factory, new BufferPool(), MAX_LENGTH).decode(in).getPayload();
+
+		// The input buffer may be reused after decoding.
+		Arrays.fill(in.array(), (byte) 0);
+		assertArrayEquals(payload, m.getBytes());
+		assertSame(m.getBytes(), m.getBytes());
+	}
+
+	@Test
+	public void testRawObject() throws IOException, ParsingException, NoSuchAlgorithmException {
+		byte[] payload = new byte[34];
+		new Random(3).nextBytes(payload);
+		payload[12] = 2;
+		payload[13] = 1;
+		byte[] frame = createFrame("getpubkey", payload);
+		POWMessage parsed = (POWMessage) new FrameDecoder(factory, new BufferPool(), MAX_LENGTH).decode(
+				ByteBuffer.wrap(frame)).getPayload();
+		ByteBuffer in = ByteBuffer.wrap(frame);
+
+		BaseMessage b = new FrameDecoder(factory, new BufferPool(), MAX_LENGTH, true).decode(in);
+		RawObject raw = b.getObject();
+		assertArrayEquals(frame, b.getBytes());
+
+		// The input buffer may be reused after decoding.
+		Arrays.fill(in.array(), (byte) 0);
+		assertNull(b.getPayload());
+		assertEquals("getpubkey", b.getCommand());
+		assertEquals("getpubkey", raw.getCommand());
+		assertArrayEquals(payload, raw.getBytes());
+		assertArrayEquals(Arrays.copyOf(payload, 8), raw.getNonce());
+		assertEquals(Util.getInt(payload, 8), raw.getTime());
+
+		POWMessage m = raw.parse();
+		assertTrue(m instanceof GetpubkeyMessage);
+		assertArrayEquals(payload, m.getBytes());
+		// The payload is not copied again.
+		assertSame(raw.getBytes(), m.getBytes());
+		assertArrayEquals(parsed.getHash(), m.getHash());
+	}
+
+	@Test
+	public void testRawObjectWrongChecksum() throws IOException, ParsingException, NoSuchAlgorithmException {
+		byte[] payload = new byte[34];
+		payload[12] = 2;
+		payload[13] = 1;
+		byte[] frame = createFrame("getpubkey", payload);
+		frame[20] ^= 1;
+
+		// The checksum is checked when the object is parsed.
+		RawObject raw = new FrameDecoder(factory, new BufferPool(), MAX_LENGTH, true).decode(ByteBuffer.wrap(frame))
+				.getObject();
+
+		try {
+			raw.parse();
+			fail("The wrong checksum was not detected.");
+		} catch (ParsingException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testRawObjectsOnly() throws IOException, ParsingException {
+		byte[] frame = createInvFrame(2);
+
+		assertInv(new FrameDecoder(factory, new BufferPool(), MAX_LENGTH, true).decode(ByteBuffer.wrap(frame)), 2);
+	}
+
+	/*
+	 * Results: (1000 inventory vectors per message, 2000 rounds) old stream
+	 * parser: 166728 bytes/message, stream parser: 133482 bytes/message, frame
+	 * decoder: 100609 bytes/message. The rest are the parsed inventory
+	 * vectors.
+	 */
+	@Ignore
+	@Test
+	public void testAllocatedBytes() throws IOException, ParsingException {
+		byte[] frame = createInvFrame(1000);
+		ByteBuffer in = ByteBuffer.wrap(frame);
+		FrameDecoder decoder = new FrameDecoder(factory, new BufferPool(), MAX_LENGTH);
+		int rounds = 2000;
+
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+
+		for (int i = 0; i < rounds; i++) {
+			factory.parseBaseMessage(new ByteArrayInputStream(frame), MAX_LENGTH);
+			in.clear();
+			decoder.decode(in);
+		}
+
+		long before = mx.getThreadAllocatedBytes(id);
+
+		for (int i = 0; i < rounds; i++) {
+			factory.parseBaseMessage(new ByteArrayInputStream(frame), MAX_LENGTH);
+		}
+
+		long stream = (mx.getThreadAllocatedBytes(id) - before) / rounds;
+		before = mx.getThreadAllocatedBytes(id);
+
+		for (int i = 0; i < rounds; i++) {
+			in.clear();
+			decoder.decode(in);
+		}
+
+		long decoded = (mx.getThreadAllocatedBytes(id) - before) / rounds;
+
+		Logger.getLogger(getClass().getName()).info(
+				"Bytes allocated per message of " + frame.length + " bytes: stream parser " + stream
+						+ ", frame decoder " + decoded);
+	}
+
+	private byte[] createInvFrame(int size) {
+		List<InventoryVectorMessage> inv = new ArrayList<>();
+
+		for (int i = 0; i < size; i++) {
+			byte[] hash = new byte[32];
+			hash[0] = (byte) i;
+			hash[1] = (byte) (i >> 8);
+			inv.add(factory.createInventoryVectorMessage(hash));
+		}
+
+		return factory.createBaseMessage(factory.createInvMessage(inv)).getBytes();
+	}
+
+	private byte[] createFrame(String command, byte[] payload) throws NoSuchAlgorithmException {
+		ByteBuffer frame = ByteBuffer.allocate(BaseMessage.HEADER_LENGTH + payload.length);
+		frame.put(new byte[] { (byte) 0xE9, (byte) 0xBE, (byte) 0xB4, (byte) 0xD9 });
+		frame.put(Arrays.copyOf(command.getBytes(StandardCharsets.US_ASCII), 12));
+		frame.putInt(payload.length);
+		frame.put(MessageDigest.getInstance("SHA-512").digest(payload), 0, 4);
+		frame.put(payload);
+
+		return frame.array();
+	}
+
+	private void assertInv(BaseMessage m, int size) {
+		assertEquals("inv", m.getCommand());
+
+		List<InventoryVectorMessage> inv = ((InvMessage) m.getPayload()).getInventoryVectors();
+		assertEquals(size, inv.size());
+
+		for (int i = 0; i < size; i++) {
+			byte[] hash = new byte[32];
+			hash[0] = (byte) i;
+			hash[1] = (byte) (i >> 8);
+			assertArrayEquals(hash, inv.get(i).getHash());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package sibbo.bitmessage.network.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class InventoryBatchTest {
+	private final MessageFactory factory = new V1MessageFactory();
+
+	@Test
+	public void testAddAndGet() {
+		List<InventoryVectorMessage> inv = createInventoryVectors(100, 1);
+		InventoryBatch b = new InventoryBatch(0);
+
+		for (InventoryVectorMessage m : inv) {
+			b.add(m.getHash(), 0);
+		}
+
+		assertEquals(inv.size(), b.size());
+		assertEquals(inv, b.toList(factory));
+		assertEquals(inv, new InventoryBatch(inv).toList(factory));
+
+		for (int i = 0; i < inv.size(); i++) {
+			assertArrayEquals(inv.get(i).getHash(), b.getHash(i));
+			assertEquals(i * InventoryBatch.HASH_LENGTH, b.offset(i));
+		}
+
+		assertEquals(inv.subList(10, 20), b.subBatch(10, 20).toList(factory));
+		assertTrue(b.subBatch(5, 5).isEmpty());
+
+		b.clear();
+		assertTrue(b.isEmpty());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testOutOfBounds() {
+		InventoryBatch b = new InventoryBatch(createInventoryVectors(2, 1));
+		b.getHash(2);
+	}
+
+	@Test
+	public void testReadAndWrite() throws IOException, ParsingException {
+		List<InventoryVectorMessage> inv = createInventoryVectors(50, 2);
+		InvMessage m = factory.createInvMessage(new InventoryBatch(inv));
+		byte[] bytes = m.getBytes();
+		assertArrayEquals(factory.createInvMessage(inv).getBytes(), bytes);
+
+		InvMessage parsed = new InvMessage(new InputBuffer(ByteBuffer.wrap(bytes)), factory);
+		assertEquals(inv, parsed.getInventoryVectors());
+		assertEquals(inv.size(), parsed.getInventory().size());
+
+		GetdataMessage getdata = factory.createGetdataMessage(parsed.getInventory());
+		assertArrayEquals(factory.createGetdataMessage(inv).getBytes(), getdata.getBytes());
+	}
+
+	private List<InventoryVectorMessage> createInventoryVectors(int count, long seed) {
+		Random r = new Random(seed);
+		List<InventoryVectorMessage> inv = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			byte[] hash = new byte[32];
+			r.nextBytes(hash);
+			inv.add(factory.createInventoryVectorMessage(hash));
+		}
+
+		return inv;
+	}
+}
@@ -0,0 +1,285 @@
+package sibbo.bitmessage.network.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import sibbo.bitmessage.Options;
+import sibbo.bitmessage.crypt.CryptManager;
+
+public class MessageSerializationTest {
+	private static final MessageFactory factory = new V1MessageFactory();
+
+	private static Map<String, Message> messages;
+
+	@BeforeClass
+	public static void setUpClass() throws IOException {
+		String trialsPerByte = Options.getInstance().getString("pow.averageNonceTrialsPerByte");
+		String extraBytes = Options.getInstance().getString("pow.payloadLengthExtraBytes");
+		Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", 1);
+		Options.getInstance().setProperty("pow.payloadLengthExtraBytes", 0);
+
+		try {
+			messages = createMessages();
+		} finally {
+			Options.getInstance().setProperty("pow.averageNonceTrialsPerByte", trialsPerByte);
+			Options.getInstance().setProperty("pow.payloadLengthExtraBytes", extraBytes);
+		}
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		messages = null;
+	}
+
+	@Test
+	public void testWrite() {
+		for (Map.Entry<String, Message> e : messages.entrySet()) {
+			Message m = e.getValue();
+			byte[] bytes = m.getBytes();
+			assertEquals(e.getKey(), bytes.length, m.getEncodedLength());
+
+			ByteBuffer out = ByteBuffer.allocate(bytes.length + 10);
+			out.position(3);
+			m.write(out);
+			assertEquals(e.getKey(), bytes.length + 3, out.position());
+			assertArrayEquals(e.getKey(), bytes, Arrays.copyOfRange(out.array(), 3, 3 + bytes.length));
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException, ParsingException {
+		for (Message m : messages.values()) {
+			if (m instanceof P2PMessage) {
+				P2PMessage p = (P2PMessage) m;
+				byte[] bytes = p.getBytes();
+				P2PMessage parsed = factory.parseP2PMessage(p.getCommand(), new InputBuffer(ByteBuffer.wrap(bytes)));
+
+				assertArrayEquals(p.getCommand(), bytes, parsed.getBytes());
+			}
+		}
+
+		BaseMessage b = factory.createBaseMessage((P2PMessage) messages.get("version"));
+		byte[] bytes = b.getBytes();
+		assertEquals(bytes.length, b.getEncodedLength());
+
+		ByteBuffer out = ByteBuffer.allocateDirect(bytes.length);
+		b.write(out);
+		out.flip();
+		byte[] written = new byte[bytes.length];
+		out.get(written);
+		assertArrayEquals(bytes, written);
+	}
+
+	@Test
+	public void testVariableLengthInteger() throws IOException, ParsingException {
+		long[] values = { 0, 1, 0xFC, 0xFD, 0xFFFE, 0xFFFF, 0x1_0000, 0xFFFF_FFFEL, 0xFFFF_FFFFL, Long.MAX_VALUE, -1 };
+		int[] lengths = { 1, 1, 1, 3, 3, 5, 5, 5, 9, 9, 9 };
+
+		ByteBuffer all = ByteBuffer.allocate(100);
+
+		for (int i = 0; i < values.length; i++) {
+			VariableLengthIntegerMessage v = factory.createVariableLengthIntegerMessage(values[i]);
+			assertEquals(lengths[i], VariableLengthIntegerMessage.getLength(values[i]));
+			assertEquals(lengths[i], v.getBytes().length);
+			assertEquals(values[i], new VariableLengthIntegerMessage(new InputBuffer(ByteBuffer.wrap(v.getBytes())),
+					factory).getLong());
+			VariableLengthIntegerMessage.write(values[i], all);
+		}
+
+		all.flip();
+		byte[] bytes = Arrays.copyOf(all.array(), all.limit());
+		InputBuffer stream = new InputBuffer(new ByteArrayInputStream(bytes), 3, bytes.length);
+		int offset = 0;
+
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(values[i], VariableLengthIntegerMessage.read(all));
+			assertEquals(values[i], stream.getVarInt(offset));
+			offset += lengths[i];
+		}
+
+		assertEquals(0, all.remaining());
+	}
+
+	/*
+	 * Results: (single core, allocated bytes and time per message, getBytes
+	 * with nested streams -> getBytes -> write into a reused buffer)
+	 * addr(1000): 321304B 95us -> 62080B 37us -> 28000B 29us (InetAddress
+	 * copies its address). inv(1000): 97752B 22us -> 32080B 11us -> 0B 8us.
+	 * version: 1494B 2.8us -> 224B 0.4us -> 56B 0.25us. encrypted: 920B 1.2us
+	 * -> 904B 0.9us -> 200B 1.0us (BigInteger). varint list: 512B 762ns ->
+	 * 96B 374ns -> 0B 307ns. mail: 224-808B 0.6us -> 88-376B 40-80ns -> 0B
+	 * 15-40ns. Objects keep their encoding, so they write a single array.
+	 */
+	@Ignore
+	@Test
+	public void testDuration() {
+		int rounds = 20_000;
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		ByteBuffer out = ByteBuffer.allocate(1 << 20);
+		Logger log = Logger.getLogger(getClass().getName());
+
+		for (Map.Entry<String, Message> e : messages.entrySet()) {
+			Message m = e.getValue();
+
+			for (int i = 0; i < rounds; i++) {
+				m.getBytes();
+				out.clear();
+				m.write(out);
+			}
+
+			long before = mx.getThreadAllocatedBytes(id);
+			long start = System.nanoTime();
+
+			for (int i = 0; i < rounds; i++) {
+				m.getBytes();
+			}
+
+			long time = System.nanoTime() - start;
+			long bytes = mx.getThreadAllocatedBytes(id) - before;
+			before = mx.getThreadAllocatedBytes(id);
+			start = System.nanoTime();
+
+			for (int i = 0; i < rounds; i++) {
+				out.clear();
+				m.write(out);
+			}
+
+			long writeTime = System.nanoTime() - start;
+			long writeBytes = mx.getThreadAllocatedBytes(id) - before;
+
+			log.info(e.getKey() + ": getBytes " + (bytes / rounds) + " bytes, " + (time / rounds) + "ns, write "
+					+ (writeBytes / rounds) + " bytes, " + (writeTime / rounds) + "ns");
+		}
+	}
+
+	/*
+	 * Results: (single core, allocated bytes and time per parse, before ->
+	 * after the primitive codecs) addr(1000): 304232B 129us -> 212184B 114us.
+	 * inv(1000): 100232B 44us -> 100184B 34-44us, the rest is one object per
+	 * vector -> 32216B 12us with an InventoryBatch (a single array). version:
+	 * 1648B 8.9us -> 960B 1.6us. msg: 4328B -> 4160B.
+	 */
+	@Ignore
+	@Test
+	public void testParseDuration() throws IOException, ParsingException {
+		int rounds = 2_000;
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		Logger log = Logger.getLogger(getClass().getName());
+
+		for (String command : new String[] { "addr", "inv", "version", "msg" }) {
+			P2PMessage m = (P2PMessage) messages.get(command);
+			ByteBuffer bytes = ByteBuffer.wrap(m.getBytes());
+
+			for (int i = 0; i < rounds; i++) {
+				factory.parseP2PMessage(command, new InputBuffer(bytes));
+			}
+
+			long before = mx.getThreadAllocatedBytes(id);
+			long start = System.nanoTime();
+
+			for (int i = 0; i < rounds; i++) {
+				factory.parseP2PMessage(command, new InputBuffer(bytes));
+			}
+
+			long time = System.nanoTime() - start;
+			long allocated = mx.getThreadAllocatedBytes(id) - before;
+
+			log.info(command + ": " + (allocated / rounds) + " bytes, " + (time / rounds) + "ns");
+		}
+	}
+
+	/**
+	 * Creates one message of every type that can be created without a
+	 * signature.
+	 */
+	private static Map<String, Message> createMessages() throws IOException {
+		Random r = new Random(1);
+		Map<String, Message> messages = new LinkedHashMap<>();
+		NodeServicesMessage services = factory.createNodeServicesMessage(NodeServicesMessage.NODE_NETWORK);
+		InetAddress v4 = InetAddress.getByName("10.1.2.3");
+		InetAddress v6 = InetAddress.getByName("2001:db8::1");
+
+		List<NetworkAddressMessage> addresses = new ArrayList<>();
+
+		for (int i = 0; i < 1000; i++) {
+			addresses.add(new NetworkAddressMessage(r.nextInt(), 1, services, i % 2 == 0 ? v4 : v6, 1 + i, factory));
+		}
+
+		List<InventoryVectorMessage> inv = new ArrayList<>();
+
+		for (int i = 0; i < 1000; i++) {
+			inv.add(factory.createInventoryVectorMessage(random(r, 32)));
+		}
+
+		ECPoint g = ECNamedCurveTable.getParameterSpec("secp256k1").getG();
+		ECPoint p = g.multiply(new BigInteger(256, r));
+		ECPublicKey key = CryptManager.getInstance().createPublicEncryptionKey(p.getX().toBigInteger(),
+				p.getY().toBigInteger());
+		EncryptedMessage encrypted = factory.createEncryptedMessage(random(r, 16), key, random(r, 512),
+				random(r, 32));
+		BehaviorMessage behavior = new BehaviorMessage(factory, BehaviorMessage.DOES_ACK);
+
+		messages.put("addr", factory.createAddrMessage(addresses));
+		messages.put("behavior", behavior);
+		messages.put("encrypted", encrypted);
+		messages.put("getdata", factory.createGetdataMessage(inv));
+		messages.put("inv", factory.createInvMessage(inv));
+		messages.put("inventoryVector", inv.get(0));
+		messages.put("mail ignore", new MailMessage(MessageEncoding.IGNORE, random(r, 300), null, null, factory));
+		messages.put("mail trivial", new MailMessage(MessageEncoding.TRIVIAL, null, null, "Content", factory));
+		messages.put("mail simple", new MailMessage(MessageEncoding.SIMPLE, null, "Subject", "Content", factory));
+		messages.put("networkAddress", addresses.get(1));
+		messages.put("nodeServices", services);
+		messages.put("simpleNetworkAddress", factory.createSimpleNetworkAddressMessage(services, v4, 8443));
+		messages.put("variableLengthInteger", factory.createVariableLengthIntegerMessage(0x1_0000));
+		messages.put("variableLengthIntegerList", factory.createVariableLengthIntegerListMessage(new long[] { 1, 2,
+				0xFFFF, 0x1_0000_0000L }));
+		messages.put("variableLengthString", factory.createVariableLengthStringMessage("Bitmessage äö"));
+		messages.put("verack", factory.createVerackMessage());
+		messages.put("version", factory.createVersionMessage(services, 1_400_000_000L,
+				factory.createSimpleNetworkAddressMessage(services, v4, 8443),
+				factory.createSimpleNetworkAddressMessage(services, v6, 8444), 42, "/test:1.0/", new long[] { 1 }));
+
+		GetpubkeyMessage getpubkey = new GetpubkeyMessage(2, 1, random(r, 20), factory);
+		PubkeyMessage pubkey = new PubkeyMessage(2, 1, behavior, random(r, 64), random(r, 64), factory);
+		MsgMessage msg = new MsgMessage(1, encrypted, factory);
+
+		for (POWMessage m : new POWMessage[] { getpubkey, pubkey, msg }) {
+			m.doPOW();
+			messages.put(m.getCommand(), m);
+		}
+
+		return messages;
+	}
+
+	private static byte[] random(Random r, int length) {
+		byte[] b = new byte[length];
+		r.nextBytes(b);
+
+		return b;
+	}
+}
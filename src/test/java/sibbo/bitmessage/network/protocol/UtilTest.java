@@ -1,7 +1,12 @@
 package sibbo.bitmessage.network.protocol;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import org.bouncycastle.jce.provider.JCEECPublicKey;
 import org.junit.Test;
 
@@ -14,4 +19,31 @@ public class UtilTest {
 
 		assertEquals("The keys don't match.", key, Util.getPublicKey(Util.getBytes(key)));
 	}
+
+	@Test
+	public void testPrimitives() throws IOException {
+		byte[] b = new byte[15];
+		Util.putShort((short) 0xFEDC, b, 1);
+		Util.putInt(0x89AB_CDEF, b, 3);
+		Util.putLong(0x0123_4567_89AB_CDEFL, b, 7);
+
+		ByteBuffer expected = ByteBuffer.allocate(15);
+		expected.position(1);
+		expected.putShort((short) 0xFEDC).putInt(0x89AB_CDEF).putLong(0x0123_4567_89AB_CDEFL);
+		assertArrayEquals(expected.array(), b);
+
+		assertArrayEquals(Util.getBytes((short) 0xFEDC), new byte[] { b[1], b[2] });
+		assertEquals((short) 0xFEDC, Util.getShort(b, 1));
+		assertEquals(0x89AB_CDEF, Util.getInt(b, 3));
+		assertEquals(0x0123_4567_89AB_CDEFL, Util.getLong(b, 7));
+
+		// Both kinds of input buffer, the stream one reads across chunks.
+		for (InputBuffer in : new InputBuffer[] { new InputBuffer(ByteBuffer.wrap(b)),
+				new InputBuffer(new ByteArrayInputStream(b), 4, b.length) }) {
+			InputBuffer sub = in.getSubBuffer(1);
+			assertEquals((short) 0xFEDC, sub.getShort(0));
+			assertEquals(0x89AB_CDEF, sub.getInt(2));
+			assertEquals(0x0123_4567_89AB_CDEFL, sub.getLong(6));
+		}
+	}
 }